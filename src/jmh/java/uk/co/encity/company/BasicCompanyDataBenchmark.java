@@ -0,0 +1,83 @@
+package uk.co.encity.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures importing the Companies House bulk data (a generated file in the same format) into a
+ * {@link CompanyDataIndex}, and looking a company up in the index.  Each import logs its throughput (rows per
+ * second) and the size of the index per million companies.
+ */
+@Fork(value = 1, jvmArgs = "-Xmx512m")
+public class BasicCompanyDataBenchmark {
+
+    /**
+     * A generated bulk data file, and the index imported from it
+     */
+    @State(Scope.Benchmark)
+    public static class BulkData {
+
+        @Param({ "1000000" })
+        int companies;
+
+        Path dir;
+        Path zip;
+        Path index;
+        CompanyDataIndex opened;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            this.dir = Files.createTempDirectory("bulk-data");
+            this.zip = this.dir.resolve("BasicCompanyDataAsOneFile-2021-01-01.zip");
+            this.index = this.dir.resolve("companies.idx");
+            BasicCompanyDataFixture.write(this.zip, this.companies);
+
+            BasicCompanyDataImporter.Result result = new BasicCompanyDataImporter().importFrom(this.zip, this.index);
+            System.out.println("\nImported " + result);
+            this.opened = CompanyDataIndex.open(this.index);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(this.zip);
+            Files.deleteIfExists(this.index);
+            Files.deleteIfExists(this.dir);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public BasicCompanyDataImporter.Result importBulkData(BulkData data) throws IOException {
+        return new BasicCompanyDataImporter().importFrom(data.zip, data.index);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public CompanyResponse lookup(BulkData data) throws IOException {
+        int i = ThreadLocalRandom.current().nextInt(data.companies);
+        return data.opened.get(BasicCompanyDataFixture.companyNumber(i));
+    }
+}
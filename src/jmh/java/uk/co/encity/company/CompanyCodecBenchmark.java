@@ -0,0 +1,53 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares building an {@link ObjectMapper} for every Companies House response (as the Responder used to) with
+ * re-using the single mapper held by {@link CompanyCodec}.  Run with <code>-prof gc</code> to see the
+ * allocation rate of each approach.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompanyCodecBenchmark {
+
+    private String body;
+    private CompanyCodec codec;
+
+    @Setup
+    public void setup() throws IOException {
+        this.body = new String(Fixtures.read("typical"), StandardCharsets.UTF_8);
+        this.codec = new CompanyCodec();
+    }
+
+    @Benchmark
+    public CompanyResponse perRequestMapper() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        SimpleModule module = new SimpleModule();
+        module.addDeserializer(CompanyResponse.class, new CompanyResponseDeserializer());
+        mapper.registerModule(module);
+
+        return mapper.readValue(this.body, CompanyResponse.class);
+    }
+
+    @Benchmark
+    public CompanyResponse sharedMapper() throws IOException {
+        return this.codec.getObjectMapper().readValue(this.body, CompanyResponse.class);
+    }
+}
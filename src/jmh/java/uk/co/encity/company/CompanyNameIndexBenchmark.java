@@ -0,0 +1,122 @@
+package uk.co.encity.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures searching a {@link CompanyNameIndex} of generated company names, at the size of a large part of the
+ * register and of the whole of it.  Sampling gives the distribution of latencies (including the p99), and the heap
+ * taken by the index is printed when it has been built.
+ */
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class CompanyNameIndexBenchmark {
+
+    private static final String[] SUFFIXES = { "LIMITED", "LTD", "LIMITED", "PLC", "LLP", "HOLDINGS LIMITED",
+        "SERVICES LTD", "UK LIMITED", "GROUP LIMITED", "(UK) LTD" };
+    private static final String[] STATUSES = { "active", "active", "active", "active", "dissolved", "liquidation" };
+
+    @Param({ "1000000", "5000000" })
+    int companies;
+
+    private CompanyNameIndex index;
+    private String[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        String[] words = words(random, 20_000);
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+
+        long start = System.nanoTime();
+        CompanyNameTable.Builder builder = new CompanyNameTable.Builder(this.companies);
+        String[] names = new String[10_000];
+        for (int i = 0; i < this.companies; i++) {
+            String name = name(random, words);
+            if (i < names.length) {
+                names[i] = name;
+            }
+            builder.add(7 * i, name, STATUSES[i % STATUSES.length]);
+        }
+        CompanyNameTable table = builder.build();
+        long built = System.nanoTime() - start;
+
+        this.index = new CompanyNameIndex(100_000, 100_000);
+        this.index.rebuild(table);
+        System.gc();
+        long after = memory.getHeapMemoryUsage().getUsed();
+        System.out.println("\nIndexed " + this.companies + " names in " + TimeUnit.NANOSECONDS.toMillis(built)
+            + "ms: " + (table.heapBytes() >> 20) + "MB in arrays, " + ((after - before) >> 20) + "MB of heap");
+
+        // Queries like a user's: the start of a word in a name, sometimes followed by the start of the next word
+        this.queries = new String[4096];
+        for (int i = 0; i < this.queries.length; i++) {
+            String[] parts = names[random.nextInt(names.length)].split(" ");
+            int w = random.nextInt(Math.max(1, parts.length - 1));
+            String query = parts[w].substring(0, Math.min(parts[w].length(), 2 + random.nextInt(6)));
+            if (random.nextInt(3) == 0 && w + 1 < parts.length) {
+                query = parts[w] + " " + parts[w + 1].substring(0, Math.min(parts[w + 1].length(), 1 + random.nextInt(3)));
+            }
+            this.queries[i] = query;
+        }
+    }
+
+    @Benchmark
+    public List<CompanyNameIndex.Match> search() {
+        return this.index.search(this.queries[this.next++ & (this.queries.length - 1)], 20);
+    }
+
+    /**
+     * @return made up words, in which a few letters are much more common than others (as in real names)
+     */
+    private static String[] words(Random random, int count) {
+        String consonants = "BCDFGHKLMNPRSTVWBDLMNRST";
+        String vowels = "AEIOUAEIOY";
+        String[] words = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int syllables = 1 + random.nextInt(3); syllables > 0; syllables--) {
+                word.append(consonants.charAt(random.nextInt(consonants.length())))
+                    .append(vowels.charAt(random.nextInt(vowels.length())));
+            }
+            words[i] = word.toString();
+        }
+        return words;
+    }
+
+    /**
+     * @return a name of one to three words (chosen with a skew towards common ones) and a suffix
+     */
+    private static String name(Random random, String[] words) {
+        StringBuilder name = new StringBuilder();
+        for (int n = 1 + random.nextInt(3); n > 0; n--) {
+            double r = random.nextDouble();
+            name.append(words[(int) (r * r * words.length)]).append(' ');
+        }
+        return name.append(SUFFIXES[random.nextInt(SUFFIXES.length)]).toString();
+    }
+}
@@ -0,0 +1,61 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the token-streaming {@link CompanyResponseDeserializer} with the original tree-based one.  Run
+ * with <code>-prof gc</code> to see the allocation per document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompanyResponseDeserializerBenchmark {
+
+    @Param({ "small", "typical", "large" })
+    private String payload;
+
+    private byte[] body;
+    private ObjectMapper streaming;
+    private ObjectMapper tree;
+
+    @Setup
+    public void setup() throws IOException {
+        this.body = Fixtures.read(this.payload);
+
+        SimpleModule streamingModule = new SimpleModule();
+        streamingModule.addDeserializer(CompanyResponse.class, new CompanyResponseDeserializer());
+        this.streaming = new ObjectMapper().registerModule(streamingModule);
+
+        SimpleModule treeModule = new SimpleModule();
+        treeModule.addDeserializer(CompanyResponse.class, new TreeCompanyResponseDeserializer());
+        this.tree = new ObjectMapper().registerModule(treeModule);
+    }
+
+    @Benchmark
+    public CompanyResponse streaming() throws IOException {
+        return this.streaming.readValue(this.body, CompanyResponse.class);
+    }
+
+    @Benchmark
+    public CompanyResponse tree() throws IOException {
+        return this.tree.readValue(this.body, CompanyResponse.class);
+    }
+}
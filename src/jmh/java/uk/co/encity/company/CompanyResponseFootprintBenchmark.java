@@ -0,0 +1,93 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the heap taken by each company held in a {@link CompanyProfileCache}, which decides how many profiles
+ * the cache can hold in a given heap.  Half a million profiles are decoded from variations of the typical payload
+ * (so that, as in production, each has its own strings), and the heap they take is printed, both on their own
+ * and once they are cached.
+ *
+ * The benchmark itself measures serving a cached profile: getting it from the cache and serializing it.
+ */
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class CompanyResponseFootprintBenchmark {
+
+    private static final int COMPANIES = 500_000;
+
+    private ObjectMapper mapper;
+    private CompanyProfileCache cache;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.mapper = new CompanyCodec().getObjectMapper();
+        String typical = new String(Fixtures.read("typical"), StandardCharsets.UTF_8);
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+
+        CompanyResponse[] profiles = new CompanyResponse[COMPANIES];
+        for (int i = 0; i < COMPANIES; i++) {
+            String payload = typical
+                .replace("ENCITY TEST SERVICES LIMITED", "ENCITY TEST " + i + " LIMITED")
+                .replace("09876543", companyNumber(i))
+                .replace("6c7f4a4d6d0b1b1b2b4f6d3a7e1b9c0a", String.format("%032x", i));
+            profiles[i] = this.mapper.readValue(payload, CompanyResponse.class);
+        }
+
+        System.gc();
+        long decoded = memory.getHeapMemoryUsage().getUsed();
+
+        this.cache = new CompanyProfileCache(Duration.ofDays(1), Duration.ofDays(1), Duration.ofMinutes(5), COMPANIES,
+            Ticker.systemTicker());
+        for (int i = 0; i < COMPANIES; i++) {
+            CompanyResponse profile = profiles[i];
+            this.cache.get(companyNumber(i), n -> Mono.just(profile)).block();
+        }
+        profiles = null;
+
+        System.gc();
+        long cached = memory.getHeapMemoryUsage().getUsed();
+        System.out.println("\n" + COMPANIES + " profiles take " + (decoded - before) / COMPANIES
+            + " bytes each, and " + (cached - before) / COMPANIES + " bytes each once cached");
+    }
+
+    @Benchmark
+    public byte[] serveCached() throws IOException {
+        int i = this.next;
+        this.next = (i + 7919) % COMPANIES;
+        CompanyResponse profile = this.cache.get(companyNumber(i), n -> Mono.empty()).block();
+        return this.mapper.writeValueAsBytes(profile);
+    }
+
+    private static String companyNumber(int i) {
+        return String.format("%08d", i);
+    }
+}
@@ -0,0 +1,72 @@
+package uk.co.encity.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link CompanyResponseSerializer}, both on its own (writing to a byte array) and as WebFlux uses it
+ * (encoding to a {@link DataBuffer} through the shared encoder), and writing just the fields that a client selected
+ * (<code>?fields=accounts,companyStatus</code>).  Run with <code>-prof gc</code> to see the allocation per
+ * response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompanyResponseSerializerBenchmark {
+
+    private static final ResolvableType TYPE = ResolvableType.forClass(CompanyResponse.class);
+
+    @Param({ "small", "typical", "large" })
+    private String payload;
+
+    private CompanyCodec codec;
+    private CompanyResponse response;
+    private CompanyResponseSelection selection;
+
+    @Setup
+    public void setup() throws IOException {
+        this.codec = new CompanyCodec();
+        this.response = this.codec.getObjectMapper().readValue(Fixtures.read(this.payload), CompanyResponse.class);
+        this.selection = new CompanyResponseSelection(this.response,
+            CompanyResponseSerializer.fields("accounts,companyStatus"));
+    }
+
+    @Benchmark
+    public byte[] toBytes() throws IOException {
+        return this.codec.getObjectMapper().writeValueAsBytes(this.response);
+    }
+
+    @Benchmark
+    public byte[] selectedFieldsToBytes() throws IOException {
+        return this.codec.getObjectMapper().writeValueAsBytes(this.selection);
+    }
+
+    @Benchmark
+    public int toDataBuffer() {
+        DataBuffer buffer = this.codec.getEncoder().encodeValue(this.response, DefaultDataBufferFactory.sharedInstance,
+            TYPE, MediaType.APPLICATION_JSON, null);
+        int length = buffer.readableByteCount();
+        DataBufferUtils.release(buffer);
+        return length;
+    }
+}
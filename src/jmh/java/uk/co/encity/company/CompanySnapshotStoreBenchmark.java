@@ -0,0 +1,128 @@
+package uk.co.encity.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link CompanySnapshotStore}: how long a restarted instance takes to load its index (warm start),
+ * and how long a lookup takes, compared with fetching and decoding the same profile from a local stand-in for
+ * Companies House (which flatters the network path, since there is no real network in between).
+ */
+@Fork(1)
+public class CompanySnapshotStoreBenchmark {
+
+    /**
+     * A log of saved profiles, written once per trial
+     */
+    @State(Scope.Benchmark)
+    public static class SavedProfiles {
+
+        @Param({ "10000", "100000" })
+        int companies;
+
+        Path file;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            this.file = Files.createTempFile("snapshots", ".log");
+            Files.delete(this.file);
+
+            CompanyResponse response = new CompanyCodec().getObjectMapper()
+                .readValue(Fixtures.read("typical"), CompanyResponse.class);
+            CompanySnapshotStore store = new CompanySnapshotStore(this.file, Duration.ofDays(30), System::currentTimeMillis);
+            for (int i = 0; i < this.companies; i++) {
+                store.put(companyNumber(i), response);
+            }
+            store.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(this.file);
+        }
+    }
+
+    /**
+     * An open store over the saved profiles, and a WebClient for the local Companies House stand-in
+     */
+    @State(Scope.Benchmark)
+    public static class Lookups {
+        CompanySnapshotStore store;
+        CompaniesHouseStub stub;
+        WebClient webClient;
+
+        @Setup(Level.Trial)
+        public void setup(SavedProfiles saved) throws IOException {
+            this.store = new CompanySnapshotStore(saved.file, Duration.ofDays(30), System::currentTimeMillis);
+            this.store.flush();
+
+            this.stub = new CompaniesHouseStub();
+            this.webClient = CompaniesHouseClientConfig
+                .webClientBuilder(this.stub.url(), "key", new CompanyCodec(), new ReactorClientHttpConnector())
+                .build();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.store.close();
+            this.stub.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public int warmStart(SavedProfiles saved) {
+        CompanySnapshotStore store = new CompanySnapshotStore(saved.file, Duration.ofDays(30), System::currentTimeMillis);
+        store.flush();
+        int size = store.size();
+        store.close();
+        return size;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public CompanySnapshotStore.Snapshot snapshotLookup(SavedProfiles saved, Lookups lookups) {
+        String n = companyNumber(ThreadLocalRandom.current().nextInt(saved.companies));
+        return lookups.store.get(n).block();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public CompanyResponse networkLookup(SavedProfiles saved, Lookups lookups) {
+        String n = companyNumber(ThreadLocalRandom.current().nextInt(saved.companies));
+        return lookups.webClient.get().uri("/company/" + n).retrieve().bodyToMono(CompanyResponse.class).block();
+    }
+
+    private static String companyNumber(int i) {
+        return String.format("%08d", i);
+    }
+}
@@ -0,0 +1,99 @@
+package uk.co.encity.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Mono;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the cost of a tick of a {@link DeadlineTracker} that tracks a million companies (in a hundred
+ * watchlists of ten thousand), whose deadlines are spread over the next two years.
+ *
+ * <ul>
+ *     <li><code>dailyTick</code> is the first tick of each day, which evaluates the companies whose deadlines
+ *     became upcoming or overdue that day (a few thousand of them).  Each measurement is one tick, a day after
+ *     the one before.</li>
+ *     <li><code>idleTick</code> is every other tick of the day, when nothing has become due</li>
+ * </ul>
+ *
+ * The heap taken by the tracker is printed when it has been filled.
+ */
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class DeadlineTrackerBenchmark {
+
+    private static final int COMPANIES = 1_000_000;
+    private static final int WATCHLIST_SIZE = 10_000;
+
+    private final AtomicLong millis =
+        new AtomicLong(LocalDate.of(2021, 1, 1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli());
+    private DeadlineTracker tracker;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+
+        long start = System.nanoTime();
+        this.tracker = new DeadlineTracker(n -> Mono.empty(), this.millis::get, Duration.ofDays(30),
+            Duration.ofMinutes(1), 20, Duration.ofDays(7));
+        for (int w = 0; w < COMPANIES / WATCHLIST_SIZE; w++) {
+            List<String> companyNumbers = new ArrayList<>(WATCHLIST_SIZE);
+            for (int i = 0; i < WATCHLIST_SIZE; i++) {
+                companyNumbers.add(CompanyNumbers.unpack(w * WATCHLIST_SIZE + i + 1));
+            }
+            this.tracker.watch("benchmark", "watchlist-" + w, companyNumbers);
+        }
+
+        Random random = new Random(42);
+        LocalDate today = LocalDate.of(2021, 1, 1);
+        for (int n = 1; n <= COMPANIES; n++) {
+            this.tracker.update(n, today.plusDays(random.nextInt(730)), false, today.plusDays(random.nextInt(365)),
+                false);
+        }
+        long filled = System.nanoTime() - start;
+
+        System.gc();
+        long after = memory.getHeapMemoryUsage().getUsed();
+        System.out.println("\nTracked " + this.tracker.size() + " companies in " + TimeUnit.NANOSECONDS.toMillis(filled)
+            + "ms, taking " + ((after - before) >> 20) + "MB of heap");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 30)
+    @Measurement(iterations = 300)
+    public int dailyTick() {
+        this.millis.addAndGet(Duration.ofDays(1).toMillis());
+        return this.tracker.evaluate();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public int idleTick() {
+        return this.tracker.evaluate();
+    }
+}
@@ -0,0 +1,26 @@
+package uk.co.encity.company;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads the recorded Companies House payloads in <code>src/test/resources/payloads</code>, so that the benchmarks
+ * can run offline.  The benchmarks that take a payload parameter use the names of these files.
+ */
+final class Fixtures {
+
+    private Fixtures() {}
+
+    /**
+     * @param payload the name of a payload, e.g. <code>small</code>, <code>typical</code> or <code>large</code>
+     * @return the payload, as received from Companies House
+     */
+    static byte[] read(String payload) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/payloads/" + payload + ".json")) {
+            if (in == null) {
+                throw new IOException("No such payload: " + payload);
+            }
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package uk.co.encity.company;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import reactor.core.publisher.Flux;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding an access token, as Spring Security does for every request: verifying its signature every time
+ * (as the decoder that {@link CachingJwtDecoder} replaced did), compared with a token that the
+ * {@link CachingJwtDecoder} has already verified.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtDecoderBenchmark {
+
+    private static final String ISSUER = "https://issuer.example/";
+
+    private String token;
+    private ReactiveJwtDecoder verifyEveryTime;
+    private ReactiveJwtDecoder caching;
+
+    @Setup
+    public void setup() throws JOSEException {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("k1").generate();
+        JWKSet keys = new JWKSet(key.toPublicJWK());
+
+        SignedJWT jwt = new SignedJWT(
+            new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+            new JWTClaimsSet.Builder()
+                .issuer(ISSUER)
+                .subject("someone")
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plus(Duration.ofHours(1))))
+                .build());
+        jwt.sign(new RSASSASigner(key));
+        this.token = jwt.serialize();
+
+        this.verifyEveryTime = NimbusReactiveJwtDecoder.withJwkSource(
+            t -> Flux.fromIterable(new JWKSelector(JWKMatcher.forJWSHeader(t.getHeader())).select(keys))).build();
+        this.caching = new CachingJwtDecoder(
+            t -> Flux.fromIterable(new JWKSelector(JWKMatcher.forJWSHeader(t.getHeader())).select(keys)),
+            ISSUER, 10_000, Clock.systemUTC());
+        this.caching.decode(this.token).block();
+    }
+
+    @Benchmark
+    public Jwt verifyEveryTime() {
+        return this.verifyEveryTime.decode(this.token).block();
+    }
+
+    @Benchmark
+    public Jwt cached() {
+        return this.caching.decode(this.token).block();
+    }
+}
@@ -0,0 +1,92 @@
+package uk.co.encity.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.EncoderHttpMessageWriter;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing a cached profile to a client's response, as WebFlux does for a cache hit: serializing it with
+ * Jackson on every hit (the default), compared with writing the JSON kept by a {@link PreSerializedWriter}, and
+ * the gzipped JSON for a client that accepts it.  The average time is the CPU per response (on one thread), and
+ * its reciprocal the throughput; run with <code>-prof gc</code> to see the allocation per response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PreSerializedWriterBenchmark {
+
+    private static final ResolvableType TYPE = ResolvableType.forClass(CompanyResponse.class);
+
+    @Param({ "small", "typical", "large" })
+    private String payload;
+
+    private CompanyResponse response;
+    private HttpMessageWriter<Object> jackson;
+    private HttpMessageWriter<CompanyResponse> preSerialized;
+    private MockServerHttpRequest request;
+    private MockServerHttpRequest gzipRequest;
+
+    @Setup
+    public void setup() throws IOException {
+        CompanyCodec codec = new CompanyCodec();
+        this.response = codec.getObjectMapper().readValue(Fixtures.read(this.payload), CompanyResponse.class);
+        this.jackson = new EncoderHttpMessageWriter<>(codec.getEncoder());
+        this.preSerialized = new PreSerializedWriter(codec.getObjectMapper());
+        this.request = MockServerHttpRequest.get("/companies/00000001").build();
+        this.gzipRequest = MockServerHttpRequest.get("/companies/00000001")
+            .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate, br").build();
+    }
+
+    @Benchmark
+    public MockServerHttpResponse serializeOnEveryHit() {
+        return this.write(this.jackson, this.request, false);
+    }
+
+    @Benchmark
+    public MockServerHttpResponse preSerialized() {
+        return this.write(this.preSerialized, this.request, false);
+    }
+
+    @Benchmark
+    public MockServerHttpResponse preSerializedGzip() {
+        return this.write(this.preSerialized, this.gzipRequest, true);
+    }
+
+    /**
+     * Write the profile, as gzipped JSON if the controller would have chosen it (see
+     * {@link CompanyController.Responder#encode})
+     */
+    private MockServerHttpResponse write(HttpMessageWriter<? super CompanyResponse> writer,
+                                         MockServerHttpRequest request, boolean gzipped) {
+        MockServerHttpResponse response = new MockServerHttpResponse();
+        if (gzipped) {
+            response.getHeaders().set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        writer.write(Mono.just(this.response), TYPE, TYPE, MediaType.APPLICATION_JSON, request, response,
+            Collections.emptyMap()).block();
+        return response;
+    }
+}
@@ -0,0 +1,69 @@
+package uk.co.encity.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the whole of {@link CompanyController.Responder#makeResponse(ClientResponse)}: decoding a Companies
+ * House response body (held in memory, so no network is involved) with the shared codec, and building the
+ * response entity for our client.  Run with <code>-prof gc</code> to see the allocation per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponderBenchmark {
+
+    private static final String BASE_URL = "http://localhost:3001";
+    private static final CacheControl CACHE_CONTROL = CacheControl.maxAge(Duration.ofMinutes(5)).cachePrivate();
+
+    @Param({ "small", "typical", "large" })
+    private String payload;
+
+    private byte[] body;
+    private ExchangeStrategies strategies;
+
+    @Setup
+    public void setup() throws IOException {
+        this.body = Fixtures.read(this.payload);
+
+        CompanyCodec codec = new CompanyCodec();
+        this.strategies = ExchangeStrategies.builder().codecs(codec::customize).build();
+    }
+
+    @Benchmark
+    public ResponseEntity<CompanyResponse> makeResponse() {
+        ClientResponse clientResponse = ClientResponse.create(HttpStatus.OK, this.strategies)
+            .header(HttpHeaders.CONTENT_TYPE, "text/json")
+            .body(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(this.body)))
+            .build();
+
+        CompanyController.Responder responder =
+            new CompanyController.Responder(UriComponentsBuilder.fromHttpUrl(BASE_URL), "00000001", CACHE_CONTROL);
+        return responder.makeResponse(clientResponse).block();
+    }
+}
@@ -0,0 +1,119 @@
+package uk.co.encity.company;
+
+import io.lettuce.core.RedisURI;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Measures how many calls to Companies House a fleet of instances makes, as the number of instances (replicas)
+ * grows, with and without a shared cache (a local {@link RedisStub}) behind their in-memory caches.
+ *
+ * Each operation starts every instance with an empty cache, and sends a thousand requests, round-robin across
+ * the instances, for companies drawn from a skewed (Zipf-like) distribution over a few thousand.  The
+ * <code>upstreamCalls</code> counter is the number of those requests that reached Companies House, summed over
+ * the measurement iterations (so divide it by their number for the calls per thousand requests); without the
+ * shared cache it grows with the number of instances, and with it it stays about the same.  The time is that of
+ * the whole thousand requests, including the round trips to the shared cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class SharedCompanyCacheBenchmark {
+
+    private static final int REQUESTS = 1000;
+    private static final int COMPANIES = 5000;
+
+    @Param({ "1", "2", "4", "8" })
+    private int replicas;
+
+    @Param({ "false", "true" })
+    private boolean shared;
+
+    private RedisStub redis;
+    private final List<RedisCompanyCache> sharedCaches = new ArrayList<>();
+    private final CompanyResponse profile = new CompanyResponse("active", "ENCITY TEST LIMITED", null, null, null, null);
+    private List<CompanyProfileCache> instances;
+    private String[] requests;
+
+    @Setup(Level.Trial)
+    public void connect() throws IOException {
+        this.redis = new RedisStub();
+        if (this.shared) {
+            for (int i = 0; i < this.replicas; i++) {
+                this.sharedCaches.add(new RedisCompanyCache(RedisURI.create(this.redis.uri()), Duration.ofDays(2),
+                    Duration.ofSeconds(1), System::currentTimeMillis, new SimpleMeterRegistry()));
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void start() {
+        this.redis.flush();
+        this.instances = new ArrayList<>();
+        for (int i = 0; i < this.replicas; i++) {
+            this.instances.add(new CompanyProfileCache(Duration.ofDays(1), Duration.ofDays(1), Duration.ofMinutes(5),
+                COMPANIES, System::nanoTime, new CompanySnapshotStore(null, Duration.ZERO, () -> 0),
+                new CompanyBulkData(null, null, Duration.ZERO, () -> 0),
+                this.shared ? this.sharedCaches.get(i) : SharedCompanyCache.NONE));
+        }
+
+        // A few companies are asked for often, and most rarely, as in real traffic
+        SplittableRandom random = new SplittableRandom(42);
+        this.requests = new String[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            int rank = (int) Math.floor(Math.pow(COMPANIES, random.nextDouble())) - 1;
+            this.requests[i] = String.format("%08d", rank);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() {
+        this.sharedCaches.forEach(RedisCompanyCache::close);
+        this.redis.close();
+    }
+
+    @Benchmark
+    public void thousandRequests(UpstreamCalls calls) {
+        Function<String, Mono<CompanyResponse>> loader = n -> Mono.fromSupplier(() -> {
+            calls.upstreamCalls++;
+            return this.profile;
+        });
+        for (int i = 0; i < REQUESTS; i++) {
+            this.instances.get(i % this.replicas).get(this.requests[i], loader).block();
+        }
+    }
+
+    /**
+     * The number of requests that reached Companies House
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class UpstreamCalls {
+        public long upstreamCalls;
+    }
+}
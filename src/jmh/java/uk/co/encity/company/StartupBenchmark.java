@@ -0,0 +1,179 @@
+package uk.co.encity.company;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a new instance takes to answer its first request: the time from starting a JVM to the first
+ * successful (200) response to <code>GET /companies/{companyNumber}</code>, with a valid access token, from a local
+ * Companies House stub.  Each operation starts the application afresh, in a JVM of its own, as a new pod would.
+ *
+ * The application is run from the artefacts of the <code>fast-start</code> Maven profile, in four ways:
+ * <code>eager</code> (as usual), <code>lazy</code> (with the <code>fast-start</code> Spring profile, i.e. lazy
+ * initialisation), <code>cds</code> (with the class-data sharing archive) and <code>lazy-cds</code> (with both).
+ * So build them first, with the JDK that runs the benchmark (the archive only works with the JDK that made it):
+ * <pre>
+ *     ./mvnw -Pfast-start package -DskipTests
+ *     ./mvnw -Pjmh test-compile exec:exec -Djmh.args="StartupBenchmark"
+ * </pre>
+ * The output of each instance is appended to <code>target/fast-start/startup-benchmark.log</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+    private static final String ISSUER = "https://issuer.example/";
+    private static final Path FAST_START = Paths.get("target", "fast-start");
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+
+    @Param({ "eager", "lazy", "cds", "lazy-cds" })
+    private String mode;
+
+    private CompaniesHouseStub stub;
+    private Path jwks;
+    private String token;
+    private File jar;
+    private Process instance;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, JOSEException {
+        this.jar = FAST_START.resolve("company-0.0.1-SNAPSHOT-fast-start.jar").toFile();
+        if (!this.jar.exists() || !Files.exists(FAST_START.resolve("company.jsa"))) {
+            throw new IllegalStateException("Build the application first, with ./mvnw -Pfast-start package");
+        }
+
+        this.stub = new CompaniesHouseStub();
+
+        RSAKey key = new RSAKeyGenerator(2048).keyID("k1").generate();
+        this.jwks = Files.createTempFile("jwks", ".json");
+        Files.write(this.jwks, new JWKSet(key.toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8));
+
+        SignedJWT jwt = new SignedJWT(
+            new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+            new JWTClaimsSet.Builder()
+                .issuer(ISSUER)
+                .subject("someone")
+                .claim("scope", "read:company_profile")
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plus(Duration.ofHours(1))))
+                .build());
+        jwt.sign(new RSASSASigner(key));
+        this.token = jwt.serialize();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.stub.close();
+        Files.deleteIfExists(this.jwks);
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() throws InterruptedException {
+        this.instance.destroy();
+        if (!this.instance.waitFor(10, TimeUnit.SECONDS)) {
+            this.instance.destroyForcibly().waitFor();
+        }
+    }
+
+    @Benchmark
+    public int firstResponse() throws IOException, InterruptedException {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (this.mode.endsWith("cds")) {
+            // Fail, rather than quietly carry on without it, if the archive can't be used
+            command.add("-Xshare:on");
+            command.add("-XX:SharedArchiveFile=company.jsa");
+        }
+        if (this.mode.startsWith("lazy")) {
+            command.add("-Dspring.profiles.active=fast-start");
+        }
+        command.add("-Dserver.port=" + port);
+        command.add("-Dch.api.url=" + this.stub.url());
+        command.add("-Dch.api.key=benchmark");
+        command.add("-Dspring.security.oauth2.resourceserver.jwk.issuer-uri=" + ISSUER);
+        command.add("-Dencity.jwt.jwk-set-location=file:" + this.jwks);
+        command.add("-Dencity.origin-list=http://localhost:3000");
+        command.add("-jar");
+        command.add(this.jar.getName());
+
+        this.instance = new ProcessBuilder(command)
+            .directory(FAST_START.toFile())
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.appendTo(FAST_START.resolve("startup-benchmark.log").toFile()))
+            .start();
+
+        URL url = new URL("http://localhost:" + port + "/companies/00000001");
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline && this.instance.isAlive()) {
+            int status = this.status(url);
+            if (status == 200) {
+                return status;
+            }
+            Thread.sleep(status < 0 ? 5 : 50);
+        }
+        throw new IllegalStateException("No response from the " + this.mode + " instance; see its output in "
+            + FAST_START.resolve("startup-benchmark.log"));
+    }
+
+    /**
+     * @return the status of the response to a request, or -1 if the instance isn't listening yet
+     */
+    private int status(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Authorization", "Bearer " + this.token);
+        try {
+            return connection.getResponseCode();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
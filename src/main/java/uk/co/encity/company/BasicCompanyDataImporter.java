@@ -0,0 +1,352 @@
+package uk.co.encity.company;
+
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Imports the "basic company data" that Companies House publishes each month (a CSV file of every live company,
+ * usually zipped) into a {@link CompanyDataIndex}.
+ *
+ * The CSV is streamed, one row at a time, so the memory needed doesn't depend on the size of the file, apart from
+ * the 16 bytes per company that the index writer needs to sort them.  Each row is mapped to the fields of a
+ * {@link CompanyResponse} that the bulk data has: the name, status, registered office address and the accounts
+ * and confirmation statement dates.  The bulk data doesn't say whether anything is overdue, so that is worked out
+ * from the due dates as at the date of the data.
+ */
+public class BasicCompanyDataImporter {
+
+    /**
+     * The date in the name of a bulk data file, e.g. BasicCompanyDataAsOneFile-2021-01-01.zip
+     */
+    private static final Pattern DATE_IN_FILE_NAME = Pattern.compile("(\\d{4})-(\\d{2})-(\\d{2})");
+
+    private static final Map<String, String> STATUSES = new HashMap<>();
+    static {
+        STATUSES.put("Active - Proposal to Strike off", "active");
+        STATUSES.put("In Administration", "administration");
+        STATUSES.put("Live but Receiver Manager on at least one charge", "receivership");
+        STATUSES.put("RECEIVER MANAGER / ADMINISTRATIVE RECEIVER", "receivership");
+        STATUSES.put("ADMINISTRATIVE RECEIVER", "receivership");
+        STATUSES.put("RECEIVERSHIP", "receivership");
+    }
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * Import a bulk data file into an index file
+     *
+     * @param source the bulk data, either a CSV file or a zip file containing one
+     * @param index the index file to write, which is replaced (atomically) once the import has finished
+     * @return the outcome of the import
+     * @throws IOException if the bulk data can't be read, or the index can't be written
+     */
+    public Result importFrom(Path source, Path index) throws IOException {
+        Instant asOf = asOf(source);
+        logger.info("Importing company data as of " + asOf + " from " + source);
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(source), 1 << 16)) {
+            return this.importFrom(source.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip")
+                ? csvInZip(in, source) : in, asOf, index);
+        }
+    }
+
+    /**
+     * Import bulk data (as CSV) into an index file
+     *
+     * @param csv the bulk data
+     * @param asOf the date of the bulk data
+     * @param index the index file to write
+     * @return the outcome of the import
+     */
+    Result importFrom(InputStream csv, Instant asOf, Path index) throws IOException {
+        long start = System.nanoTime();
+        LocalDate asOfDate = asOf.atZone(ZoneOffset.UTC).toLocalDate();
+        CsvReader reader = new CsvReader(new InputStreamReader(csv, StandardCharsets.UTF_8));
+
+        String[] header = reader.next();
+        if (header == null) {
+            throw new IOException("The company data is empty");
+        }
+        Columns columns = new Columns(header);
+
+        long rows = 0;
+        long skipped = 0;
+        int companies;
+        try (CompanyDataIndex.Writer writer = new CompanyDataIndex.Writer(index, asOf)) {
+            String[] row;
+            while ((row = reader.next()) != null) {
+                rows++;
+                if (row.length < columns.count
+                    || !writer.add(CompanyNumbers.normalise(row[columns.companyNumber]), toProfile(row, columns, asOfDate))) {
+                    skipped++;
+                }
+            }
+            companies = writer.finish();
+        }
+
+        Result result = new Result(rows, companies, skipped, Duration.ofNanos(System.nanoTime() - start),
+            Files.size(index));
+        logger.info("Imported company data: " + result);
+        return result;
+    }
+
+    /**
+     * Map a row of the bulk data to a company profile
+     */
+    static CompanyResponse toProfile(String[] row, Columns c, LocalDate asOf) {
+        CompanyResponse.RegisteredOfficeAddress roa = new CompanyResponse.RegisteredOfficeAddress(
+            text(row[c.postCode]), text(row[c.county]), text(row[c.country]), text(row[c.addressLine1]),
+            text(row[c.postTown]));
+
+        int accountsNextDue = CompanyResponse.toEpochDay(date(row[c.accountsNextDue]));
+        boolean accountsOverdue = isOverdue(accountsNextDue, asOf);
+        CompanyResponse.Accounts accts = new CompanyResponse.Accounts(
+            CompanyResponse.Accounts.AccountingReferenceDate.of(
+                twoDigits(row[c.accountRefDay]), twoDigits(row[c.accountRefMonth])),
+            accountsNextDue,
+            new CompanyResponse.Accounts.NextAccounts(
+                CompanyResponse.NO_DATE, CompanyResponse.NO_DATE, accountsOverdue, accountsNextDue),
+            new CompanyResponse.Accounts.LastAccounts(CompanyResponse.toEpochDay(date(row[c.accountsLastMadeUp])),
+                accountsType(row[c.accountCategory]), CompanyResponse.NO_DATE, CompanyResponse.NO_DATE),
+            CompanyResponse.NO_DATE, accountsOverdue);
+
+        CompanyResponse.ConfirmationStatement cs;
+        if (c.confStmtNextDue >= 0) {
+            int statementNextDue = CompanyResponse.toEpochDay(date(row[c.confStmtNextDue]));
+            cs = new CompanyResponse.ConfirmationStatement(isOverdue(statementNextDue, asOf), statementNextDue,
+                CompanyResponse.NO_DATE, CompanyResponse.toEpochDay(date(row[c.confStmtLastMadeUp])));
+        } else {
+            cs = new CompanyResponse.ConfirmationStatement(
+                false, CompanyResponse.NO_DATE, CompanyResponse.NO_DATE, CompanyResponse.NO_DATE);
+        }
+
+        return new CompanyResponse(status(row[c.companyStatus]), text(row[c.companyName]), null, roa, cs, accts);
+    }
+
+    /**
+     * Find the CSV file in a zip file
+     */
+    private static InputStream csvInZip(InputStream in, Path source) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            if (entry.getName().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+                return zip;
+            }
+        }
+        throw new IOException("No CSV file found in " + source);
+    }
+
+    /**
+     * The bulk data is named after the date it was published (e.g. BasicCompanyDataAsOneFile-2021-01-01.zip), so
+     * use that if it's there, and otherwise when the file was last modified
+     */
+    private static Instant asOf(Path source) throws IOException {
+        Matcher m = DATE_IN_FILE_NAME.matcher(source.getFileName().toString());
+        if (m.find()) {
+            return LocalDate.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)),
+                Integer.parseInt(m.group(3))).atStartOfDay(ZoneOffset.UTC).toInstant();
+        }
+        return Files.getLastModifiedTime(source).toInstant();
+    }
+
+    private static String text(String s) {
+        String t = s.trim();
+        return t.isEmpty() ? null : t;
+    }
+
+    private static String twoDigits(String s) {
+        String t = s.trim();
+        return t.isEmpty() ? null : t.length() == 1 ? "0" + t : t;
+    }
+
+    /**
+     * The bulk data has statuses like "Active" and "In Administration", where the API has "active" and
+     * "administration"
+     */
+    private static String status(String s) {
+        String t = s.trim();
+        if (t.isEmpty()) {
+            return null;
+        }
+        String mapped = STATUSES.get(t);
+        return mapped != null ? mapped : t.toLowerCase(Locale.ROOT).replace(' ', '-');
+    }
+
+    /**
+     * The bulk data has account categories like "TOTAL EXEMPTION FULL", where the API has "total-exemption-full"
+     */
+    private static String accountsType(String s) {
+        String t = s.trim();
+        if (t.isEmpty() || t.equals("NO ACCOUNTS FILED") || t.equals("ACCOUNTS TYPE NOT AVAILABLE")) {
+            return null;
+        }
+        return t.toLowerCase(Locale.ROOT).replace(' ', '-');
+    }
+
+    private static boolean isOverdue(int due, LocalDate asOf) {
+        return due != CompanyResponse.NO_DATE && due < asOf.toEpochDay();
+    }
+
+    /**
+     * Parse a date in the form dd/MM/yyyy, or return null if it isn't one
+     */
+    static LocalDate date(String s) {
+        String t = s.trim();
+        if (t.length() != 10 || t.charAt(2) != '/' || t.charAt(5) != '/') {
+            return null;
+        }
+        int day = digits(t, 0, 2);
+        int month = digits(t, 3, 5);
+        int year = digits(t, 6, 10);
+        if (day < 1 || month < 1 || month > 12 || year < 0 || day > LocalDate.of(year, month, 1).lengthOfMonth()) {
+            return null;
+        }
+        return LocalDate.of(year, month, day);
+    }
+
+    private static int digits(String s, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Where each field we use is in a row, found by name in the header (in which Companies House puts spaces
+     * before some of the names)
+     */
+    static class Columns {
+        final int count;
+        final int companyName;
+        final int companyNumber;
+        final int addressLine1;
+        final int postTown;
+        final int county;
+        final int country;
+        final int postCode;
+        final int companyStatus;
+        final int accountRefDay;
+        final int accountRefMonth;
+        final int accountsNextDue;
+        final int accountsLastMadeUp;
+        final int accountCategory;
+        final int confStmtNextDue;
+        final int confStmtLastMadeUp;
+
+        Columns(String[] header) throws IOException {
+            Map<String, Integer> positions = new HashMap<>();
+            for (int i = 0; i < header.length; i++) {
+                positions.put(header[i].trim(), i);
+            }
+
+            this.count = header.length;
+            this.companyName = required(positions, "CompanyName");
+            this.companyNumber = required(positions, "CompanyNumber");
+            this.addressLine1 = required(positions, "RegAddress.AddressLine1");
+            this.postTown = required(positions, "RegAddress.PostTown");
+            this.county = required(positions, "RegAddress.County");
+            this.country = required(positions, "RegAddress.Country");
+            this.postCode = required(positions, "RegAddress.PostCode");
+            this.companyStatus = required(positions, "CompanyStatus");
+            this.accountRefDay = required(positions, "Accounts.AccountRefDay");
+            this.accountRefMonth = required(positions, "Accounts.AccountRefMonth");
+            this.accountsNextDue = required(positions, "Accounts.NextDueDate");
+            this.accountsLastMadeUp = required(positions, "Accounts.LastMadeUpDate");
+            this.accountCategory = required(positions, "Accounts.AccountCategory");
+
+            // Older files have annual returns rather than confirmation statements
+            this.confStmtNextDue = positions.getOrDefault("ConfStmtNextDueDate", -1);
+            this.confStmtLastMadeUp = positions.getOrDefault("ConfStmtLastMadeUpDate", -1);
+        }
+
+        private static int required(Map<String, Integer> positions, String name) throws IOException {
+            Integer position = positions.get(name);
+            if (position == null) {
+                throw new IOException("The company data has no " + name + " column");
+            }
+            return position;
+        }
+    }
+
+    /**
+     * The outcome of an import
+     */
+    public static class Result {
+        private final long rows;
+        private final int companies;
+        private final long skipped;
+        private final Duration elapsed;
+        private final long indexBytes;
+
+        Result(long rows, int companies, long skipped, Duration elapsed, long indexBytes) {
+            this.rows = rows;
+            this.companies = companies;
+            this.skipped = skipped;
+            this.elapsed = elapsed;
+            this.indexBytes = indexBytes;
+        }
+
+        /**
+         * @return the number of rows read
+         */
+        public long getRows() { return this.rows; }
+
+        /**
+         * @return the number of (distinct) companies in the index
+         */
+        public int getCompanies() { return this.companies; }
+
+        /**
+         * @return the number of rows that couldn't be indexed
+         */
+        public long getSkipped() { return this.skipped; }
+
+        public Duration getElapsed() { return this.elapsed; }
+
+        public long getIndexBytes() { return this.indexBytes; }
+
+        public long getRowsPerSecond() {
+            return this.rows * 1_000_000_000L / Math.max(1, this.elapsed.toNanos());
+        }
+
+        /**
+         * @return the size of the index per million companies, all of which is memory-mapped (so it is resident
+         * only as far as the operating system keeps it in its page cache) rather than on the heap
+         */
+        public long getBytesPerMillionCompanies() {
+            return this.indexBytes * 1_000_000L / Math.max(1, this.companies);
+        }
+
+        @Override
+        public String toString() {
+            return this.rows + " rows (" + this.skipped + " skipped) into " + this.companies + " companies in "
+                + this.elapsed.toMillis() + "ms (" + this.getRowsPerSecond() + " rows/s); the index is "
+                + this.indexBytes + " bytes (" + this.getBytesPerMillionCompanies() / (1 << 20)
+                + "MB per million companies)";
+        }
+    }
+}
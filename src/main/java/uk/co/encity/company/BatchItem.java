@@ -0,0 +1,43 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+
+/**
+ * One line of the response to a batch lookup: the outcome of looking up a single company
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItem {
+    private final String companyNumber;
+    private final int status;
+    private final CompanyResponse company;
+    private final String error;
+
+    private BatchItem(String companyNumber, int status, CompanyResponse company, String error) {
+        this.companyNumber = companyNumber;
+        this.status = status;
+        this.company = company;
+        this.error = error;
+    }
+
+    /**
+     * @param companyNumber the company number that was asked for
+     * @param status the HTTP status that the single-company lookup returned
+     * @param company the company details
+     * @return an item for a successful lookup
+     */
+    public static BatchItem of(String companyNumber, int status, CompanyResponse company) {
+        return new BatchItem(companyNumber, status, company, null);
+    }
+
+    /**
+     * @param companyNumber the company number that was asked for
+     * @param status the HTTP status that the single-company lookup would have returned
+     * @param error a description of what went wrong
+     * @return an item for a failed lookup
+     */
+    public static BatchItem failed(String companyNumber, int status, String error) {
+        return new BatchItem(companyNumber, status, null, error);
+    }
+}
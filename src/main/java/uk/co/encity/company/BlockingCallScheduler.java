@@ -0,0 +1,170 @@
+package uk.co.encity.company;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs blocking calls (for the synchronous compatibility mode, see {@link SyncCompanyController}) away from the
+ * event loop, on threads of their own, so that a slow call holds up no one but its own caller.
+ *
+ * At most <code>threads</code> calls run at once, and at most <code>queue</code> more wait for a thread; beyond
+ * that a call is rejected at once with a {@link RejectedExecutionException}, rather than queueing without bound.
+ * Where the runtime supports virtual threads (Java 21 and later) each call gets a virtual thread of its own, and
+ * the limits are kept by a semaphore; otherwise the calls share a bounded elastic pool of platform threads.
+ *
+ * The calls running and waiting are published as the <code>encity.sync.tasks</code> gauge (tagged with the
+ * <code>state</code>), the time spent waiting for a thread as the <code>encity.sync.queue.wait</code> timer, and the
+ * calls turned away as the <code>encity.sync.rejections</code> counter.
+ */
+@Component
+@ConditionalOnProperty(name = "encity.sync.enabled", havingValue = "true")
+public class BlockingCallScheduler implements AutoCloseable {
+
+    static final String TASKS = "encity.sync.tasks";
+    static final String QUEUE_WAIT = "encity.sync.queue.wait";
+    static final String REJECTIONS = "encity.sync.rejections";
+
+    private static final String THREAD_PREFIX = "encity-sync";
+
+    private final int maxInFlight;
+    private final Semaphore threads;
+    private final Scheduler scheduler;
+    private final boolean virtual;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final Timer queueWait;
+    private final Counter rejections;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * @param threads the most blocking calls that run at once
+     * @param queue the most calls that wait for one of the threads
+     * @param virtualThreads whether to run the calls on virtual threads, if the runtime supports them
+     * @param registry where the metrics are published
+     */
+    @Autowired
+    public BlockingCallScheduler(@Value("${encity.sync.threads:8}") int threads,
+                                 @Value("${encity.sync.queue:100}") int queue,
+                                 @Value("${encity.sync.virtual-threads:true}") boolean virtualThreads,
+                                 MeterRegistry registry) {
+        this(threads, queue, virtualThreads ? newVirtualThreadExecutor() : null, registry);
+    }
+
+    /**
+     * @param virtualThreads an executor that starts a virtual thread per call, or null to use platform threads
+     */
+    BlockingCallScheduler(int threads, int queue, ExecutorService virtualThreads, MeterRegistry registry) {
+        logger.debug("Constructing " + this.getClass().getName() + " with " + threads + " "
+            + (virtualThreads == null ? "platform" : "virtual") + " threads");
+
+        this.maxInFlight = threads + queue;
+        this.threads = new Semaphore(threads);
+        this.virtual = virtualThreads != null;
+        // The limits are kept here, before a call is scheduled, so the scheduler's own queue is never full
+        this.scheduler = virtualThreads == null
+            ? Schedulers.newBoundedElastic(threads, Math.max(queue, 1), THREAD_PREFIX)
+            : Schedulers.fromExecutorService(virtualThreads, THREAD_PREFIX);
+
+        Gauge.builder(TASKS, this.active, AtomicInteger::get)
+            .description("Blocking calls running in the synchronous compatibility mode")
+            .tag("state", "active")
+            .register(registry);
+        Gauge.builder(TASKS, this, s -> s.inFlight.get() - s.active.get())
+            .description("Blocking calls waiting for a thread in the synchronous compatibility mode")
+            .tag("state", "queued")
+            .register(registry);
+        this.queueWait = Timer.builder(QUEUE_WAIT)
+            .description("Time blocking calls wait for a thread in the synchronous compatibility mode")
+            .register(registry);
+        this.rejections = Counter.builder(REJECTIONS)
+            .description("Blocking calls turned away because the synchronous compatibility mode was full")
+            .register(registry);
+    }
+
+    /**
+     * @return true if the calls run on virtual threads
+     */
+    boolean isVirtual() { return this.virtual; }
+
+    /**
+     * Run a blocking call on a thread of its own
+     *
+     * @param call the call, which may block
+     * @return a {@link Mono} that publishes the result of the call (once one of the threads is free), or a
+     * {@link RejectedExecutionException} if too many calls are already running or waiting.  Cancelling it
+     * interrupts the call, and whatever the call then throws is only logged (at debug level).
+     */
+    public <T> Mono<T> call(Callable<T> call) {
+        return Mono.defer(() -> {
+            if (this.inFlight.incrementAndGet() > this.maxInFlight) {
+                this.inFlight.decrementAndGet();
+                this.rejections.increment();
+                return Mono.error(new RejectedExecutionException(
+                    "No more than " + this.maxInFlight + " blocking calls may be running or waiting at once"));
+            }
+
+            long queued = System.nanoTime();
+            AtomicBoolean cancelled = new AtomicBoolean();
+            return Mono.fromCallable(() -> {
+                try {
+                    this.threads.acquire();
+                    try {
+                        this.active.incrementAndGet();
+                        this.queueWait.record(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+                        return call.call();
+                    } finally {
+                        this.active.decrementAndGet();
+                        this.threads.release();
+                    }
+                } catch (Exception e) {
+                    // Cancelling a call interrupts its thread, and the error that that causes has no one to go to
+                    if (cancelled.get()) {
+                        logger.debug("Cancelled blocking call ended with " + e);
+                        return null;
+                    }
+                    throw e;
+                }
+            }).subscribeOn(this.scheduler)
+                .doOnCancel(() -> cancelled.set(true))
+                .doFinally(signal -> this.inFlight.decrementAndGet());
+        });
+    }
+
+    @Override
+    public void close() {
+        this.scheduler.dispose();
+    }
+
+    /**
+     * @return an executor that starts a virtual thread for each task, or null if the runtime doesn't support them
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            // Looked up reflectively, since this is built for (and may run on) a runtime without virtual threads
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package uk.co.encity.company;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.core.DelegatingOAuth2TokenValidator;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.JwtIssuerValidator;
+import org.springframework.security.oauth2.jwt.JwtTimestampValidator;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Function;
+
+/**
+ * Decodes and verifies the access tokens sent by our clients, remembering the tokens it has already verified, so
+ * that a client sending the same token again (as they do, until it expires) doesn't cost another signature
+ * verification.
+ *
+ * A token is verified (with the keys held by a {@link JwkSetSource}) and validated (its issuer, and that it is
+ * within its lifetime) as Spring Security would, the first time it is seen.  It is then kept, keyed by a SHA-256
+ * hash of the token (so the cache doesn't hold the tokens themselves), until it expires.  Tokens without an expiry
+ * are never kept.  The cache is bounded in size, and its hits and misses are published as the
+ * <code>cache_*{cache="verifiedTokens"}</code> metrics.
+ */
+@Component
+public class CachingJwtDecoder implements ReactiveJwtDecoder {
+
+    /**
+     * The name under which hit, miss and eviction metrics are published
+     */
+    static final String CACHE_NAME = "verifiedTokens";
+
+    private final ReactiveJwtDecoder verifier;
+    private final Cache<ByteBuffer, Jwt> verified;
+    private final Clock clock;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * @param keys the keys that tokens are signed with
+     * @param issuerUri the issuer of the access tokens
+     * @param maxSize the most verified tokens that are kept
+     * @param registry where the hit, miss and eviction metrics will be published, if metrics are available
+     */
+    @Autowired
+    public CachingJwtDecoder(JwkSetSource keys,
+                             @Value("${spring.security.oauth2.resourceserver.jwk.issuer-uri}") String issuerUri,
+                             @Value("${encity.jwt.cache.max-size:10000}") long maxSize,
+                             ObjectProvider<MeterRegistry> registry) {
+        this(keys::keysFor, issuerUri, maxSize, Clock.systemUTC());
+        registry.ifAvailable(r -> CaffeineCacheMetrics.monitor(r, this.verified, CACHE_NAME));
+    }
+
+    CachingJwtDecoder(Function<SignedJWT, Flux<JWK>> keys, String issuerUri, long maxSize, Clock clock) {
+        logger.debug("Constructing " + this.getClass().getName() + " for " + issuerUri + " with maximum size "
+            + maxSize);
+
+        JwtTimestampValidator lifetime = new JwtTimestampValidator();
+        lifetime.setClock(clock);
+        NimbusReactiveJwtDecoder verifier = NimbusReactiveJwtDecoder.withJwkSource(keys).build();
+        verifier.setJwtValidator(new DelegatingOAuth2TokenValidator<>(lifetime, new JwtIssuerValidator(issuerUri)));
+
+        this.verifier = verifier;
+        this.clock = clock;
+        this.verified = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfter(new UntilExpiry(clock))
+            .ticker(() -> nanos(clock.instant()))
+            .recordStats()
+            .build();
+    }
+
+    @Override
+    public Mono<Jwt> decode(String token) throws JwtException {
+        ByteBuffer key = hash(token);
+        Jwt jwt = this.verified.getIfPresent(key);
+        if (jwt != null) {
+            return Mono.just(jwt);
+        }
+
+        return this.verifier.decode(token).doOnNext(v -> {
+            if (v.getExpiresAt() != null) {
+                this.verified.put(key, v);
+            }
+        });
+    }
+
+    private static ByteBuffer hash(String token) {
+        try {
+            return ByteBuffer.wrap(
+                MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM has SHA-256
+        }
+    }
+
+    private static long nanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    /**
+     * Keeps a verified token until it expires
+     */
+    private static class UntilExpiry implements Expiry<ByteBuffer, Jwt> {
+        private final Clock clock;
+
+        UntilExpiry(Clock clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public long expireAfterCreate(ByteBuffer key, Jwt jwt, long currentTime) {
+            return Math.max(0, Duration.between(this.clock.instant(), jwt.getExpiresAt()).toNanos());
+        }
+
+        @Override
+        public long expireAfterUpdate(ByteBuffer key, Jwt jwt, long currentTime, long currentDuration) {
+            return this.expireAfterCreate(key, jwt, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(ByteBuffer key, Jwt jwt, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package uk.co.encity.company;
+
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * A count-based circuit breaker.
+ *
+ * While CLOSED, the outcomes of the most recent calls are kept in a fixed-size window.  Once at least
+ * <code>minimumCalls</code> have been recorded, and the proportion of failures reaches the threshold, the breaker
+ * OPENs and refuses every call for <code>openDuration</code>.  It then goes HALF_OPEN and lets a single trial call
+ * through: if that succeeds the breaker closes again, and if it fails the breaker re-opens.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureRateThreshold;
+    private final boolean[] window;
+    private final int minimumCalls;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+
+    // All guarded by 'this'
+    private State state = State.CLOSED;
+    private int recorded;
+    private int next;
+    private int failures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * @param failureRateThreshold the percentage of failed calls in the window at which the breaker opens
+     * @param windowSize the number of recent calls considered
+     * @param minimumCalls the number of calls that must be recorded before the breaker can open
+     * @param openDuration how long the breaker stays open before letting a trial call through
+     * @param nanoClock a source of time, in nanoseconds
+     */
+    public CircuitBreaker(int failureRateThreshold, int windowSize, int minimumCalls, Duration openDuration,
+                          LongSupplier nanoClock) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.window = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.openNanos = openDuration.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Ask whether a call may go ahead.  Every call that is permitted must be followed by a call to
+     * {@link #onSuccess()} or {@link #onFailure()}.
+     *
+     * @return true if the call may go ahead
+     */
+    public synchronized boolean tryAcquirePermission() {
+        switch (this.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (this.nanoClock.getAsLong() - this.openedAt < this.openNanos) {
+                    return false;
+                }
+                this.transitionTo(State.HALF_OPEN);
+                this.trialInFlight = true;
+                return true;
+            default:
+                if (this.trialInFlight) {
+                    return false;
+                }
+                this.trialInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (this.state == State.HALF_OPEN) {
+            this.transitionTo(State.CLOSED);
+        } else if (this.state == State.CLOSED) {
+            this.record(false);
+        }
+    }
+
+    public synchronized void onFailure() {
+        if (this.state == State.HALF_OPEN) {
+            this.transitionTo(State.OPEN);
+        } else if (this.state == State.CLOSED) {
+            this.record(true);
+            if (this.recorded >= this.minimumCalls && this.failures * 100 >= this.failureRateThreshold * this.recorded) {
+                this.transitionTo(State.OPEN);
+            }
+        }
+    }
+
+    /**
+     * Give back a permission without recording an outcome, because the call was abandoned or never reached
+     * the protected service
+     */
+    public synchronized void releasePermission() {
+        if (this.state == State.HALF_OPEN) {
+            this.trialInFlight = false;
+        }
+    }
+
+    public synchronized State getState() { return this.state; }
+
+    /**
+     * @return how long until the breaker will let a trial call through, or zero if it is not open
+     */
+    public synchronized Duration remainingOpenTime() {
+        if (this.state != State.OPEN) {
+            return Duration.ZERO;
+        }
+        return Duration.ofNanos(Math.max(0, this.openNanos - (this.nanoClock.getAsLong() - this.openedAt)));
+    }
+
+    private void record(boolean failure) {
+        if (this.recorded == this.window.length) {
+            if (this.window[this.next]) {
+                this.failures--;
+            }
+        } else {
+            this.recorded++;
+        }
+        this.window[this.next] = failure;
+        if (failure) {
+            this.failures++;
+        }
+        this.next = (this.next + 1) % this.window.length;
+    }
+
+    private void transitionTo(State newState) {
+        logger.info("Circuit breaker moving from " + this.state + " to " + newState);
+
+        this.state = newState;
+        this.trialInFlight = false;
+        if (newState == State.OPEN) {
+            this.openedAt = this.nanoClock.getAsLong();
+        } else if (newState == State.CLOSED) {
+            this.recorded = 0;
+            this.next = 0;
+            this.failures = 0;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package uk.co.encity.company;
+
+import java.time.Duration;
+
+/**
+ * Raised instead of sending a request to Companies House, while the circuit breaker is open
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    /**
+     * @param retryAfter how long until the circuit breaker will let a request through again
+     */
+    public CircuitOpenException(Duration retryAfter) {
+        super("Companies House circuit breaker is open; retry after " + retryAfter);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() { return this.retryAfter; }
+}
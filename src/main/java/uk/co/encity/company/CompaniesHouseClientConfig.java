@@ -0,0 +1,143 @@
+package uk.co.encity.company;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.util.Base64Utils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the {@link WebClient} used to call Companies House, on top of a dedicated, bounded Reactor Netty
+ * connection pool with timeouts, so that one slow response can't hold on to resources indefinitely.
+ *
+ * The pool publishes its total, active, idle and pending connection counts to Micrometer (as
+ * <code>reactor.netty.connection.provider.*</code> gauges, tagged with the pool name).
+ */
+@Configuration
+public class CompaniesHouseClientConfig {
+
+    /**
+     * The name of the connection pool, as it appears in metrics
+     */
+    static final String POOL_NAME = "companies-house";
+
+    @Value("${ch.api.key}")
+    private String apiKey;
+
+    @Value("${ch.api.url}")
+    private String apiURL;
+
+    @Value("${ch.api.pool.max-connections:50}")
+    private int maxConnections;
+
+    @Value("${ch.api.pool.pending-acquire-max-count:500}")
+    private int pendingAcquireMaxCount;
+
+    @Value("${ch.api.pool.pending-acquire-timeout:5s}")
+    private Duration pendingAcquireTimeout;
+
+    @Value("${ch.api.pool.max-idle-time:30s}")
+    private Duration maxIdleTime;
+
+    @Value("${ch.api.pool.max-life-time:5m}")
+    private Duration maxLifeTime;
+
+    @Value("${ch.api.timeout.connect:2s}")
+    private Duration connectTimeout;
+
+    @Value("${ch.api.timeout.read:5s}")
+    private Duration readTimeout;
+
+    @Value("${ch.api.timeout.response:5s}")
+    private Duration responseTimeout;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * Creates the pool of connections to Companies House.  Idle connections are evicted in the background, and
+     * no connection is kept beyond its maximum lifetime.
+     * @return a {@link ConnectionProvider} that is disposed of when the application stops
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider companiesHouseConnectionProvider() {
+        logger.debug("Creating connection pool for Companies House with " + this.maxConnections + " connections");
+
+        return ConnectionProvider.builder(POOL_NAME)
+            .maxConnections(this.maxConnections)
+            .pendingAcquireMaxCount(this.pendingAcquireMaxCount)
+            .pendingAcquireTimeout(this.pendingAcquireTimeout)
+            .maxIdleTime(this.maxIdleTime)
+            .maxLifeTime(this.maxLifeTime)
+            .evictInBackground(this.maxIdleTime)
+            .metrics(true)
+            .build();
+    }
+
+    /**
+     * Creates the WebClient used to call Companies House
+     * @param connectionProvider the pool of connections to Companies House
+     * @param codec the shared codec used to decode Companies House responses
+     * @param resilienceFilter retries, hedges and circuit-breaks requests to Companies House
+     * @param rateLimiter limits the rate at which requests are sent to Companies House
+     * @param metricsFilter records the latency and size of each response from Companies House
+     * @return a {@link WebClient} with the Companies House URL and credentials built in
+     */
+    @Bean
+    public WebClient companiesHouseWebClient(ConnectionProvider connectionProvider, CompanyCodec codec,
+                                             CompaniesHouseResilienceFilter resilienceFilter,
+                                             CompaniesHouseRateLimiter rateLimiter,
+                                             CompaniesHouseMetricsFilter metricsFilter) {
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) this.connectTimeout.toMillis())
+            .responseTimeout(this.responseTimeout)
+            .doOnConnected(connection -> connection
+                .addHandlerLast(new ReadTimeoutHandler(this.readTimeout.toMillis(), TimeUnit.MILLISECONDS))
+                .addHandlerLast(new WriteTimeoutHandler(this.readTimeout.toMillis(), TimeUnit.MILLISECONDS)))
+            .compress(true);
+
+        // The resilience filter goes first (outermost), so that every attempt it makes is rate limited (the rate
+        // limiter tells it when each attempt is actually sent, so that hedging isn't driven by the wait for a token),
+        // and the metrics filter goes last, so that it times each request actually sent
+        return webClientBuilder(this.apiURL, this.apiKey, codec, new ReactorClientHttpConnector(httpClient))
+            .filter(resilienceFilter)
+            .filter(rateLimiter)
+            .filter(metricsFilter)
+            .build();
+    }
+
+    /**
+     * Starts building a WebClient for Companies House, with the default headers, credentials and codecs
+     *
+     * @param apiURL the URL of the downstream server that implements the Companies House API
+     * @param apiKey the API Key allocated by Companies House (used as the username in basic authentication)
+     * @param codec the shared codec used to decode Companies House responses
+     * @param connector the HTTP connector to use
+     * @return a {@link WebClient.Builder}, to which further filters may be added
+     */
+    static WebClient.Builder webClientBuilder(String apiURL, String apiKey, CompanyCodec codec,
+                                              ClientHttpConnector connector) {
+        return WebClient.builder()
+                .baseUrl(apiURL)
+                .clientConnector(connector)
+                .defaultHeader(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate")
+                .defaultHeader(HttpHeaders.ACCEPT, "text/json")
+                .defaultHeader(
+                        HttpHeaders.AUTHORIZATION,
+                        "Basic" + " " + Base64Utils.encodeToString((apiKey + ":").getBytes(StandardCharsets.UTF_8)))
+                .codecs(codec::customize);
+    }
+}
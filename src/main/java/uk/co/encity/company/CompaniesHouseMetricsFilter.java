@@ -0,0 +1,108 @@
+package uk.co.encity.company;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the latency and payload size of every request actually sent to Companies House.  Applied as the
+ * innermost filter on the WebClient, so each retry or hedged request is measured separately, and time spent
+ * waiting for the rate limiter is not included.
+ *
+ * <ul>
+ *     <li><code>encity.companies-house.requests</code>: a timer (with a percentile histogram), tagged by method,
+ *     status and outcome</li>
+ *     <li><code>encity.companies-house.response.size</code>: the size in bytes of each response body, counted as
+ *     it is read (so it is recorded whether or not there is a <code>Content-Length</code>, and is the size after
+ *     any gzip has been undone), once it has been read to the end</li>
+ * </ul>
+ */
+@Component
+public class CompaniesHouseMetricsFilter implements ExchangeFilterFunction {
+
+    static final String REQUESTS = "encity.companies-house.requests";
+    static final String RESPONSE_SIZE = "encity.companies-house.response.size";
+
+    private final MeterRegistry registry;
+    private final DistributionSummary responseSize;
+
+    /**
+     * @param registry where the metrics are published; if there isn't one, Micrometer's global registry is used
+     */
+    @Autowired
+    public CompaniesHouseMetricsFilter(ObjectProvider<MeterRegistry> registry) {
+        this(registry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    CompaniesHouseMetricsFilter(MeterRegistry registry) {
+        this.registry = registry;
+        this.responseSize = DistributionSummary.builder(RESPONSE_SIZE)
+            .description("Size of responses received from Companies House")
+            .baseUnit("bytes")
+            .register(registry);
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return next.exchange(request)
+                .doOnNext(response ->
+                    this.record(request, Integer.toString(response.rawStatusCode()), outcome(response.rawStatusCode()), start))
+                .map(response -> response.mutate().body(this::counted).build())
+                .doOnError(e -> this.record(request, "CLIENT_ERROR", e.getClass().getSimpleName(), start));
+        });
+    }
+
+    /**
+     * @return a response body that records its size once it has been read (the body may be subscribed to again
+     * after that, e.g. to release it if it wasn't read, but its size is only recorded once)
+     */
+    private Flux<DataBuffer> counted(Flux<DataBuffer> body) {
+        AtomicLong size = new AtomicLong();
+        AtomicBoolean recorded = new AtomicBoolean();
+        return body
+            .doOnNext(buffer -> size.addAndGet(buffer.readableByteCount()))
+            .doOnComplete(() -> {
+                if (recorded.compareAndSet(false, true)) {
+                    this.responseSize.record(size.get());
+                }
+            });
+    }
+
+    private void record(ClientRequest request, String status, String outcome, long start) {
+        Timer.builder(REQUESTS)
+            .description("Latency of requests to Companies House")
+            .tag("method", request.method().name())
+            .tag("status", status)
+            .tag("outcome", outcome)
+            .publishPercentileHistogram()
+            .register(this.registry)
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private static String outcome(int status) {
+        if (status >= 500) {
+            return "SERVER_ERROR";
+        }
+        if (status >= 400) {
+            return "CLIENT_ERROR";
+        }
+        return "SUCCESS";
+    }
+}
@@ -0,0 +1,231 @@
+package uk.co.encity.company;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A token-bucket rate limiter for requests to Companies House, applied as a filter on the WebClient.
+ *
+ * Companies House allows each API key a fixed number of requests in a window, and rejects any more with a 429.
+ * Rather than pass bursts of 429s on to our clients, requests wait here for a token.  The wait is bounded: if a
+ * request would have to wait longer than <code>max-wait</code>, or <code>max-queue</code> requests are already
+ * waiting, it fails straight away with a {@link RateLimitExceededException}, which is answered with a 503 and a
+ * <code>Retry-After</code> header.
+ *
+ * The refill rate starts at the configured rate, and is adjusted using the <code>X-Ratelimit-*</code> headers on
+ * each Companies House response, so that the remaining quota is spread over what is left of the window.
+ */
+@Component
+public class CompaniesHouseRateLimiter implements ExchangeFilterFunction {
+
+    static final String REMAINING_HEADER = "X-Ratelimit-Remain";
+    static final String RESET_HEADER = "X-Ratelimit-Reset";
+
+    /**
+     * The refill rate never drops below this, so a request can always work out how long it would have to wait
+     */
+    private static final double MIN_RATE_PER_SECOND = 0.001;
+
+    private final double maxRatePerSecond;
+    private final double burst;
+    private final long maxWaitNanos;
+    private final int maxQueue;
+    private final LongSupplier nanoClock;
+    private final LongSupplier epochSecondClock;
+
+    // The state of the bucket: guarded by 'this'
+    private double ratePerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * Create a rate limiter
+     *
+     * @param requestsPerSecond the steady rate at which requests may be sent, until Companies House says otherwise
+     * @param burst the number of requests that may be sent at once after a quiet period
+     * @param maxWait the longest that a request will be held waiting for a token
+     * @param maxQueue the most requests that may be waiting for a token at once
+     */
+    @Autowired
+    public CompaniesHouseRateLimiter(@Value("${ch.api.rate-limit.requests-per-second:2}") double requestsPerSecond,
+                                     @Value("${ch.api.rate-limit.burst:10}") int burst,
+                                     @Value("${ch.api.rate-limit.max-wait:2s}") Duration maxWait,
+                                     @Value("${ch.api.rate-limit.max-queue:100}") int maxQueue) {
+        this(requestsPerSecond, burst, maxWait, maxQueue, System::nanoTime,
+            () -> TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+    }
+
+    CompaniesHouseRateLimiter(double requestsPerSecond, int burst, Duration maxWait, int maxQueue,
+                              LongSupplier nanoClock, LongSupplier epochSecondClock) {
+        logger.debug("Constructing " + this.getClass().getName() + " at " + requestsPerSecond + " requests/s, burst "
+            + burst + ", max wait " + maxWait + " and max queue " + maxQueue);
+
+        this.maxRatePerSecond = requestsPerSecond;
+        this.burst = burst;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.maxQueue = maxQueue;
+        this.nanoClock = nanoClock;
+        this.epochSecondClock = epochSecondClock;
+
+        this.ratePerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = burst;
+        this.lastRefillNanos = nanoClock.getAsLong();
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.defer(() -> {
+            long wait = this.reserve();
+            if (wait < 0) {
+                logger.debug("Shedding request for " + request.url() + ": rate limit queue is full");
+                return Mono.error(new RateLimitExceededException(Duration.ofNanos(this.timeToNextToken())));
+            }
+
+            Mono<ClientResponse> exchange = Mono.defer(() -> {
+                Object sentAt = request.attribute(CompaniesHouseResilienceFilter.SENT_AT).orElse(null);
+                if (sentAt instanceof AtomicLong) {
+                    ((AtomicLong) sentAt).set(System.nanoTime());
+                }
+                return next.exchange(request);
+            }).doOnNext(this::adapt);
+            if (wait == 0) {
+                return exchange;
+            }
+
+            logger.debug("Holding request for " + request.url() + " for " + wait + "ns");
+            return Mono.delay(Duration.ofNanos(wait))
+                .doOnCancel(this::release)
+                .then(exchange);
+        });
+    }
+
+    /**
+     * Take a token from the bucket, borrowing against future refills if the bucket is empty
+     *
+     * @return 0 if a token was available now, the number of nanoseconds to wait for the token that was reserved,
+     * or -1 if no token was reserved because the wait would be too long or too many requests are waiting already
+     */
+    synchronized long reserve() {
+        long now = this.nanoClock.getAsLong();
+        this.refill(now);
+
+        if (this.tokens >= 1) {
+            this.tokens -= 1;
+            return 0;
+        }
+
+        long wait = this.waitForToken(now);
+        if (wait > this.maxWaitNanos || -this.tokens >= this.maxQueue) {
+            return -1;
+        }
+
+        this.tokens -= 1;
+        return wait;
+    }
+
+    /**
+     * @return true if a request sent now would have to wait for a token
+     */
+    synchronized boolean isQueueing() {
+        this.refill(this.nanoClock.getAsLong());
+        return this.tokens < 1;
+    }
+
+    /**
+     * Give back a token that was reserved but never used (because the waiting request was cancelled)
+     */
+    synchronized void release() {
+        this.tokens = Math.min(this.burst, this.tokens + 1);
+    }
+
+    /**
+     * @return the number of nanoseconds until a token would next be free, which is what a client that has been
+     * turned away should be told to wait
+     */
+    synchronized long timeToNextToken() {
+        long now = this.nanoClock.getAsLong();
+        this.refill(now);
+        return this.tokens >= 1 ? 0 : this.waitForToken(now);
+    }
+
+    /**
+     * @return the current refill rate, in requests per second
+     */
+    synchronized double getRatePerSecond() {
+        return this.ratePerNano * TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Adjust the refill rate to match what Companies House says is left of the quota for the current window.  If
+     * the quota is used up, nothing more is sent until the window resets.
+     *
+     * @param response a response from Companies House
+     */
+    void adapt(ClientResponse response) {
+        HttpHeaders headers = response.headers().asHttpHeaders();
+        String remainValue = headers.getFirst(REMAINING_HEADER);
+        String resetValue = headers.getFirst(RESET_HEADER);
+        if (remainValue == null || resetValue == null) {
+            return;
+        }
+
+        long remaining;
+        long reset;
+        try {
+            remaining = Long.parseLong(remainValue.trim());
+            reset = Long.parseLong(resetValue.trim());
+        } catch (NumberFormatException e) {
+            logger.debug("Ignoring unreadable rate limit headers: " + remainValue + ", " + resetValue);
+            return;
+        }
+
+        long secondsToReset = reset - this.epochSecondClock.getAsLong();
+        if (secondsToReset <= 0) {
+            return;
+        }
+
+        synchronized (this) {
+            long now = this.nanoClock.getAsLong();
+            this.refill(now);
+
+            if (remaining <= 0) {
+                // Nothing more until the window resets
+                this.tokens = Math.min(this.tokens, 0);
+                this.lastRefillNanos = Math.max(this.lastRefillNanos, now + TimeUnit.SECONDS.toNanos(secondsToReset));
+                logger.debug("Companies House quota exhausted, pausing for " + secondsToReset + "s");
+            } else {
+                double rate = Math.max(MIN_RATE_PER_SECOND,
+                    Math.min(this.maxRatePerSecond, (double) remaining / secondsToReset));
+                this.ratePerNano = rate / TimeUnit.SECONDS.toNanos(1);
+            }
+        }
+    }
+
+    private void refill(long now) {
+        if (now > this.lastRefillNanos) {
+            this.tokens = Math.min(this.burst, this.tokens + (now - this.lastRefillNanos) * this.ratePerNano);
+            this.lastRefillNanos = now;
+        }
+    }
+
+    private long waitForToken(long now) {
+        long paused = Math.max(0, this.lastRefillNanos - now);
+        return paused + (long) Math.ceil((1 - this.tokens) / this.ratePerNano);
+    }
+}
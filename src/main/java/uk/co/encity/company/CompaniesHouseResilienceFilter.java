@@ -0,0 +1,193 @@
+package uk.co.encity.company;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Makes calls to Companies House more resilient to blips and to a degraded service.  Applied as a filter on the
+ * WebClient, outside the rate limiter, so that every attempt is rate limited.  For idempotent (GET and HEAD)
+ * requests:
+ * <ul>
+ *     <li>a circuit breaker fails calls fast with a {@link CircuitOpenException} while Companies House is
+ *     failing, instead of tying up our concurrency waiting for it</li>
+ *     <li>a 5xx response, or a failure to connect or get a response, is retried with jittered exponential
+ *     backoff</li>
+ *     <li>optionally, a hedged second request is sent if the first hasn't answered within the recent p95 latency,
+ *     and whichever answers first is used.  The latency is that of Companies House alone, not counting time spent
+ *     waiting for the rate limiter, and no hedge is sent while requests are waiting for it (a hedge would only
+ *     wait too, and take a token from a request that needs one).</li>
+ * </ul>
+ * When retries are used up, the last 5xx is passed on as a {@link WebClientResponseException}.
+ */
+@Component
+public class CompaniesHouseResilienceFilter implements ExchangeFilterFunction {
+
+    /**
+     * Hedging is only attempted once the latency percentile is based on this many samples
+     */
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    /**
+     * The name of a request attribute holding an {@link AtomicLong}, which a filter further in (the rate limiter)
+     * sets to {@link System#nanoTime()} when it sends the request on, so that its wait isn't counted as latency
+     */
+    static final String SENT_AT = CompaniesHouseResilienceFilter.class.getName() + ".sentAt";
+
+    private final int maxRetries;
+    private final Duration minBackoff;
+    private final Duration maxBackoff;
+    private final boolean hedgeEnabled;
+    private final Duration hedgeMinDelay;
+    private final CircuitBreaker circuitBreaker;
+    private final BooleanSupplier throttled;
+    private final LatencyTracker latency = new LatencyTracker(256, 0.95);
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * @param maxRetries the number of times a failed request is retried
+     * @param minBackoff the delay before the first retry (later retries back off exponentially, with jitter)
+     * @param maxBackoff the longest delay between retries
+     * @param hedgeEnabled whether hedged requests are sent
+     * @param hedgeMinDelay the shortest time to wait for a response before sending a hedged request
+     * @param failureRateThreshold the percentage of failed calls at which the circuit breaker opens
+     * @param windowSize the number of recent calls the circuit breaker considers
+     * @param minimumCalls the number of calls that must be made before the circuit breaker can open
+     * @param openDuration how long the circuit breaker stays open before letting a trial call through
+     * @param rateLimiter the rate limiter that each attempt goes through
+     */
+    @Autowired
+    public CompaniesHouseResilienceFilter(@Value("${ch.api.retry.max-retries:2}") int maxRetries,
+                                          @Value("${ch.api.retry.min-backoff:100ms}") Duration minBackoff,
+                                          @Value("${ch.api.retry.max-backoff:1s}") Duration maxBackoff,
+                                          @Value("${ch.api.hedge.enabled:false}") boolean hedgeEnabled,
+                                          @Value("${ch.api.hedge.min-delay:50ms}") Duration hedgeMinDelay,
+                                          @Value("${ch.api.circuit-breaker.failure-rate-threshold:50}") int failureRateThreshold,
+                                          @Value("${ch.api.circuit-breaker.window-size:20}") int windowSize,
+                                          @Value("${ch.api.circuit-breaker.minimum-calls:10}") int minimumCalls,
+                                          @Value("${ch.api.circuit-breaker.open-duration:30s}") Duration openDuration,
+                                          CompaniesHouseRateLimiter rateLimiter) {
+        this(maxRetries, minBackoff, maxBackoff, hedgeEnabled, hedgeMinDelay,
+            new CircuitBreaker(failureRateThreshold, windowSize, minimumCalls, openDuration, System::nanoTime),
+            rateLimiter::isQueueing);
+    }
+
+    CompaniesHouseResilienceFilter(int maxRetries, Duration minBackoff, Duration maxBackoff, boolean hedgeEnabled,
+                                   Duration hedgeMinDelay, CircuitBreaker circuitBreaker, BooleanSupplier throttled) {
+        logger.debug("Constructing " + this.getClass().getName() + " with " + maxRetries + " retries, hedging "
+            + (hedgeEnabled ? "enabled" : "disabled"));
+
+        this.maxRetries = maxRetries;
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgeMinDelay = hedgeMinDelay;
+        this.circuitBreaker = circuitBreaker;
+        this.throttled = throttled;
+    }
+
+    public CircuitBreaker getCircuitBreaker() { return this.circuitBreaker; }
+
+    LatencyTracker getLatency() { return this.latency; }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        if (request.method() != HttpMethod.GET && request.method() != HttpMethod.HEAD) {
+            return next.exchange(request);
+        }
+
+        return this.hedged(request, next)
+            .retryWhen(Retry.backoff(this.maxRetries, this.minBackoff)
+                .maxBackoff(this.maxBackoff)
+                .jitter(0.5)
+                .filter(CompaniesHouseResilienceFilter::isRetryable)
+                .doBeforeRetry(signal -> logger.debug("Retrying " + request.url() + " after " + signal.failure()))
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    /**
+     * Send a request, and if hedging is enabled and there's no answer within the recent p95 latency, send it again
+     * and use whichever answer arrives first
+     */
+    private Mono<ClientResponse> hedged(ClientRequest request, ExchangeFunction next) {
+        Mono<ClientResponse> attempt = this.attempt(request, next);
+
+        long p95 = this.latency.value();
+        if (!this.hedgeEnabled || this.latency.count() < MIN_HEDGE_SAMPLES || p95 < 0) {
+            return attempt;
+        }
+
+        // If the first attempt fails, that failure is used straight away (and may be retried); if the hedge fails,
+        // the first attempt is left to finish.  A response that loses the race is released.
+        Duration delay = Duration.ofNanos(Math.max(this.hedgeMinDelay.toNanos(), p95));
+        Mono<ClientResponse> hedge = Mono.delay(delay)
+            .flatMap(t -> {
+                if (this.throttled.getAsBoolean()) {
+                    logger.debug("No response from " + request.url() + " after " + delay + ", but rate limited");
+                    return Mono.<ClientResponse>never();
+                }
+                logger.debug("No response from " + request.url() + " after " + delay + ", hedging");
+                return this.attempt(request, next);
+            })
+            .onErrorResume(e -> Mono.never());
+
+        return Flux.merge(attempt, hedge)
+            .next()
+            .doOnDiscard(ClientResponse.class, response -> response.releaseBody().subscribe());
+    }
+
+    /**
+     * Make a single attempt, subject to the circuit breaker.  A 5xx response becomes an error (so it can be
+     * retried), and the outcome is recorded with the circuit breaker and (if successful) the latency tracker.
+     */
+    private Mono<ClientResponse> attempt(ClientRequest request, ExchangeFunction next) {
+        return Mono.defer(() -> {
+            if (!this.circuitBreaker.tryAcquirePermission()) {
+                return Mono.error(new CircuitOpenException(this.circuitBreaker.remainingOpenTime()));
+            }
+
+            AtomicLong sentAt = new AtomicLong(System.nanoTime());
+            return next.exchange(ClientRequest.from(request).attribute(SENT_AT, sentAt).build())
+                .flatMap(response -> {
+                    if (response.rawStatusCode() >= 500) {
+                        this.circuitBreaker.onFailure();
+                        return response.createException().flatMap(Mono::error);
+                    }
+                    this.circuitBreaker.onSuccess();
+                    this.latency.record(System.nanoTime() - sentAt.get());
+                    return Mono.just(response);
+                })
+                .doOnError(e -> {
+                    if (e instanceof WebClientRequestException) {
+                        this.circuitBreaker.onFailure();
+                    } else if (!(e instanceof WebClientResponseException)) {
+                        // Not a verdict on Companies House (e.g. rate limited before it was sent)
+                        this.circuitBreaker.releasePermission();
+                    }
+                })
+                .doOnCancel(this.circuitBreaker::releasePermission);
+        });
+    }
+
+    private static boolean isRetryable(Throwable e) {
+        return e instanceof WebClientRequestException
+            || (e instanceof WebClientResponseException && ((WebClientResponseException) e).getRawStatusCode() >= 500);
+    }
+}
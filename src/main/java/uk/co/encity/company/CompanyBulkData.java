@@ -0,0 +1,170 @@
+package uk.co.encity.company;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * The company profiles in the Companies House bulk data, for the {@link CompanyProfileCache} to fall back on for
+ * companies it doesn't hold.  The bulk data is published monthly, so while it is recent (as set by
+ * <code>encity.bulk-data.serve-for</code>) its profiles are served without asking Companies House at all; after
+ * that, they are only served if Companies House is unavailable.
+ *
+ * The profiles are held in a {@link CompanyDataIndex} at <code>encity.bulk-data.index</code>.  If
+ * <code>encity.bulk-data.source</code> names a bulk data file that is newer than the index, it is imported in the
+ * background when the application starts, and the new index replaces the old one when it's ready.  Nothing is
+ * looked up unless <code>encity.bulk-data.index</code> is set.
+ */
+@Component
+public class CompanyBulkData {
+
+    private final Path indexPath;
+    private final Path source;
+    private final Duration serveFor;
+    private final LongSupplier clock;
+    private volatile CompanyDataIndex index;
+    private final List<Consumer<CompanyDataIndex>> listeners = new CopyOnWriteArrayList<>();
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * Open the index of bulk data (if there is one), and start importing newer bulk data (if there is any)
+     *
+     * @param index the index file; if empty, no bulk data is used
+     * @param source the bulk data file to import, if it is newer than the index
+     * @param serveFor how long after it was published the bulk data is served without asking Companies House
+     */
+    @Autowired
+    public CompanyBulkData(@Value("${encity.bulk-data.index:}") String index,
+                           @Value("${encity.bulk-data.source:}") String source,
+                           @Value("${encity.bulk-data.serve-for:35d}") Duration serveFor) {
+        this(index.isEmpty() ? null : Paths.get(index), source.isEmpty() ? null : Paths.get(source), serveFor,
+            System::currentTimeMillis);
+    }
+
+    CompanyBulkData(Path index, Path source, Duration serveFor, LongSupplier clock) {
+        logger.debug("Constructing " + this.getClass().getName() + (index == null ? " (disabled)" : " at " + index));
+
+        this.indexPath = index;
+        this.source = source;
+        this.serveFor = serveFor;
+        this.clock = clock;
+
+        if (index == null) {
+            return;
+        }
+        if (Files.exists(index)) {
+            this.open();
+        }
+        if (source != null && this.isImportNeeded()) {
+            Schedulers.boundedElastic().schedule(this::importSource);
+        }
+    }
+
+    /**
+     * @return true if there is an index to look companies up in
+     */
+    public boolean isReady() { return this.index != null; }
+
+    /**
+     * @return how long after it was published the bulk data is served without asking Companies House
+     */
+    public Duration getServeFor() { return this.serveFor; }
+
+    /**
+     * Be told about the index, as soon as it is open and whenever it is replaced by a newer one.  If it is already
+     * open, the listener is called straight away.
+     *
+     * @param listener called (on the thread that opened the index) with each index that is opened
+     */
+    public void onOpen(Consumer<CompanyDataIndex> listener) {
+        this.listeners.add(listener);
+        CompanyDataIndex index = this.index;
+        if (index != null) {
+            listener.accept(index);
+        }
+    }
+
+    /**
+     * Look up the profile of a company in the bulk data.  The index is read on a bounded elastic thread, since
+     * the part of it that is needed may have to be paged in.
+     *
+     * @param companyNumber the normalised company number
+     * @return a {@link Mono} that publishes the profile, with the age of the bulk data it came from, or completes
+     * empty if the company isn't in the bulk data (or there is no index)
+     */
+    public Mono<CompanySnapshotStore.Snapshot> get(String companyNumber) {
+        CompanyDataIndex index = this.index;
+        if (index == null) {
+            return Mono.empty();
+        }
+
+        return Mono.fromCallable(() -> {
+            try {
+                CompanyResponse response = index.get(companyNumber);
+                if (response == null) {
+                    return null;
+                }
+                long age = Math.max(0, this.clock.getAsLong() - index.getAsOf().toEpochMilli());
+                return new CompanySnapshotStore.Snapshot(response, Duration.ofMillis(age));
+            } catch (IOException e) {
+                logger.warn("Unable to read bulk data for company " + companyNumber + ": " + e.getMessage());
+                return null;
+            }
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Import the bulk data source into the index, and start using it
+     *
+     * @return the outcome of the import
+     */
+    BasicCompanyDataImporter.Result importNow() throws IOException {
+        BasicCompanyDataImporter.Result result = new BasicCompanyDataImporter().importFrom(this.source, this.indexPath);
+        this.open();
+        return result;
+    }
+
+    private boolean isImportNeeded() {
+        try {
+            return !Files.exists(this.indexPath)
+                || Files.getLastModifiedTime(this.source).compareTo(Files.getLastModifiedTime(this.indexPath)) > 0;
+        } catch (IOException e) {
+            logger.error("Unable to read company bulk data from " + this.source + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void importSource() {
+        try {
+            this.importNow();
+        } catch (IOException e) {
+            logger.error("Unable to import company bulk data from " + this.source + ": " + e.getMessage());
+        }
+    }
+
+    private void open() {
+        try {
+            CompanyDataIndex index = CompanyDataIndex.open(this.indexPath);
+            this.index = index;
+            logger.info("Opened company bulk data of " + index.size() + " companies, as of " + index.getAsOf());
+            this.listeners.forEach(listener -> listener.accept(index));
+        } catch (IOException e) {
+            logger.error("Unable to open company bulk data at " + this.indexPath + ": " + e.getMessage());
+        }
+    }
+}
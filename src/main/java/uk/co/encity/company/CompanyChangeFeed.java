@@ -0,0 +1,370 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.netty.http.client.HttpClient;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consumes the Companies House streaming API's feed of changes to company profiles, and keeps the
+ * {@link CompanyProfileCache} up to date with it: a changed profile replaces the one held for the company, and a
+ * deleted company is removed.  Changes to companies that aren't held are ignored.  With the feed running, the cache
+ * TTL (<code>encity.cache.ttl</code>) can be much longer than it could otherwise be, since a profile is replaced
+ * as soon as it changes rather than when it expires.
+ *
+ * The feed is a single long-lived HTTP response of newline-separated JSON events (and blank lines, as heartbeats),
+ * which arrive in chunks that bear no relation to the events.  Each chunk is fed to Jackson's non-blocking parser,
+ * and the tokens are buffered until an event is complete, so nothing blocks and no more than one event is held.
+ *
+ * Every event has a timepoint, and the latest one applied is saved (every few seconds, and when the application
+ * stops) at <code>encity.stream.timepoint-path</code>.  When the feed reconnects, whether after the connection
+ * drops or after a restart, it asks for the events after that timepoint, so that none are missed or replayed.
+ *
+ * The feed is only consumed if <code>encity.stream.key</code> (a streaming API key, which is not the same as a
+ * REST API key) is set.
+ */
+@Component
+public class CompanyChangeFeed implements AutoCloseable {
+
+    /**
+     * The name of the counter of events received, tagged with the type of event and whether the company was held
+     */
+    static final String EVENTS = "encity.stream.events";
+
+    /**
+     * How often the latest timepoint is saved
+     */
+    private static final Duration SAVE_INTERVAL = Duration.ofSeconds(5);
+
+    private static final Duration MAX_RECONNECT_DELAY = Duration.ofMinutes(1);
+
+    private final WebClient webClient;
+    private final Path timepointPath;
+    private final Duration reconnectDelay;
+    private final CompanyProfileCache cache;
+    private final ObjectMapper objectMapper;
+    private final ObjectReader profileReader;
+    private final MeterRegistry registry;
+    private final AtomicLong timepoint = new AtomicLong(-1);
+    private final AtomicLong savedTimepoint = new AtomicLong(-1);
+    private volatile Disposable running;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * Create a consumer of the change feed, and start consuming it (if there is a key to do it with)
+     *
+     * @param url the URL of the Companies House streaming API
+     * @param key the streaming API key; if empty, the feed is not consumed
+     * @param timepointPath the file in which the latest timepoint is saved; if empty, each start begins with the
+     *                      latest events
+     * @param reconnectDelay how long to wait before reconnecting after the feed ends or fails (doubling, up to a
+     *                       minute, while it keeps failing)
+     * @param idleTimeout how long the feed may send nothing (not even a heartbeat) before it is reconnected
+     * @param cache the cache of company profiles that is kept up to date
+     * @param codec the shared codec, whose mapper reads the profiles in the events
+     * @param registry where the counts of events are published, if metrics are available
+     */
+    @Autowired
+    public CompanyChangeFeed(@Value("${encity.stream.url:https://stream.companieshouse.gov.uk}") String url,
+                             @Value("${encity.stream.key:}") String key,
+                             @Value("${encity.stream.timepoint-path:}") String timepointPath,
+                             @Value("${encity.stream.reconnect-delay:5s}") Duration reconnectDelay,
+                             @Value("${encity.stream.idle-timeout:2m}") Duration idleTimeout,
+                             CompanyProfileCache cache, CompanyCodec codec, ObjectProvider<MeterRegistry> registry) {
+        this(key.isEmpty() ? null : webClient(url, key, idleTimeout, codec),
+            timepointPath.isEmpty() ? null : Paths.get(timepointPath), reconnectDelay, cache, codec.getObjectMapper(),
+            registry.getIfAvailable());
+
+        if (this.webClient != null) {
+            this.start();
+        }
+    }
+
+    CompanyChangeFeed(WebClient webClient, Path timepointPath, Duration reconnectDelay, CompanyProfileCache cache,
+                      ObjectMapper objectMapper, MeterRegistry registry) {
+        logger.debug("Constructing " + this.getClass().getName() + (webClient == null ? " (disabled)" : ""));
+
+        this.webClient = webClient;
+        this.timepointPath = timepointPath;
+        this.reconnectDelay = reconnectDelay;
+        this.cache = cache;
+        this.objectMapper = objectMapper;
+        this.profileReader = objectMapper.readerFor(CompanyResponse.class);
+        this.registry = registry;
+
+        long saved = this.readTimepoint();
+        this.timepoint.set(saved);
+        this.savedTimepoint.set(saved);
+    }
+
+    /**
+     * @return the timepoint of the latest event applied (or of the saved timepoint, if there hasn't been one yet),
+     * or -1 if there is none
+     */
+    public long getTimepoint() { return this.timepoint.get(); }
+
+    /**
+     * Consume the feed in the background until closed, reconnecting whenever it ends or fails, and save the
+     * latest timepoint every few seconds
+     */
+    void start() {
+        Flux<Event> events = Flux.defer(this::connect)
+            .retryWhen(Retry.backoff(Long.MAX_VALUE, this.reconnectDelay)
+                .maxBackoff(MAX_RECONNECT_DELAY)
+                .transientErrors(true)
+                .doBeforeRetry(signal -> logger.warn("Company change feed failed, so reconnecting: "
+                    + signal.failure().getMessage())))
+            .repeatWhen(ends -> ends.delayElements(this.reconnectDelay));
+
+        Disposable consuming = events.subscribe();
+        Disposable saving = Flux.interval(SAVE_INTERVAL, SAVE_INTERVAL).subscribe(tick -> this.saveTimepoint());
+        this.running = () -> {
+            consuming.dispose();
+            saving.dispose();
+        };
+    }
+
+    /**
+     * Connect to the feed once, from the event after the latest timepoint, and apply the events it sends
+     *
+     * @return a {@link Flux} that publishes each event once it has been applied, and ends when the feed does
+     */
+    Flux<Event> connect() {
+        long from = this.timepoint.get();
+        logger.info("Connecting to the company change feed" + (from < 0 ? "" : " from timepoint " + (from + 1)));
+
+        EventParser parser = new EventParser();
+        return this.webClient.get()
+            .uri(builder -> from < 0 ? builder.path("/companies").build()
+                : builder.path("/companies").queryParam("timepoint", from + 1).build())
+            .retrieve()
+            .bodyToFlux(byte[].class)
+            .concatMapIterable(parser::feed)
+            .doOnNext(this::apply);
+    }
+
+    /**
+     * Stop consuming the feed, and save the latest timepoint
+     */
+    @Override
+    public void close() {
+        Disposable running = this.running;
+        if (running != null) {
+            running.dispose();
+            this.running = null;
+        }
+        this.saveTimepoint();
+    }
+
+    private void apply(Event event) {
+        boolean held = false;
+        if (event.companyNumber != null && "company-profile".equals(event.kind)) {
+            if (event.profile != null) {
+                held = this.cache.update(event.companyNumber, event.profile);
+            } else {
+                held = this.cache.invalidate(event.companyNumber);
+            }
+        }
+        if (held) {
+            logger.debug("Company " + event.companyNumber + " " + event.type + " at timepoint " + event.timepoint);
+        }
+        if (this.registry != null) {
+            Counter.builder(EVENTS)
+                .description("Events received from the Companies House change feed")
+                .tag("type", String.valueOf(event.type))
+                .tag("held", String.valueOf(held))
+                .register(this.registry)
+                .increment();
+        }
+        this.timepoint.accumulateAndGet(event.timepoint, Math::max);
+    }
+
+    private long readTimepoint() {
+        if (this.timepointPath == null || !Files.exists(this.timepointPath)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(this.timepointPath), StandardCharsets.US_ASCII).trim());
+        } catch (IOException | NumberFormatException e) {
+            logger.error("Unable to read the company change feed timepoint from " + this.timepointPath + ": "
+                + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Save the latest timepoint, if it has changed, by writing it to a new file that replaces the old one
+     */
+    private synchronized void saveTimepoint() {
+        long latest = this.timepoint.get();
+        if (this.timepointPath == null || latest == this.savedTimepoint.get()) {
+            return;
+        }
+        try {
+            Path saving = this.timepointPath.resolveSibling(this.timepointPath.getFileName() + ".saving");
+            Files.write(saving, Long.toString(latest).getBytes(StandardCharsets.US_ASCII));
+            Files.move(saving, this.timepointPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            this.savedTimepoint.set(latest);
+        } catch (IOException e) {
+            logger.error("Unable to save the company change feed timepoint to " + this.timepointPath + ": "
+                + e.getMessage());
+        }
+    }
+
+    private static WebClient webClient(String url, String key, Duration idleTimeout, CompanyCodec codec) {
+        // No response timeout, since the response never ends; a feed that goes quiet is caught by the read timeout
+        HttpClient httpClient = HttpClient.create()
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10_000)
+            .doOnConnected(connection -> connection
+                .addHandlerLast(new ReadTimeoutHandler(idleTimeout.toMillis(), TimeUnit.MILLISECONDS)));
+        return CompaniesHouseClientConfig
+            .webClientBuilder(url, key, codec, new ReactorClientHttpConnector(httpClient))
+            .build();
+    }
+
+    /**
+     * An event from the change feed.  The profile is null if the company was deleted (or if the profile couldn't be
+     * read, in which case the company is treated as deleted, so that it is fetched again when next asked for).
+     */
+    static class Event {
+        String kind;
+        String companyNumber;
+        CompanyResponse profile;
+        String type;
+        long timepoint = -1;
+
+        String getCompanyNumber() { return this.companyNumber; }
+        CompanyResponse getProfile() { return this.profile; }
+        String getType() { return this.type; }
+        long getTimepoint() { return this.timepoint; }
+    }
+
+    /**
+     * Splits the chunks of the feed into events, using a non-blocking parser that is fed each chunk as it arrives
+     * and copies its tokens into a buffer until a whole event has been seen
+     */
+    private class EventParser {
+        private final JsonParser parser;
+        private final ByteArrayFeeder feeder;
+        private TokenBuffer tokens;
+        private int depth;
+
+        EventParser() {
+            try {
+                this.parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.feeder = (ByteArrayFeeder) this.parser.getNonBlockingInputFeeder();
+        }
+
+        /**
+         * @return the events completed by a chunk
+         */
+        List<Event> feed(byte[] chunk) {
+            List<Event> events = new ArrayList<>();
+            try {
+                this.feeder.feedInput(chunk, 0, chunk.length);
+                JsonToken token;
+                while ((token = this.parser.nextToken()) != JsonToken.NOT_AVAILABLE && token != null) {
+                    if (this.tokens == null) {
+                        this.tokens = new TokenBuffer(this.parser);
+                    }
+                    this.tokens.copyCurrentEvent(this.parser);
+
+                    this.depth += token.isStructStart() ? 1 : token.isStructEnd() ? -1 : 0;
+                    if (this.depth == 0) {
+                        events.add(this.read(this.tokens.asParser(objectMapper)));
+                        this.tokens = null;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return events;
+        }
+
+        private Event read(JsonParser p) throws IOException {
+            Event event = new Event();
+            TokenBuffer data = null;
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return event;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                switch (field) {
+                    case "resource_kind":
+                        event.kind = p.getValueAsString();
+                        break;
+                    case "resource_id":
+                        event.companyNumber = p.getValueAsString();
+                        break;
+                    case "data":
+                        // Kept until the type of event is known, since a deleted company's data isn't a profile
+                        data = new TokenBuffer(p);
+                        data.copyCurrentStructure(p);
+                        break;
+                    case "event":
+                        while (p.nextToken() == JsonToken.FIELD_NAME) {
+                            String name = p.getCurrentName();
+                            p.nextToken();
+                            if ("type".equals(name)) {
+                                event.type = p.getValueAsString();
+                            } else if ("timepoint".equals(name)) {
+                                event.timepoint = p.getValueAsLong(-1);
+                            } else {
+                                p.skipChildren();
+                            }
+                        }
+                        break;
+                    default:
+                        p.skipChildren();
+                }
+            }
+
+            if (data != null && !"deleted".equals(event.type)) {
+                try {
+                    event.profile = profileReader.readValue(data.asParser(objectMapper));
+                } catch (IOException e) {
+                    logger.warn("Unable to read the profile of company " + event.companyNumber + " at timepoint "
+                        + event.timepoint + ": " + e.getMessage());
+                }
+            }
+            return event;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.CodecConfigurer;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the single, shared {@link ObjectMapper} used to read {@link CompanyResponse} objects from Companies House
+ * and to write them to our own clients.
+ *
+ * The mapper is expensive to build and keeps caches of (de)serializers, so it is created once here and handed
+ * to both the WebClient decoders and the WebFlux encoders, rather than being re-created for every response.
+ *
+ * If metrics are available, the time spent in the {@link CompanyResponse} deserializer and serializers is
+ * recorded as the <code>encity.company.json</code> timer, tagged with the <code>operation</code>.  This is the
+ * time spent turning tokens into objects and back, excluding network and buffering.
+ *
+ * Optionally, a profile on its own is written to our clients by a {@link PreSerializedWriter}, which keeps the
+ * JSON (and, optionally, gzipped JSON) with the profile, so that a cache hit doesn't go through Jackson again.
+ */
+@Component
+public class CompanyCodec implements CodecCustomizer {
+
+    /**
+     * Companies House is asked for <code>text/json</code>, so the decoder must accept that as well as the
+     * usual JSON media types
+     */
+    private static final MimeType[] MIME_TYPES = {
+        MediaType.APPLICATION_JSON,
+        new MimeType("text", "json"),
+        new MediaType("application", "*+json")
+    };
+
+    static final String JSON_TIMER = "encity.company.json";
+
+    private final ObjectMapper objectMapper;
+    private final Jackson2JsonDecoder decoder;
+    private final Jackson2JsonEncoder encoder;
+    private final PreSerializedWriter preSerializedWriter;
+    private final boolean gzip;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * Builds the shared mapper, registering the bespoke {@link CompanyResponse} (de)serializers once only, without
+     * timing them
+     */
+    public CompanyCodec() {
+        this((MeterRegistry) null, false, false);
+    }
+
+    /**
+     * Builds the shared mapper, timing the (de)serializers if metrics are available
+     *
+     * @param registry where the (de)serialization timings are published
+     * @param preSerialize whether to keep the JSON written for each profile, and write it again rather than
+     *                     serializing the profile again
+     * @param gzip whether also to keep gzipped JSON, for clients that accept it (only if pre-serializing)
+     */
+    @Autowired
+    public CompanyCodec(ObjectProvider<MeterRegistry> registry,
+                        @Value("${encity.cache.pre-serialize:false}") boolean preSerialize,
+                        @Value("${encity.cache.pre-serialize-gzip:false}") boolean gzip) {
+        this(registry.getIfAvailable(), preSerialize, gzip);
+    }
+
+    CompanyCodec(MeterRegistry registry) {
+        this(registry, false, false);
+    }
+
+    CompanyCodec(MeterRegistry registry, boolean preSerialize, boolean gzip) {
+        logger.debug("Constructing " + this.getClass().getName() + (preSerialize ? " with pre-serialization" : ""));
+
+        JsonDeserializer<CompanyResponse> deserializer = new CompanyResponseDeserializer();
+        JsonSerializer<CompanyResponse> serializer = new CompanyResponseSerializer();
+        JsonSerializer<CompanyResponseSelection> selectionSerializer =
+            new CompanyResponseSerializer.SelectionSerializer();
+        JsonSerializer<CompanyComposite> compositeSerializer = new CompanyResponseSerializer.CompositeSerializer();
+        if (registry != null) {
+            Timer serializeTimer = timer(registry, "serialize");
+            deserializer = new TimedDeserializer<>(deserializer, timer(registry, "deserialize"));
+            serializer = new TimedSerializer<>(serializer, serializeTimer);
+            selectionSerializer = new TimedSerializer<>(selectionSerializer, serializeTimer);
+            compositeSerializer = new TimedSerializer<>(compositeSerializer, serializeTimer);
+        }
+
+        SimpleModule module = new SimpleModule("CompanyResponseModule");
+        module.addDeserializer(CompanyResponse.class, deserializer);
+        module.addSerializer(CompanyResponse.class, serializer);
+        module.addSerializer(CompanyResponseSelection.class, selectionSerializer);
+        module.addSerializer(CompanyComposite.class, compositeSerializer);
+
+        this.objectMapper = Jackson2ObjectMapperBuilder.json().modulesToInstall(module).build();
+        this.decoder = new Jackson2JsonDecoder(this.objectMapper, MIME_TYPES);
+        this.encoder = new Jackson2JsonEncoder(this.objectMapper);
+        this.preSerializedWriter = preSerialize ? new PreSerializedWriter(this.objectMapper) : null;
+        this.gzip = preSerialize && gzip;
+    }
+
+    public ObjectMapper getObjectMapper() { return this.objectMapper; }
+
+    /**
+     * @return true if a profile on its own can be sent as gzipped JSON, to the clients that accept it
+     */
+    public boolean isGzipEnabled() { return this.gzip; }
+    public Jackson2JsonDecoder getDecoder() { return this.decoder; }
+    public Jackson2JsonEncoder getEncoder() { return this.encoder; }
+
+    /**
+     * Install the shared decoder and encoder into a set of codecs.  Spring Boot calls this for the WebFlux
+     * server codecs (after its own Jackson customizer, since this one has the lowest precedence), and the
+     * Companies House WebClient calls it explicitly for its client codecs.  If pre-serializing, the
+     * {@link PreSerializedWriter} is installed into the server codecs too, ahead of the Jackson encoder.
+     *
+     * @param configurer the server or client codec configurer to be customized
+     */
+    @Override
+    public void customize(CodecConfigurer configurer) {
+        configurer.defaultCodecs().jackson2JsonDecoder(this.decoder);
+        configurer.defaultCodecs().jackson2JsonEncoder(this.encoder);
+        if (this.preSerializedWriter != null && configurer instanceof ServerCodecConfigurer) {
+            configurer.customCodecs().register(this.preSerializedWriter);
+        }
+    }
+
+    private static Timer timer(MeterRegistry registry, String operation) {
+        return Timer.builder(JSON_TIMER)
+            .description("Time spent (de)serializing company profiles")
+            .tag("operation", operation)
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+
+    /**
+     * Times a deserializer, for the <code>encity.company.json</code> metric
+     */
+    private static class TimedDeserializer<T> extends JsonDeserializer<T> {
+        private final JsonDeserializer<T> delegate;
+        private final Timer timer;
+
+        TimedDeserializer(JsonDeserializer<T> delegate, Timer timer) {
+            this.delegate = delegate;
+            this.timer = timer;
+        }
+
+        @Override
+        public T deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return this.delegate.deserialize(p, ctxt);
+            } finally {
+                this.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public Class<?> handledType() { return this.delegate.handledType(); }
+    }
+
+    /**
+     * Times a serializer, for the <code>encity.company.json</code> metric
+     */
+    private static class TimedSerializer<T> extends JsonSerializer<T> {
+        private final JsonSerializer<T> delegate;
+        private final Timer timer;
+
+        TimedSerializer(JsonSerializer<T> delegate, Timer timer) {
+            this.delegate = delegate;
+            this.timer = timer;
+        }
+
+        @Override
+        public void serialize(T value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            long start = System.nanoTime();
+            try {
+                this.delegate.serialize(value, gen, serializers);
+            } finally {
+                this.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public Class<T> handledType() { return this.delegate.handledType(); }
+    }
+}
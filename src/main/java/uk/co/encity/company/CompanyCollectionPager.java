@@ -0,0 +1,182 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Walks through the pages of one of a company's collections at Companies House (see {@link CompanySubResource}),
+ * however many there are, and publishes the items on them one by one.
+ *
+ * Pages are only fetched as the items are asked for: while the items on one page are being taken, the next page
+ * is fetched, but no more than that.  Each page arrives in chunks, which are fed to Jackson's non-blocking parser
+ * as they come, and only the tokens of the items on it are kept.  So at most two pages' worth of items are held at
+ * once, whether the collection has ten items or ten thousand, and a consumer that stops asking stops the paging.
+ */
+class CompanyCollectionPager {
+
+    /**
+     * The most items on a page of a Companies House collection, which is the size of the pages asked for
+     */
+    static final int PAGE_SIZE = CompanyController.MAX_ITEMS_PER_PAGE;
+
+    /**
+     * Any factory can make the parsers, since the items are copied token by token rather than read into objects
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final WebClient webClient;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * @param webClient the client that calls Companies House
+     */
+    CompanyCollectionPager(WebClient webClient) {
+        this.webClient = webClient;
+    }
+
+    /**
+     * Publish the items in one of a company's collections
+     *
+     * @param companyNumber the Company Number assigned by Companies House
+     * @param part the collection
+     * @param startIndex the index of the first item to publish
+     * @return a {@link Flux} that publishes each item, and ends after the last; or that fails with a
+     * {@link WebClientResponseException} if Companies House responds to any page with an error status
+     */
+    Flux<Item> items(String companyNumber, CompanySubResource part, int startIndex) {
+        String n = CompanyNumbers.normalise(companyNumber);
+        return this.page(n, part, startIndex)
+            .expand(page -> page.hasMore() ? this.page(n, part, page.next()) : Mono.empty())
+            // One page is taken from while the next is fetched
+            .concatMapIterable(Page::getItems, 1);
+    }
+
+    /**
+     * Fetch one page of a collection, parsing it as it arrives
+     */
+    private Mono<Page> page(String companyNumber, CompanySubResource part, int startIndex) {
+        logger.debug("Retrieving " + part.getName() + " for company number " + companyNumber + " from " + startIndex);
+        return this.webClient
+            .get()
+            .uri(builder -> builder
+                .path("/company/{companyNumber}/" + part.getPath())
+                .queryParam("items_per_page", PAGE_SIZE)
+                .queryParam("start_index", startIndex)
+                .build(companyNumber))
+            .retrieve()
+            .bodyToFlux(byte[].class)
+            .collect(() -> new Page(startIndex), Page::feed);
+    }
+
+    /**
+     * An item in a collection, as the tokens it was received as, and its index in the collection
+     */
+    static class Item {
+        private final int index;
+        private final TokenBuffer json;
+
+        Item(int index, TokenBuffer json) {
+            this.index = index;
+            this.json = json;
+        }
+
+        int getIndex() { return this.index; }
+        TokenBuffer getJson() { return this.json; }
+    }
+
+    /**
+     * A page of a collection, which is fed each chunk of the page as it arrives.  The items are copied out of the
+     * <code>items</code> array, and the size of the collection (<code>total_results</code>, or
+     * <code>total_count</code> for filing history) is noted, if there is one; anything else is skipped.
+     */
+    static class Page {
+        private final int startIndex;
+        private final List<Item> items = new ArrayList<>();
+        private final JsonParser parser;
+        private final ByteArrayFeeder feeder;
+        private int total = -1;
+        private int depth;
+        private String field;
+        private boolean inItems;
+        private TokenBuffer item;
+
+        Page(int startIndex) {
+            this.startIndex = startIndex;
+            try {
+                this.parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.feeder = (ByteArrayFeeder) this.parser.getNonBlockingInputFeeder();
+        }
+
+        List<Item> getItems() { return this.items; }
+
+        /**
+         * @return whether there are items after the ones on this page, which is if the collection is known to be
+         * bigger, or (if its size isn't known) if the page is full
+         */
+        boolean hasMore() {
+            return !this.items.isEmpty() && (this.total < 0 ? this.items.size() >= PAGE_SIZE : this.next() < this.total);
+        }
+
+        /**
+         * @return the index of the first item after the ones on this page
+         */
+        int next() { return this.startIndex + this.items.size(); }
+
+        void feed(byte[] chunk) {
+            try {
+                this.feeder.feedInput(chunk, 0, chunk.length);
+                JsonToken token;
+                while ((token = this.parser.nextToken()) != JsonToken.NOT_AVAILABLE && token != null) {
+                    this.accept(token);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void accept(JsonToken token) throws IOException {
+            if (this.item != null) {
+                this.item.copyCurrentEvent(this.parser);
+                this.depth += token.isStructStart() ? 1 : token.isStructEnd() ? -1 : 0;
+                if (this.depth == 2) {
+                    this.items.add(new Item(this.next(), this.item));
+                    this.item = null;
+                }
+            } else if (token.isStructStart()) {
+                this.depth++;
+                if (this.depth == 2 && token == JsonToken.START_ARRAY && "items".equals(this.field)) {
+                    this.inItems = true;
+                } else if (this.depth == 3 && this.inItems) {
+                    this.item = new TokenBuffer(this.parser);
+                    this.item.copyCurrentEvent(this.parser);
+                }
+            } else if (token.isStructEnd()) {
+                this.depth--;
+                this.inItems &= this.depth > 1;
+            } else if (this.depth == 1 && token == JsonToken.FIELD_NAME) {
+                this.field = this.parser.getCurrentName();
+            } else if (this.depth == 1 && token == JsonToken.VALUE_NUMBER_INT
+                && ("total_results".equals(this.field) || "total_count".equals(this.field))) {
+                this.total = this.parser.getIntValue();
+            }
+        }
+    }
+}
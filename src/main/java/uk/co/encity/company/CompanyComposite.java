@@ -0,0 +1,38 @@
+package uk.co.encity.company;
+
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A company profile with some of its collections (see {@link CompanySubResource}) alongside, as asked for by a
+ * client with the <code>expand</code> parameter, and written by {@link CompanyResponseSerializer.CompositeSerializer}.
+ * The collections are held as the JSON received from Companies House.
+ */
+@Getter
+public final class CompanyComposite {
+    private final CompanyResponse response;
+    private final int fields;
+    private final Map<CompanySubResource, String> parts;
+    private final Set<CompanySubResource> unavailable;
+
+    /**
+     * @param response the profile
+     * @param fields the fields of the profile to write, as a mask (see {@link CompanyResponseSerializer#fields(String)})
+     * @param parts the JSON of each collection that was fetched
+     * @param unavailable the collections that were asked for, but couldn't be fetched in time
+     */
+    CompanyComposite(CompanyResponse response, int fields, Map<CompanySubResource, String> parts,
+                     Set<CompanySubResource> unavailable) {
+        this.response = response;
+        this.fields = fields;
+        this.parts = parts;
+        this.unavailable = unavailable;
+    }
+
+    /**
+     * @return true if any collection that was asked for is missing
+     */
+    public boolean isPartial() { return !this.unavailable.isEmpty(); }
+}
@@ -1,6 +1,6 @@
 package uk.co.encity.company;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 
 // Spring HATEOAS won't work with Webflux + Netty so abandoned for now
@@ -14,24 +14,32 @@ import org.springframework.beans.factory.annotation.Value;
 //import org.springframework.hateoas.Links;
 
 import org.springframework.http.*;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.converter.HttpMessageNotWritableException;
-import org.springframework.util.Base64Utils;
+import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.Logger;
 import reactor.util.Loggers;
 
-import java.io.IOException;
-import java.net.URI;
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 /**
  * A web controller that provides access to Companies House services.
@@ -40,66 +48,75 @@ import java.util.Collections;
 @RestController
 public class CompanyController {
 
-    private WebClient webClient = null;
+    /**
+     * The name of the counter of failed company lookups, tagged with the type of failure
+     */
+    static final String ERRORS = "encity.company.errors";
 
-    private Logger logger = Loggers.getLogger(getClass());
-    private final String apiKey;
-    private final String apiURL;
+    /**
+     * The most companies that a search can return
+     */
+    static final int MAX_SEARCH_LIMIT = 100;
 
     /**
-     * This constructor creates an instance of the controller that will use a given API key (allocated
-     * by Companies House) to access services at a given URL.
-     *
-     * @param apiKey the API Key allocated by Companies House (used as the username in basic authentication)
-     * @param apiURL the URL of the downstream server that implements the Companies House API
+     * The name of the counter of collections that couldn't be fetched alongside a profile, tagged with the
+     * collection and the type of failure
      */
-    public CompanyController(@Value("${ch.api.key}") String apiKey, @Value("${ch.api.url}") String apiURL) {
-        logger.debug("Constructing " + this.getClass().getName());
+    static final String PARTS_UNAVAILABLE = "encity.company.parts.unavailable";
 
-        this.apiKey = apiKey;
-        this.apiURL = apiURL;
+    /**
+     * The most items in a page of a collection, which is also the most that Companies House returns
+     */
+    static final int MAX_ITEMS_PER_PAGE = 100;
 
-        this.webClient = WebClient.builder()
-                .baseUrl(this.apiURL)
-                .defaultHeader(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate")
-                .defaultHeader(HttpHeaders.ACCEPT, "text/json")
-                .defaultHeader(
-                        HttpHeaders.AUTHORIZATION,
-                        "Basic" + " " + Base64Utils.encodeToString((this.apiKey + ":").getBytes(StandardCharsets.UTF_8)))
-                .build();
+    private WebClient webClient = null;
+    private final CompanyProfileCache profileCache;
+    private final CompanyNameIndex nameIndex;
+    private final MeterRegistry registry;
 
-        logger.debug("Construction of " + this.getClass().getName() + " is complete");
-        return;
-    }
+    private Logger logger = Loggers.getLogger(getClass());
+    private final int batchConcurrency;
+    private final int batchMaxSize;
+    private final CacheControl cacheControl;
+    private final Duration partTimeout;
+    private final CompanyCollectionPager pager;
+    private final boolean gzip;
 
     /**
-     * This method shows how I got a synchronous call working, but RestTemplate is deprecated.  This is here
-     * purely for my reference for now, but it should not be called, and will be deleted in due course
+     * This constructor creates an instance of the controller that accesses Companies House services through a
+     * given client (which holds the API key allocated by Companies House, and the URL of its services).
+     *
+     * @param webClient the client used to call Companies House (see {@link CompaniesHouseClientConfig})
+     * @param profileCache the cache of company profiles that sits in front of Companies House
+     * @param nameIndex the index of company names that searches are answered from
+     * @param registry where the counts of failed lookups are published
+     * @param codec the codec that writes to our clients (which says whether profiles can be sent gzipped)
+     * @param batchConcurrency the most companies in a batch that are looked up at once
+     * @param batchMaxSize the most companies that can be asked for in one batch
+     * @param clientMaxAge how long our clients may cache a company profile before revalidating it
+     * @param partTimeout the longest to wait for each collection fetched alongside a profile
      */
-    @Deprecated
-    @GetMapping("/company/s/{companyNumber}")
-    public String getCustomerByCompanyNumberSync(@PathVariable String companyNumber) {
-        RestTemplate restTemplate = new RestTemplate();
-        URI uri = null;
-        String apiKey = this.apiKey;
-        HttpHeaders headers = new HttpHeaders();
-        headers.setAccept(Collections.singletonList(MediaType.TEXT_PLAIN)); // There is no TEXT_JSON, but this works
-        headers.setBasicAuth(Base64Utils.encodeToString((apiKey + ":").getBytes(StandardCharsets.UTF_8)));
-        HttpEntity<String> httpEntity = new HttpEntity<>("body", headers);
-
-        ResponseEntity<String> response = null;
-
-        try {
-            uri = new URI(this.apiURL + "/company/" + companyNumber);
-            response = restTemplate.exchange(uri, HttpMethod.GET, httpEntity, String.class);
-        } catch (Exception ignored) {
-            ignored.printStackTrace();
-        }
+    public CompanyController(WebClient webClient, CompanyProfileCache profileCache, CompanyNameIndex nameIndex,
+                             MeterRegistry registry, CompanyCodec codec,
+                             @Value("${encity.batch.concurrency:16}") int batchConcurrency,
+                             @Value("${encity.batch.max-size:500}") int batchMaxSize,
+                             @Value("${encity.cache.client-max-age:5m}") Duration clientMaxAge,
+                             @Value("${encity.expand.timeout:2s}") Duration partTimeout) {
+        logger.debug("Constructing " + this.getClass().getName());
 
-        //response = restTemplate.exchange(uri, HttpMethod.GET, httpEntity, String.class);
+        this.webClient = webClient;
+        this.profileCache = profileCache;
+        this.nameIndex = nameIndex;
+        this.registry = registry;
+        this.batchConcurrency = batchConcurrency;
+        this.batchMaxSize = batchMaxSize;
+        this.cacheControl = CacheControl.maxAge(clientMaxAge).cachePrivate();
+        this.partTimeout = partTimeout;
+        this.pager = new CompanyCollectionPager(webClient);
+        this.gzip = codec.isGzipEnabled();
 
-        String result = response.getBody();
-        return result;
+        logger.debug("Construction of " + this.getClass().getName() + " is complete");
+        return;
     }
 
     /**
@@ -146,6 +163,39 @@ public class CompanyController {
     }
 
 
+    /**
+     * An exception handler that turns a request away (rather than queueing it for longer) when sending it
+     * to Companies House would exceed our rate limit.
+     *
+     * @param ex the exception raised by the rate limiter
+     * @return a 503 response, telling the client when to try again
+     */
+    @ExceptionHandler(RateLimitExceededException.class)
+    public ResponseEntity<String> handleRateLimitExceededException(RateLimitExceededException ex) {
+        logger.debug(ex.getMessage());
+        return serviceUnavailable(ex.getRetryAfter());
+    }
+
+    /**
+     * An exception handler that fails a request fast while Companies House is failing (and there is no stale
+     * copy of the company in the cache to serve instead).
+     *
+     * @param ex the exception raised by the circuit breaker
+     * @return a 503 response, telling the client when to try again
+     */
+    @ExceptionHandler(CircuitOpenException.class)
+    public ResponseEntity<String> handleCircuitOpenException(CircuitOpenException ex) {
+        logger.debug(ex.getMessage());
+        return serviceUnavailable(ex.getRetryAfter());
+    }
+
+    static ResponseEntity<String> serviceUnavailable(Duration retryAfter) {
+        long seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, Long.toString(seconds))
+            .body("");
+    }
+
     @ExceptionHandler(HttpMessageNotWritableException.class)
     public ResponseEntity<String> handleHttpMessageNotWritableException(HttpMessageNotWritableException ex) {
         logger.debug("Received " + ex.getMessage() + " from downstream server");
@@ -154,25 +204,293 @@ public class CompanyController {
     }
 
     /**
-     * Get details of a given company
+     * Get details of a given company.  The response has a strong ETag, derived from the version of the profile at
+     * Companies House, so a client that sends it back in <code>If-None-Match</code> gets a 304 (which WebFlux
+     * answers before the body is serialized).  A stale cached profile is revalidated with Companies House in the
+     * same way, so an unchanged profile is neither downloaded nor de-serialised again.
+     *
+     * A client that needs less than the whole profile can name the top-level fields it wants, e.g.
+     * <code>?fields=accounts,companyStatus</code>, and gets a smaller body (with an ETag of its own).  If gzip is
+     * enabled, the whole profile is sent gzipped to a client that accepts it, also with an ETag of its own.
+     *
+     * A client can also have some of the company's collections (see {@link CompanySubResource}) written alongside
+     * the profile, e.g. <code>?expand=officers,filings</code>, which saves it a round trip for each.  They are
+     * fetched from Companies House in parallel with the profile, each with a timeout of its own: a collection that
+     * isn't fetched in time (or at all) is left out and named in <code>unavailable</code>, rather than holding up
+     * or failing the whole response.
+     *
      * @param companyNumber the Company Number assigned by Companies House
+     * @param fields the top-level fields to return, separated by commas, or null for all of them
+     * @param expand the collections to return alongside the profile, separated by commas, or null for none
      * @param uriBuilder a {@link UriComponentsBuilder} that is configured for this service
+     * @param request the request, whose <code>Accept-Encoding</code> says whether it may be sent gzipped JSON
      * @return a well-formed RESTful / HATEOAS style response containing company details, or an error status
      */
     @CrossOrigin
     @GetMapping("/companies/{companyNumber}")
-    public Mono<ResponseEntity<CompanyResponse>> getCompanyDetails(@PathVariable String companyNumber,
-                                                                       UriComponentsBuilder uriBuilder) {
-        // Configure and initiate the WebClient so that when it executes it produces the right kind of Mono
+    public Mono<ResponseEntity<?>> getCompanyDetails(@PathVariable String companyNumber,
+                                                     @RequestParam(required = false) String fields,
+                                                     @RequestParam(required = false) String expand,
+                                                     UriComponentsBuilder uriBuilder,
+                                                     ServerHttpRequest request) {
+        int selected;
+        Set<CompanySubResource> parts;
+        try {
+            selected = CompanyResponseSerializer.fields(fields);
+            parts = expand == null ? Collections.emptySet() : CompanySubResource.parse(expand);
+        } catch (IllegalArgumentException e) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()));
+        }
+
+        if (parts.isEmpty() && selected == CompanyResponseSerializer.ALL && this.gzip) {
+            boolean gzipped = PreSerializedWriter.acceptsGzip(request);
+            return this.getCompanyDetails(companyNumber, uriBuilder).map(entity -> Responder.encode(entity, gzipped));
+        }
+        if (parts.isEmpty()) {
+            return this.getCompanyDetails(companyNumber, uriBuilder).map(entity -> Responder.select(entity, selected));
+        }
 
-        Responder responder = new Responder(uriBuilder, companyNumber);
+        // The profile and each collection are all fetched at once; only the profile is needed to respond
+        List<Mono<?>> fetches = new ArrayList<>(parts.size() + 1);
+        fetches.add(this.getCompanyDetails(companyNumber, uriBuilder));
+        for (CompanySubResource part : parts) {
+            fetches.add(this.getPart(companyNumber, part, null, null)
+                .map(entity -> Optional.ofNullable(entity.getBody()))
+                .timeout(this.partTimeout)
+                .onErrorResume(e -> {
+                    logger.debug("Unable to fetch " + part.getName() + " of company " + companyNumber + ": " + e);
+                    this.registry.counter(PARTS_UNAVAILABLE, "part", part.getName(), "type",
+                        e.getClass().getSimpleName()).increment();
+                    return Mono.just(Optional.empty());
+                }));
+        }
+        return Mono.zip(fetches, results -> Responder.compose(results, parts, selected));
+    }
+
+    /**
+     * Get a page of one of a company's collections (its officers, filing history, or persons with significant
+     * control), as received from Companies House.  The response has a strong ETag, derived from the version of the
+     * page at Companies House, so a client that sends it back in <code>If-None-Match</code> gets a 304.
+     *
+     * @param companyNumber the Company Number assigned by Companies House
+     * @param collection the collection, named as it is at Companies House
+     * @param itemsPerPage the most items to return, or null for the Companies House default
+     * @param startIndex the index of the first item to return, or null to start at the first
+     * @param uriBuilder a {@link UriComponentsBuilder} that is configured for this service
+     * @return a response containing the page of the collection, or an error status
+     */
+    @CrossOrigin
+    @GetMapping("/companies/{companyNumber}/{collection:officers|filing-history|persons-with-significant-control}")
+    public Mono<ResponseEntity<String>> getCompanyCollection(@PathVariable String companyNumber,
+                                                             @PathVariable String collection,
+                                                             @RequestParam(required = false) Integer itemsPerPage,
+                                                             @RequestParam(required = false) Integer startIndex,
+                                                             UriComponentsBuilder uriBuilder) {
+        if (itemsPerPage != null && (itemsPerPage < 1 || itemsPerPage > MAX_ITEMS_PER_PAGE)) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "The items per page must be between 1 and " + MAX_ITEMS_PER_PAGE));
+        }
+        if (startIndex != null && startIndex < 0) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "The start index must not be negative"));
+        }
+
+        CompanySubResource part = CompanySubResource.forPath(collection);
+        logger.debug("Retrieving " + part.getName() + " for company number " + companyNumber);
+        Responder responder = new Responder(uriBuilder, companyNumber, this.cacheControl);
+        return this.getPart(companyNumber, part, itemsPerPage, startIndex)
+            .map(entity -> responder.makeResponse(part, entity))
+            .doOnError(this::countError);
+    }
 
-        Mono<ResponseEntity<CompanyResponse>> result = this.webClient
+    /**
+     * Stream the whole of one of a company's collections, as newline-delimited JSON (one item per line), for a
+     * client that accepts <code>application/x-ndjson</code>.  The pages are fetched from Companies House as the
+     * client reads the items (see {@link CompanyCollectionPager}), so a slow client slows the paging down rather
+     * than having the collection held for it.
+     *
+     * Once the first item has been sent, the status can't be changed, so if a later page can't be fetched the
+     * response is cut short.
+     *
+     * @param companyNumber the Company Number assigned by Companies House
+     * @param collection the collection, named as it is at Companies House
+     * @param startIndex the index of the first item to return, or null to start at the first
+     * @return each item in the collection, or an error status
+     */
+    @CrossOrigin
+    @GetMapping(value = "/companies/{companyNumber}/{collection:officers|filing-history|persons-with-significant-control}",
+        produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<TokenBuffer> streamCompanyCollection(@PathVariable String companyNumber,
+                                                     @PathVariable String collection,
+                                                     @RequestParam(required = false) Integer startIndex) {
+        return this.streamItems(companyNumber, collection, startIndex)
+            .map(CompanyCollectionPager.Item::getJson);
+    }
+
+    /**
+     * Stream the whole of one of a company's collections as server-sent events, as
+     * {@link #streamCompanyCollection(String, String, Integer)} does, for a client that accepts
+     * <code>text/event-stream</code>.  Each event's ID is the index of its item, so a client that reconnects with
+     * <code>Last-Event-ID</code> carries on from the item after the last one it received.
+     *
+     * @param companyNumber the Company Number assigned by Companies House
+     * @param collection the collection, named as it is at Companies House
+     * @param startIndex the index of the first item to return, or null to start at the first
+     * @param lastEventId the index of the last item received, when reconnecting
+     * @return an event for each item in the collection, or an error status
+     */
+    @CrossOrigin
+    @GetMapping(value = "/companies/{companyNumber}/{collection:officers|filing-history|persons-with-significant-control}",
+        produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<TokenBuffer>> streamCompanyCollectionEvents(
+            @PathVariable String companyNumber,
+            @PathVariable String collection,
+            @RequestParam(required = false) Integer startIndex,
+            @RequestHeader(value = "Last-Event-ID", required = false) Integer lastEventId) {
+        return this.streamItems(companyNumber, collection, lastEventId != null ? lastEventId + 1 : startIndex)
+            .map(item -> ServerSentEvent.builder(item.getJson()).id(Integer.toString(item.getIndex())).build());
+    }
+
+    private Flux<CompanyCollectionPager.Item> streamItems(String companyNumber, String collection,
+                                                          Integer startIndex) {
+        if (startIndex != null && startIndex < 0) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "The start index must not be negative"));
+        }
+
+        CompanySubResource part = CompanySubResource.forPath(collection);
+        logger.debug("Streaming " + part.getName() + " for company number " + companyNumber);
+        return this.pager.items(companyNumber, part, startIndex == null ? 0 : startIndex)
+            .doOnError(this::countError);
+    }
+
+    /**
+     * Get a page of one of a company's collections from Companies House
+     *
+     * @param companyNumber the Company Number assigned by Companies House
+     * @param part the collection
+     * @param itemsPerPage the most items to return, or null for the Companies House default
+     * @param startIndex the index of the first item to return, or null to start at the first
+     * @return a {@link Mono} that publishes the response from Companies House, or a
+     * {@link WebClientResponseException} if Companies House responded with an error status
+     */
+    Mono<ResponseEntity<String>> getPart(String companyNumber, CompanySubResource part, Integer itemsPerPage,
+                                         Integer startIndex) {
+        String n = CompanyNumbers.normalise(companyNumber);
+        return this.webClient
+            .get()
+            .uri(builder -> builder
+                .path("/company/{companyNumber}/" + part.getPath())
+                .queryParamIfPresent("items_per_page", Optional.ofNullable(itemsPerPage))
+                .queryParamIfPresent("start_index", Optional.ofNullable(startIndex))
+                .build(n))
+            .retrieve()
+            .toEntity(String.class);
+    }
+
+    /**
+     * Get the whole profile of a given company, as {@link #getCompanyDetails(String, String, String, UriComponentsBuilder)}
+     * does
+     *
+     * @param companyNumber the Company Number assigned by Companies House
+     * @param uriBuilder a {@link UriComponentsBuilder} that is configured for this service
+     * @return a response containing company details, or an error status
+     */
+    public Mono<ResponseEntity<CompanyResponse>> getCompanyDetails(String companyNumber,
+                                                                   UriComponentsBuilder uriBuilder) {
+        Responder responder = new Responder(uriBuilder, companyNumber, this.cacheControl);
+        return responder.respond(this.getProfile(companyNumber)
+            .doOnNext(r -> this.nameIndex.put(CompanyNumbers.normalise(companyNumber), r))
+            .doOnError(this::countError));
+    }
+
+    /**
+     * Get the profile of a company, from the cache if possible and otherwise from Companies House (revalidating
+     * the stale profile, if there is one)
+     *
+     * @param companyNumber the Company Number assigned by Companies House
+     * @return a {@link Mono} that publishes the profile, or a {@link WebClientResponseException} if Companies House
+     * responded with an error status
+     */
+    public Mono<CompanyResponse> getProfile(String companyNumber) {
+        // Configure the WebClient so that when it executes it produces the right kind of Mono
+        return this.profileCache.get(companyNumber, (n, stale) -> this.webClient
             .get()
-            .uri("/company/" + companyNumber)
-            .exchangeToMono(responder::makeResponse);
+            .uri("/company/" + n)
+            .headers(headers -> {
+                if (stale != null && stale.getEtag() != null) {
+                    headers.setIfNoneMatch(EntityTags.strong(stale.getEtag()));
+                }
+            })
+            .exchangeToMono(clientResponse -> new Responder(null, n, null).readProfile(clientResponse, stale)));
+    }
+
+    private void countError(Throwable e) {
+        this.registry.counter(ERRORS, "type", e.getClass().getSimpleName()).increment();
+    }
+
+    /**
+     * Get details of several companies at once.  Each company is looked up in the same way as
+     * {@link #getCompanyDetails(String, UriComponentsBuilder)}, a bounded number at a time, and the outcome for
+     * each one is streamed back as a line of newline-delimited JSON as soon as it is known.  So the order of the
+     * results is not necessarily the order of the request, and a slow company doesn't hold up the others.
+     *
+     * @param numbers the Company Numbers assigned by Companies House, separated by commas
+     * @param uriBuilder a {@link UriComponentsBuilder} that is configured for this service
+     * @return a {@link Flux} that publishes a {@link BatchItem} for each company, including its status
+     */
+    @CrossOrigin
+    @GetMapping(value = "/companies", params = "numbers", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchItem> getCompanyDetailsBatch(@RequestParam List<String> numbers,
+                                                  UriComponentsBuilder uriBuilder) {
+        if (numbers.size() > this.batchMaxSize) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "No more than " + this.batchMaxSize + " companies may be requested at once"));
+        }
+
+        logger.debug("Retrieving company details for a batch of " + numbers.size() + " companies");
+        return Flux.fromIterable(numbers)
+            .flatMap(n -> this.getCompanyDetails(n, uriBuilder.cloneBuilder())
+                .map(entity -> BatchItem.of(n, entity.getStatusCodeValue(), entity.getBody()))
+                .onErrorResume(e -> Mono.just(this.toBatchItem(n, e))),
+                this.batchConcurrency);
+    }
+
+    /**
+     * Find companies by name.  A company is found by the start of any significant word in its name (or of several
+     * consecutive words), from the Companies House bulk data and the companies that have been looked up through
+     * this service (see {@link CompanyNameIndex}).  The best matches are returned first.
+     *
+     * @param q the start of one or more words in the name
+     * @param limit the most companies to return
+     * @return a {@link Flux} that publishes the number, name and status of each company found
+     */
+    @CrossOrigin
+    @GetMapping(value = "/companies", params = "q")
+    public Flux<CompanyNameIndex.Match> searchCompanies(@RequestParam String q,
+                                                        @RequestParam(defaultValue = "20") int limit) {
+        if (q.trim().isEmpty()) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "The query must not be empty"));
+        }
+        if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "The limit must be between 1 and " + MAX_SEARCH_LIMIT));
+        }
+
+        logger.debug("Searching for companies named " + q);
+        return Flux.defer(() -> Flux.fromIterable(this.nameIndex.search(q, limit)));
+    }
+
+    private BatchItem toBatchItem(String companyNumber, Throwable e) {
+        if (e instanceof WebClientResponseException) {
+            return BatchItem.failed(companyNumber, ((WebClientResponseException) e).getRawStatusCode(), e.getMessage());
+        }
+        if (e instanceof RateLimitExceededException || e instanceof CircuitOpenException) {
+            return BatchItem.failed(companyNumber, HttpStatus.SERVICE_UNAVAILABLE.value(), e.getMessage());
+        }
 
-        return result;
+        logger.error("Unexpected error retrieving company " + companyNumber + ": " + e.getMessage());
+        return BatchItem.failed(companyNumber, HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage());
     }
 
     /**
@@ -183,72 +501,237 @@ public class CompanyController {
      * work smoothly with webflux.  This will be re-visited when time allows
      */
     static class Responder {
+
+        /**
+         * Our entity tags are derived from the Companies House ones, and this is bumped whenever the JSON we
+         * write for a given profile changes, so that clients don't keep a copy in the old format
+         */
+        static final String REPRESENTATION_VERSION = "2";
+
         private String companyNo;
         private UriComponentsBuilder uriBuilder;
+        private CacheControl cacheControl;
         private Logger logger = Loggers.getLogger(getClass());
 
-        Responder(UriComponentsBuilder uriBuilder, String n) {
+        Responder(UriComponentsBuilder uriBuilder, String n, CacheControl cacheControl) {
             this.companyNo = n;
             this.uriBuilder = uriBuilder;
+            this.cacheControl = cacheControl;
+        }
+
+        /**
+         * Read a company profile from a Companies House response
+         * @param clientResponse the response received from Companies House
+         * @return a {@link Mono} that publishes the de-serialised profile, or a
+         * {@link WebClientResponseException} if Companies House responded with an error status
+         */
+        Mono<CompanyResponse> readProfile(ClientResponse clientResponse) {
+            return this.readProfile(clientResponse, null);
+        }
+
+        /**
+         * Read a company profile from a Companies House response to a (possibly) conditional request
+         * @param clientResponse the response received from Companies House
+         * @param stale the profile that Companies House was asked to revalidate, or null
+         * @return a {@link Mono} that publishes the de-serialised profile (or the stale one, if Companies House
+         * says it is not modified), or a {@link WebClientResponseException} if Companies House responded with an
+         * error status
+         */
+        Mono<CompanyResponse> readProfile(ClientResponse clientResponse, CompanyResponse stale) {
+            if (stale != null && clientResponse.rawStatusCode() == HttpStatus.NOT_MODIFIED.value()) {
+                logger.debug("Company profile not modified at Companies House");
+                return clientResponse.releaseBody().thenReturn(stale);
+            }
+
+            // Handle errors from CH API here, so that they can be passed back by handleWebClientResponseException
+            if (!clientResponse.statusCode().is2xxSuccessful()) {
+                return clientResponse.createException().flatMap(Mono::error);
+            }
+
+            // Deserialize using the shared codec that the WebClient was built with.  The ETag header is what
+            // Companies House compares If-None-Match with, so it is kept in preference to the etag in the body.
+            String etag = clientResponse.headers().asHttpHeaders().getETag();
+            return clientResponse.bodyToMono(CompanyResponse.class)
+                .map(r -> {
+                    logger.debug("Company response de-serialised successfully");
+                    return etag == null ? r : r.withEtag(EntityTags.opaque(etag));
+                });
+        }
+
+        /**
+         * Turn a published company profile (however it was obtained) into the response for our client
+         * @param profile a {@link Mono} that publishes the profile of the company
+         * @return a {@link Mono} that publishes the response entity
+         */
+        Mono<ResponseEntity<CompanyResponse>> respond(Mono<CompanyResponse> profile) {
+            return profile.map(this::makeResponse).onErrorResume(DecodingException.class, e -> {
+                logger.error("Error de-serialising company response: " + e.getMessage());
+                return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+            });
         }
 
         Mono<ResponseEntity<CompanyResponse>> makeResponse(ClientResponse clientResponse) {
             logger.debug("Start of makeResponse");
 
-            Mono<ResponseEntity<CompanyResponse>> result;
-            result = clientResponse.bodyToMono(String.class).flatMap(body -> {
-                CompanyResponse response = null;
+            Mono<ResponseEntity<CompanyResponse>> result = this.respond(this.readProfile(clientResponse));
 
-                // Deserialize...
-
-                ObjectMapper mapper = new ObjectMapper();
-                SimpleModule module = new SimpleModule();
-                module.addDeserializer(CompanyResponse.class, new CompanyResponseDeserializer());
-                mapper.registerModule(module);
+            logger.debug("end of makeResponse");
+            return result;
+        }
 
+        ResponseEntity<CompanyResponse> makeResponse(CompanyResponse response) {
+            // Add a self link here...
+            /*
+            EntityModel<CompanyResponse> model;
+            try {
+                model = EntityModel.of(response);
                 try {
-                    response = mapper.readValue(body, CompanyResponse.class);
-                    logger.debug("Company response de-serialised successfully");
-                } catch (IOException e) {
-                    logger.error("Error de-serialising company response: " + e.getMessage());
+                    CompanyController c = methodOn(CompanyController.class);
+
+                    WebFluxLink l = linkTo(c.getCompanyDetails(companyNo, uriBuilder)).withSelfRel();
+                    //Link l = linkTo(m, this.companyNo).withSelfRel();
+                    model.add(l);
+                } catch (NoSuchMethodException e) {
+                    logger.error("Failure generating HAL relations - please investigate.  Company: " + this.companyNo);
                     return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
                 }
+            } catch (Exception e) {
+                logger.error("Unexpected error generating EntityModel - please investigate: " + this.companyNo);
+                return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+            }
+            */
+
+            // Include the correct location
+            UriComponents uriComponents = uriBuilder.path("/companies/" + this.companyNo).build();
+            HttpHeaders headers = new HttpHeaders();
+            headers.setLocation(uriComponents.toUri());
+
+            // Let clients cache the profile, and revalidate it cheaply
+            headers.setCacheControl(this.cacheControl);
+            if (response.getEtag() != null) {
+                headers.setETag(entityTag(response.getEtag(), CompanyResponseSerializer.ALL));
+            }
+
+            return ResponseEntity.status(HttpStatus.OK).headers(headers).body(response);
+        }
 
+        /**
+         * Turn a page of one of a company's collections, as received from Companies House, into the response for
+         * our client
+         * @param part the collection
+         * @param upstream the response from Companies House
+         * @return the response entity, with the body received from Companies House
+         */
+        ResponseEntity<String> makeResponse(CompanySubResource part, ResponseEntity<String> upstream) {
+            UriComponents uriComponents = uriBuilder
+                .path("/companies/" + this.companyNo + "/" + part.getPath())
+                .build();
+            HttpHeaders headers = new HttpHeaders();
+            headers.setLocation(uriComponents.toUri());
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.setCacheControl(this.cacheControl);
+            String etag = upstream.getHeaders().getETag();
+            if (etag != null) {
+                headers.setETag(EntityTags.strong(EntityTags.opaque(etag)));
+            }
+
+            return ResponseEntity.status(HttpStatus.OK).headers(headers).body(upstream.getBody());
+        }
 
-                // Handle errors from CH API here...
-
-
-                // Add a self link here...
-                /*
-                EntityModel<CompanyResponse> model;
-                try {
-                    model = EntityModel.of(response);
-                    try {
-                        CompanyController c = methodOn(CompanyController.class);
-
-                        WebFluxLink l = linkTo(c.getCompanyDetails(companyNo, uriBuilder)).withSelfRel();
-                        //Link l = linkTo(m, this.companyNo).withSelfRel();
-                        model.add(l);
-                    } catch (NoSuchMethodException e) {
-                        logger.error("Failure generating HAL relations - please investigate.  Company: " + this.companyNo);
-                        return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
-                    }
-                } catch (Exception e) {
-                    logger.error("Unexpected error generating EntityModel - please investigate: " + this.companyNo);
-                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+        /**
+         * Put together a profile and the collections fetched alongside it
+         * @param results the response containing the whole profile, followed by the JSON of each collection (or
+         *                nothing, if it couldn't be fetched), in the order of the collections
+         * @param parts the collections that were asked for
+         * @param fields the selected fields of the profile, as a mask
+         * @return the response, with a {@link CompanyComposite} for its body.  It has no entity tag (since there
+         * is no single version of all its parts), and is not to be kept by clients if any collection is missing.
+         */
+        @SuppressWarnings("unchecked")
+        static ResponseEntity<?> compose(Object[] results, Set<CompanySubResource> parts, int fields) {
+            ResponseEntity<CompanyResponse> entity = (ResponseEntity<CompanyResponse>) results[0];
+            if (entity.getBody() == null) {
+                return entity;
+            }
+
+            Map<CompanySubResource, String> fetched = new EnumMap<>(CompanySubResource.class);
+            Set<CompanySubResource> unavailable = EnumSet.noneOf(CompanySubResource.class);
+            int i = 1;
+            for (CompanySubResource part : parts) {
+                Optional<String> json = (Optional<String>) results[i++];
+                if (json.isPresent()) {
+                    fetched.put(part, json.get());
+                } else {
+                    unavailable.add(part);
                 }
-                */
+            }
+
+            CompanyComposite composite = new CompanyComposite(entity.getBody(), fields, fetched, unavailable);
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(entity.getHeaders());
+            headers.remove(HttpHeaders.ETAG);
+            if (composite.isPartial()) {
+                headers.setCacheControl(CacheControl.noStore());
+            }
+            return ResponseEntity.status(entity.getStatusCode()).headers(headers).body(composite);
+        }
 
-                // Include the correct location
-                UriComponents uriComponents = uriBuilder.path("/companies/" + this.companyNo).build();
-                HttpHeaders headers = new HttpHeaders();
-                headers.setLocation(uriComponents.toUri());
+        /**
+         * Choose the representation of a whole profile, when it can be sent gzipped: gzipped JSON, with an entity
+         * tag of its own, for a client that accepts it, and plain JSON otherwise.  This is chosen here rather than
+         * as the body is written (see {@link PreSerializedWriter}), so that WebFlux compares the client's
+         * <code>If-None-Match</code> with the entity tag of the representation that it would be sent.
+         * @param entity the response containing the whole profile
+         * @param gzipped whether the client accepts gzip
+         * @return the response, which varies with <code>Accept-Encoding</code>
+         */
+        static ResponseEntity<CompanyResponse> encode(ResponseEntity<CompanyResponse> entity, boolean gzipped) {
+            if (entity.getBody() == null) {
+                return entity;
+            }
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(entity.getHeaders());
+            headers.setVary(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING));
+            if (gzipped) {
+                headers.set(HttpHeaders.CONTENT_ENCODING, PreSerializedWriter.GZIP);
+                if (headers.getETag() != null) {
+                    headers.setETag(EntityTags.variant(headers.getETag(), PreSerializedWriter.GZIP_SUFFIX));
+                }
+            }
+            return ResponseEntity.status(entity.getStatusCode()).headers(headers).body(entity.getBody());
+        }
 
-                return Mono.just(ResponseEntity.status(HttpStatus.OK).headers(headers).body(response));
-            });
+        /**
+         * Narrow a response to the fields that the client selected
+         * @param entity the response containing the whole profile
+         * @param fields the selected fields, as a mask (see {@link CompanyResponseSerializer#fields(String)})
+         * @return the response, with a {@link CompanyResponseSelection} for its body (and an entity tag to match)
+         * unless all the fields were selected
+         */
+        static ResponseEntity<?> select(ResponseEntity<CompanyResponse> entity, int fields) {
+            CompanyResponse response = entity.getBody();
+            if (fields == CompanyResponseSerializer.ALL || response == null) {
+                return entity;
+            }
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(entity.getHeaders());
+            if (response.getEtag() != null) {
+                headers.setETag(entityTag(response.getEtag(), fields));
+            }
+            return ResponseEntity.status(entity.getStatusCode()).headers(headers)
+                .body(new CompanyResponseSelection(response, fields));
+        }
 
-            logger.debug("end of makeResponse");
-            return result;
+        /**
+         * @param etag the version of the profile at Companies House
+         * @param fields the fields written to the client, as a mask
+         * @return our entity tag for those fields of that version of the profile
+         */
+        static String entityTag(String etag, int fields) {
+            String tag = etag + "-" + REPRESENTATION_VERSION;
+            return EntityTags.strong(fields == CompanyResponseSerializer.ALL ? tag : tag + "." + fields);
         }
     }
 }
@@ -0,0 +1,304 @@
+package uk.co.encity.company;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * A read-only index of company profiles, held in a file that is memory-mapped rather than read onto the heap, so
+ * that millions of companies can be looked up without a network call at almost no cost in heap.  It is built by
+ * {@link BasicCompanyDataImporter} from the Companies House bulk data.
+ *
+ * The file holds a header, then the packed company numbers (see {@link CompanyNumbers#pack(String)}) in ascending
+ * order, then the offset of each company's record, then the records themselves (each one a length followed by the
+ * encoding of {@link CompanyResponseBinaryCodec}).  A lookup is a binary search of the company numbers, and a
+ * single record decode.  The records are mapped in segments, and the writer makes sure no record spans two.
+ */
+public final class CompanyDataIndex {
+
+    private static final int MAGIC = 0x45434449;
+    private static final int VERSION = 2; // Bumped with the version of CompanyResponseBinaryCodec
+    private static final int HEADER_BYTES = 24;
+
+    /**
+     * The size of each mapping of the records (a single mapping is limited to 2GB)
+     */
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_BYTES = 1L << SEGMENT_BITS;
+
+    private final IntBuffer companyNumbers;
+    private final LongBuffer offsets;
+    private final ByteBuffer[] segments;
+    private final Instant asOf;
+    private final long fileSize;
+
+    private CompanyDataIndex(IntBuffer companyNumbers, LongBuffer offsets, ByteBuffer[] segments, Instant asOf,
+                             long fileSize) {
+        this.companyNumbers = companyNumbers;
+        this.offsets = offsets;
+        this.segments = segments;
+        this.asOf = asOf;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Open an index file
+     *
+     * @param path the index file, as written by a {@link Writer}
+     * @return the index
+     * @throws IOException if the file can't be read, or isn't an index
+     */
+    public static CompanyDataIndex open(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, HEADER_BYTES));
+            if (header.capacity() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a company data index");
+            }
+            if (header.getInt() != VERSION) {
+                throw new IOException(path + " is in an unsupported version of the company data index");
+            }
+            Instant asOf = Instant.ofEpochMilli(header.getLong());
+            int count = header.getInt();
+
+            long keysAt = HEADER_BYTES;
+            long offsetsAt = keysAt + 4L * count;
+            long recordsAt = offsetsAt + 8L * count;
+            if (count < 0 || recordsAt > size) {
+                throw new IOException(path + " is truncated");
+            }
+
+            IntBuffer companyNumbers = ch.map(FileChannel.MapMode.READ_ONLY, keysAt, 4L * count).asIntBuffer();
+            LongBuffer offsets = ch.map(FileChannel.MapMode.READ_ONLY, offsetsAt, 8L * count).asLongBuffer();
+
+            int segmentCount = (int) ((size - recordsAt + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+            ByteBuffer[] segments = new ByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long at = recordsAt + i * SEGMENT_BYTES;
+                segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, at, Math.min(SEGMENT_BYTES, size - at));
+            }
+
+            // The mappings stay valid once the channel is closed
+            return new CompanyDataIndex(companyNumbers, offsets, segments, asOf, size);
+        }
+    }
+
+    /**
+     * Look up the profile of a company
+     *
+     * @param companyNumber the normalised company number
+     * @return the profile, or null if the company isn't in the index
+     * @throws IOException if the record can't be decoded
+     */
+    public CompanyResponse get(String companyNumber) throws IOException {
+        int key = CompanyNumbers.pack(companyNumber);
+        if (key < 0) {
+            return null;
+        }
+
+        int i = this.find(key);
+        return i < 0 ? null : this.getAt(i);
+    }
+
+    /**
+     * @param i the position of a company in the index, from 0 to {@link #size()} - 1
+     * @return the packed number of the company at that position (see {@link CompanyNumbers#pack(String)})
+     */
+    int companyNumberAt(int i) { return this.companyNumbers.get(i); }
+
+    /**
+     * @param i the position of a company in the index, from 0 to {@link #size()} - 1
+     * @return the profile of the company at that position
+     * @throws IOException if the record can't be decoded
+     */
+    CompanyResponse getAt(int i) throws IOException {
+        long offset = this.offsets.get(i);
+        ByteBuffer segment = this.segments[(int) (offset >>> SEGMENT_BITS)].duplicate();
+        int pos = (int) (offset & (SEGMENT_BYTES - 1));
+        byte[] record = new byte[segment.getInt(pos)];
+        segment.position(pos + 4);
+        segment.get(record);
+        return CompanyResponseBinaryCodec.read(new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    /**
+     * @return the number of companies in the index
+     */
+    public int size() { return this.companyNumbers.capacity(); }
+
+    /**
+     * @return when the data in the index was published
+     */
+    public Instant getAsOf() { return this.asOf; }
+
+    /**
+     * @return the size of the index file, in bytes, all of which is mapped rather than held on the heap
+     */
+    public long getFileSize() { return this.fileSize; }
+
+    private int find(int key) {
+        int low = 0;
+        int high = this.companyNumbers.capacity() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int k = this.companyNumbers.get(mid);
+            if (k < key) {
+                low = mid + 1;
+            } else if (k > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes an index file.  Records are streamed to a temporary file as they are added, so the only memory used
+     * per company is two longs (its packed number and ordinal, for sorting, and its offset).  When the writer is
+     * finished, the company numbers are sorted and the index is assembled, replacing the target file atomically.
+     * If a company is added more than once, the last profile added is kept.
+     */
+    static final class Writer implements AutoCloseable {
+        private final Path target;
+        private final Instant asOf;
+        private final Path recordsPath;
+        private final DataOutputStream records;
+        private final ByteArrayOutputStream scratch = new ByteArrayOutputStream(512);
+        private final DataOutputStream scratchOut = new DataOutputStream(this.scratch);
+
+        private long position;
+        private int count;
+
+        /**
+         * Packed company number in the high 32 bits, and the ordinal in which it was added in the low 32 bits
+         */
+        private long[] keys = new long[1 << 16];
+
+        /**
+         * The offset of each record, by ordinal
+         */
+        private long[] offsets = new long[1 << 16];
+
+        Writer(Path target, Instant asOf) throws IOException {
+            this.target = target;
+            this.asOf = asOf;
+            this.recordsPath = target.resolveSibling(target.getFileName() + ".records");
+            this.records = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.recordsPath), 1 << 16));
+        }
+
+        /**
+         * Add a company to the index
+         *
+         * @param companyNumber the normalised company number
+         * @param response the company's profile
+         * @return false if the company number can't be indexed (see {@link CompanyNumbers#pack(String)})
+         */
+        boolean add(String companyNumber, CompanyResponse response) throws IOException {
+            int key = CompanyNumbers.pack(companyNumber);
+            if (key < 0) {
+                return false;
+            }
+
+            this.scratch.reset();
+            CompanyResponseBinaryCodec.write(this.scratchOut, response);
+            int length = 4 + this.scratch.size();
+
+            // Start a new segment rather than let the record span two
+            long room = SEGMENT_BYTES - (this.position & (SEGMENT_BYTES - 1));
+            if (length > room) {
+                this.records.write(new byte[(int) room]);
+                this.position += room;
+            }
+
+            if (this.count == this.keys.length) {
+                int capacity = this.count + (this.count >> 1);
+                this.keys = Arrays.copyOf(this.keys, capacity);
+                this.offsets = Arrays.copyOf(this.offsets, capacity);
+            }
+            this.keys[this.count] = ((long) key << 32) | this.count;
+            this.offsets[this.count] = this.position;
+            this.count++;
+
+            this.records.writeInt(this.scratch.size());
+            this.scratch.writeTo(this.records);
+            this.position += length;
+            return true;
+        }
+
+        /**
+         * Assemble the index file
+         *
+         * @return the number of (distinct) companies in the index
+         */
+        int finish() throws IOException {
+            this.records.close();
+
+            long[] sorted = Arrays.copyOf(this.keys, this.count);
+            this.keys = null;
+            Arrays.sort(sorted);
+
+            // Of several records for the same company, keep the last one added (which sorts last)
+            int distinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i + 1 == sorted.length || (sorted[i] >>> 32) != (sorted[i + 1] >>> 32)) {
+                    sorted[distinct++] = sorted[i];
+                }
+            }
+
+            Path assembling = this.target.resolveSibling(this.target.getFileName() + ".tmp");
+            try (OutputStream file = Files.newOutputStream(assembling)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(this.asOf.toEpochMilli());
+                out.writeInt(distinct);
+                out.writeInt(0);
+                for (int i = 0; i < distinct; i++) {
+                    out.writeInt((int) (sorted[i] >>> 32));
+                }
+                for (int i = 0; i < distinct; i++) {
+                    out.writeLong(this.offsets[(int) sorted[i]]);
+                }
+                out.flush();
+            }
+
+            try (FileChannel out = FileChannel.open(assembling, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                 FileChannel in = FileChannel.open(this.recordsPath, StandardOpenOption.READ)) {
+                long copied = 0;
+                long size = in.size();
+                while (copied < size) {
+                    copied += in.transferTo(copied, size - copied, out);
+                }
+                out.force(false);
+            }
+
+            Files.move(assembling, this.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(this.recordsPath);
+            return distinct;
+        }
+
+        /**
+         * Discard the temporary file of records (having finished, or not)
+         */
+        @Override
+        public void close() throws IOException {
+            this.records.close();
+            Files.deleteIfExists(this.recordsPath);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package uk.co.encity.company;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * An index of company names, for finding companies by (part of) their name.  A company is found by the start of
+ * any significant word in its name, or of several consecutive words, e.g. <code>test serv</code> finds ENCITY TEST
+ * SERVICES LIMITED but not ENCITY TEST LIMITED.  The best matches are returned first (see {@link CompanyNameTable#score}).
+ *
+ * The index is in two parts:
+ *
+ * <ul>
+ *     <li>a {@link CompanyNameTable} of every company in the Companies House bulk data (see
+ *     {@link CompanyBulkData}), which is rebuilt in the background whenever newer bulk data is opened</li>
+ *     <li>the companies that have been looked up through this service, whose name or status may be more recent
+ *     than the bulk data, and which take precedence over it.  These are held in a sorted set of the text from each
+ *     significant word to the end of the name, and at most <code>encity.search.max-recent</code> of them are
+ *     kept (the least recently seen are dropped first).</li>
+ * </ul>
+ *
+ * A search considers at most <code>encity.search.max-candidates</code> matches in each part, so that a query that
+ * matches a large part of the register (e.g. a single letter) is still answered quickly.
+ */
+@Component
+public class CompanyNameIndex {
+
+    /**
+     * Separates the text of a name from the company number in the keys of recently seen companies
+     */
+    private static final char SEPARATOR = '\0';
+
+    private final int maxCandidates;
+    private final Cache<String, Named> recent;
+    private final ConcurrentSkipListSet<String> recentKeys = new ConcurrentSkipListSet<>();
+    private volatile CompanyNameTable table = CompanyNameTable.EMPTY;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * Create an index of company names, which will be (re)built from the bulk data whenever it is opened
+     *
+     * @param bulkData the Companies House bulk data
+     * @param maxRecent the most companies looked up through this service that are kept in the index
+     * @param maxCandidates the most matches considered in each part of the index
+     */
+    @Autowired
+    public CompanyNameIndex(CompanyBulkData bulkData,
+                            @Value("${encity.search.max-recent:100000}") long maxRecent,
+                            @Value("${encity.search.max-candidates:100000}") int maxCandidates) {
+        this(maxRecent, maxCandidates);
+        bulkData.onOpen(index -> Schedulers.boundedElastic().schedule(() -> this.rebuild(index)));
+    }
+
+    CompanyNameIndex(long maxRecent, int maxCandidates) {
+        this.maxCandidates = maxCandidates;
+        this.recent = Caffeine.newBuilder()
+            .maximumSize(maxRecent)
+            .executor(Runnable::run)
+            .<String, Named>removalListener((companyNumber, named, cause) -> {
+                if (cause.wasEvicted()) {
+                    this.unindex(companyNumber, named);
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Record the name and status of a company that has been looked up
+     *
+     * @param companyNumber the normalised company number
+     * @param response the company's profile
+     */
+    public void put(String companyNumber, CompanyResponse response) {
+        String name = response.getCompanyName();
+        if (name == null) {
+            return;
+        }
+
+        Named named = new Named(name, response.getCompanyStatus());
+        Named previous = this.recent.asMap().put(companyNumber, named);
+        if (previous != null && previous.name.equals(name)) {
+            return;
+        }
+        if (previous != null) {
+            this.unindex(companyNumber, previous);
+        }
+        this.recentKeys.addAll(recentKeys(companyNumber, named.key));
+    }
+
+    /**
+     * Find companies by name
+     *
+     * @param query the start of one or more words in the name
+     * @param limit the most companies to return
+     * @return the best matches, best first
+     */
+    public List<Match> search(String query, int limit) {
+        byte[] key = CompanyNameTable.key(query);
+        if (key.length == 0) {
+            return new ArrayList<>();
+        }
+
+        List<Match> matches = new ArrayList<>();
+        Set<String> found = new HashSet<>();
+        String prefix = new String(key, StandardCharsets.UTF_8);
+
+        // Recently seen companies first, since they may have changed since the bulk data
+        int n = 0;
+        for (String k : this.recentKeys.subSet(prefix, true, prefix + Character.MAX_VALUE, false)) {
+            if (n++ == this.maxCandidates) {
+                break;
+            }
+            String companyNumber = k.substring(k.lastIndexOf(SEPARATOR) + 1);
+            Named named = this.recent.getIfPresent(companyNumber);
+            if (named != null && found.add(companyNumber)) {
+                boolean atStart = k.length() - companyNumber.length() - 1 == named.key.length();
+                boolean exact = atStart && named.key.length() == prefix.length();
+                matches.add(new Match(companyNumber, named.name, named.status,
+                    CompanyNameTable.score(exact, atStart, named.status, named.key.length())));
+            }
+        }
+
+        CompanyNameTable table = this.table;
+        long[] candidates = table.search(key, this.maxCandidates, limit);
+        int fromTable = 0;
+        for (int i = 0; i < candidates.length && fromTable < limit; i++) {
+            int company = (int) candidates[i];
+            String companyNumber = table.getCompanyNumber(company);
+            if (this.recent.getIfPresent(companyNumber) == null && found.add(companyNumber)) {
+                matches.add(new Match(companyNumber, table.getName(company), table.getStatus(company),
+                    (int) (candidates[i] >>> 32)));
+                fromTable++;
+            }
+        }
+
+        matches.sort((a, b) -> a.score != b.score ? Integer.compare(a.score, b.score)
+            : a.companyName.compareTo(b.companyName));
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    /**
+     * @return the number of companies in the index
+     */
+    public long size() { return this.table.size() + this.recent.estimatedSize(); }
+
+    /**
+     * Replace the part of the index built from the bulk data
+     *
+     * @param index the bulk data
+     */
+    void rebuild(CompanyDataIndex index) {
+        long start = System.nanoTime();
+        CompanyNameTable.Builder builder = new CompanyNameTable.Builder(index.size());
+        for (int i = 0; i < index.size(); i++) {
+            try {
+                CompanyResponse response = index.getAt(i);
+                builder.add(index.companyNumberAt(i), response.getCompanyName(), response.getCompanyStatus());
+            } catch (IOException e) {
+                logger.warn("Unable to read bulk data for company " + CompanyNumbers.unpack(index.companyNumberAt(i))
+                    + ": " + e.getMessage());
+            }
+        }
+        this.rebuild(builder.build());
+        logger.info("Indexed the names of " + this.table.size() + " companies in "
+            + Duration.ofNanos(System.nanoTime() - start).toMillis() + "ms, taking " + (this.table.heapBytes() >> 20)
+            + "MB");
+    }
+
+    void rebuild(CompanyNameTable table) {
+        this.table = table;
+    }
+
+    private void unindex(String companyNumber, Named named) {
+        this.recentKeys.removeAll(recentKeys(companyNumber, named.key));
+
+        // In case the company was seen again while it was being evicted
+        Named current = this.recent.getIfPresent(companyNumber);
+        if (current != null && current.name.equals(named.name)) {
+            this.recentKeys.addAll(recentKeys(companyNumber, current.key));
+        }
+    }
+
+    /**
+     * @return the keys under which a recently seen company is held: the text from the start of each significant
+     * word to the end of the name, followed by the company number
+     */
+    private static List<String> recentKeys(String companyNumber, String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        List<String> keys = new ArrayList<>();
+        for (int p : CompanyNameTable.wordStarts(bytes, 0, bytes.length)) {
+            keys.add(new String(bytes, p, bytes.length - p, StandardCharsets.UTF_8) + SEPARATOR + companyNumber);
+        }
+        return keys;
+    }
+
+    /**
+     * The name and status of a recently seen company, and its name in the form it is searched in
+     */
+    private static class Named {
+        final String name;
+        final String status;
+        final String key;
+
+        Named(String name, String status) {
+            this.name = name;
+            this.status = status;
+            this.key = new String(CompanyNameTable.key(name), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A company found by a search
+     */
+    @Getter
+    public static class Match {
+        private final String companyNumber;
+        private final String companyName;
+        private final String companyStatus;
+
+        @JsonIgnore
+        private final int score;
+
+        Match(String companyNumber, String companyName, String companyStatus, int score) {
+            this.companyNumber = companyNumber;
+            this.companyName = companyName;
+            this.companyStatus = companyStatus;
+            this.score = score;
+        }
+    }
+}
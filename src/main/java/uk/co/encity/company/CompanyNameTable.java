@@ -0,0 +1,380 @@
+package uk.co.encity.company;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable table of company names that can be searched by the start of any (significant) word in a name.  It
+ * is built for millions of companies, so it is held in a handful of primitive arrays rather than as objects:
+ *
+ * <ul>
+ *     <li>the names themselves, as UTF-8, one after another and each followed by a zero byte</li>
+ *     <li>where each company's name starts, its packed company number (see {@link CompanyNumbers#pack(String)})
+ *     and its status</li>
+ *     <li>the position of the start of each significant word of every name, sorted by the text from there to the
+ *     end of the name, so that all the names with a word starting with some text are next to each other</li>
+ *     <li>alongside each word, the company whose name it is in and how well a match on it scores (see
+ *     {@link #score}), so that the matches can be ranked without looking at the names themselves</li>
+ * </ul>
+ *
+ * A search is two binary searches, for the first and last words that start with the query, and a scan of the
+ * scores between them for the best.  Letters are
+ * compared without regard to (ASCII) case.  Words like LIMITED and THE aren't indexed, except at the start of a
+ * name, because too many names have them for a search on them to be useful.
+ */
+final class CompanyNameTable {
+
+    static final CompanyNameTable EMPTY = new Builder(0).build();
+
+    private static final Pattern CONTROL_OR_SPACE = Pattern.compile("[\\s\\p{Cntrl}]+");
+
+    private static final byte[][] STOP_WORDS = {
+        bytes("LIMITED"), bytes("LTD"), bytes("PLC"), bytes("LLP"), bytes("CIC"), bytes("THE"), bytes("AND"),
+        bytes("OF"), bytes("CO"), bytes("COMPANY")
+    };
+
+    private final byte[] names;
+    private final int[] starts;
+    private final int[] companyNumbers;
+    private final byte[] statuses;
+    private final String[] statusNames;
+    private final int[] words;
+    private final long[] ranks;
+
+    private CompanyNameTable(byte[] names, int[] starts, int[] companyNumbers, byte[] statuses, String[] statusNames,
+                             int[] words, long[] ranks) {
+        this.names = names;
+        this.starts = starts;
+        this.companyNumbers = companyNumbers;
+        this.statuses = statuses;
+        this.statusNames = statusNames;
+        this.words = words;
+        this.ranks = ranks;
+    }
+
+    /**
+     * @return the number of companies in the table
+     */
+    int size() { return this.companyNumbers.length; }
+
+    /**
+     * @return roughly how much heap the table takes up, in bytes
+     */
+    long heapBytes() {
+        return this.names.length + 4L * this.starts.length + 4L * this.companyNumbers.length + this.statuses.length
+            + 4L * this.words.length + 8L * this.ranks.length;
+    }
+
+    /**
+     * Find the companies with a word in their name that starts with some text
+     *
+     * @param key the text, as returned by {@link #key(String)}
+     * @param maxCandidates the most matches to consider (when there are more, the rest are ignored)
+     * @param limit how many of the best matches are wanted
+     * @return up to twice the limit of the best matches, best first, each with the score of the match (see
+     * {@link #score}) in the high 32 bits and the company's position in the table in the low 32 bits.  (A company
+     * may match more than once, hence the spare.)
+     */
+    long[] search(byte[] key, int maxCandidates, int limit) {
+        int first = this.bound(key, 0);
+        int end = (int) Math.min(this.bound(key, 1), (long) first + maxCandidates);
+
+        // Keep the best, in order, in a small array, since most matches aren't among them
+        long[] best = new long[Math.min(end - first, 2 * limit)];
+        int count = 0;
+        for (int i = first; i < end; i++) {
+            long rank = this.ranks[i];
+            int score = (int) (rank >>> 32);
+            if ((score >>> 9) == 1 && (score & 0xff) == key.length) {
+                rank -= 1L << 41;
+            }
+            if (count == best.length && rank >= best[count - 1]) {
+                continue;
+            }
+
+            int j = count == best.length ? count - 1 : count++;
+            while (j > 0 && best[j - 1] > rank) {
+                best[j] = best[j - 1];
+                j--;
+            }
+            best[j] = rank;
+        }
+        return Arrays.copyOf(best, count);
+    }
+
+    String getCompanyNumber(int company) { return CompanyNumbers.unpack(this.companyNumbers[company]); }
+
+    String getName(int company) {
+        int start = this.starts[company];
+        return new String(this.names, start, this.starts[company + 1] - start - 1, StandardCharsets.UTF_8);
+    }
+
+    String getStatus(int company) { return this.statusNames[this.statuses[company]]; }
+
+    /**
+     * @return the first word whose text compares with the key (see {@link #comparePrefix}) at least as high as a
+     * given value: 0 for the first word that starts with the key, and 1 for the first word after them
+     */
+    private int bound(byte[] key, int at) {
+        int low = 0;
+        int high = this.words.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Integer.signum(comparePrefix(this.names, this.words[mid], key)) < at) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Score a match, so that better ones score lower: an exact match first, then one at the start of the name,
+     * then one later in the name, with live companies before dissolved ones, and shorter names before longer
+     */
+    static int score(boolean exact, boolean atStart, String status, int length) {
+        int place = exact ? 0 : atStart ? 1 : 2;
+        boolean live = status == null || !(status.equals("dissolved") || status.equals("closed")
+            || status.equals("converted-closed") || status.equals("removed"));
+        return (place << 9) | ((live ? 0 : 1) << 8) | Math.min(length, 255);
+    }
+
+    /**
+     * Turn a search query into the form it is compared in: UTF-8, with ASCII letters in upper case, and runs of
+     * white space (and control characters, which a key mustn't hold, since a NUL ends each name in the table and
+     * separates the parts of the index's keys) replaced by a single space
+     */
+    static byte[] key(String query) {
+        return upper(CONTROL_OR_SPACE.matcher(query).replaceAll(" ").trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the positions in a name at which each significant word starts
+     */
+    static int[] wordStarts(byte[] name, int from, int to) {
+        int[] found = new int[4];
+        int count = 0;
+        for (int p = from; p < to; p++) {
+            boolean wordStart = isWordByte(name[p]) && (p == from || !isWordByte(name[p - 1]));
+            if (wordStart && (p == from || !isStopWord(name, p, to))) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = p;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private static boolean isWordByte(byte b) {
+        return (b >= '0' && b <= '9') || (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || b < 0;
+    }
+
+    private static boolean isStopWord(byte[] name, int p, int to) {
+        int end = p;
+        while (end < to && isWordByte(name[end])) {
+            end++;
+        }
+        for (byte[] stop : STOP_WORDS) {
+            if (stop.length == end - p && comparePrefix(name, p, stop) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte upper(byte b) {
+        return b >= 'a' && b <= 'z' ? (byte) (b - ('a' - 'A')) : b;
+    }
+
+    private static byte[] upper(byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = upper(bytes[i]);
+        }
+        return bytes;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compare the text at a position in the names with a key, as far as the length of the key (so 0 means the
+     * text starts with the key).  The end of a name compares lower than anything.
+     */
+    private static int comparePrefix(byte[] names, int pos, byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            int c = upper(names[pos + i]) & 0xff;
+            int k = key[i] & 0xff;
+            if (c != k) {
+                return c - k;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compare the text at two positions in the names, to the end of their names
+     */
+    private static int compare(byte[] names, long wordA, long wordB) {
+        int a = (int) (wordA >>> 32);
+        int b = (int) (wordB >>> 32);
+        for (int i = 0; ; i++) {
+            int ca = upper(names[a + i]) & 0xff;
+            int cb = upper(names[b + i]) & 0xff;
+            if (ca != cb) {
+                return ca - cb;
+            }
+            if (ca == 0) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Sort words (each a position in the high 32 bits, and a company in the low 32 bits) by the text at their
+     * position.  It's a merge sort, since there is no sort of a long[] with a comparator.
+     */
+    private static void sort(byte[] names, long[] words, long[] scratch, int from, int to) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                long w = words[i];
+                int j = i - 1;
+                while (j >= from && compare(names, words[j], w) > 0) {
+                    words[j + 1] = words[j];
+                    j--;
+                }
+                words[j + 1] = w;
+            }
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        sort(names, words, scratch, from, mid);
+        sort(names, words, scratch, mid, to);
+        if (compare(names, words[mid - 1], words[mid]) <= 0) {
+            return;
+        }
+
+        System.arraycopy(words, from, scratch, from, to - from);
+        for (int i = from, l = from, r = mid; i < to; i++) {
+            if (r >= to || (l < mid && compare(names, scratch[l], scratch[r]) <= 0)) {
+                words[i] = scratch[l++];
+            } else {
+                words[i] = scratch[r++];
+            }
+        }
+    }
+
+    /**
+     * Builds a table, one company at a time
+     */
+    static final class Builder {
+        private byte[] names;
+        private int length;
+        private int[] starts;
+        private int[] companyNumbers;
+        private byte[] statuses;
+        private final List<String> statusNames = new ArrayList<>();
+        private long[] words;
+        private int wordCount;
+        private int count;
+
+        /**
+         * @param expected roughly how many companies will be added
+         */
+        Builder(int expected) {
+            int capacity = Math.max(16, expected);
+            this.names = new byte[capacity * 32];
+            this.starts = new int[capacity + 1];
+            this.companyNumbers = new int[capacity];
+            this.statuses = new byte[capacity];
+            this.words = new long[capacity * 2];
+            this.statusNames.add(null);
+        }
+
+        /**
+         * Add a company.  Companies must not be added more than once.
+         *
+         * @param companyNumber the packed company number
+         * @param name the company's name
+         * @param status the company's status (of which there may be no more than 127 different ones)
+         */
+        Builder add(int companyNumber, String name, String status) {
+            if (name == null) {
+                return this;
+            }
+            // White space is collapsed as it is in a query, so that a name is compared with a query of the same
+            // form (and a NUL ends the name, so no control character is kept in it)
+            byte[] bytes = bytes(CONTROL_OR_SPACE.matcher(name).replaceAll(" ").trim());
+
+            if (this.count + 1 == this.starts.length) {
+                int capacity = this.starts.length + (this.starts.length >> 1);
+                this.starts = Arrays.copyOf(this.starts, capacity);
+                this.companyNumbers = Arrays.copyOf(this.companyNumbers, capacity);
+                this.statuses = Arrays.copyOf(this.statuses, capacity);
+            }
+            if (this.length + bytes.length + 1 > this.names.length) {
+                this.names = Arrays.copyOf(this.names,
+                    Math.max(this.length + bytes.length + 1, this.names.length + (this.names.length >> 1)));
+            }
+
+            int start = this.length;
+            System.arraycopy(bytes, 0, this.names, start, bytes.length);
+            this.length += bytes.length + 1;
+            this.starts[this.count] = start;
+            this.companyNumbers[this.count] = companyNumber;
+            this.statuses[this.count] = this.statusCode(status);
+            this.count++;
+
+            for (int p : wordStarts(this.names, start, start + bytes.length)) {
+                if (this.wordCount == this.words.length) {
+                    this.words = Arrays.copyOf(this.words, this.wordCount + (this.wordCount >> 1));
+                }
+                this.words[this.wordCount++] = ((long) p << 32) | (this.count - 1);
+            }
+            return this;
+        }
+
+        CompanyNameTable build() {
+            byte[] names = Arrays.copyOf(this.names, this.length);
+            int[] starts = Arrays.copyOf(this.starts, this.count + 1);
+            starts[this.count] = this.length;
+            long[] sorted = Arrays.copyOf(this.words, this.wordCount);
+            this.names = null;
+            this.words = null;
+            sort(names, sorted, new long[sorted.length], 0, sorted.length);
+
+            String[] statusNames = this.statusNames.toArray(new String[0]);
+            int[] words = new int[sorted.length];
+            long[] ranks = new long[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                int pos = (int) (sorted[i] >>> 32);
+                int company = (int) sorted[i];
+                int length = starts[company + 1] - starts[company] - 1;
+                int score = score(false, pos == starts[company], statusNames[this.statuses[company]], length);
+                words[i] = pos;
+                ranks[i] = ((long) score << 32) | company;
+            }
+
+            return new CompanyNameTable(names, starts, Arrays.copyOf(this.companyNumbers, this.count),
+                Arrays.copyOf(this.statuses, this.count), statusNames, words, ranks);
+        }
+
+        private byte statusCode(String status) {
+            int code = this.statusNames.indexOf(status);
+            if (code < 0) {
+                if (this.statusNames.size() == Byte.MAX_VALUE) {
+                    return 0;
+                }
+                code = this.statusNames.size();
+                this.statusNames.add(status);
+            }
+            return (byte) code;
+        }
+    }
+}
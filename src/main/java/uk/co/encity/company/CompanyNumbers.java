@@ -0,0 +1,107 @@
+package uk.co.encity.company;
+
+import java.util.Locale;
+
+/**
+ * Helpers for company numbers allocated by Companies House.
+ */
+public final class CompanyNumbers {
+
+    /**
+     * Company numbers are always eight characters: either eight digits, or a two letter prefix (e.g. SC, NI, OC)
+     * followed by six digits
+     */
+    public static final int LENGTH = 8;
+
+    /**
+     * Packed numbers at or above this have a two letter prefix (see {@link #pack(String)})
+     */
+    private static final int PREFIXED = 100_000_000;
+
+    private CompanyNumbers() {}
+
+    /**
+     * Pack a normalised company number into an int, so that a large number of companies can be indexed without
+     * a String per company.  Eight digits pack to their value, and a two letter prefix followed by six digits
+     * packs to a value above all of those.  Packing preserves order within each form, and no two company numbers
+     * pack to the same value.
+     *
+     * @param companyNumber a company number, as returned by {@link #normalise(String)}
+     * @return the packed company number, or -1 if it isn't in either of the usual forms
+     */
+    public static int pack(String companyNumber) {
+        if (companyNumber.length() != LENGTH) {
+            return -1;
+        }
+
+        char c0 = companyNumber.charAt(0);
+        char c1 = companyNumber.charAt(1);
+        boolean prefixed = c0 >= 'A' && c0 <= 'Z' && c1 >= 'A' && c1 <= 'Z';
+
+        int digits = 0;
+        for (int i = prefixed ? 2 : 0; i < LENGTH; i++) {
+            char c = companyNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            digits = digits * 10 + (c - '0');
+        }
+        return prefixed ? PREFIXED + ((c0 - 'A') * 26 + (c1 - 'A')) * 1_000_000 + digits : digits;
+    }
+
+    /**
+     * Turn a packed company number back into a company number
+     *
+     * @param packed a company number packed by {@link #pack(String)}
+     * @return the normalised company number
+     */
+    public static String unpack(int packed) {
+        char[] n = new char[LENGTH];
+        int digits = packed;
+        int start = 0;
+        if (packed >= PREFIXED) {
+            int prefix = (packed - PREFIXED) / 1_000_000;
+            n[0] = (char) ('A' + prefix / 26);
+            n[1] = (char) ('A' + prefix % 26);
+            digits = (packed - PREFIXED) % 1_000_000;
+            start = 2;
+        }
+        for (int i = LENGTH - 1; i >= start; i--) {
+            n[i] = (char) ('0' + digits % 10);
+            digits /= 10;
+        }
+        return new String(n);
+    }
+
+    /**
+     * Put a company number into canonical form, so that (for example) <code>sc12345</code>,
+     * <code>SC012345</code> and <code> SC012345 </code> all identify the same company.  Leading zeros that were
+     * left off are restored, and letters are upper-cased.  Anything that doesn't look like a company number is
+     * returned trimmed and upper-cased, and left for Companies House to reject.
+     *
+     * @param companyNumber the company number as supplied by a client
+     * @return the normalised company number
+     */
+    public static String normalise(String companyNumber) {
+        String n = companyNumber.trim().toUpperCase(Locale.ROOT);
+        if (n.isEmpty() || n.length() >= LENGTH) {
+            return n;
+        }
+
+        int prefix = (n.length() >= 2 && Character.isLetter(n.charAt(0)) && Character.isLetter(n.charAt(1))) ? 2 : 0;
+        for (int i = prefix; i < n.length(); i++) {
+            if (!Character.isDigit(n.charAt(i))) {
+                return n;
+            }
+        }
+        if (prefix == n.length()) {
+            return n;
+        }
+
+        StringBuilder sb = new StringBuilder(LENGTH).append(n, 0, prefix);
+        for (int i = n.length(); i < LENGTH; i++) {
+            sb.append('0');
+        }
+        return sb.append(n, prefix, n.length()).toString();
+    }
+}
@@ -0,0 +1,375 @@
+package uk.co.encity.company;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * An in-process cache of company profiles, which sits in front of the calls to Companies House.
+ *
+ * Entries are keyed by normalised company number (see {@link CompanyNumbers#normalise(String)}) and hold the
+ * parsed {@link CompanyResponse}.  A 404 from Companies House is cached too, but for a (usually much shorter)
+ * negative TTL.  The cache is bounded in size, and Caffeine evicts using its frequency-based (W-TinyLFU) policy.
+ *
+ * A profile that has passed its TTL is not thrown away straight away, but kept (stale) for a while longer.  The
+ * next request for it goes to Companies House as usual, but if that fails for any reason other than a 4xx
+ * response (e.g. the circuit breaker is open, or Companies House is failing), the stale profile is served instead.
+ * The stale profile is also handed to the loader, so that it can ask Companies House whether it has changed
+ * (with <code>If-None-Match</code>), and publish it again if it hasn't.
+ *
+ * Lookups never block: a hit is served from memory, and a miss is handed to a reactive loader.  Concurrent misses
+ * for the same company share a single load (see {@link SingleFlight}).
+ *
+ * If a {@link CompanySnapshotStore} is enabled, it acts as a second level behind the in-memory cache: every
+ * profile that is loaded is also saved there, and a company that isn't in memory is looked for there before the
+ * loader is called.  A saved profile is treated as fresh or stale according to its age, just like one held in
+ * memory, except that (however old it is) it can be served if Companies House is unavailable.
+ *
+ * If a {@link SharedCompanyCache} is configured, it is consulted before the snapshot store, and every profile
+ * that is loaded is shared through it, so that a company fetched from Companies House by one instance isn't
+ * fetched again by the others.  Its profiles are treated as fresh or stale according to their age, as saved ones
+ * are, and the in-memory cache then acts as its near-cache: when another instance saves or forgets a company, the
+ * in-memory copy is dropped, and the next request reads the new one.
+ *
+ * Last of all, a company that is in none of these is looked for in the Companies House bulk data (see
+ * {@link CompanyBulkData}), if there is any.  While the bulk data is recent its profile is served as it is, and
+ * otherwise it is only served if Companies House is unavailable.  Bulk data profiles aren't put in memory, since
+ * they are already held (memory-mapped) by the index.
+ */
+@Component
+public class CompanyProfileCache {
+
+    /**
+     * The name under which hit, miss and eviction metrics are published
+     */
+    static final String CACHE_NAME = "companyProfiles";
+
+    private final Cache<String, CachedProfile> cache;
+    private final SingleFlight<String, CompanyResponse> inFlight = new SingleFlight<>();
+    private final CompanySnapshotStore snapshots;
+    private final SharedCompanyCache shared;
+    private final CompanyBulkData bulkData;
+    private final Ticker ticker;
+    private final long ttlNanos;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * Create a cache of company profiles
+     *
+     * @param ttl how long a successfully retrieved profile is served before Companies House is asked again
+     * @param staleRetention how long a profile is kept after its TTL, to be served if Companies House is unavailable
+     * @param negativeTtl how long a 'not found' response is remembered
+     * @param maxSize the maximum number of companies held in the cache
+     * @param snapshots the on-disk store of profiles behind this cache (which may be disabled)
+     * @param bulkData the profiles in the Companies House bulk data (of which there may be none)
+     * @param shared the cache shared with other instances, if one is configured
+     * @param registry where the hit, miss and eviction metrics will be published, if metrics are available
+     */
+    @Autowired
+    public CompanyProfileCache(@Value("${encity.cache.ttl:24h}") Duration ttl,
+                               @Value("${encity.cache.stale-retention:24h}") Duration staleRetention,
+                               @Value("${encity.cache.negative-ttl:5m}") Duration negativeTtl,
+                               @Value("${encity.cache.max-size:10000}") long maxSize,
+                               CompanySnapshotStore snapshots,
+                               CompanyBulkData bulkData,
+                               ObjectProvider<SharedCompanyCache> shared,
+                               ObjectProvider<MeterRegistry> registry) {
+        this(ttl, staleRetention, negativeTtl, maxSize, Ticker.systemTicker(), snapshots, bulkData,
+            shared.getIfAvailable(() -> SharedCompanyCache.NONE));
+        registry.ifAvailable(r -> CaffeineCacheMetrics.monitor(r, this.cache, CACHE_NAME));
+    }
+
+    CompanyProfileCache(Duration ttl, Duration staleRetention, Duration negativeTtl, long maxSize, Ticker ticker) {
+        this(ttl, staleRetention, negativeTtl, maxSize, ticker, new CompanySnapshotStore(null, Duration.ZERO, () -> 0));
+    }
+
+    CompanyProfileCache(Duration ttl, Duration staleRetention, Duration negativeTtl, long maxSize, Ticker ticker,
+                        CompanySnapshotStore snapshots) {
+        this(ttl, staleRetention, negativeTtl, maxSize, ticker, snapshots,
+            new CompanyBulkData(null, null, Duration.ZERO, () -> 0));
+    }
+
+    CompanyProfileCache(Duration ttl, Duration staleRetention, Duration negativeTtl, long maxSize, Ticker ticker,
+                        CompanySnapshotStore snapshots, CompanyBulkData bulkData) {
+        this(ttl, staleRetention, negativeTtl, maxSize, ticker, snapshots, bulkData, SharedCompanyCache.NONE);
+    }
+
+    CompanyProfileCache(Duration ttl, Duration staleRetention, Duration negativeTtl, long maxSize, Ticker ticker,
+                        CompanySnapshotStore snapshots, CompanyBulkData bulkData, SharedCompanyCache shared) {
+        logger.debug("Constructing " + this.getClass().getName() + " with ttl " + ttl + ", stale retention "
+            + staleRetention + ", negative ttl " + negativeTtl + " and maximum size " + maxSize);
+
+        this.ticker = ticker;
+        this.snapshots = snapshots;
+        this.bulkData = bulkData;
+        this.shared = shared;
+        this.ttlNanos = ttl.toNanos();
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfter(new ProfileExpiry(ttl.plus(staleRetention), negativeTtl))
+            .ticker(ticker)
+            .recordStats()
+            .build();
+
+        // Drop the in-memory copy of a company that another instance has saved or forgotten
+        shared.invalidations().subscribe(this.cache::invalidate);
+    }
+
+    /**
+     * Get a company profile, either from the cache or by subscribing to the profile published by a loader.  The
+     * loader is given the normalised company number; whatever it publishes is cached, as is a 'not found' error.
+     * Any other error is passed on without being cached.  While a load is in flight, other requests for the same
+     * company wait for it rather than calling the loader again.  If the load fails and a stale profile is held, the
+     * stale profile is published instead.
+     *
+     * @param companyNumber the company number, in any form accepted by {@link CompanyNumbers#normalise(String)}
+     * @param loader a function that creates a {@link Mono} publishing the profile of a given company
+     * @return a {@link Mono} that publishes the profile, or an error
+     */
+    public Mono<CompanyResponse> get(String companyNumber, Function<String, Mono<CompanyResponse>> loader) {
+        return this.get(companyNumber, (n, stale) -> loader.apply(n));
+    }
+
+    /**
+     * Get a company profile, as {@link #get(String, Function)} does, but with a loader that is also given the
+     * stale profile (or null, if there isn't one), so that it can revalidate it rather than fetch it again.  If
+     * the loader publishes the stale profile, it is cached as fresh for another TTL.
+     *
+     * @param companyNumber the company number, in any form accepted by {@link CompanyNumbers#normalise(String)}
+     * @param loader a function that creates a {@link Mono} publishing the profile of a given company, given the
+     *               normalised company number and the stale profile
+     * @return a {@link Mono} that publishes the profile, or an error
+     */
+    public Mono<CompanyResponse> get(String companyNumber,
+                                     BiFunction<String, CompanyResponse, Mono<CompanyResponse>> loader) {
+        return Mono.defer(() -> {
+            String key = CompanyNumbers.normalise(companyNumber);
+
+            CachedProfile cached = this.cache.getIfPresent(key);
+            if (cached != null) {
+                return this.serve(key, cached, loader);
+            }
+
+            // Not in memory, so try the shared cache, the snapshot store and then the bulk data before going to
+            // Companies House
+            return this.shared.get(key)
+                .map(snapshot -> this.restore(key, snapshot, "shared cache"))
+                .switchIfEmpty(Mono.defer(() -> this.snapshots.get(key)
+                    .map(snapshot -> this.restore(key, snapshot, "snapshot"))))
+                .switchIfEmpty(Mono.defer(() -> this.bulkData.get(key).map(this::fromBulkData)))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(restored -> this.serve(key, restored.orElse(null), loader));
+        });
+    }
+
+    /**
+     * Serve a cached (or restored) entry if it is fresh (or negative), and otherwise load the profile, falling
+     * back to the entry if the load fails
+     */
+    private Mono<CompanyResponse> serve(String key, CachedProfile cached,
+                                        BiFunction<String, CompanyResponse, Mono<CompanyResponse>> loader) {
+        if (cached != null && (cached.isNegative() || cached.isFresh(this.ticker.read()))) {
+            logger.debug("Company " + key + " found in cache");
+            return cached.toMono();
+        }
+
+        CompanyResponse stale = cached == null ? null : cached.response;
+        Mono<CompanyResponse> load = this.inFlight.execute(key, k -> loader.apply(k, stale)
+            .doOnNext(response -> {
+                this.cache.put(k, this.fresh(response));
+                this.snapshots.put(k, response);
+                this.shared.put(k, response);
+            })
+            .doOnError(WebClientResponseException.NotFound.class,
+                e -> this.cache.put(k, new CachedProfile(null, new CachedError(e), 0))));
+
+        if (cached == null) {
+            return load;
+        }
+        return load.onErrorResume(CompanyProfileCache::isUpstreamFailure, e -> {
+            logger.info("Serving stale profile of company " + key + " because " + e.getMessage());
+            return cached.toMono();
+        });
+    }
+
+    /**
+     * Turn a saved (or shared) profile into a cache entry that is fresh for what is left of its TTL, and put it in
+     * memory if it is still fresh
+     */
+    private CachedProfile restore(String key, CompanySnapshotStore.Snapshot snapshot, String source) {
+        CachedProfile restored = new CachedProfile(
+            snapshot.getResponse(), null, this.ticker.read() + this.ttlNanos - snapshot.getAge().toNanos());
+        if (restored.isFresh(this.ticker.read())) {
+            logger.debug("Company " + key + " restored from " + source);
+            this.cache.put(key, restored);
+        }
+        return restored;
+    }
+
+    /**
+     * Turn a profile from the bulk data into a cache entry that is fresh for as long as the bulk data is served
+     */
+    private CachedProfile fromBulkData(CompanySnapshotStore.Snapshot snapshot) {
+        return new CachedProfile(snapshot.getResponse(), null,
+            this.ticker.read() + this.bulkData.getServeFor().toNanos() - snapshot.getAge().toNanos());
+    }
+
+    /**
+     * Replace the profile of a company with a newer one (e.g. from the Companies House change feed), if the company
+     * is held in memory or in the snapshot store (and share it, if so).  The new profile is fresh for a whole TTL.  A
+     * company that isn't held is left alone, so that changes to companies nobody has asked for don't push out the
+     * ones they have.  Until the snapshot store's index has been loaded, a company only counts as held if it is in
+     * memory, though its saved profile (if it turns out to have one) is still replaced.
+     *
+     * @param companyNumber the company number, in any form accepted by {@link CompanyNumbers#normalise(String)}
+     * @param response the company's new profile
+     * @return true if the company was held
+     */
+    public boolean update(String companyNumber, CompanyResponse response) {
+        String key = CompanyNumbers.normalise(companyNumber);
+        boolean inMemory = this.cache.asMap().computeIfPresent(key, (k, cached) -> this.fresh(response)) != null;
+        boolean saved = this.snapshots.containsIfReady(key);
+        if (saved || !this.snapshots.isReady()) {
+            this.snapshots.replace(key, response);
+        }
+        if (inMemory || saved) {
+            this.shared.put(key, response);
+        }
+        return inMemory || saved;
+    }
+
+    /**
+     * Remove a company from the cache (and the snapshot store and shared cache), so that the next request goes to Companies House
+     *
+     * @param companyNumber the company number, in any form accepted by {@link CompanyNumbers#normalise(String)}
+     * @return true if the company was held
+     */
+    public boolean invalidate(String companyNumber) {
+        String key = CompanyNumbers.normalise(companyNumber);
+        boolean inMemory = this.cache.asMap().remove(key) != null;
+        boolean saved = this.snapshots.containsIfReady(key);
+        if (saved || !this.snapshots.isReady()) {
+            this.snapshots.remove(key);
+        }
+        this.shared.invalidate(key);
+        return inMemory || saved;
+    }
+
+    Cache<String, CachedProfile> getCache() { return this.cache; }
+
+    private CachedProfile fresh(CompanyResponse response) {
+        return new CachedProfile(response, null, this.ticker.read() + this.ttlNanos);
+    }
+
+    /**
+     * @return true if an error means that Companies House couldn't answer, rather than that it answered 'no'
+     */
+    private static boolean isUpstreamFailure(Throwable e) {
+        if (e instanceof WebClientResponseException) {
+            int status = ((WebClientResponseException) e).getRawStatusCode();
+            return status < 400 || status >= 500;
+        }
+        return true;
+    }
+
+    /**
+     * A cache entry: either a profile, or the error that Companies House responded with
+     */
+    static class CachedProfile {
+        private final CompanyResponse response;
+        private final CachedError error;
+        private final long freshUntil;
+
+        CachedProfile(CompanyResponse response, CachedError error, long freshUntil) {
+            this.response = response;
+            this.error = error;
+            this.freshUntil = freshUntil;
+        }
+
+        boolean isNegative() { return this.error != null; }
+
+        boolean isFresh(long now) { return now - this.freshUntil < 0; }
+
+        Mono<CompanyResponse> toMono() {
+            return this.isNegative() ? Mono.error(this.error.toException()) : Mono.just(this.response);
+        }
+    }
+
+    /**
+     * The response that an error was made from, so that each request it answers gets an exception of its own (an
+     * exception collects suppressed exceptions and stack traces as it goes, so it mustn't be shared)
+     */
+    static class CachedError {
+        private final int status;
+        private final String statusText;
+        private final HttpHeaders headers;
+        private final byte[] body;
+        private final HttpRequest request;
+
+        CachedError(WebClientResponseException e) {
+            this.status = e.getRawStatusCode();
+            this.statusText = e.getStatusText();
+            HttpHeaders headers = new HttpHeaders();
+            headers.addAll(e.getHeaders());
+            this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+            this.body = e.getResponseBodyAsByteArray();
+            this.request = e.getRequest();
+        }
+
+        WebClientResponseException toException() {
+            MediaType contentType = this.headers.getContentType();
+            return WebClientResponseException.create(this.status, this.statusText, this.headers, this.body.clone(),
+                contentType == null ? null : contentType.getCharset(), this.request);
+        }
+    }
+
+    /**
+     * Applies the retention period (TTL plus stale retention) or the negative TTL when an entry is written, and
+     * leaves it alone when it is read
+     */
+    private static class ProfileExpiry implements Expiry<String, CachedProfile> {
+        private final long retentionNanos;
+        private final long negativeTtlNanos;
+
+        ProfileExpiry(Duration retention, Duration negativeTtl) {
+            this.retentionNanos = retention.toNanos();
+            this.negativeTtlNanos = negativeTtl.toNanos();
+        }
+
+        @Override
+        public long expireAfterCreate(String key, CachedProfile value, long currentTime) {
+            return value.isNegative() ? this.negativeTtlNanos : this.retentionNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, CachedProfile value, long currentTime, long currentDuration) {
+            return this.expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, CachedProfile value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
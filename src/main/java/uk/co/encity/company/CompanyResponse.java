@@ -1,88 +1,217 @@
 package uk.co.encity.company;
 
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
-import lombok.NoArgsConstructor;
-import lombok.Setter;
 
 import java.time.LocalDate;
 
 /**
- * Represents data received from Companies House in response to a company request
+ * Represents data received from Companies House in response to a company request.
+ *
+ * Profiles are immutable, and are laid out to be cheap to hold in the cache: the sections are static nested
+ * classes, dates are held as epoch days (see {@link #toEpochDay(LocalDate)}), and values drawn from a small
+ * vocabulary (statuses, types of accounts, place names and accounting reference dates) are interned, so that
+ * profiles share one copy of each.
  */
-@Getter @Setter
-public class CompanyResponse {
+@Getter
+public final class CompanyResponse {
+
+    /**
+     * The epoch day held in place of a missing date, since no real date is this far in the past
+     */
+    static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final Interner<String> STATUSES = new Interner<>(64);
+    private static final Interner<String> ACCOUNTS_TYPES = new Interner<>(64);
+    private static final Interner<String> PLACES = new Interner<>(20_000);
+    private static final Interner<Accounts.AccountingReferenceDate> REFERENCE_DATES = new Interner<>(1024);
 
-    @NoArgsConstructor
     @Getter
-    protected class RegisteredOfficeAddress {
-        protected String postalCode;
-        protected String region;
-        protected String country;
-        protected String addressLine1;
-        protected String locality;
+    public static final class RegisteredOfficeAddress {
+        private final String postalCode;
+        private final String region;
+        private final String country;
+        private final String addressLine1;
+        private final String locality;
+
+        public RegisteredOfficeAddress(String postalCode, String region, String country, String addressLine1,
+                                       String locality) {
+            this.postalCode = postalCode;
+            this.region = PLACES.intern(region);
+            this.country = PLACES.intern(country);
+            this.addressLine1 = addressLine1;
+            this.locality = PLACES.intern(locality);
+        }
     }
 
-    @NoArgsConstructor
     @Getter
-    protected class ConfirmationStatement {
-        protected boolean overdue;
-        protected LocalDate nextDue;
-        protected LocalDate nextMadeUpTo;
-        protected LocalDate lastMadeUpTo;
+    public static final class ConfirmationStatement {
+        final boolean overdue;
+        final int nextDue;
+        final int nextMadeUpTo;
+        final int lastMadeUpTo;
+
+        /**
+         * @param overdue whether the statement is overdue
+         * @param nextDue the epoch day by which the next statement is due, or {@link #NO_DATE}
+         * @param nextMadeUpTo the epoch day to which the next statement is made up, or {@link #NO_DATE}
+         * @param lastMadeUpTo the epoch day to which the last statement was made up, or {@link #NO_DATE}
+         */
+        public ConfirmationStatement(boolean overdue, int nextDue, int nextMadeUpTo, int lastMadeUpTo) {
+            this.overdue = overdue;
+            this.nextDue = nextDue;
+            this.nextMadeUpTo = nextMadeUpTo;
+            this.lastMadeUpTo = lastMadeUpTo;
+        }
+
+        public LocalDate getNextDue() { return toDate(this.nextDue); }
+        public LocalDate getNextMadeUpTo() { return toDate(this.nextMadeUpTo); }
+        public LocalDate getLastMadeUpTo() { return toDate(this.lastMadeUpTo); }
     }
 
     @Getter
-    protected class Accounts {
+    public static final class Accounts {
 
-        @NoArgsConstructor
         @Getter
-        protected class AccountingReferenceDate {
-            protected String day;
-            protected String month;
+        @EqualsAndHashCode
+        public static final class AccountingReferenceDate {
+            private final String day;
+            private final String month;
+
+            private AccountingReferenceDate(String day, String month) {
+                this.day = day;
+                this.month = month;
+            }
+
+            /**
+             * @return the (shared) accounting reference date with the given day and month
+             */
+            public static AccountingReferenceDate of(String day, String month) {
+                return REFERENCE_DATES.intern(new AccountingReferenceDate(day, month));
+            }
         }
 
-        @NoArgsConstructor
         @Getter
-        protected class LastAccounts {
-            protected LocalDate madeUpTo;
-            protected String type;
-            protected LocalDate periodStartOn;
-            protected LocalDate periodEndOn;
+        public static final class LastAccounts {
+            final int madeUpTo;
+            private final String type;
+            final int periodStartOn;
+            final int periodEndOn;
+
+            public LastAccounts(int madeUpTo, String type, int periodStartOn, int periodEndOn) {
+                this.madeUpTo = madeUpTo;
+                this.type = ACCOUNTS_TYPES.intern(type);
+                this.periodStartOn = periodStartOn;
+                this.periodEndOn = periodEndOn;
+            }
+
+            public LocalDate getMadeUpTo() { return toDate(this.madeUpTo); }
+            public LocalDate getPeriodStartOn() { return toDate(this.periodStartOn); }
+            public LocalDate getPeriodEndOn() { return toDate(this.periodEndOn); }
         }
 
-        @NoArgsConstructor
         @Getter
-        protected class NextAccounts {
-            protected LocalDate periodStartOn;
-            protected LocalDate periodEndOn;
-            protected boolean overdue;
-            protected LocalDate dueOn;
+        public static final class NextAccounts {
+            final int periodStartOn;
+            final int periodEndOn;
+            final boolean overdue;
+            final int dueOn;
+
+            public NextAccounts(int periodStartOn, int periodEndOn, boolean overdue, int dueOn) {
+                this.periodStartOn = periodStartOn;
+                this.periodEndOn = periodEndOn;
+                this.overdue = overdue;
+                this.dueOn = dueOn;
+            }
+
+            public LocalDate getPeriodStartOn() { return toDate(this.periodStartOn); }
+            public LocalDate getPeriodEndOn() { return toDate(this.periodEndOn); }
+            public LocalDate getDueOn() { return toDate(this.dueOn); }
         }
 
-        protected AccountingReferenceDate accountingReferenceDate;
-        protected LocalDate nextDue;
-        protected NextAccounts nextAccounts;
-        protected LastAccounts lastAccounts;
-        protected LocalDate nextMadeUpTo;
-        protected boolean overdue;
-
-        protected Accounts()  {
-            this.accountingReferenceDate = new AccountingReferenceDate();
-            this.lastAccounts = new LastAccounts();
-            this.nextAccounts = new NextAccounts();
+        private final AccountingReferenceDate accountingReferenceDate;
+        final int nextDue;
+        private final NextAccounts nextAccounts;
+        private final LastAccounts lastAccounts;
+        final int nextMadeUpTo;
+        final boolean overdue;
+
+        /**
+         * @param accountingReferenceDate the accounting reference date (see {@link AccountingReferenceDate#of})
+         * @param nextDue the epoch day by which the next accounts are due, or {@link #NO_DATE}
+         * @param nextAccounts the next accounts, or null
+         * @param lastAccounts the last accounts, or null
+         * @param nextMadeUpTo the epoch day to which the next accounts are made up, or {@link #NO_DATE}
+         * @param overdue whether the accounts are overdue
+         */
+        public Accounts(AccountingReferenceDate accountingReferenceDate, int nextDue, NextAccounts nextAccounts,
+                        LastAccounts lastAccounts, int nextMadeUpTo, boolean overdue) {
+            this.accountingReferenceDate = accountingReferenceDate;
+            this.nextDue = nextDue;
+            this.nextAccounts = nextAccounts;
+            this.lastAccounts = lastAccounts;
+            this.nextMadeUpTo = nextMadeUpTo;
+            this.overdue = overdue;
         }
 
+        public LocalDate getNextDue() { return toDate(this.nextDue); }
+        public LocalDate getNextMadeUpTo() { return toDate(this.nextMadeUpTo); }
     }
-    protected RegisteredOfficeAddress registeredOfficeAddress;
-    protected ConfirmationStatement confirmationStatement;
-    protected Accounts accounts;
 
-    private String companyStatus;
-    private String companyName;
+    private final RegisteredOfficeAddress registeredOfficeAddress;
+    private final ConfirmationStatement confirmationStatement;
+    private final Accounts accounts;
+
+    private final String companyStatus;
+    private final String companyName;
+
+    /**
+     * The version of the profile at Companies House (the opaque part of its entity tag), which is used to
+     * revalidate a cached copy, and from which our own entity tag is derived
+     */
+    private final String etag;
+
+    /**
+     * @param companyStatus the status of the company, e.g. <code>active</code>
+     * @param companyName the name of the company
+     * @param etag the version of the profile at Companies House, or null
+     * @param registeredOfficeAddress the registered office address, or null
+     * @param confirmationStatement the confirmation statement section, or null
+     * @param accounts the accounts section, which every profile from Companies House has
+     */
+    public CompanyResponse(String companyStatus, String companyName, String etag,
+                           RegisteredOfficeAddress registeredOfficeAddress,
+                           ConfirmationStatement confirmationStatement, Accounts accounts) {
+        this.companyStatus = STATUSES.intern(companyStatus);
+        this.companyName = companyName;
+        this.etag = etag;
+        this.registeredOfficeAddress = registeredOfficeAddress;
+        this.confirmationStatement = confirmationStatement;
+        this.accounts = accounts;
+    }
+
+    /**
+     * @param etag the version of the profile at Companies House
+     * @return this profile, with the given version (sharing all else with this one)
+     */
+    public CompanyResponse withEtag(String etag) {
+        return new CompanyResponse(this.companyStatus, this.companyName, etag, this.registeredOfficeAddress,
+            this.confirmationStatement, this.accounts);
+    }
+
+    /**
+     * @param date a date, or null
+     * @return the date as an epoch day, or {@link #NO_DATE} if it is null
+     */
+    public static int toEpochDay(LocalDate date) {
+        return date == null ? NO_DATE : Math.toIntExact(date.toEpochDay());
+    }
 
-    public CompanyResponse() {
-        this.registeredOfficeAddress = new RegisteredOfficeAddress();
-        this.confirmationStatement = new ConfirmationStatement();
-        this.accounts = new Accounts();
+    /**
+     * @param epochDay an epoch day, or {@link #NO_DATE}
+     * @return the date, or null if there is none
+     */
+    public static LocalDate toDate(int epochDay) {
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
     }
 }
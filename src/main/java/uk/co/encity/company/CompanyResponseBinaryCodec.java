@@ -0,0 +1,159 @@
+package uk.co.encity.company;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A compact binary encoding of a {@link CompanyResponse}, used to persist profiles (see
+ * {@link CompanySnapshotStore}).  It is much cheaper to read back than the Companies House JSON, because only the
+ * fields we keep are stored, strings are length-prefixed and dates are stored as epoch days, in four bytes (a
+ * missing date is {@link CompanyResponse#NO_DATE}, as it is in memory).
+ *
+ * The encoding starts with a version byte.  Any change to the layout must bump {@link #VERSION}, and records in an
+ * older version are then ignored (and eventually compacted away) rather than misread.
+ */
+public final class CompanyResponseBinaryCodec {
+
+    /**
+     * The version of the layout written by {@link #write(DataOutput, CompanyResponse)}
+     */
+    public static final byte VERSION = 2;
+
+    private CompanyResponseBinaryCodec() {}
+
+    /**
+     * Write a company profile
+     *
+     * @param out where to write the profile
+     * @param response the profile
+     */
+    public static void write(DataOutput out, CompanyResponse response) throws IOException {
+        out.writeByte(VERSION);
+        writeString(out, response.getCompanyStatus());
+        writeString(out, response.getCompanyName());
+        writeString(out, response.getEtag());
+
+        CompanyResponse.RegisteredOfficeAddress roa = response.getRegisteredOfficeAddress();
+        out.writeBoolean(roa != null);
+        if (roa != null) {
+            writeString(out, roa.getPostalCode());
+            writeString(out, roa.getRegion());
+            writeString(out, roa.getCountry());
+            writeString(out, roa.getAddressLine1());
+            writeString(out, roa.getLocality());
+        }
+
+        CompanyResponse.ConfirmationStatement cs = response.getConfirmationStatement();
+        out.writeBoolean(cs != null);
+        if (cs != null) {
+            out.writeBoolean(cs.overdue);
+            writeDate(out, cs.nextDue);
+            writeDate(out, cs.nextMadeUpTo);
+            writeDate(out, cs.lastMadeUpTo);
+        }
+
+        CompanyResponse.Accounts accts = response.getAccounts();
+        out.writeBoolean(accts != null);
+        if (accts == null) {
+            return;
+        }
+        CompanyResponse.Accounts.AccountingReferenceDate ard = accts.getAccountingReferenceDate();
+        writeString(out, ard == null ? null : ard.getDay());
+        writeString(out, ard == null ? null : ard.getMonth());
+        writeDate(out, accts.nextDue);
+        writeDate(out, accts.nextMadeUpTo);
+        out.writeBoolean(accts.overdue);
+
+        CompanyResponse.Accounts.NextAccounts next = accts.getNextAccounts();
+        out.writeBoolean(next != null);
+        if (next != null) {
+            writeDate(out, next.periodStartOn);
+            writeDate(out, next.periodEndOn);
+            out.writeBoolean(next.overdue);
+            writeDate(out, next.dueOn);
+        }
+
+        CompanyResponse.Accounts.LastAccounts last = accts.getLastAccounts();
+        out.writeBoolean(last != null);
+        if (last != null) {
+            writeDate(out, last.madeUpTo);
+            writeString(out, last.getType());
+            writeDate(out, last.periodStartOn);
+            writeDate(out, last.periodEndOn);
+        }
+    }
+
+    /**
+     * Read a company profile written by {@link #write(DataOutput, CompanyResponse)}
+     *
+     * @param in where to read the profile from
+     * @return the profile
+     * @throws IOException if the profile can't be read, including if it was written in a different version
+     */
+    public static CompanyResponse read(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported company profile encoding version " + version);
+        }
+
+        String companyStatus = readString(in);
+        String companyName = readString(in);
+        String etag = readString(in);
+
+        CompanyResponse.RegisteredOfficeAddress roa = null;
+        if (in.readBoolean()) {
+            roa = new CompanyResponse.RegisteredOfficeAddress(
+                readString(in), readString(in), readString(in), readString(in), readString(in));
+        }
+
+        CompanyResponse.ConfirmationStatement cs = null;
+        if (in.readBoolean()) {
+            cs = new CompanyResponse.ConfirmationStatement(in.readBoolean(), readDate(in), readDate(in), readDate(in));
+        }
+
+        if (!in.readBoolean()) {
+            return new CompanyResponse(companyStatus, companyName, etag, roa, cs, null);
+        }
+
+        String day = readString(in);
+        String month = readString(in);
+        CompanyResponse.Accounts.AccountingReferenceDate ard = day == null && month == null
+            ? null : CompanyResponse.Accounts.AccountingReferenceDate.of(day, month);
+        int nextDue = readDate(in);
+        int nextMadeUpTo = readDate(in);
+        boolean overdue = in.readBoolean();
+
+        CompanyResponse.Accounts.NextAccounts next = null;
+        if (in.readBoolean()) {
+            next = new CompanyResponse.Accounts.NextAccounts(readDate(in), readDate(in), in.readBoolean(), readDate(in));
+        }
+
+        CompanyResponse.Accounts.LastAccounts last = null;
+        if (in.readBoolean()) {
+            last = new CompanyResponse.Accounts.LastAccounts(readDate(in), readString(in), readDate(in), readDate(in));
+        }
+
+        return new CompanyResponse(companyStatus, companyName, etag, roa, cs,
+            new CompanyResponse.Accounts(ard, nextDue, next, last, nextMadeUpTo, overdue));
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDate(DataOutput out, int epochDay) throws IOException {
+        out.writeInt(epochDay);
+    }
+
+    private static int readDate(DataInput in) throws IOException {
+        return in.readInt();
+    }
+}
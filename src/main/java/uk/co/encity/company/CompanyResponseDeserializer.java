@@ -1,8 +1,8 @@
 package uk.co.encity.company;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 
 import java.io.IOException;
@@ -11,6 +11,9 @@ import java.time.LocalDate;
 /**
  * De-serialises a response received from Companies House in relation to a company query, into
  * a {@link CompanyResponse} POJO.
+ *
+ * The parser's tokens are walked once, and any part of the document that we don't use (links, SIC codes,
+ * previous names and so on) is skipped without being materialised.
  */
 public class CompanyResponseDeserializer extends StdDeserializer<CompanyResponse> {
 
@@ -19,81 +22,266 @@ public class CompanyResponseDeserializer extends StdDeserializer<CompanyResponse
 
     @Override
     public CompanyResponse deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
-        JsonNode rootNode = jp.getCodec().readTree(jp);
+        if (!jp.isExpectedStartObjectToken()) {
+            return (CompanyResponse) ctxt.handleUnexpectedToken(CompanyResponse.class, jp);
+        }
+
+        CompanyResponse.RegisteredOfficeAddress roa = null;
+        CompanyResponse.ConfirmationStatement cs = null;
+        CompanyResponse.Accounts accts = null;
+        String companyStatus = null;
+        String companyName = null;
+        String etag = null;
 
-        CompanyResponse response = new CompanyResponse();
+        for (String field = jp.nextFieldName(); field != null; field = jp.nextFieldName()) {
+            JsonToken token = jp.nextToken();
 
-        // There is some checking for fields that may be missing below, but we could be far more defensive.  At the
+            switch (field) {
+                case "company_status":
+                    companyStatus = jp.getText();
+                    break;
+                case "company_name":
+                    companyName = jp.getText();
+                    break;
+                case "etag":
+                    etag = textOrNull(jp);
+                    break;
+                case "registered_office_address":
+                    if (token == JsonToken.START_OBJECT) {
+                        roa = readRegisteredOfficeAddress(jp);
+                    }
+                    break;
+                case "confirmation_statement":
+                    if (token == JsonToken.START_OBJECT) {
+                        cs = readConfirmationStatement(jp);
+                    }
+                    break;
+                case "accounts":
+                    if (token == JsonToken.START_OBJECT) {
+                        accts = readAccounts(jp);
+                    }
+                    break;
+                default:
+                    jp.skipChildren();
+            }
+        }
+
+        // There is some checking for fields that may be missing, but we could be far more defensive.  At the
         // time of writing we are still prototyping, but this may have to be re-visited with a 'paranoid' hat on
+        if (companyStatus == null || companyName == null || accts == null) {
+            return (CompanyResponse) ctxt.reportInputMismatch(
+                this, "Company response is missing company_status, company_name or accounts");
+        }
 
-        // Company status and name
-        response.setCompanyStatus(rootNode.get("company_status").asText());
-        response.setCompanyName(rootNode.get("company_name").asText());
-
-        // Registered office address
-        if (rootNode.hasNonNull("registered_office_address")) {
-            JsonNode roaNode = rootNode.get("registered_office_address");
-
-            response.registeredOfficeAddress.postalCode = roaNode.hasNonNull("postal_code") ?
-                roaNode.get("postal_code").asText() : null;
-            response.registeredOfficeAddress.region = roaNode.hasNonNull("region") ?
-                roaNode.get("region").asText() : null;
-            response.registeredOfficeAddress.country = roaNode.hasNonNull("country") ?
-                roaNode.get("country").asText() : null;
-            response.registeredOfficeAddress.addressLine1 = roaNode.hasNonNull("address_line_1") ?
-                roaNode.get("address_line_1").asText() : null;
-            response.registeredOfficeAddress.locality = roaNode.hasNonNull("locality") ?
-                roaNode.get("locality").asText() : null;
-        } else {
-            response.registeredOfficeAddress = null;
+        return new CompanyResponse(companyStatus, companyName, etag, roa, cs, accts);
+    }
+
+    private CompanyResponse.RegisteredOfficeAddress readRegisteredOfficeAddress(JsonParser jp) throws IOException {
+        String postalCode = null;
+        String region = null;
+        String country = null;
+        String addressLine1 = null;
+        String locality = null;
+
+        for (String field = jp.nextFieldName(); field != null; field = jp.nextFieldName()) {
+            jp.nextToken();
+
+            switch (field) {
+                case "postal_code":
+                    postalCode = textOrNull(jp);
+                    break;
+                case "region":
+                    region = textOrNull(jp);
+                    break;
+                case "country":
+                    country = textOrNull(jp);
+                    break;
+                case "address_line_1":
+                    addressLine1 = textOrNull(jp);
+                    break;
+                case "locality":
+                    locality = textOrNull(jp);
+                    break;
+                default:
+                    jp.skipChildren();
+            }
         }
 
-        if (rootNode.hasNonNull("confirmation_statement")) {
-            // Confirmation statement details
-            JsonNode csNode = rootNode.get("confirmation_statement");
-            response.confirmationStatement.overdue = csNode.get("overdue").asBoolean();
-            response.confirmationStatement.nextDue = LocalDate.parse(csNode.get("next_due").asText());
-            response.confirmationStatement.nextMadeUpTo = LocalDate.parse(csNode.get("next_made_up_to").asText());
-            response.confirmationStatement.lastMadeUpTo = LocalDate.parse(csNode.get("last_made_up_to").asText());
-        } else {
-            response.confirmationStatement = null;
+        return new CompanyResponse.RegisteredOfficeAddress(postalCode, region, country, addressLine1, locality);
+    }
+
+    private CompanyResponse.ConfirmationStatement readConfirmationStatement(JsonParser jp) throws IOException {
+        boolean overdue = false;
+        int nextDue = CompanyResponse.NO_DATE;
+        int nextMadeUpTo = CompanyResponse.NO_DATE;
+        int lastMadeUpTo = CompanyResponse.NO_DATE;
+
+        for (String field = jp.nextFieldName(); field != null; field = jp.nextFieldName()) {
+            jp.nextToken();
+
+            switch (field) {
+                case "overdue":
+                    overdue = jp.getValueAsBoolean();
+                    break;
+                case "next_due":
+                    nextDue = epochDayOrNone(jp);
+                    break;
+                case "next_made_up_to":
+                    nextMadeUpTo = epochDayOrNone(jp);
+                    break;
+                case "last_made_up_to":
+                    lastMadeUpTo = epochDayOrNone(jp);
+                    break;
+                default:
+                    jp.skipChildren();
+            }
         }
 
-        // Accounts details
-        JsonNode acctsNode = rootNode.get("accounts");
-        response.accounts.accountingReferenceDate.day = acctsNode.get("accounting_reference_date").get("day").asText();
-        response.accounts.accountingReferenceDate.month = acctsNode.get("accounting_reference_date").get("month").asText();
-
-        if (acctsNode.hasNonNull("next_accounts")) {
-            response.accounts.nextAccounts.periodStartOn = LocalDate.parse(acctsNode.get("next_accounts").get("period_start_on").asText());
-            response.accounts.nextAccounts.periodEndOn = LocalDate.parse(acctsNode.get("next_accounts").get("period_end_on").asText());
-            response.accounts.nextAccounts.overdue = acctsNode.get("next_accounts").get("overdue").asBoolean();
-            response.accounts.nextAccounts.dueOn = LocalDate.parse(acctsNode.get("next_accounts").get("due_on").asText());
-        } else {
-            response.accounts.nextAccounts = null;
+        return new CompanyResponse.ConfirmationStatement(overdue, nextDue, nextMadeUpTo, lastMadeUpTo);
+    }
+
+    private CompanyResponse.Accounts readAccounts(JsonParser jp) throws IOException {
+        CompanyResponse.Accounts.AccountingReferenceDate ard = CompanyResponse.Accounts.AccountingReferenceDate.of(
+            null, null);
+        CompanyResponse.Accounts.NextAccounts next = null;
+        CompanyResponse.Accounts.LastAccounts last = null;
+        int nextMadeUpTo = CompanyResponse.NO_DATE;
+        boolean overdue = false;
+
+        for (String field = jp.nextFieldName(); field != null; field = jp.nextFieldName()) {
+            JsonToken token = jp.nextToken();
+
+            switch (field) {
+                case "accounting_reference_date":
+                    if (token == JsonToken.START_OBJECT) {
+                        ard = readAccountingReferenceDate(jp);
+                    }
+                    break;
+                case "next_accounts":
+                    if (token == JsonToken.START_OBJECT) {
+                        next = readNextAccounts(jp);
+                    }
+                    break;
+                case "last_accounts":
+                    if (token == JsonToken.START_OBJECT) {
+                        last = readLastAccounts(jp);
+                    }
+                    break;
+                case "next_made_up_to":
+                    nextMadeUpTo = epochDayOrNone(jp);
+                    break;
+                case "overdue":
+                    overdue = token != JsonToken.VALUE_NULL && jp.getValueAsBoolean();
+                    break;
+                default:
+                    jp.skipChildren();
+            }
         }
 
-        if (acctsNode.hasNonNull("last_accounts")) {
-            JsonNode lastAcctsNode = acctsNode.get("last_accounts");
-
-            response.accounts.lastAccounts.madeUpTo = (lastAcctsNode.hasNonNull("made_up_to")) ?
-                LocalDate.parse(lastAcctsNode.get("made_up_to").asText()) : null;
-            response.accounts.lastAccounts.type = (lastAcctsNode.hasNonNull("type")) ?
-                lastAcctsNode.get("type").asText() : null;
-            response.accounts.lastAccounts.periodStartOn = (lastAcctsNode.hasNonNull("period_start_on")) ?
-                LocalDate.parse(lastAcctsNode.get("period_start_on").asText()) : null;
-            response.accounts.lastAccounts.periodEndOn = (lastAcctsNode.hasNonNull("period_end_on")) ?
-                LocalDate.parse(lastAcctsNode.get("period_end_on").asText()) : null;
-        } else {
-            response.accounts.lastAccounts = null;
+        return new CompanyResponse.Accounts(ard, CompanyResponse.NO_DATE, next, last, nextMadeUpTo, overdue);
+    }
+
+    private CompanyResponse.Accounts.AccountingReferenceDate readAccountingReferenceDate(JsonParser jp)
+            throws IOException {
+        String day = null;
+        String month = null;
+
+        for (String field = jp.nextFieldName(); field != null; field = jp.nextFieldName()) {
+            jp.nextToken();
+
+            switch (field) {
+                case "day":
+                    day = jp.getText();
+                    break;
+                case "month":
+                    month = jp.getText();
+                    break;
+                default:
+                    jp.skipChildren();
+            }
+        }
+
+        return CompanyResponse.Accounts.AccountingReferenceDate.of(day, month);
+    }
+
+    private CompanyResponse.Accounts.NextAccounts readNextAccounts(JsonParser jp) throws IOException {
+        int periodStartOn = CompanyResponse.NO_DATE;
+        int periodEndOn = CompanyResponse.NO_DATE;
+        boolean overdue = false;
+        int dueOn = CompanyResponse.NO_DATE;
+
+        for (String field = jp.nextFieldName(); field != null; field = jp.nextFieldName()) {
+            jp.nextToken();
+
+            switch (field) {
+                case "period_start_on":
+                    periodStartOn = epochDayOrNone(jp);
+                    break;
+                case "period_end_on":
+                    periodEndOn = epochDayOrNone(jp);
+                    break;
+                case "overdue":
+                    overdue = jp.getValueAsBoolean();
+                    break;
+                case "due_on":
+                    dueOn = epochDayOrNone(jp);
+                    break;
+                default:
+                    jp.skipChildren();
+            }
+        }
+
+        return new CompanyResponse.Accounts.NextAccounts(periodStartOn, periodEndOn, overdue, dueOn);
+    }
+
+    private CompanyResponse.Accounts.LastAccounts readLastAccounts(JsonParser jp) throws IOException {
+        int madeUpTo = CompanyResponse.NO_DATE;
+        String type = null;
+        int periodStartOn = CompanyResponse.NO_DATE;
+        int periodEndOn = CompanyResponse.NO_DATE;
+
+        for (String field = jp.nextFieldName(); field != null; field = jp.nextFieldName()) {
+            jp.nextToken();
+
+            switch (field) {
+                case "made_up_to":
+                    madeUpTo = epochDayOrNone(jp);
+                    break;
+                case "type":
+                    type = textOrNull(jp);
+                    break;
+                case "period_start_on":
+                    periodStartOn = epochDayOrNone(jp);
+                    break;
+                case "period_end_on":
+                    periodEndOn = epochDayOrNone(jp);
+                    break;
+                default:
+                    jp.skipChildren();
+            }
         }
 
-        response.accounts.nextMadeUpTo = (acctsNode.hasNonNull("next_made_up_to")) ?
-            LocalDate.parse(acctsNode.get("next_made_up_to").asText()) : null;
+        return new CompanyResponse.Accounts.LastAccounts(madeUpTo, type, periodStartOn, periodEndOn);
+    }
 
-        response.accounts.overdue = (acctsNode.hasNonNull("overdue")) ?
-            acctsNode.get("overdue").asBoolean() : false;
+    /**
+     * @return the text of the current scalar value, or null if the value is JSON null or a structure (which
+     * is skipped)
+     */
+    private static String textOrNull(JsonParser jp) throws IOException {
+        JsonToken token = jp.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token.isStructStart()) {
+            jp.skipChildren();
+            return null;
+        }
+        return jp.getText();
+    }
 
-        return response;
+    private static int epochDayOrNone(JsonParser jp) throws IOException {
+        String text = textOrNull(jp);
+        return text == null ? CompanyResponse.NO_DATE : CompanyResponse.toEpochDay(LocalDate.parse(text));
     }
 }
@@ -0,0 +1,22 @@
+package uk.co.encity.company;
+
+import lombok.Getter;
+
+/**
+ * Some of the top-level fields of a {@link CompanyResponse}, as selected by a client with the <code>fields</code>
+ * parameter, and written by {@link CompanyResponseSerializer.SelectionSerializer}
+ */
+@Getter
+public final class CompanyResponseSelection {
+    private final CompanyResponse response;
+    private final int fields;
+
+    /**
+     * @param response the profile
+     * @param fields the fields to write, as a mask (see {@link CompanyResponseSerializer#fields(String)})
+     */
+    CompanyResponseSelection(CompanyResponse response, int fields) {
+        this.response = response;
+        this.fields = fields;
+    }
+}
@@ -0,0 +1,528 @@
+package uk.co.encity.company;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * An on-disk store of company profiles, which survives restarts.  It sits behind the in-memory
+ * {@link CompanyProfileCache}, so that a newly started instance can serve profiles it has seen before without
+ * asking Companies House for all of them again, and can serve them (however old) while Companies House is
+ * unavailable.
+ *
+ * The store is a single append-only log file.  Each record holds one company's profile (in the encoding of
+ * {@link CompanyResponseBinaryCodec}) or a tombstone, with the time it was saved, and is prefixed with its length
+ * and a CRC.  An in-memory index maps each company number to the location of its latest record.  Records are
+ * appended (not fsync'd) by a single writer thread, so writes never hold up a request; after a crash, a torn
+ * record at the end of the log is detected by its CRC and discarded.
+ *
+ * The index is built in the background when the store is created: until it is ready, lookups find nothing and
+ * requests go to Companies House as usual.  When more than half of the log is superseded or expired records, it
+ * is compacted into a new file, which replaces the old one atomically.
+ *
+ * The store is disabled unless <code>encity.snapshot.path</code> is set.
+ */
+@Component
+public class CompanySnapshotStore implements AutoCloseable {
+
+    /**
+     * Each record starts with its length and CRC
+     */
+    private static final int HEADER_BYTES = 8;
+
+    private static final byte TOMBSTONE = 0;
+    private static final byte PROFILE = 1;
+
+    /**
+     * Logs smaller than this are never compacted
+     */
+    private static final long MIN_COMPACTION_BYTES = 1 << 20;
+
+    /**
+     * Index entries pack a record's offset and length into one long, with this many bits for the length
+     */
+    private static final int LENGTH_BITS = 24;
+
+    private final Path path;
+    private final long maxAgeMillis;
+    private final LongSupplier clock;
+    private final Scheduler writer;
+
+    /**
+     * Lookups hold the read lock, so that the log isn't swapped from under them by a compaction
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+    private volatile FileChannel channel;
+    private volatile boolean ready;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // Only used by the writer thread
+    private long end;
+    private long liveBytes;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * Create a store, and start loading its index in the background
+     *
+     * @param path the log file, which is created if it doesn't exist; if empty, the store is disabled
+     * @param maxAge how old a saved profile may be before it is discarded
+     */
+    @Autowired
+    public CompanySnapshotStore(@Value("${encity.snapshot.path:}") String path,
+                                @Value("${encity.snapshot.max-age:30d}") Duration maxAge) {
+        this(path.isEmpty() ? null : Paths.get(path), maxAge, System::currentTimeMillis);
+    }
+
+    CompanySnapshotStore(Path path, Duration maxAge, LongSupplier clock) {
+        logger.debug("Constructing " + this.getClass().getName() + (path == null ? " (disabled)" : " at " + path));
+
+        this.path = path;
+        this.maxAgeMillis = maxAge.toMillis();
+        this.clock = clock;
+        this.writer = path == null ? null : Schedulers.newSingle("snapshot-writer");
+
+        if (this.writer != null) {
+            this.writer.schedule(() -> {
+                try {
+                    this.load();
+                } catch (IOException e) {
+                    logger.error("Unable to load company snapshots from " + this.path + ": " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true if profiles are being saved
+     */
+    public boolean isEnabled() { return this.path != null && !this.closed.get(); }
+
+    /**
+     * @return true once the index has been loaded, so that lookups can find saved profiles
+     */
+    public boolean isReady() { return this.ready; }
+
+    /**
+     * @return the number of companies whose profiles are saved
+     */
+    public int size() { return this.index.size(); }
+
+    /**
+     * @param companyNumber the normalised company number
+     * @return true if a profile of the company is known to be saved, which it never is until the index has been
+     * loaded
+     */
+    public boolean containsIfReady(String companyNumber) {
+        return this.isEnabled() && this.ready && this.index.containsKey(companyNumber);
+    }
+
+    /**
+     * Look up the saved profile of a company.  The file is read on a bounded elastic thread.
+     *
+     * @param companyNumber the normalised company number
+     * @return a {@link Mono} that publishes the saved profile, or completes empty if there isn't one (or the
+     * store is disabled or not loaded yet)
+     */
+    public Mono<Snapshot> get(String companyNumber) {
+        if (!this.isEnabled()) {
+            return Mono.empty();
+        }
+        return Mono.fromCallable(() -> this.read(companyNumber)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Save the profile of a company, in the background
+     *
+     * @param companyNumber the normalised company number
+     * @param response the profile
+     */
+    public void put(String companyNumber, CompanyResponse response) {
+        this.write(companyNumber, PROFILE, response, false);
+    }
+
+    /**
+     * Save the profile of a company, in the background, if a profile of it is saved already.  That is decided by
+     * the writer, after the index has been loaded, so this may be used before the store is ready.
+     *
+     * @param companyNumber the normalised company number
+     * @param response the profile
+     */
+    public void replace(String companyNumber, CompanyResponse response) {
+        this.write(companyNumber, PROFILE, response, true);
+    }
+
+    /**
+     * Forget the profile of a company, in the background
+     *
+     * @param companyNumber the normalised company number
+     */
+    public void remove(String companyNumber) {
+        this.write(companyNumber, TOMBSTONE, null, false);
+    }
+
+    /**
+     * Wait for the writes that have been made so far (and the initial load) to reach the file
+     */
+    public void flush() {
+        if (this.isEnabled()) {
+            Mono.fromRunnable(() -> {}).subscribeOn(this.writer).block();
+        }
+    }
+
+    /**
+     * Compact the log now, rather than waiting until enough of it is garbage, and wait for it to finish
+     */
+    public void compactNow() {
+        if (this.isEnabled()) {
+            Mono.fromRunnable(() -> {
+                try {
+                    this.compact();
+                } catch (IOException e) {
+                    logger.error("Unable to compact company snapshots: " + e.getMessage());
+                }
+            }).subscribeOn(this.writer).block();
+        }
+    }
+
+    /**
+     * @return the current size of the log, in bytes
+     */
+    long fileSize() throws IOException {
+        FileChannel ch = this.channel;
+        return ch == null ? 0 : ch.size();
+    }
+
+    /**
+     * Finish any pending writes, and close the file
+     */
+    @Override
+    public void close() {
+        if (this.path == null || !this.closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        Mono.fromRunnable(() -> {
+            FileChannel ch = this.channel;
+            if (ch != null) {
+                try {
+                    ch.force(false);
+                    ch.close();
+                } catch (IOException e) {
+                    logger.error("Unable to close company snapshots: " + e.getMessage());
+                }
+            }
+            this.channel = null;
+            this.ready = false;
+        }).subscribeOn(this.writer).block(Duration.ofSeconds(10));
+        this.writer.dispose();
+    }
+
+    private void write(String companyNumber, byte type, CompanyResponse response, boolean onlyIfSaved) {
+        if (!this.isEnabled()) {
+            return;
+        }
+
+        this.writer.schedule(() -> {
+            if (onlyIfSaved && !this.index.containsKey(companyNumber)) {
+                return;
+            }
+            try {
+                this.append(companyNumber, type, response);
+                if (this.end >= MIN_COMPACTION_BYTES && this.liveBytes * 2 < this.end) {
+                    this.compact();
+                }
+            } catch (IOException e) {
+                logger.error("Unable to save company " + companyNumber + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Build the index by reading the whole log.  A record that is incomplete or fails its CRC is taken to be the
+     * torn end of the log, and it (and anything after it) is truncated.
+     */
+    private void load() throws IOException {
+        long start = System.nanoTime();
+        FileChannel ch = FileChannel.open(this.path,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long now = this.clock.getAsLong();
+        long pos = 0;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+        CRC32 crc = new CRC32();
+        while (true) {
+            int length;
+            int expected;
+            byte[] body;
+            try {
+                length = in.readInt();
+                expected = in.readInt();
+                if (length <= 0 || length >= (1 << LENGTH_BITS) - HEADER_BYTES) {
+                    break;
+                }
+                body = new byte[length];
+                in.readFully(body);
+            } catch (EOFException e) {
+                break;
+            }
+
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != expected) {
+                break;
+            }
+
+            RecordHeader header = RecordHeader.read(body);
+            int total = HEADER_BYTES + length;
+            if (header.type == PROFILE && !this.isExpired(header.savedAt, now)) {
+                this.index(header.companyNumber, pack(pos, total));
+            } else {
+                this.unindex(header.companyNumber);
+            }
+            pos += total;
+        }
+
+        if (pos < ch.size()) {
+            logger.warn("Discarding " + (ch.size() - pos) + " bytes at the end of " + this.path);
+            ch.truncate(pos);
+        }
+
+        this.channel = ch;
+        this.end = pos;
+        this.ready = true;
+        logger.info("Loaded " + this.index.size() + " company snapshots from " + this.path + " in "
+            + Duration.ofNanos(System.nanoTime() - start).toMillis() + "ms");
+    }
+
+    private void append(String companyNumber, byte type, CompanyResponse response) throws IOException {
+        FileChannel ch = this.channel;
+        if (ch == null) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(type);
+        out.writeUTF(companyNumber);
+        out.writeLong(this.clock.getAsLong());
+        if (type == PROFILE) {
+            CompanyResponseBinaryCodec.write(out, response);
+        }
+
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        int length = record.remaining() - HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_BYTES, length);
+        record.putInt(0, length).putInt(4, (int) crc.getValue());
+
+        long pos = this.end;
+        writeFully(ch, record, pos);
+        this.end += record.capacity();
+
+        if (type == PROFILE) {
+            this.index(companyNumber, pack(pos, record.capacity()));
+        } else {
+            this.unindex(companyNumber);
+        }
+    }
+
+    /**
+     * Copy the latest, unexpired record for each company into a new log, and swap it in
+     */
+    private void compact() throws IOException {
+        FileChannel ch = this.channel;
+        if (ch == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        long before = this.end;
+        long now = this.clock.getAsLong();
+        Path compacted = this.path.resolveSibling(this.path.getFileName() + ".compact");
+        FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        Map<String, Long> index = new HashMap<>(this.index.size() * 2);
+        long pos = 0;
+        try {
+            for (Map.Entry<String, Long> entry : this.index.entrySet()) {
+                ByteBuffer record = ByteBuffer.allocate(length(entry.getValue()));
+                readFully(ch, record, offset(entry.getValue()));
+                RecordHeader header = RecordHeader.read(
+                    record.array(), HEADER_BYTES, record.capacity() - HEADER_BYTES);
+                if (this.isExpired(header.savedAt, now)) {
+                    continue;
+                }
+
+                record.flip();
+                writeFully(out, record, pos);
+                index.put(entry.getKey(), pack(pos, record.capacity()));
+                pos += record.capacity();
+            }
+            out.force(false);
+        } catch (IOException e) {
+            out.close();
+            Files.deleteIfExists(compacted);
+            throw e;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            Files.move(compacted, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.channel = out;
+            this.index.clear();
+            this.index.putAll(index);
+            this.end = pos;
+            this.liveBytes = pos;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        ch.close();
+
+        logger.info("Compacted company snapshots from " + before + " to " + pos + " bytes in "
+            + Duration.ofNanos(System.nanoTime() - start).toMillis() + "ms");
+    }
+
+    private Snapshot read(String companyNumber) throws IOException {
+        if (!this.ready) {
+            return null;
+        }
+
+        this.lock.readLock().lock();
+        try {
+            Long location = this.index.get(companyNumber);
+            FileChannel ch = this.channel;
+            if (location == null || ch == null) {
+                return null;
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(length(location));
+            readFully(ch, record, offset(location));
+            DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(record.array(), HEADER_BYTES, record.capacity() - HEADER_BYTES));
+            RecordHeader header = RecordHeader.read(in);
+
+            long now = this.clock.getAsLong();
+            if (!companyNumber.equals(header.companyNumber) || this.isExpired(header.savedAt, now)) {
+                return null;
+            }
+            return new Snapshot(CompanyResponseBinaryCodec.read(in), Duration.ofMillis(Math.max(0, now - header.savedAt)));
+        } catch (IOException e) {
+            logger.warn("Unable to read saved profile of company " + companyNumber + ": " + e.getMessage());
+            return null;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void index(String companyNumber, long location) {
+        Long previous = this.index.put(companyNumber, location);
+        this.liveBytes += length(location) - (previous == null ? 0 : length(previous));
+    }
+
+    private void unindex(String companyNumber) {
+        Long previous = this.index.remove(companyNumber);
+        if (previous != null) {
+            this.liveBytes -= length(previous);
+        }
+    }
+
+    private boolean isExpired(long savedAt, long now) {
+        return now - savedAt > this.maxAgeMillis;
+    }
+
+    private static long pack(long offset, int length) { return (offset << LENGTH_BITS) | length; }
+    private static long offset(long location) { return location >>> LENGTH_BITS; }
+    private static int length(long location) { return (int) (location & ((1 << LENGTH_BITS) - 1)); }
+
+    private static void readFully(FileChannel ch, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (ch.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of snapshot file");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            ch.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * The start of a record (after its length and CRC): what it is, which company it is for, and when it was saved
+     */
+    private static class RecordHeader {
+        final byte type;
+        final String companyNumber;
+        final long savedAt;
+
+        private RecordHeader(byte type, String companyNumber, long savedAt) {
+            this.type = type;
+            this.companyNumber = companyNumber;
+            this.savedAt = savedAt;
+        }
+
+        static RecordHeader read(byte[] body) throws IOException {
+            return read(body, 0, body.length);
+        }
+
+        static RecordHeader read(byte[] bytes, int offset, int length) throws IOException {
+            return read(new DataInputStream(new ByteArrayInputStream(bytes, offset, length)));
+        }
+
+        static RecordHeader read(DataInputStream in) throws IOException {
+            return new RecordHeader(in.readByte(), in.readUTF(), in.readLong());
+        }
+    }
+
+    /**
+     * A saved profile, and how long ago it was saved
+     */
+    public static class Snapshot {
+        private final CompanyResponse response;
+        private final Duration age;
+
+        Snapshot(CompanyResponse response, Duration age) {
+            this.response = response;
+            this.age = age;
+        }
+
+        public CompanyResponse getResponse() { return this.response; }
+        public Duration getAge() { return this.age; }
+    }
+}
@@ -0,0 +1,70 @@
+package uk.co.encity.company;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The collections that Companies House holds about a company, besides its profile, which can be fetched on their
+ * own (as <code>/companies/{companyNumber}/{path}</code>) or alongside the profile (with <code>?expand=</code>)
+ */
+public enum CompanySubResource {
+    OFFICERS("officers", "officers"),
+    FILINGS("filings", "filing-history"),
+    PSC("psc", "persons-with-significant-control");
+
+    private final String name;
+    private final String path;
+
+    CompanySubResource(String name, String path) {
+        this.name = name;
+        this.path = path;
+    }
+
+    /**
+     * @return the name by which the collection is expanded, and under which it is written alongside the profile
+     */
+    public String getName() { return this.name; }
+
+    /**
+     * @return the last segment of the collection's path, which is the same here as at Companies House
+     */
+    public String getPath() { return this.path; }
+
+    /**
+     * @param path the last segment of a collection's path
+     * @return the collection
+     * @throws IllegalArgumentException if there is no such collection
+     */
+    static CompanySubResource forPath(String path) {
+        for (CompanySubResource part : values()) {
+            if (part.path.equals(path)) {
+                return part;
+            }
+        }
+        throw new IllegalArgumentException("Unknown collection " + path);
+    }
+
+    /**
+     * Parse a client's list of collections to expand
+     *
+     * @param list the names of collections (see {@link #getName()}), separated by commas
+     * @return the collections, which may be none
+     * @throws IllegalArgumentException if any name in the list isn't a collection
+     */
+    static Set<CompanySubResource> parse(String list) {
+        Set<CompanySubResource> parts = EnumSet.noneOf(CompanySubResource.class);
+        for (String name : list.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            CompanySubResource part = Stream.of(values()).filter(p -> p.name.equals(trimmed)).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown expansion " + trimmed + ": the expansions are "
+                    + Stream.of(values()).map(CompanySubResource::getName).collect(Collectors.joining(", "))));
+            parts.add(part);
+        }
+        return parts;
+    }
+}
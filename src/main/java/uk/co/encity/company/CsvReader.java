@@ -0,0 +1,88 @@
+package uk.co.encity.company;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal streaming reader of comma-separated values, as published by Companies House.  Fields may be quoted
+ * (in which case they may contain commas, line breaks and doubled quotes), and records end with LF or CRLF.  Only
+ * one record is held at a time, so a file of any size can be read in a small, fixed amount of memory.
+ */
+final class CsvReader {
+
+    private static final int BUFFER_CHARS = 1 << 16;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_CHARS];
+    private int pos;
+    private int limit;
+
+    private final StringBuilder field = new StringBuilder(64);
+    private final List<String> fields = new ArrayList<>(64);
+
+    CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Read the next record
+     *
+     * @return the fields of the record, or null at the end of the input
+     */
+    String[] next() throws IOException {
+        int c = this.read();
+        if (c < 0) {
+            return null;
+        }
+
+        this.fields.clear();
+        this.field.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c < 0) {
+                    throw new IOException("Unterminated quoted field in CSV");
+                }
+                if (c == '"') {
+                    c = this.read();
+                    if (c != '"') {
+                        quoted = false;
+                        continue;
+                    }
+                }
+                this.field.append((char) c);
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                this.endField();
+            } else if (c == '\n' || c < 0) {
+                break;
+            } else if (c != '\r') {
+                this.field.append((char) c);
+            }
+            c = this.read();
+        }
+        this.endField();
+
+        return this.fields.toArray(new String[0]);
+    }
+
+    private void endField() {
+        this.fields.add(this.field.toString());
+        this.field.setLength(0);
+    }
+
+    private int read() throws IOException {
+        if (this.pos == this.limit) {
+            this.limit = this.reader.read(this.buffer, 0, this.buffer.length);
+            this.pos = 0;
+            if (this.limit <= 0) {
+                this.limit = 0;
+                return -1;
+            }
+        }
+        return this.buffer[this.pos++];
+    }
+}
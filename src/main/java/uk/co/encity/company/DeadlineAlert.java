@@ -0,0 +1,43 @@
+package uk.co.encity.company;
+
+import lombok.Getter;
+
+import java.time.LocalDate;
+
+/**
+ * An alert that one of a tracked company's filing deadlines is coming up, or has passed (see
+ * {@link DeadlineTracker})
+ */
+@Getter
+public class DeadlineAlert {
+
+    /**
+     * The deadline for filing the company's next accounts
+     */
+    public static final String ACCOUNTS = "accounts";
+
+    /**
+     * The deadline for filing the company's next confirmation statement
+     */
+    public static final String CONFIRMATION_STATEMENT = "confirmation-statement";
+
+    public static final String UPCOMING = "upcoming";
+    public static final String OVERDUE = "overdue";
+
+    private final String companyNumber;
+    private final String deadline;
+    private final LocalDate dueOn;
+    private final String status;
+
+    DeadlineAlert(String companyNumber, String deadline, LocalDate dueOn, String status) {
+        this.companyNumber = companyNumber;
+        this.deadline = deadline;
+        this.dueOn = dueOn;
+        this.status = status;
+    }
+
+    @Override
+    public String toString() {
+        return this.companyNumber + " " + this.deadline + " " + this.status + " (due " + this.dueOn + ")";
+    }
+}
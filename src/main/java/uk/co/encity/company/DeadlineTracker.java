@@ -0,0 +1,759 @@
+package uk.co.encity.company;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks the filing deadlines (next accounts and next confirmation statement) of the companies in users'
+ * watchlists, and raises a {@link DeadlineAlert} when a deadline is coming up (within
+ * <code>encity.alerts.warning</code> of its due date) and again when it has passed.
+ *
+ * Each company is a slot in a set of primitive arrays (its packed company number, due dates as epoch days, and so
+ * on), found through an open addressing map from packed company number to slot.  Two min-heaps, also of
+ * primitives, order the companies in time:
+ *
+ * <ul>
+ *     <li>by the day on which the status of one of its deadlines next changes, so that each tick (every
+ *     <code>encity.alerts.tick</code>) only looks at the companies whose status has changed since the last one,
+ *     rather than rescanning them all</li>
+ *     <li>by the time at which it is next due to be refreshed from Companies House (through the profile cache),
+ *     which is at most <code>encity.alerts.refresh-max-age</code> after the last time, and also the day before an
+ *     alert is due, so that a deadline that has just been met isn't reported as overdue.  Each tick refreshes at
+ *     most <code>encity.alerts.refresh-batch</code> companies (and never more than the Companies House rate limit
+ *     allows in a tick), so that tracking doesn't use up the rate limit.</li>
+ * </ul>
+ *
+ * So the memory of one node could hold a million or so companies, but the rate limit can't keep that many fresh:
+ * the most companies that can be refreshed within <code>encity.alerts.refresh-max-age</code> is the batch size
+ * times the number of ticks in that time ({@link #capacity()}), which is about 200,000 with the defaults (20
+ * companies a minute, over seven days).  Beyond that, refreshes fall behind; how far behind is published as the
+ * <code>encity.alerts.refresh.lag</code> gauge, and a warning is logged when the capacity is exceeded.
+ *
+ * Heap entries aren't removed when a company's dates change or it stops being tracked; instead, an entry that no
+ * longer matches its slot is discarded when it reaches the top of the heap (and the heaps are rebuilt if they
+ * fill up with such entries).
+ *
+ * Each watchlist belongs to an owner (the subject of the access token that made it), and is only seen by them.
+ * Watchlists are held in memory, and don't survive a restart.
+ */
+@Component
+public class DeadlineTracker implements AutoCloseable {
+
+    private static final int NONE = Integer.MIN_VALUE;
+    private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+    private static final long MINUTE_MILLIS = Duration.ofMinutes(1).toMillis();
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    /**
+     * How long after a failed refresh it is tried again
+     */
+    private static final int RETRY_MINUTES = 60;
+
+    /**
+     * How many companies in a batch are refreshed at once
+     */
+    private static final int REFRESH_CONCURRENCY = 4;
+
+    static final String REFRESH_LAG = "encity.alerts.refresh.lag";
+
+    private static final String[] DEADLINES = { DeadlineAlert.ACCOUNTS, DeadlineAlert.CONFIRMATION_STATEMENT };
+    private static final String[] STATUSES = { null, DeadlineAlert.UPCOMING, DeadlineAlert.OVERDUE };
+    private static final int UPCOMING = 1;
+    private static final int OVERDUE = 2;
+
+    private final Function<String, Mono<CompanyResponse>> lookup;
+    private final LongSupplier clock;
+    private final int warningDays;
+    private final int tickMinutes;
+    private final int refreshBatch;
+    private final int refreshMaxAgeMinutes;
+    private final Map<String, Map<String, int[]>> watchlists = new ConcurrentHashMap<>();
+    private final Sinks.Many<DeadlineAlert> fired = Sinks.many().multicast().directBestEffort();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private Disposable ticking;
+
+    // The companies tracked, guarded by this: each array has an element per slot (two, for the due dates)
+    private final SlotMap slots = new SlotMap();
+    private int[] numbers = new int[0];
+    private int[] due = new int[0];
+    private byte[] overdue = new byte[0];
+    private byte[] statuses = new byte[0];
+    private int[] watchers = new int[0];
+    private int[] alertDay = new int[0];
+    private int[] refreshAt = new int[0];
+    private int slotCount;
+    private int[] free = new int[0];
+    private int freeCount;
+    private final LongHeap alerts = new LongHeap();
+    private final LongHeap refreshes = new LongHeap();
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * Create a tracker, and start ticking
+     *
+     * @param companies where company profiles are looked up (through the cache)
+     * @param warning how long before a deadline it is reported as upcoming
+     * @param tick how often alerts are evaluated and a batch of companies refreshed
+     * @param refreshBatch the most companies refreshed in each tick
+     * @param refreshMaxAge the longest a company goes without being refreshed
+     * @param requestsPerSecond the Companies House rate limit, which caps the batch size
+     * @param registry where the refresh lag is published, if metrics are available
+     */
+    @Autowired
+    public DeadlineTracker(CompanyController companies,
+                           @Value("${encity.alerts.warning:30d}") Duration warning,
+                           @Value("${encity.alerts.tick:1m}") Duration tick,
+                           @Value("${encity.alerts.refresh-batch:20}") int refreshBatch,
+                           @Value("${encity.alerts.refresh-max-age:7d}") Duration refreshMaxAge,
+                           @Value("${ch.api.rate-limit.requests-per-second:2}") double requestsPerSecond,
+                           ObjectProvider<MeterRegistry> registry) {
+        this(companies::getProfile, System::currentTimeMillis, warning, tick,
+            (int) Math.max(1, Math.min(refreshBatch, requestsPerSecond * tick.getSeconds())), refreshMaxAge);
+        logger.info("Watched companies can be refreshed within " + refreshMaxAge + " for up to " + this.capacity()
+            + " companies");
+
+        MeterRegistry meters = registry.getIfAvailable();
+        if (meters != null) {
+            TimeGauge.builder(REFRESH_LAG, this, TimeUnit.MINUTES, DeadlineTracker::refreshLag)
+                .description("How far behind the refreshes of watched companies' deadlines are")
+                .register(meters);
+        }
+        this.ticking = Flux.interval(tick, tick).subscribe(t -> this.tick());
+    }
+
+    DeadlineTracker(Function<String, Mono<CompanyResponse>> lookup, LongSupplier clock, Duration warning,
+                    Duration tick, int refreshBatch, Duration refreshMaxAge) {
+        logger.debug("Constructing " + this.getClass().getName());
+
+        this.lookup = lookup;
+        this.clock = clock;
+        this.warningDays = (int) warning.toDays();
+        this.tickMinutes = (int) Math.max(1, tick.toMinutes());
+        this.refreshBatch = refreshBatch;
+        this.refreshMaxAgeMinutes = (int) refreshMaxAge.toMinutes();
+    }
+
+    /**
+     * Create or replace a watchlist.  Companies that weren't tracked before are refreshed in the next few ticks.
+     *
+     * @param owner the owner of the watchlist
+     * @param id the watchlist
+     * @param companyNumbers the numbers of the companies to watch (any that can't be packed with
+     *                       {@link CompanyNumbers#pack(String)} are ignored)
+     * @return the number of companies in the watchlist
+     */
+    public int watch(String owner, String id, Collection<String> companyNumbers) {
+        return this.watch(owner, id, companyNumbers, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create or replace a watchlist, unless it is new and its owner already has as many as they may have.
+     * Companies that weren't tracked before are refreshed in the next few ticks.
+     *
+     * @param owner the owner of the watchlist
+     * @param id the watchlist
+     * @param companyNumbers the numbers of the companies to watch (any that can't be packed with
+     *                       {@link CompanyNumbers#pack(String)} are ignored)
+     * @param maxWatchlists the most watchlists that the owner may have
+     * @return the number of companies in the watchlist, or -1 if the owner has too many watchlists to make it
+     */
+    public int watch(String owner, String id, Collection<String> companyNumbers, int maxWatchlists) {
+        int[] packed = companyNumbers.stream().map(CompanyNumbers::normalise).mapToInt(CompanyNumbers::pack)
+            .filter(n -> n >= 0)
+            .sorted().distinct().toArray();
+
+        synchronized (this) {
+            Map<String, int[]> owned = this.watchlists.computeIfAbsent(owner, o -> new ConcurrentHashMap<>());
+            if (!owned.containsKey(id) && owned.size() >= maxWatchlists) {
+                return -1;
+            }
+            int before = this.slots.size();
+            int[] previous = owned.put(id, packed);
+            int now = this.minute();
+            for (int n : packed) {
+                if (previous == null || Arrays.binarySearch(previous, n) < 0) {
+                    this.track(n, now);
+                }
+            }
+            if (previous != null) {
+                for (int n : previous) {
+                    if (Arrays.binarySearch(packed, n) < 0) {
+                        this.untrack(n);
+                    }
+                }
+            }
+            if (before <= this.capacity() && this.slots.size() > this.capacity()) {
+                logger.warn("Tracking " + this.slots.size() + " companies, more than the " + this.capacity()
+                    + " that can be refreshed within " + Duration.ofMinutes(this.refreshMaxAgeMinutes)
+                    + "; refreshes will fall behind");
+            }
+        }
+        return packed.length;
+    }
+
+    /**
+     * Remove a watchlist.  Companies that are in no other watchlist are no longer tracked.
+     *
+     * @param owner the owner of the watchlist
+     * @param id the watchlist
+     * @return true if there was such a watchlist
+     */
+    public synchronized boolean unwatch(String owner, String id) {
+        Map<String, int[]> owned = this.watchlists.get(owner);
+        int[] previous = owned == null ? null : owned.remove(id);
+        if (previous == null) {
+            return false;
+        }
+        if (owned.isEmpty()) {
+            this.watchlists.remove(owner);
+        }
+        for (int n : previous) {
+            this.untrack(n);
+        }
+        return true;
+    }
+
+    /**
+     * @param owner the owner of the watchlist
+     * @param id the watchlist
+     * @return the normalised numbers of the companies in the watchlist, in order, or null if there is no such
+     * watchlist
+     */
+    public List<String> getWatchlist(String owner, String id) {
+        int[] members = this.members(owner, id);
+        if (members == null) {
+            return null;
+        }
+        List<String> companyNumbers = new ArrayList<>(members.length);
+        for (int n : members) {
+            companyNumbers.add(CompanyNumbers.unpack(n));
+        }
+        return companyNumbers;
+    }
+
+    /**
+     * @param owner the owner of the watchlist
+     * @param id the watchlist
+     * @return the deadlines of the companies in the watchlist that are currently upcoming or overdue, or null if
+     * there is no such watchlist
+     */
+    public synchronized List<DeadlineAlert> getAlerts(String owner, String id) {
+        int[] members = this.members(owner, id);
+        if (members == null) {
+            return null;
+        }
+        List<DeadlineAlert> current = new ArrayList<>();
+        for (int n : members) {
+            int slot = this.slots.get(n);
+            for (int d = 0; d < DEADLINES.length && slot >= 0; d++) {
+                if (this.status(slot, d) != 0) {
+                    current.add(this.alert(slot, d, this.status(slot, d)));
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @param owner the owner of the watchlist
+     * @param id the watchlist
+     * @return a {@link Flux} that publishes each alert raised for a company in the watchlist from now on, and
+     * ends (when the next alert is raised) if the watchlist is removed
+     */
+    public Flux<DeadlineAlert> alerts(String owner, String id) {
+        return this.fired.asFlux()
+            .takeWhile(alert -> this.members(owner, id) != null)
+            .filter(alert -> {
+                int[] members = this.members(owner, id);
+                return members != null && Arrays.binarySearch(members, CompanyNumbers.pack(alert.getCompanyNumber())) >= 0;
+            });
+    }
+
+    /**
+     * @return the number of companies tracked
+     */
+    public synchronized int size() { return this.slots.size(); }
+
+    /**
+     * @return the most companies that can be tracked and still all be refreshed within the refresh max age, at a
+     * batch of them each tick
+     */
+    public int capacity() {
+        long ticks = this.refreshMaxAgeMinutes / this.tickMinutes;
+        return (int) Math.min(Integer.MAX_VALUE, this.refreshBatch * ticks);
+    }
+
+    /**
+     * @return how many minutes ago the company that has waited longest for its refresh was due to be refreshed, or
+     * zero if none is overdue
+     */
+    public synchronized int refreshLag() {
+        while (!this.refreshes.isEmpty()) {
+            long entry = this.refreshes.peek();
+            int slot = (int) entry;
+            if (this.numbers[slot] >= 0 && this.refreshAt[slot] == time(entry)) {
+                return Math.max(0, this.minute() - time(entry));
+            }
+            this.refreshes.poll();
+        }
+        return 0;
+    }
+
+    /**
+     * Evaluate the alerts that have become due, and start refreshing the next batch of companies
+     */
+    void tick() {
+        try {
+            this.evaluate();
+            this.refresh();
+        } catch (RuntimeException e) {
+            logger.error("Unable to evaluate company deadlines: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Evaluate the companies with a deadline whose status has changed since the last time, raising alerts for
+     * those that have become upcoming or overdue
+     *
+     * @return the number of companies evaluated
+     */
+    synchronized int evaluate() {
+        int today = this.today();
+        int evaluated = 0;
+        while (!this.alerts.isEmpty() && time(this.alerts.peek()) <= today) {
+            long entry = this.alerts.poll();
+            int slot = (int) entry;
+            if (this.numbers[slot] >= 0 && this.alertDay[slot] == time(entry)) {
+                this.alertDay[slot] = NONE;
+                this.evaluate(slot, today);
+                evaluated++;
+            }
+        }
+
+        if (this.alerts.size() + this.refreshes.size() > 4 * this.slots.size() + 1024) {
+            this.rebuildHeaps();
+        }
+        return evaluated;
+    }
+
+    /**
+     * Start refreshing the companies that are due to be refreshed (up to a batch of them), unless the last batch
+     * is still being refreshed
+     */
+    void refresh() {
+        if (!this.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        Flux.fromIterable(this.takeRefreshBatch())
+            .flatMap(n -> this.lookup.apply(CompanyNumbers.unpack(n))
+                .doOnNext(profile -> this.update(n, profile))
+                .then()
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> {
+                    this.update(n, null, false, null, false);
+                    return Mono.empty();
+                })
+                .onErrorResume(e -> {
+                    logger.debug("Unable to refresh the deadlines of company " + CompanyNumbers.unpack(n) + ": "
+                        + e.getMessage());
+                    return Mono.empty();
+                }), REFRESH_CONCURRENCY)
+            .doFinally(signal -> this.refreshing.set(false))
+            .subscribe();
+    }
+
+    /**
+     * Record the deadlines in a company's profile, if it is tracked
+     *
+     * @param packed the packed company number
+     * @param profile the company's profile
+     * @return true if the company is tracked
+     */
+    boolean update(int packed, CompanyResponse profile) {
+        CompanyResponse.Accounts accounts = profile.getAccounts();
+        CompanyResponse.ConfirmationStatement statement = profile.getConfirmationStatement();
+
+        LocalDate accountsDue = null;
+        boolean accountsOverdue = false;
+        if (accounts != null) {
+            accountsDue = accounts.getNextAccounts() != null && accounts.getNextAccounts().getDueOn() != null
+                ? accounts.getNextAccounts().getDueOn() : accounts.getNextDue();
+            accountsOverdue = accounts.isOverdue()
+                || (accounts.getNextAccounts() != null && accounts.getNextAccounts().isOverdue());
+        }
+        return this.update(packed, accountsDue, accountsOverdue,
+            statement == null ? null : statement.getNextDue(), statement != null && statement.isOverdue());
+    }
+
+    /**
+     * Record a company's deadlines, if it is tracked, raising alerts for any that have become upcoming or overdue
+     *
+     * @param packed the packed company number
+     * @param accountsDue when the company's next accounts are due, or null if they aren't
+     * @param accountsOverdue true if Companies House says the accounts are overdue
+     * @param statementDue when the company's next confirmation statement is due, or null if it isn't
+     * @param statementOverdue true if Companies House says the confirmation statement is overdue
+     * @return true if the company is tracked
+     */
+    synchronized boolean update(int packed, LocalDate accountsDue, boolean accountsOverdue, LocalDate statementDue,
+                                boolean statementOverdue) {
+        int slot = this.slots.get(packed);
+        if (slot < 0) {
+            return false;
+        }
+
+        this.due[2 * slot] = accountsDue == null ? NONE : (int) accountsDue.toEpochDay();
+        this.due[2 * slot + 1] = statementDue == null ? NONE : (int) statementDue.toEpochDay();
+        this.overdue[slot] = (byte) ((accountsOverdue ? 1 : 0) | (statementOverdue ? 2 : 0));
+        this.evaluate(slot, this.today());
+
+        // Refresh again when the data is too old, or the day before the next alert, whichever is sooner
+        int now = this.minute();
+        int next = now + this.refreshMaxAgeMinutes;
+        if (this.alertDay[slot] != NONE) {
+            int beforeAlert = (this.alertDay[slot] - 1) * MINUTES_PER_DAY;
+            if (beforeAlert > now && beforeAlert < next) {
+                next = beforeAlert;
+            }
+        }
+        this.scheduleRefresh(slot, next);
+        return true;
+    }
+
+    /**
+     * Stop ticking
+     */
+    @Override
+    public void close() {
+        if (this.ticking != null) {
+            this.ticking.dispose();
+        }
+    }
+
+    private void evaluate(int slot, int today) {
+        int next = NONE;
+        for (int d = 0; d < DEADLINES.length; d++) {
+            int dueOn = this.due[2 * slot + d];
+            boolean flagged = (this.overdue[slot] & (1 << d)) != 0;
+
+            int status = this.status(dueOn, flagged, today);
+            if (status != this.status(slot, d)) {
+                this.statuses[slot] = (byte) ((this.statuses[slot] & ~(3 << 2 * d)) | (status << 2 * d));
+                if (status != 0 && this.fired.currentSubscriberCount() > 0) {
+                    this.fired.tryEmitNext(this.alert(slot, d, status));
+                }
+            }
+
+            int change = this.nextChange(dueOn, flagged, today);
+            if (change != NONE && (next == NONE || change < next)) {
+                next = change;
+            }
+        }
+
+        if (next != this.alertDay[slot]) {
+            this.alertDay[slot] = next;
+            if (next != NONE) {
+                this.alerts.add(entry(next, slot));
+            }
+        }
+    }
+
+    /**
+     * @return the status of a deadline on a given day: 0 if it's some way off, or else upcoming or overdue
+     */
+    private int status(int dueOn, boolean flagged, int today) {
+        if (flagged || (dueOn != NONE && today > dueOn)) {
+            return OVERDUE;
+        }
+        return dueOn != NONE && today >= dueOn - this.warningDays ? UPCOMING : 0;
+    }
+
+    /**
+     * @return the next day (after a given one) on which the status of a deadline changes, or NONE if it won't
+     * (unless the deadline does)
+     */
+    private int nextChange(int dueOn, boolean flagged, int today) {
+        if (dueOn == NONE || flagged || today > dueOn) {
+            return NONE;
+        }
+        return today < dueOn - this.warningDays ? dueOn - this.warningDays : dueOn + 1;
+    }
+
+    private int[] members(String owner, String id) {
+        Map<String, int[]> owned = this.watchlists.get(owner);
+        return owned == null ? null : owned.get(id);
+    }
+
+    private int status(int slot, int deadline) { return (this.statuses[slot] >> 2 * deadline) & 3; }
+
+    private DeadlineAlert alert(int slot, int deadline, int status) {
+        int dueOn = this.due[2 * slot + deadline];
+        return new DeadlineAlert(CompanyNumbers.unpack(this.numbers[slot]), DEADLINES[deadline],
+            dueOn == NONE ? null : LocalDate.ofEpochDay(dueOn), STATUSES[status]);
+    }
+
+    private synchronized List<Integer> takeRefreshBatch() {
+        int now = this.minute();
+        List<Integer> batch = new ArrayList<>();
+        while (batch.size() < this.refreshBatch && !this.refreshes.isEmpty() && time(this.refreshes.peek()) <= now) {
+            long entry = this.refreshes.poll();
+            int slot = (int) entry;
+            if (this.numbers[slot] >= 0 && this.refreshAt[slot] == time(entry)) {
+                batch.add(this.numbers[slot]);
+
+                // In case the refresh fails; if it succeeds, it is rescheduled
+                this.scheduleRefresh(slot, now + RETRY_MINUTES);
+            }
+        }
+        return batch;
+    }
+
+    private void scheduleRefresh(int slot, int minute) {
+        this.refreshAt[slot] = minute;
+        this.refreshes.add(entry(minute, slot));
+    }
+
+    private void track(int packed, int now) {
+        int slot = this.slots.get(packed);
+        if (slot >= 0) {
+            this.watchers[slot]++;
+            return;
+        }
+
+        slot = this.freeCount > 0 ? this.free[--this.freeCount] : this.newSlot();
+        this.numbers[slot] = packed;
+        this.due[2 * slot] = NONE;
+        this.due[2 * slot + 1] = NONE;
+        this.overdue[slot] = 0;
+        this.statuses[slot] = 0;
+        this.watchers[slot] = 1;
+        this.alertDay[slot] = NONE;
+        this.slots.put(packed, slot);
+        this.scheduleRefresh(slot, now);
+    }
+
+    private void untrack(int packed) {
+        int slot = this.slots.get(packed);
+        if (slot < 0 || --this.watchers[slot] > 0) {
+            return;
+        }
+
+        this.slots.remove(packed);
+        this.numbers[slot] = -1;
+        this.alertDay[slot] = NONE;
+        this.refreshAt[slot] = NONE;
+        if (this.freeCount == this.free.length) {
+            this.free = Arrays.copyOf(this.free, Math.max(16, this.free.length * 2));
+        }
+        this.free[this.freeCount++] = slot;
+    }
+
+    private int newSlot() {
+        if (this.slotCount == this.numbers.length) {
+            int capacity = Math.max(1024, this.numbers.length * 2);
+            this.numbers = Arrays.copyOf(this.numbers, capacity);
+            this.due = Arrays.copyOf(this.due, 2 * capacity);
+            this.overdue = Arrays.copyOf(this.overdue, capacity);
+            this.statuses = Arrays.copyOf(this.statuses, capacity);
+            this.watchers = Arrays.copyOf(this.watchers, capacity);
+            this.alertDay = Arrays.copyOf(this.alertDay, capacity);
+            this.refreshAt = Arrays.copyOf(this.refreshAt, capacity);
+        }
+        return this.slotCount++;
+    }
+
+    /**
+     * Rebuild the heaps from the slots, leaving out the entries that no longer match them
+     */
+    private void rebuildHeaps() {
+        this.alerts.clear();
+        this.refreshes.clear();
+        for (int slot = 0; slot < this.slotCount; slot++) {
+            if (this.numbers[slot] >= 0) {
+                if (this.alertDay[slot] != NONE) {
+                    this.alerts.add(entry(this.alertDay[slot], slot));
+                }
+                this.refreshes.add(entry(this.refreshAt[slot], slot));
+            }
+        }
+    }
+
+    private int today() { return (int) Math.floorDiv(this.clock.getAsLong(), DAY_MILLIS); }
+    private int minute() { return (int) Math.floorDiv(this.clock.getAsLong(), MINUTE_MILLIS); }
+
+    /**
+     * Heap entries hold a time (a day, or a minute) in the high 32 bits, so that they are ordered by it, and a
+     * slot in the low 32 bits
+     */
+    private static long entry(int time, int slot) { return ((long) time << 32) | slot; }
+    private static int time(long entry) { return (int) (entry >> 32); }
+
+    /**
+     * A map from packed company number to slot, with open addressing (linear probing), so that there is no
+     * object per company
+     */
+    private static final class SlotMap {
+        private static final int EMPTY = -1;
+
+        private int[] keys = new int[0];
+        private int[] values = new int[0];
+        private int size;
+
+        int size() { return this.size; }
+
+        /**
+         * @return the slot of a company, or -1 if it isn't tracked
+         */
+        int get(int key) {
+            if (this.size == 0) {
+                return -1;
+            }
+            int mask = this.keys.length - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                if (this.keys[i] == key) {
+                    return this.values[i];
+                }
+                if (this.keys[i] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        void put(int key, int value) {
+            if (2 * (this.size + 1) > this.keys.length) {
+                this.resize(Math.max(16, this.keys.length * 2));
+            }
+            int mask = this.keys.length - 1;
+            int i = hash(key) & mask;
+            while (this.keys[i] != EMPTY && this.keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (this.keys[i] == EMPTY) {
+                this.size++;
+            }
+            this.keys[i] = key;
+            this.values[i] = value;
+        }
+
+        void remove(int key) {
+            if (this.size == 0) {
+                return;
+            }
+            int mask = this.keys.length - 1;
+            int i = hash(key) & mask;
+            while (this.keys[i] != key) {
+                if (this.keys[i] == EMPTY) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            this.size--;
+
+            // Shift back any later keys in the run that would no longer be found past the gap
+            for (int j = (i + 1) & mask; this.keys[j] != EMPTY; j = (j + 1) & mask) {
+                int home = hash(this.keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    this.keys[i] = this.keys[j];
+                    this.values[i] = this.values[j];
+                    i = j;
+                }
+            }
+            this.keys[i] = EMPTY;
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = this.keys;
+            int[] oldValues = this.values;
+            this.keys = new int[capacity];
+            this.values = new int[capacity];
+            Arrays.fill(this.keys, EMPTY);
+            this.size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    this.put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * A binary min-heap of longs
+     */
+    private static final class LongHeap {
+        private long[] heap = new long[16];
+        private int size;
+
+        int size() { return this.size; }
+        boolean isEmpty() { return this.size == 0; }
+        long peek() { return this.heap[0]; }
+        void clear() { this.size = 0; }
+
+        void add(long value) {
+            if (this.size == this.heap.length) {
+                this.heap = Arrays.copyOf(this.heap, this.heap.length * 2);
+            }
+            int i = this.size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (this.heap[parent] <= value) {
+                    break;
+                }
+                this.heap[i] = this.heap[parent];
+                i = parent;
+            }
+            this.heap[i] = value;
+        }
+
+        long poll() {
+            long top = this.heap[0];
+            long last = this.heap[--this.size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= this.size) {
+                    break;
+                }
+                if (child + 1 < this.size && this.heap[child + 1] < this.heap[child]) {
+                    child++;
+                }
+                if (this.heap[child] >= last) {
+                    break;
+                }
+                this.heap[i] = this.heap[child];
+                i = child;
+            }
+            this.heap[i] = last;
+            return top;
+        }
+    }
+}
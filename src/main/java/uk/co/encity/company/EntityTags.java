@@ -0,0 +1,48 @@
+package uk.co.encity.company;
+
+/**
+ * Helpers for HTTP entity tags (the values of <code>ETag</code> and <code>If-None-Match</code> headers).
+ */
+public final class EntityTags {
+
+    private EntityTags() {}
+
+    /**
+     * Get the opaque part of an entity tag, e.g. <code>abc</code> from <code>"abc"</code> or <code>W/"abc"</code>.
+     * A bare value (such as the <code>etag</code> in a Companies House response body) is returned as it is.
+     *
+     * @param tag an entity tag, quoted or not
+     * @return the tag without any weakness indicator or quotes
+     */
+    public static String opaque(String tag) {
+        String t = tag.trim();
+        if (t.startsWith("W/")) {
+            t = t.substring(2);
+        }
+        if (t.length() >= 2 && t.startsWith("\"") && t.endsWith("\"")) {
+            t = t.substring(1, t.length() - 1);
+        }
+        return t;
+    }
+
+    /**
+     * @param opaque the opaque part of an entity tag
+     * @return a strong entity tag, in the quoted form used in headers
+     */
+    public static String strong(String opaque) {
+        return "\"" + opaque + "\"";
+    }
+
+    /**
+     * Get the entity tag of another representation of the same thing, e.g. <code>"abc-gzip"</code> for the gzipped
+     * form of <code>"abc"</code>
+     *
+     * @param tag an entity tag, in the quoted form used in headers
+     * @param suffix what is added to the opaque part of the tag
+     * @return the tag with the suffix added, weak if the tag was
+     */
+    public static String variant(String tag, String suffix) {
+        String variant = strong(opaque(tag) + suffix);
+        return tag.trim().startsWith("W/") ? "W/" + variant : variant;
+    }
+}
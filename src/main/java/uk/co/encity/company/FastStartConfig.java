@@ -0,0 +1,30 @@
+package uk.co.encity.company;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Supports the fast start mode (the <code>fast-start</code> Spring profile), in which beans are created when they
+ * are first needed rather than at start up (<code>spring.main.lazy-initialization</code>), so that a new instance
+ * starts taking requests sooner.
+ *
+ * The beans that start work in the background when they are created (reading the signing keys, building the
+ * snapshot index, importing bulk data, and so on) are still created at start up, since that work is what makes
+ * the first requests fast, and the sooner it starts the better (the beans they depend on, such as the profile
+ * cache, are created with them).  Everything else, including the controllers and the Companies House client, is
+ * created by the first request that needs it.  The {@link DeadlineTracker} has nothing to track until a watchlist
+ * is made, so it is created along with the {@link WatchlistController}.
+ */
+@Configuration
+public class FastStartConfig {
+
+    /**
+     * @return a filter that keeps the beans that work in the background from being lazily initialised
+     */
+    @Bean
+    static LazyInitializationExcludeFilter backgroundBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(JwkSetSource.class, CompanySnapshotStore.class,
+            CompanyBulkData.class, CompanyChangeFeed.class, RedisCompanyCache.class);
+    }
+}
@@ -0,0 +1,52 @@
+package uk.co.encity.company;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares one instance of each of a small set of immutable values, such as company statuses or county names, so
+ * that the many cached profiles holding the same value hold a reference to one copy rather than a copy each.
+ *
+ * The set is bounded, so that unexpected input (free text where a vocabulary was expected) can't make it grow
+ * without limit: once it is full, values that aren't already in it are returned as they are.
+ *
+ * @param <T> the type of the values, which must implement equals and hashCode
+ */
+final class Interner<T> {
+
+    private final ConcurrentHashMap<T, T> values = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    /**
+     * @param maxSize the most distinct values to share
+     */
+    Interner(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param value a value, or null
+     * @return the shared instance equal to the value, or the value itself if there isn't one and no more can be
+     * shared
+     */
+    T intern(T value) {
+        if (value == null) {
+            return null;
+        }
+        T shared = this.values.get(value);
+        if (shared != null) {
+            return shared;
+        }
+        if (this.values.size() >= this.maxSize) {
+            return value;
+        }
+        shared = this.values.putIfAbsent(value, value);
+        return shared == null ? value : shared;
+    }
+
+    /**
+     * @return the number of values shared
+     */
+    int size() {
+        return this.values.size();
+    }
+}
@@ -0,0 +1,235 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the keys with which access tokens are signed (the identity provider's JSON Web Key Set), and keeps them up
+ * to date in the background, so that verifying a token never waits for the identity provider, and nor does start
+ * up.
+ *
+ * The keys are read from <code>encity.jwt.jwk-set-location</code>, which may be an http(s) URL, or (for offline
+ * and test use) a local <code>file:</code> or <code>classpath:</code> resource.  If it isn't set, the location is
+ * discovered from the issuer's OpenID configuration, as before.  The keys are read again every
+ * <code>encity.jwt.refresh-interval</code>; if that fails (or takes more than a few seconds), the keys already
+ * held are kept.  Until the keys have been read the first time, verification waits for them (for a few seconds at
+ * most).
+ *
+ * A token signed with a key that isn't held (one that has only just been rotated in, say) has the keys read again
+ * straight away, and is checked against them once more.  So that a flood of tokens with made-up key IDs can't
+ * flood the identity provider too, that happens at most once every
+ * <code>encity.jwt.unknown-key-refresh-interval</code>; tokens in between share the last such read.
+ */
+@Component
+public class JwkSetSource implements AutoCloseable {
+
+    /**
+     * The longest a token waits for the keys to be read the first time
+     */
+    private static final Duration FIRST_LOAD_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * The longest a read of the keys may take, so that one that hangs doesn't hold up the next
+     */
+    private static final Duration REFRESH_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final String OPENID_CONFIGURATION = ".well-known/openid-configuration";
+
+    private final String location;
+    private final String issuerUri;
+    private final WebClient webClient;
+    private final long unknownKeyRefreshNanos;
+    private final AtomicReference<JWKSet> keys = new AtomicReference<>();
+    private final AtomicReference<UnknownKeyRefresh> unknownKeyRefresh = new AtomicReference<>();
+    private final Sinks.One<JWKSet> firstLoad = Sinks.one();
+    private volatile String jwkSetUri;
+    private Disposable refreshing;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * Create a source of keys, and start reading them in the background
+     *
+     * @param location where the key set is read from, or empty to discover it from the issuer
+     * @param issuerUri the issuer of the access tokens
+     * @param refreshInterval how often the keys are read again
+     * @param unknownKeyRefreshInterval the least time between reads of the keys for tokens with unknown keys
+     */
+    @Autowired
+    public JwkSetSource(@Value("${encity.jwt.jwk-set-location:}") String location,
+                        @Value("${spring.security.oauth2.resourceserver.jwk.issuer-uri}") String issuerUri,
+                        @Value("${encity.jwt.refresh-interval:5m}") Duration refreshInterval,
+                        @Value("${encity.jwt.unknown-key-refresh-interval:30s}") Duration unknownKeyRefreshInterval) {
+        this(location, issuerUri, WebClient.create(), unknownKeyRefreshInterval);
+        this.refreshing = Flux.interval(Duration.ZERO, refreshInterval)
+            .onBackpressureDrop()
+            .concatMap(t -> this.refresh().onErrorResume(e -> Mono.empty()))
+            .subscribe();
+    }
+
+    JwkSetSource(String location, String issuerUri, WebClient webClient, Duration unknownKeyRefreshInterval) {
+        logger.debug("Constructing " + this.getClass().getName() + " for "
+            + (location.isEmpty() ? "the keys of " + issuerUri : location));
+
+        this.location = location;
+        this.issuerUri = issuerUri;
+        this.webClient = webClient;
+        this.unknownKeyRefreshNanos = unknownKeyRefreshInterval.toNanos();
+    }
+
+    /**
+     * Find the keys that a token may have been signed with
+     *
+     * @param jwt the token
+     * @return a {@link Flux} that publishes the keys matching the token's header (its key ID and algorithm), after
+     * reading the keys again if none do, or a {@link JwtException} if the keys couldn't be read in time
+     */
+    public Flux<JWK> keysFor(SignedJWT jwt) {
+        JWKSelector selector = new JWKSelector(JWKMatcher.forJWSHeader(jwt.getHeader()));
+        JWKSet current = this.keys.get();
+        Mono<JWKSet> keys = current != null ? Mono.just(current) : this.firstLoad.asMono()
+            .timeout(FIRST_LOAD_TIMEOUT)
+            .onErrorMap(e -> new JwtException("The keys that access tokens are signed with are not available", e));
+        return keys.flatMapMany(held -> {
+            List<JWK> matching = selector.select(held);
+            if (!matching.isEmpty()) {
+                return Flux.fromIterable(matching);
+            }
+            return this.refreshForUnknownKey().flatMapIterable(selector::select);
+        });
+    }
+
+    /**
+     * Read the keys again for a token signed with a key that isn't held, unless they were read for that reason
+     * recently, in which case wait for that read instead
+     *
+     * @return a {@link Mono} that publishes the keys held once they have been read again (or failed to be)
+     */
+    private Mono<JWKSet> refreshForUnknownKey() {
+        long now = System.nanoTime();
+        UnknownKeyRefresh last = this.unknownKeyRefresh.get();
+        if (last == null || now - last.startedAt >= this.unknownKeyRefreshNanos) {
+            UnknownKeyRefresh next = new UnknownKeyRefresh(now, this.refresh().then().onErrorResume(e -> Mono.empty())
+                .cache());
+            last = this.unknownKeyRefresh.compareAndSet(last, next) ? next : this.unknownKeyRefresh.get();
+        }
+        return last.done.then(Mono.fromSupplier(this.keys::get));
+    }
+
+    /**
+     * Read the keys again
+     *
+     * @return a {@link Mono} that publishes the keys (which are now held), or an error if they couldn't be read
+     */
+    Mono<JWKSet> refresh() {
+        return this.read()
+            .timeout(REFRESH_TIMEOUT)
+            .map(json -> {
+                try {
+                    return JWKSet.parse(json);
+                } catch (ParseException e) {
+                    throw new IllegalStateException("The key set from " + this.describe() + " is not valid", e);
+                }
+            })
+            .doOnNext(keys -> {
+                logger.debug("Read " + keys.getKeys().size() + " signing keys from " + this.describe());
+                this.keys.set(keys);
+                this.firstLoad.tryEmitValue(keys);
+            })
+            .doOnError(e -> logger.warn("Failed to read the signing keys from " + this.describe() + ": "
+                + e.getMessage()));
+    }
+
+    private Mono<String> read() {
+        if (this.location.isEmpty()) {
+            return this.discover().flatMap(this::get);
+        }
+        if (this.location.startsWith("http:") || this.location.startsWith("https:")) {
+            return this.get(this.location);
+        }
+
+        // A local resource, which is read off the event loop
+        return Mono.fromCallable(() -> {
+            Resource resource = new DefaultResourceLoader().getResource(this.location);
+            try (InputStream in = resource.getInputStream()) {
+                return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+            }
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<String> discover() {
+        if (this.jwkSetUri != null) {
+            return Mono.just(this.jwkSetUri);
+        }
+        String base = this.issuerUri.endsWith("/") ? this.issuerUri : this.issuerUri + "/";
+        return this.webClient.get().uri(base + OPENID_CONFIGURATION)
+            .retrieve()
+            .bodyToMono(JsonNode.class)
+            .map(configuration -> {
+                JsonNode uri = configuration.get("jwks_uri");
+                if (uri == null || !uri.isTextual()) {
+                    throw new IllegalStateException("The OpenID configuration of " + this.issuerUri
+                        + " has no jwks_uri");
+                }
+                this.jwkSetUri = uri.asText();
+                return this.jwkSetUri;
+            });
+    }
+
+    private Mono<String> get(String uri) {
+        return this.webClient.get().uri(uri).retrieve().bodyToMono(String.class);
+    }
+
+    private String describe() {
+        return this.location.isEmpty() ? (this.jwkSetUri != null ? this.jwkSetUri : this.issuerUri) : this.location;
+    }
+
+    /**
+     * A read of the keys for a token with an unknown key
+     */
+    private static class UnknownKeyRefresh {
+        private final long startedAt;
+        private final Mono<Void> done;
+
+        UnknownKeyRefresh(long startedAt, Mono<Void> done) {
+            this.startedAt = startedAt;
+            this.done = done;
+        }
+    }
+
+    /**
+     * Stop reading the keys in the background
+     */
+    @Override
+    public void close() {
+        if (this.refreshing != null) {
+            this.refreshing.dispose();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package uk.co.encity.company;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latencies of calls in a ring buffer, so that a recent percentile can be estimated cheaply.
+ * The percentile is recalculated every so many samples rather than on every call.
+ */
+public class LatencyTracker {
+
+    private static final int RECALCULATE_EVERY = 32;
+
+    private final long[] samples;
+    private final double percentile;
+
+    // All guarded by 'this'
+    private int count;
+    private int next;
+    private int sinceCalculated;
+    private long value = -1;
+
+    /**
+     * @param size the number of recent samples to keep
+     * @param percentile the percentile to estimate, between 0 and 1
+     */
+    public LatencyTracker(int size, double percentile) {
+        this.samples = new long[size];
+        this.percentile = percentile;
+    }
+
+    public synchronized void record(long nanos) {
+        this.samples[this.next] = nanos;
+        this.next = (this.next + 1) % this.samples.length;
+        this.count = Math.min(this.count + 1, this.samples.length);
+
+        if (++this.sinceCalculated >= RECALCULATE_EVERY || this.value < 0) {
+            long[] sorted = Arrays.copyOf(this.samples, this.count);
+            Arrays.sort(sorted);
+            this.value = sorted[Math.min(sorted.length - 1, (int) Math.ceil(this.percentile * sorted.length) - 1)];
+            this.sinceCalculated = 0;
+        }
+    }
+
+    /**
+     * @return the number of samples held (at most the size of the buffer)
+     */
+    public synchronized int count() { return this.count; }
+
+    /**
+     * @return the estimated percentile in nanoseconds, or -1 if nothing has been recorded
+     */
+    public synchronized long value() { return this.value; }
+}
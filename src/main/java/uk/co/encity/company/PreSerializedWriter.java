@@ -0,0 +1,177 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a {@link CompanyResponse} to our clients from bytes kept with the profile, so that a cache hit is written
+ * without going through Jackson.  The first time a profile is written its JSON is serialized as usual (by the
+ * shared {@link ObjectMapper}) and kept, and every later response for the same profile wraps the same bytes in a
+ * {@link DataBuffer}.
+ *
+ * The bytes (see {@link Serialized}) are kept alongside the profile they were made from, in a map whose keys are
+ * held weakly and compared by identity, so the profile itself stays immutable.  A profile that changes is replaced
+ * in the cache by a new one, so the bytes can never be out of date, and they are dropped with the profile once
+ * nothing else holds it.
+ *
+ * A gzipped copy of the JSON is kept as well (once a client has asked for one), and sent if the response already
+ * has a <code>Content-Encoding</code> of <code>gzip</code>.  The representation is chosen, with its entity tag,
+ * before the body is written (see {@link CompanyController.Responder#encode}), since WebFlux has compared the
+ * client's <code>If-None-Match</code> with the entity tag by then.
+ *
+ * This is only used for a profile on its own: a profile within another body (e.g. a batch) is written by
+ * {@link CompanyResponseSerializer} as usual.
+ */
+public class PreSerializedWriter implements HttpMessageWriter<CompanyResponse> {
+
+    private static final List<MediaType> MEDIA_TYPES = Collections.singletonList(MediaType.APPLICATION_JSON);
+    static final String GZIP = "gzip";
+
+    /**
+     * Added to the entity tag of a profile for its gzipped representation
+     */
+    static final String GZIP_SUFFIX = "-" + GZIP;
+
+    private final ObjectMapper objectMapper;
+    private final Cache<CompanyResponse, Serialized> serialized = Caffeine.newBuilder().weakKeys().build();
+
+    /**
+     * @param objectMapper the mapper that writes a profile the first time
+     */
+    public PreSerializedWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public List<MediaType> getWritableMediaTypes() {
+        return MEDIA_TYPES;
+    }
+
+    @Override
+    public boolean canWrite(ResolvableType elementType, MediaType mediaType) {
+        return CompanyResponse.class.isAssignableFrom(elementType.toClass())
+            && (mediaType == null || MediaType.APPLICATION_JSON.isCompatibleWith(mediaType));
+    }
+
+    @Override
+    public Mono<Void> write(Publisher<? extends CompanyResponse> inputStream, ResolvableType elementType,
+                            MediaType mediaType, ReactiveHttpOutputMessage message, Map<String, Object> hints) {
+        return Mono.from(inputStream).flatMap(response -> this.write(this.serialized(response).json(), message));
+    }
+
+    @Override
+    public Mono<Void> write(Publisher<? extends CompanyResponse> inputStream, ResolvableType actualType,
+                            ResolvableType elementType, MediaType mediaType, ServerHttpRequest request,
+                            ServerHttpResponse response, Map<String, Object> hints) {
+        if (!GZIP.equalsIgnoreCase(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING))) {
+            return this.write(inputStream, elementType, mediaType, response, hints);
+        }
+        return Mono.from(inputStream).flatMap(profile -> this.write(this.serialized(profile).gzipped(), response));
+    }
+
+    private Mono<Void> write(byte[] bytes, ReactiveHttpOutputMessage message) {
+        HttpHeaders headers = message.getHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setContentLength(bytes.length);
+        return message.writeWith(Mono.fromSupplier(() -> message.bufferFactory().wrap(bytes)));
+    }
+
+    /**
+     * @return the bytes kept with a profile, serializing it first if need be
+     */
+    Serialized serialized(CompanyResponse response) {
+        Serialized serialized = this.serialized.getIfPresent(response);
+        if (serialized == null) {
+            // Two requests may both serialize the profile, which does no harm: one copy is kept
+            try {
+                serialized = new Serialized(this.objectMapper.writeValueAsBytes(response));
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.serialized.put(response, serialized);
+        }
+        return serialized;
+    }
+
+    /**
+     * @return true if the request's <code>Accept-Encoding</code> includes gzip (with a quality above zero)
+     */
+    static boolean acceptsGzip(ServerHttpRequest request) {
+        for (String value : request.getHeaders().getOrEmpty(HttpHeaders.ACCEPT_ENCODING)) {
+            for (String coding : StringUtils.tokenizeToStringArray(value, ",")) {
+                String[] parts = StringUtils.tokenizeToStringArray(coding, ";");
+                if (parts.length > 0 && parts[0].equalsIgnoreCase(GZIP)
+                        && (parts.length == 1 || !isZeroQuality(parts[1]))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZeroQuality(String parameter) {
+        if (!parameter.startsWith("q=")) {
+            return false;
+        }
+        try {
+            return Double.parseDouble(parameter.substring(2)) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A profile as written to our clients
+     */
+    static final class Serialized {
+        private final byte[] json;
+        private volatile byte[] gzipped;
+
+        Serialized(byte[] json) {
+            this.json = json;
+        }
+
+        byte[] json() {
+            return this.json;
+        }
+
+        /**
+         * @return the JSON, gzipped (the first time it is asked for)
+         */
+        byte[] gzipped() {
+            byte[] bytes = this.gzipped;
+            if (bytes == null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(this.json.length);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                    gzip.write(this.json);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                bytes = out.toByteArray();
+                this.gzipped = bytes;
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package uk.co.encity.company;
+
+import java.time.Duration;
+
+/**
+ * Raised instead of sending a request to Companies House, when sending it would exceed our rate limit
+ */
+public class RateLimitExceededException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    /**
+     * @param retryAfter how long the client should wait before trying again
+     */
+    public RateLimitExceededException(Duration retryAfter) {
+        super("Companies House rate limit reached; retry after " + retryAfter);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() { return this.retryAfter; }
+}
@@ -0,0 +1,240 @@
+package uk.co.encity.company;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.SocketOptions;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.pubsub.api.reactive.ChannelMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+import reactor.util.retry.Retry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link SharedCompanyCache} held by a Redis server (or anything that speaks its protocol), which is only
+ * enabled if <code>encity.shared-cache.uri</code> is set.
+ *
+ * Each profile is held under <code>encity:company:{number}</code>, in the encoding of
+ * {@link CompanyResponseBinaryCodec} prefixed with the time it was saved, and expires after the TTL plus the stale
+ * retention (as it would in memory).  Whenever a profile is saved or forgotten, the company number is published on
+ * <code>encity:company:invalidations</code>, tagged with this instance's ID so that it ignores its own messages.
+ *
+ * Every command is sent through Lettuce's non-blocking client, and is abandoned after
+ * <code>encity.shared-cache.timeout</code>.  Lookups that fail or time out are treated as misses; the connections
+ * are made in the background, and re-made if they are lost.
+ */
+@Component
+@ConditionalOnProperty(name = "encity.shared-cache.uri")
+public class RedisCompanyCache implements SharedCompanyCache, AutoCloseable {
+
+    static final String KEY_PREFIX = "encity:company:";
+    static final String CHANNEL = "encity:company:invalidations";
+    static final String LOOKUPS = "encity.shared.cache.lookups";
+    static final String INVALIDATIONS = "encity.shared.cache.invalidations";
+
+    /**
+     * How long to wait before trying again to connect, after a connection attempt fails
+     */
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(5);
+
+    private static final RedisCodec<String, byte[]> CODEC = RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE);
+
+    private final RedisClient client;
+    private final RedisURI uri;
+    private final long retentionMillis;
+    private final Duration timeout;
+    private final LongSupplier clock;
+    private final String node = UUID.randomUUID().toString();
+    private final Mono<StatefulRedisConnection<String, byte[]>> connection;
+    private final Sinks.Many<String> invalidations = Sinks.many().multicast().directBestEffort();
+    private final Disposable listening;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter errors;
+    private final Counter received;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * Create a shared cache, and start connecting to it in the background
+     *
+     * @param uri the Redis URI of the server, e.g. <code>redis://cache.internal:6379</code>
+     * @param ttl how long a profile is served before Companies House is asked again
+     * @param staleRetention how long a profile is kept after its TTL, to be served if Companies House is unavailable
+     * @param timeout the longest to wait for the server to answer
+     * @param registry where the metrics are published
+     */
+    @Autowired
+    public RedisCompanyCache(@Value("${encity.shared-cache.uri}") String uri,
+                             @Value("${encity.cache.ttl:24h}") Duration ttl,
+                             @Value("${encity.cache.stale-retention:24h}") Duration staleRetention,
+                             @Value("${encity.shared-cache.timeout:100ms}") Duration timeout,
+                             MeterRegistry registry) {
+        this(RedisURI.create(uri), ttl.plus(staleRetention), timeout, System::currentTimeMillis, registry);
+    }
+
+    RedisCompanyCache(RedisURI uri, Duration retention, Duration timeout, LongSupplier clock,
+                      MeterRegistry registry) {
+        logger.debug("Constructing " + this.getClass().getName() + " at " + uri.getHost() + ":" + uri.getPort()
+            + " with retention " + retention + " and timeout " + timeout);
+
+        this.uri = uri;
+        this.retentionMillis = retention.toMillis();
+        this.timeout = timeout;
+        this.clock = clock;
+
+        this.hits = Counter.builder(LOOKUPS)
+            .description("Lookups in the shared company profile cache")
+            .tag("result", "hit")
+            .register(registry);
+        this.misses = Counter.builder(LOOKUPS)
+            .description("Lookups in the shared company profile cache")
+            .tag("result", "miss")
+            .register(registry);
+        this.errors = Counter.builder(LOOKUPS)
+            .description("Lookups in the shared company profile cache")
+            .tag("result", "error")
+            .register(registry);
+        this.received = Counter.builder(INVALIDATIONS)
+            .description("Companies saved or forgotten by other instances, whose in-memory profiles were dropped")
+            .register(registry);
+
+        this.client = RedisClient.create();
+        // Fail fast while disconnected, rather than queueing commands until the connection is back, and don't let
+        // Nagle's algorithm hold small commands back
+        this.client.setOptions(ClientOptions.builder()
+            .disconnectedBehavior(ClientOptions.DisconnectedBehavior.REJECT_COMMANDS)
+            .socketOptions(SocketOptions.builder().tcpNoDelay(true).build())
+            .build());
+
+        // Once made, a connection is kept (Lettuce re-makes it if it is lost), but a failure is only remembered
+        // for a while, so that a server that wasn't there at start up is tried again
+        this.connection = Mono.fromCompletionStage(() -> this.client.connectAsync(CODEC, this.uri))
+            .doOnError(e -> logger.warn("Unable to connect to the shared cache: " + e.getMessage()))
+            .cache(c -> Duration.ofMillis(Long.MAX_VALUE), e -> RECONNECT_DELAY, () -> Duration.ZERO);
+        this.connection.subscribe(c -> {}, e -> {});
+
+        this.listening = Mono.fromCompletionStage(() -> this.client.connectPubSubAsync(StringCodec.UTF8, this.uri))
+            .flatMapMany(c -> c.reactive().observeChannels()
+                .mergeWith(c.reactive().subscribe(CHANNEL).then(Mono.<ChannelMessage<String, String>>empty()))
+                .doFinally(s -> c.closeAsync()))
+            .retryWhen(Retry.fixedDelay(Long.MAX_VALUE, RECONNECT_DELAY))
+            .subscribe(message -> this.received(message.getMessage()));
+    }
+
+    @Override
+    public Mono<CompanySnapshotStore.Snapshot> get(String companyNumber) {
+        return this.connection
+            .flatMap(c -> c.reactive().get(KEY_PREFIX + companyNumber))
+            .timeout(this.timeout)
+            .map(this::decode)
+            .doOnNext(s -> this.hits.increment())
+            .switchIfEmpty(Mono.fromRunnable(this.misses::increment))
+            .onErrorResume(e -> {
+                logger.debug("Unable to look up company " + companyNumber + " in the shared cache: " + e);
+                this.errors.increment();
+                return Mono.empty();
+            });
+    }
+
+    @Override
+    public void put(String companyNumber, CompanyResponse response) {
+        byte[] value = this.encode(response);
+        this.send(companyNumber, c -> c.reactive()
+            .set(KEY_PREFIX + companyNumber, value, SetArgs.Builder.px(this.retentionMillis)));
+    }
+
+    @Override
+    public void invalidate(String companyNumber) {
+        this.send(companyNumber, c -> c.reactive().del(KEY_PREFIX + companyNumber));
+    }
+
+    @Override
+    public Flux<String> invalidations() {
+        return this.invalidations.asFlux();
+    }
+
+    /**
+     * Send a command that changes a company's profile, then tell the other instances, in the background
+     */
+    private void send(String companyNumber,
+                      Function<StatefulRedisConnection<String, byte[]>, Mono<?>> command) {
+        byte[] message = (this.node + " " + companyNumber).getBytes(StandardCharsets.UTF_8);
+        this.connection
+            .flatMap(c -> command.apply(c).then(c.reactive().publish(CHANNEL, message)))
+            .timeout(this.timeout)
+            .subscribe(n -> {}, e -> logger.debug("Unable to update company " + companyNumber
+                + " in the shared cache: " + e));
+    }
+
+    /**
+     * Pass on a company number published by another instance
+     */
+    private void received(String message) {
+        int space = message.indexOf(' ');
+        if (space < 0 || message.startsWith(this.node + " ")) {
+            return;
+        }
+        this.received.increment();
+        this.invalidations.tryEmitNext(message.substring(space + 1));
+    }
+
+    private byte[] encode(CompanyResponse response) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(this.clock.getAsLong());
+            CompanyResponseBinaryCodec.write(out, response);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by a ByteArrayOutputStream
+        }
+    }
+
+    private CompanySnapshotStore.Snapshot decode(byte[] value) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+            long savedAt = in.readLong();
+            return new CompanySnapshotStore.Snapshot(CompanyResponseBinaryCodec.read(in),
+                Duration.ofMillis(Math.max(0, this.clock.getAsLong() - savedAt)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // e.g. written by a newer version, and treated as a miss
+        }
+    }
+
+    /**
+     * Stop listening for other instances' changes, and close the connections
+     */
+    @Override
+    public void close() {
+        this.listening.dispose();
+        this.invalidations.tryEmitComplete();
+        this.client.shutdown(Duration.ZERO, Duration.ofSeconds(2));
+    }
+}
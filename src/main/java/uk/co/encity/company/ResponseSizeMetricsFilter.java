@@ -0,0 +1,61 @@
+package uk.co.encity.company;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import reactor.core.publisher.Mono;
+
+/**
+ * Records the size of the responses we send to our own clients, as the <code>encity.http.server.response.size</code>
+ * distribution summary, tagged with the URI template that handled the request (so that the number of series stays
+ * bounded).  Only responses whose length is known up front (i.e. not streamed) are recorded.
+ */
+@Component
+public class ResponseSizeMetricsFilter implements WebFilter {
+
+    static final String RESPONSE_SIZE = "encity.http.server.response.size";
+
+    private final MeterRegistry registry;
+
+    /**
+     * @param registry where the metrics are published; if there isn't one, Micrometer's global registry is used
+     */
+    @Autowired
+    public ResponseSizeMetricsFilter(ObjectProvider<MeterRegistry> registry) {
+        this(registry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    ResponseSizeMetricsFilter(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        exchange.getResponse().beforeCommit(() -> {
+            long length = exchange.getResponse().getHeaders().getContentLength();
+            if (length >= 0) {
+                DistributionSummary.builder(RESPONSE_SIZE)
+                    .description("Size of responses sent to clients")
+                    .baseUnit("bytes")
+                    .tag("uri", uri(exchange))
+                    .register(this.registry)
+                    .record(length);
+            }
+            return Mono.empty();
+        });
+        return chain.filter(exchange);
+    }
+
+    private static String uri(ServerWebExchange exchange) {
+        PathPattern pattern = exchange.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return pattern == null ? "UNKNOWN" : pattern.getPatternString();
+    }
+}
@@ -5,8 +5,6 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
-import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
-import org.springframework.security.oauth2.jwt.ReactiveJwtDecoders;
 import org.springframework.security.web.server.SecurityWebFilterChain;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.reactive.CorsConfigurationSource;
@@ -18,12 +16,6 @@ import java.util.Arrays;
 @EnableWebFluxSecurity
 public class SecurityConfig  {
 
-    /**
-     * The URI of the issuer of the public key used to sign access tokens
-     */
-    @Value("${spring.security.oauth2.resourceserver.jwk.issuer-uri}")
-    private String issuerUri;
-
     /**
      * The list of origins that are allowed to access this service's API
      */
@@ -40,9 +32,13 @@ public class SecurityConfig  {
     }
 
     /**
-     * Configure Spring's SecurityWebFilterChain so that this service becomes an OAuth2 Resource Server
-     * with the necessary API endpoint protection in place
-     * @param http the @{link ServerHttpSecurity} security configuration to be added to the filter chain
+     * Configure Spring's SecurityWebFilterChain so that this service becomes an OAuth2 Resource Server with the
+     * necessary API endpoint protection in place.  Only <code>/actuator/health</code> is open to anyone; metrics can
+     * only be scraped with a token that has the <code>read:metrics</code> scope, and companies and watchlists need
+     * the <code>read:company_profile</code> scope.  Access tokens are decoded by the {@link CachingJwtDecoder}, which
+     * verifies each one once only, with keys held locally by a {@link JwkSetSource}.
+     *
+     * @param http the {@link ServerHttpSecurity} security configuration to be added to the filter chain
      * @return the {@link SecurityWebFilterChain} that will be added to the chain
      */
     @Bean
@@ -51,8 +47,10 @@ public class SecurityConfig  {
         http
                 .authorizeExchange()
                 .pathMatchers(HttpMethod.OPTIONS, "/**").permitAll()
-                .pathMatchers(HttpMethod.GET,"/company/**").permitAll()
-                .pathMatchers(HttpMethod.GET, "/companies/**").hasAuthority("SCOPE_read:company_profile")
+                .pathMatchers(HttpMethod.GET, "/actuator/health").permitAll()
+                .pathMatchers(HttpMethod.GET, "/actuator/prometheus").hasAuthority("SCOPE_read:metrics")
+                .pathMatchers(HttpMethod.GET, "/company/**", "/companies/**").hasAuthority("SCOPE_read:company_profile")
+                .pathMatchers("/watchlists/**").hasAuthority("SCOPE_read:company_profile")
                 .anyExchange().authenticated()
                 .and()
                 .oauth2ResourceServer()
@@ -60,17 +58,6 @@ public class SecurityConfig  {
         return http.build();
     }
 
-    /**
-     * Creates a {@link ReactiveJwtDecoder} object using the values contained in a response from
-     * a token issuer.  This decoder can then be used to validate access tokens in incoming requests
-     * @return a {@link ReactiveJwtDecoder}
-     */
-    @Bean
-    public ReactiveJwtDecoder jwtDecoder() {
-        return ReactiveJwtDecoders.fromOidcIssuerLocation(issuerUri);
-    }
-
-
     /**
      * Provides CORS-related configuration to ensure supported cross-origin requests work, and unsupported
      * ones fail
@@ -82,6 +69,8 @@ public class SecurityConfig  {
         corsConfig.applyPermitDefaultValues();
         corsConfig.addAllowedMethod(HttpMethod.GET);
         corsConfig.addAllowedMethod(HttpMethod.OPTIONS);
+        corsConfig.addAllowedMethod(HttpMethod.PUT);
+        corsConfig.addAllowedMethod(HttpMethod.DELETE);
         corsConfig.setAllowedOrigins(Arrays.asList(this.allowedOrigins));
 
         UrlBasedCorsConfigurationSource source =
@@ -0,0 +1,63 @@
+package uk.co.encity.company;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * A cache of company profiles that is shared by every instance of the service, so that a company fetched from
+ * Companies House by one instance needn't be fetched again by the others.  It sits behind each instance's
+ * in-memory {@link CompanyProfileCache}, which acts as its near-cache.
+ *
+ * Implementations must never block, and must treat their own failures as misses (a shared cache that is down
+ * only means more calls to Companies House).  When an instance saves or forgets a profile, the other instances
+ * are told, through {@link #invalidations()}, to drop their in-memory copy, so that they read the new one.
+ */
+public interface SharedCompanyCache {
+
+    /**
+     * A shared cache that holds nothing, for when none is configured
+     */
+    SharedCompanyCache NONE = new SharedCompanyCache() {
+        @Override
+        public Mono<CompanySnapshotStore.Snapshot> get(String companyNumber) { return Mono.empty(); }
+
+        @Override
+        public void put(String companyNumber, CompanyResponse response) {}
+
+        @Override
+        public void invalidate(String companyNumber) {}
+
+        @Override
+        public Flux<String> invalidations() { return Flux.never(); }
+    };
+
+    /**
+     * Look up the shared profile of a company
+     *
+     * @param companyNumber the normalised company number
+     * @return a {@link Mono} that publishes the profile, with its age, or completes empty if it isn't held (or
+     * the shared cache can't be reached)
+     */
+    Mono<CompanySnapshotStore.Snapshot> get(String companyNumber);
+
+    /**
+     * Share the profile of a company, in the background, and tell the other instances to drop their copy
+     *
+     * @param companyNumber the normalised company number
+     * @param response the profile
+     */
+    void put(String companyNumber, CompanyResponse response);
+
+    /**
+     * Forget the profile of a company, in the background, and tell the other instances to drop their copy
+     *
+     * @param companyNumber the normalised company number
+     */
+    void invalidate(String companyNumber);
+
+    /**
+     * @return a {@link Flux} that publishes the number of each company whose profile another instance has saved
+     * or forgotten
+     */
+    Flux<String> invalidations();
+}
@@ -0,0 +1,52 @@
+package uk.co.encity.company;
+
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * De-duplicates concurrent calls for the same key, so that callers who arrive while a call is in flight share its
+ * result rather than starting a call of their own.
+ *
+ * Each in-flight call is held as a shared {@link Mono}.  It is removed from the map as soon as it completes or
+ * fails, so the next caller after that starts a new call.  The shared subscription can't be cancelled by any one
+ * subscriber, so a caller that goes away doesn't take the result away from the others.
+ *
+ * @param <K> the type of key that identifies a call
+ * @param <V> the type of value that the call publishes
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Join the call that is in flight for a key, or start one if there isn't one
+     *
+     * @param key identifies the call
+     * @param call a function that creates the (cold) {@link Mono} that makes the call for a given key
+     * @return a {@link Mono} that publishes the result of the shared call
+     */
+    public Mono<V> execute(K key, Function<K, Mono<V>> call) {
+        return Mono.defer(() -> this.inFlight.computeIfAbsent(key, k -> this.newFlight(k, call)));
+    }
+
+    /**
+     * @return the number of calls that are currently in flight
+     */
+    public int size() { return this.inFlight.size(); }
+
+    private Mono<V> newFlight(K key, Function<K, Mono<V>> call) {
+        AtomicReference<Mono<V>> self = new AtomicReference<>();
+        // Removed before the result is passed on (not after, as doFinally would), so that a caller who arrives
+        // once the result has been published can't be handed the finished call
+        Mono<V> flight = call.apply(key)
+            .doOnTerminate(() -> this.inFlight.remove(key, self.get()))
+            .doFinally(signal -> this.inFlight.remove(key, self.get()))
+            .share();
+        self.set(flight);
+        return flight;
+    }
+}
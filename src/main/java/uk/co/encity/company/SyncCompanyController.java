@@ -0,0 +1,103 @@
+package uk.co.encity.company;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A web controller for the synchronous compatibility mode, which is only enabled if
+ * <code>encity.sync.enabled</code> is set.  It answers with the JSON received from Companies House, fetched by a
+ * blocking call, for callers that were written against the original synchronous endpoint.
+ *
+ * The blocking call never runs on the event loop: it runs on a {@link BlockingCallScheduler}, with its own threads
+ * and limits, and goes through the same {@link WebClient} as every other call (so the rate limit, retries and
+ * circuit breaker still apply).
+ */
+@RestController
+@ConditionalOnProperty(name = "encity.sync.enabled", havingValue = "true")
+public class SyncCompanyController {
+
+    private final WebClient webClient;
+    private final BlockingCallScheduler scheduler;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * @param webClient the client used to call Companies House (see {@link CompaniesHouseClientConfig})
+     * @param scheduler where the blocking calls run
+     */
+    public SyncCompanyController(WebClient webClient, BlockingCallScheduler scheduler) {
+        logger.debug("Constructing " + this.getClass().getName());
+
+        this.webClient = webClient;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Get the details of a company, as received from Companies House, by a blocking call
+     *
+     * @param companyNumber the official company number allocated by Companies House
+     * @return a {@link Mono} that publishes the JSON retrieved from Companies House, or a 503 if too many blocking
+     * calls are already running or waiting
+     */
+    @GetMapping("/company/s/{companyNumber}")
+    public Mono<String> getCustomerByCompanyNumberSync(@PathVariable String companyNumber) {
+        logger.debug("Retrieving company details synchronously for company number " + companyNumber);
+        return this.scheduler.call(() -> this.webClient
+                .get()
+                .uri("/company/" + companyNumber)
+                .retrieve()
+                .bodyToMono(String.class)
+                .block())
+            .onErrorMap(RejectedExecutionException.class,
+                e -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e));
+    }
+
+    /**
+     * Pass back the status and body received from Companies House (as {@link CompanyController} does)
+     *
+     * @param ex the exception generated by the web client
+     * @return a ResponseEntity containing the status and the body received from downstream
+     */
+    @ExceptionHandler(WebClientResponseException.class)
+    public ResponseEntity<String> handleWebClientResponseException(WebClientResponseException ex) {
+        logger.debug("Received " + ex.getRawStatusCode() + " from downstream server");
+        return ResponseEntity.status(ex.getRawStatusCode()).body(ex.getResponseBodyAsString());
+    }
+
+    /**
+     * Turn a request away when Companies House can't be called (see {@link CompanyController})
+     *
+     * @param ex the exception raised by the rate limiter
+     * @return a 503 response, telling the client when to try again
+     */
+    @ExceptionHandler(RateLimitExceededException.class)
+    public ResponseEntity<String> handleRateLimitExceededException(RateLimitExceededException ex) {
+        logger.debug(ex.getMessage());
+        return CompanyController.serviceUnavailable(ex.getRetryAfter());
+    }
+
+    /**
+     * Turn a request away when Companies House can't be called (see {@link CompanyController})
+     *
+     * @param ex the exception raised by the circuit breaker
+     * @return a 503 response, telling the client when to try again
+     */
+    @ExceptionHandler(CircuitOpenException.class)
+    public ResponseEntity<String> handleCircuitOpenException(CircuitOpenException ex) {
+        logger.debug(ex.getMessage());
+        return CompanyController.serviceUnavailable(ex.getRetryAfter());
+    }
+}
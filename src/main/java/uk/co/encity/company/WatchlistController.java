@@ -0,0 +1,181 @@
+package uk.co.encity.company;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+import reactor.util.concurrent.Queues;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A web controller for watchlists of companies, whose filing deadlines are tracked (see {@link DeadlineTracker}).
+ * Each user (the subject of their access token) has watchlists of their own, and can't see anyone else's.
+ */
+@CrossOrigin
+@RestController
+public class WatchlistController {
+
+    private final DeadlineTracker tracker;
+    private final int maxSize;
+    private final int maxWatchlists;
+    private final int maxPending;
+
+    private Logger logger = Loggers.getLogger(getClass());
+
+    /**
+     * @param tracker the tracker of the watched companies' deadlines
+     * @param maxSize the most companies that a watchlist may hold
+     * @param maxWatchlists the most watchlists that a user may have
+     * @param maxPending the most new alerts that are held for a client that isn't keeping up, after which its stream
+     * of alerts is ended (it can reconnect to get the current alerts again); it is rounded up to a power of two, of at
+     * least 8
+     */
+    public WatchlistController(DeadlineTracker tracker,
+                               @Value("${encity.alerts.max-watchlist-size:10000}") int maxSize,
+                               @Value("${encity.alerts.max-watchlists:20}") int maxWatchlists,
+                               @Value("${encity.alerts.max-pending:256}") int maxPending) {
+        logger.debug("Constructing " + this.getClass().getName());
+
+        this.tracker = tracker;
+        this.maxSize = maxSize;
+        this.maxWatchlists = maxWatchlists;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Create or replace a watchlist
+     *
+     * @param principal the user
+     * @param id the name of the watchlist
+     * @param companyNumbers the Company Numbers assigned by Companies House
+     * @return the watchlist, with the company numbers normalised
+     */
+    @PutMapping("/watchlists/{id}")
+    public Mono<Watchlist> putWatchlist(Principal principal, @PathVariable String id,
+                                        @RequestBody List<String> companyNumbers) {
+        if (companyNumbers.size() > this.maxSize) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "No more than " + this.maxSize + " companies may be watched in one watchlist"));
+        }
+
+        List<String> normalised = companyNumbers.stream().map(CompanyNumbers::normalise).collect(Collectors.toList());
+        List<String> invalid = normalised.stream().filter(n -> CompanyNumbers.pack(n) < 0).collect(Collectors.toList());
+        if (!invalid.isEmpty()) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "These are not company numbers: " + String.join(", ", invalid)));
+        }
+
+        logger.debug("Watching " + normalised.size() + " companies in watchlist " + id);
+        String owner = owner(principal);
+        if (this.tracker.watch(owner, id, normalised, this.maxWatchlists) < 0) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "No more than " + this.maxWatchlists + " watchlists may be made by one user"));
+        }
+        return Mono.just(new Watchlist(id, this.tracker.getWatchlist(owner, id)));
+    }
+
+    /**
+     * @param principal the user
+     * @param id the name of the watchlist
+     * @return the watchlist, or a 404 if there is no such watchlist
+     */
+    @GetMapping("/watchlists/{id}")
+    public Mono<Watchlist> getWatchlist(Principal principal, @PathVariable String id) {
+        List<String> companyNumbers = this.tracker.getWatchlist(owner(principal), id);
+        if (companyNumbers == null) {
+            return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "No such watchlist: " + id));
+        }
+        return Mono.just(new Watchlist(id, companyNumbers));
+    }
+
+    /**
+     * Remove a watchlist
+     *
+     * @param principal the user
+     * @param id the name of the watchlist
+     * @return a 204, or a 404 if there is no such watchlist
+     */
+    @DeleteMapping("/watchlists/{id}")
+    public Mono<ResponseEntity<Void>> deleteWatchlist(Principal principal, @PathVariable String id) {
+        return Mono.just(this.tracker.unwatch(owner(principal), id)
+            ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Get the alerts for the companies in a watchlist, as a stream of newline-delimited JSON: first the deadlines
+     * that are currently upcoming or overdue, and then each new alert as it is raised.  The stream ends if the
+     * watchlist is removed, or (with an error) if the client falls too far behind the alerts.
+     *
+     * @param principal the user
+     * @param id the name of the watchlist
+     * @return a {@link Flux} that publishes the alerts, or a 404 if there is no such watchlist
+     */
+    @GetMapping(value = "/watchlists/{id}/alerts", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<DeadlineAlert> getAlerts(Principal principal, @PathVariable String id) {
+        String owner = owner(principal);
+        return Flux.defer(() -> {
+            // Listen for new alerts before taking the current ones, holding them back until those have been sent,
+            // so that none raised in between is missed (one may be sent twice instead).  Only so many are held: a
+            // client that falls further behind than that has its stream ended, rather than using up memory.
+            Sinks.Many<DeadlineAlert> raised =
+                Sinks.many().unicast().onBackpressureBuffer(Queues.<DeadlineAlert>get(this.maxPending).get());
+            Disposable listening = this.tracker.alerts(owner, id).subscribe(alert -> {
+                if (raised.tryEmitNext(alert) == Sinks.EmitResult.FAIL_OVERFLOW) {
+                    logger.debug("Ending the alerts of watchlist " + id + " for a client that has fallen behind");
+                    raised.tryEmitError(Exceptions.failWithOverflow(
+                        "More than " + this.maxPending + " alerts are waiting to be sent"));
+                }
+            }, raised::tryEmitError, raised::tryEmitComplete);
+
+            List<DeadlineAlert> current = this.tracker.getAlerts(owner, id);
+            if (current == null) {
+                listening.dispose();
+                return Flux.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "No such watchlist: " + id));
+            }
+            return Flux.fromIterable(current).concatWith(raised.asFlux()).doFinally(signal -> listening.dispose());
+        });
+    }
+
+    /**
+     * @return the owner of the watchlists of a user: the subject of their access token
+     */
+    private static String owner(Principal principal) {
+        if (principal == null) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED);
+        }
+        return principal.getName();
+    }
+
+    /**
+     * A watchlist, as returned to clients
+     */
+    @Getter
+    public static class Watchlist {
+        private final String id;
+        private final List<String> companyNumbers;
+
+        Watchlist(String id, List<String> companyNumbers) {
+            this.id = id;
+            this.companyNumbers = companyNumbers;
+        }
+    }
+}
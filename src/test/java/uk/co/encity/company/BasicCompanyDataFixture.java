@@ -0,0 +1,86 @@
+package uk.co.encity.company;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates files in the format of the Companies House "basic company data" (with the same header, including its
+ * stray spaces), for testing and benchmarking {@link BasicCompanyDataImporter}.
+ */
+class BasicCompanyDataFixture {
+
+    static final String HEADER = "CompanyName, CompanyNumber,RegAddress.CareOf,RegAddress.POBox,"
+        + "RegAddress.AddressLine1, RegAddress.AddressLine2,RegAddress.PostTown,RegAddress.County,"
+        + "RegAddress.Country,RegAddress.PostCode,CompanyCategory,CompanyStatus,CountryOfOrigin,DissolutionDate,"
+        + "IncorporationDate,Accounts.AccountRefDay,Accounts.AccountRefMonth,Accounts.NextDueDate,"
+        + "Accounts.LastMadeUpDate,Accounts.AccountCategory,Returns.NextDueDate,Returns.LastMadeUpDate,"
+        + "Mortgages.NumMortCharges,Mortgages.NumMortOutstanding,Mortgages.NumMortPartSatisfied,"
+        + "Mortgages.NumMortSatisfied,SICCode.SicText_1,SICCode.SicText_2,SICCode.SicText_3,SICCode.SicText_4,"
+        + "LimitedPartnerships.NumGenPartners,LimitedPartnerships.NumLimPartners,URI,"
+        + "PreviousName_1.CONDATE, PreviousName_1.CompanyName,ConfStmtNextDueDate, ConfStmtLastMadeUpDate";
+
+    private static final String[] STATUSES = { "Active", "Active", "Active", "Liquidation", "In Administration",
+        "Active - Proposal to Strike off" };
+    private static final String[] CATEGORIES = { "TOTAL EXEMPTION FULL", "MICRO ENTITY", "FULL", "DORMANT",
+        "NO ACCOUNTS FILED" };
+
+    private BasicCompanyDataFixture() {}
+
+    /**
+     * Write a zip file of generated companies, numbered 00000000, 00000007, 00000014 and so on (so that there
+     * are gaps between them), and every tenth one in Scotland (SC......)
+     *
+     * @param zip the file to write
+     * @param companies how many companies
+     */
+    static void write(Path zip, int companies) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("BasicCompanyDataAsOneFile.csv"));
+            Writer csv = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+            csv.write(HEADER);
+            csv.write("\r\n");
+            for (int i = 0; i < companies; i++) {
+                csv.write(row(companyNumber(i), i));
+                csv.write("\r\n");
+            }
+            csv.flush();
+            out.closeEntry();
+        }
+    }
+
+    /**
+     * @return the company number of the i'th generated company
+     */
+    static String companyNumber(int i) {
+        return (i % 10 == 9 ? "SC" + String.format("%06d", 7 * i % 1_000_000) : String.format("%08d", 7 * i));
+    }
+
+    /**
+     * @return a row for a generated company
+     */
+    static String row(String companyNumber, int i) {
+        int day = 1 + i % 28;
+        int month = 1 + i % 12;
+        return String.join(",",
+            "\"ENCITY TEST " + i + ", LIMITED\"", companyNumber, "", "",
+            i + " EXAMPLE STREET", "", "LONDON", "GREATER LONDON", "ENGLAND", "EC1A " + (i % 10) + "AA",
+            "Private Limited Company", STATUSES[i % STATUSES.length], "United Kingdom", "",
+            date(day, month, 2010 + i % 10),
+            Integer.toString(day), Integer.toString(month), date(day, month, 2021), date(day, month, 2020),
+            CATEGORIES[i % CATEGORIES.length], "", "",
+            "0", "0", "0", "0", "62020 - Information technology consultancy activities", "", "", "",
+            "0", "0", "http://business.data.gov.uk/id/company/" + companyNumber,
+            "", "", date(day, month, 2021), date(day, month, 2020));
+    }
+
+    private static String date(int day, int month, int year) {
+        return String.format("%02d/%02d/%04d", day, month, year);
+    }
+}
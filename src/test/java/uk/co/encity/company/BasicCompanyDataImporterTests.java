@@ -0,0 +1,187 @@
+package uk.co.encity.company;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BasicCompanyDataImporterTests {
+
+    private static final Instant AS_OF = Instant.parse("2021-01-01T00:00:00Z");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void companyNumbersArePackedWithoutCollisions() {
+        assertThat(CompanyNumbers.pack("00000006")).isEqualTo(6);
+        assertThat(CompanyNumbers.pack("99999999")).isEqualTo(99_999_999);
+        assertThat(CompanyNumbers.pack("AA000000")).isEqualTo(100_000_000);
+        assertThat(CompanyNumbers.pack("SC012345")).isNotEqualTo(CompanyNumbers.pack("NI012345"));
+        assertThat(CompanyNumbers.pack("ZZ999999")).isPositive();
+        assertThat(CompanyNumbers.pack("SC12345")).isEqualTo(-1);
+        assertThat(CompanyNumbers.pack("BAD!0000")).isEqualTo(-1);
+        assertThat(CompanyNumbers.pack("0000000A")).isEqualTo(-1);
+    }
+
+    @Test
+    void csvFieldsMayBeQuoted() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("a,\"b, c\",\"say \"\"hi\"\"\"\r\n\"two\nlines\",,x\n"));
+
+        assertThat(reader.next()).containsExactly("a", "b, c", "say \"hi\"");
+        assertThat(reader.next()).containsExactly("two\nlines", "", "x");
+        assertThat(reader.next()).isNull();
+    }
+
+    @Test
+    void rowIsMappedToProfile() throws IOException {
+        CompanyDataIndex index = this.importCsv(
+            BasicCompanyDataFixture.row("SC012345", 4),
+            BasicCompanyDataFixture.row("00000001", 1));
+
+        CompanyResponse profile = index.get("SC012345");
+        assertThat(profile.getCompanyName()).isEqualTo("ENCITY TEST 4, LIMITED");
+        assertThat(profile.getCompanyStatus()).isEqualTo("administration");
+        assertThat(profile.getEtag()).isNull();
+        assertThat(profile.getRegisteredOfficeAddress().getAddressLine1()).isEqualTo("4 EXAMPLE STREET");
+        assertThat(profile.getRegisteredOfficeAddress().getLocality()).isEqualTo("LONDON");
+        assertThat(profile.getRegisteredOfficeAddress().getPostalCode()).isEqualTo("EC1A 4AA");
+        assertThat(profile.getAccounts().getAccountingReferenceDate().getDay()).isEqualTo("05");
+        assertThat(profile.getAccounts().getAccountingReferenceDate().getMonth()).isEqualTo("05");
+        assertThat(profile.getAccounts().getNextDue()).isEqualTo(LocalDate.of(2021, 5, 5));
+        assertThat(profile.getAccounts().isOverdue()).isFalse();
+        assertThat(profile.getAccounts().getLastAccounts().getMadeUpTo()).isEqualTo(LocalDate.of(2020, 5, 5));
+        assertThat(profile.getAccounts().getLastAccounts().getType()).isNull();
+        assertThat(profile.getConfirmationStatement().getNextDue()).isEqualTo(LocalDate.of(2021, 5, 5));
+
+        assertThat(index.get("00000001").getCompanyStatus()).isEqualTo("active");
+        assertThat(index.get("00000001").getAccounts().getLastAccounts().getType()).isEqualTo("micro-entity");
+    }
+
+    @Test
+    void dueDatesBeforeTheDataAreOverdue() throws IOException {
+        String row = BasicCompanyDataFixture.row("00000001", 1)
+            .replace("02/02/2021", "02/12/2020");
+
+        CompanyResponse profile = this.importCsv(row).get("00000001");
+
+        assertThat(profile.getAccounts().isOverdue()).isTrue();
+        assertThat(profile.getConfirmationStatement().isOverdue()).isTrue();
+    }
+
+    @Test
+    void lastRowForACompanyIsKeptAndUnindexableRowsAreSkipped() throws IOException {
+        BasicCompanyDataImporter.Result result = new BasicCompanyDataImporter().importFrom(
+            this.csv(BasicCompanyDataFixture.row("00000001", 1),
+                BasicCompanyDataFixture.row("OE000001", 2),
+                BasicCompanyDataFixture.row("NOT A NUMBER", 3),
+                "too,few,fields",
+                BasicCompanyDataFixture.row("00000001", 4)),
+            AS_OF, this.dir.resolve("index"));
+
+        assertThat(result.getRows()).isEqualTo(5);
+        assertThat(result.getSkipped()).isEqualTo(2);
+        assertThat(result.getCompanies()).isEqualTo(2);
+
+        CompanyDataIndex index = CompanyDataIndex.open(this.dir.resolve("index"));
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.get("00000001").getCompanyName()).isEqualTo("ENCITY TEST 4, LIMITED");
+    }
+
+    @Test
+    void zippedBulkDataIsImported() throws IOException {
+        Path zip = this.dir.resolve("BasicCompanyDataAsOneFile-2021-01-01.zip");
+        BasicCompanyDataFixture.write(zip, 10_000);
+
+        BasicCompanyDataImporter.Result result = new BasicCompanyDataImporter().importFrom(zip, this.dir.resolve("index"));
+        CompanyDataIndex index = CompanyDataIndex.open(this.dir.resolve("index"));
+
+        assertThat(result.getRows()).isEqualTo(10_000);
+        assertThat(result.getCompanies()).isEqualTo(10_000);
+        assertThat(result.getRowsPerSecond()).isPositive();
+        assertThat(result.getBytesPerMillionCompanies()).isEqualTo(result.getIndexBytes() * 100);
+        assertThat(index.getAsOf()).isEqualTo(AS_OF);
+        for (int i = 0; i < 10_000; i += 37) {
+            CompanyResponse profile = index.get(BasicCompanyDataFixture.companyNumber(i));
+            assertThat(profile.getCompanyName()).isEqualTo("ENCITY TEST " + i + ", LIMITED");
+        }
+        assertThat(index.get("00000001")).isNull();
+        assertThat(index.get("SC999999")).isNull();
+        assertThat(index.get("99999999")).isNull();
+    }
+
+    @Test
+    void cacheServesRecentBulkDataWithoutCallingCompaniesHouse() throws IOException {
+        this.importCsv(BasicCompanyDataFixture.row("00000001", 1));
+        CompanyBulkData bulkData = new CompanyBulkData(
+            this.dir.resolve("index"), null, Duration.ofDays(35), () -> AS_OF.plus(Duration.ofDays(3)).toEpochMilli());
+        AtomicInteger loads = new AtomicInteger();
+
+        StepVerifier.create(this.cache(bulkData).get("1", n -> Mono.fromSupplier(() -> {
+                loads.incrementAndGet();
+                return new CompanyResponse("active", "ENCITY TEST 1 LIMITED", null, null, null, null);
+            })))
+            .expectNextMatches(r -> "ENCITY TEST 1, LIMITED".equals(r.getCompanyName()))
+            .verifyComplete();
+        assertThat(loads).hasValue(0);
+    }
+
+    @Test
+    void oldBulkDataIsServedOnlyWhenCompaniesHouseIsUnavailable() throws IOException {
+        this.importCsv(BasicCompanyDataFixture.row("00000001", 1));
+        CompanyBulkData bulkData = new CompanyBulkData(
+            this.dir.resolve("index"), null, Duration.ofDays(35), () -> AS_OF.plus(Duration.ofDays(60)).toEpochMilli());
+        CompanyProfileCache cache = this.cache(bulkData);
+        CompanyResponse latest = new CompanyResponse("active", "ENCITY TEST 1 LIMITED", null, null, null, null);
+
+        StepVerifier.create(cache.get("00000001", n -> Mono.error(WebClientResponseException.create(
+                HttpStatus.SERVICE_UNAVAILABLE.value(), "Service Unavailable", HttpHeaders.EMPTY, new byte[0], null))))
+            .expectNextMatches(r -> "ENCITY TEST 1, LIMITED".equals(r.getCompanyName()))
+            .verifyComplete();
+        StepVerifier.create(cache.get("00000001", n -> Mono.just(latest))).expectNext(latest).verifyComplete();
+    }
+
+    @Test
+    void newerBulkDataIsImportedWhenOpened() throws IOException {
+        Path zip = this.dir.resolve("BasicCompanyDataAsOneFile-2021-01-01.zip");
+        BasicCompanyDataFixture.write(zip, 100);
+        CompanyBulkData bulkData = new CompanyBulkData(
+            this.dir.resolve("index"), zip, Duration.ofDays(35), System::currentTimeMillis);
+
+        // The import runs in the background, so wait for it
+        StepVerifier.create(Mono.defer(() -> bulkData.get(BasicCompanyDataFixture.companyNumber(7)))
+                .repeatWhenEmpty(20, attempts -> attempts.delayElements(Duration.ofMillis(100))))
+            .expectNextMatches(s -> "ENCITY TEST 7, LIMITED".equals(s.getResponse().getCompanyName()))
+            .verifyComplete();
+    }
+
+    private CompanyDataIndex importCsv(String... rows) throws IOException {
+        new BasicCompanyDataImporter().importFrom(this.csv(rows), AS_OF, this.dir.resolve("index"));
+        return CompanyDataIndex.open(this.dir.resolve("index"));
+    }
+
+    private ByteArrayInputStream csv(String... rows) {
+        String csv = BasicCompanyDataFixture.HEADER + "\r\n" + String.join("\r\n", rows) + "\r\n";
+        return new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private CompanyProfileCache cache(CompanyBulkData bulkData) {
+        return new CompanyProfileCache(Duration.ofHours(24), Duration.ofHours(24), Duration.ofMinutes(5), 100,
+            System::nanoTime, new CompanySnapshotStore(null, Duration.ZERO, () -> 0), bulkData);
+    }
+}
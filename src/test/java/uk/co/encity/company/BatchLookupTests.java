@@ -0,0 +1,74 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchLookupTests {
+
+    private CompaniesHouseStub stub;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setup() throws IOException {
+        this.stub = new CompaniesHouseStub().status("00000002", 404);
+        CompanyCodec codec = new CompanyCodec();
+        this.client = WebTestClient.bindToController(this.stub.controller())
+            .httpMessageCodecs(codec::customize)
+            .build();
+    }
+
+    @AfterEach
+    void stopStub() {
+        this.stub.close();
+    }
+
+    @Test
+    void eachCompanyIsStreamedWithItsOwnStatus() throws IOException {
+        String body = this.client.get().uri("/companies?numbers=1,2,3")
+            .accept(MediaType.APPLICATION_NDJSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+            .expectBody(String.class).returnResult().getResponseBody();
+
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, JsonNode> items = new HashMap<>();
+        for (String line : body.split("\n")) {
+            JsonNode item = mapper.readTree(line);
+            items.put(item.get("companyNumber").asText(), item);
+        }
+
+        assertThat(items).containsOnlyKeys("1", "2", "3");
+        assertThat(items.get("1").get("status").asInt()).isEqualTo(200);
+        assertThat(items.get("1").get("company").get("companyName").asText()).isEqualTo("ENCITY TEST SERVICES LIMITED");
+        assertThat(items.get("2").get("status").asInt()).isEqualTo(404);
+        assertThat(items.get("2").has("company")).isFalse();
+        assertThat(items.get("3").get("status").asInt()).isEqualTo(200);
+        assertThat(this.stub.requests()).isEqualTo(3);
+    }
+
+    @Test
+    void oversizedBatchIsRejected() {
+        StringBuilder numbers = new StringBuilder("1");
+        for (int i = 2; i <= 501; i++) {
+            numbers.append(',').append(i);
+        }
+
+        this.client.get().uri("/companies?numbers=" + numbers)
+            .accept(MediaType.APPLICATION_NDJSON)
+            .exchange()
+            .expectStatus().isBadRequest();
+        assertThat(this.stub.requests()).isZero();
+    }
+}
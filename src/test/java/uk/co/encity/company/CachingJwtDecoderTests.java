@@ -0,0 +1,186 @@
+package uk.co.encity.company;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CachingJwtDecoderTests {
+
+    private static final String ISSUER = "https://issuer.example/";
+
+    @TempDir
+    Path dir;
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2021-01-04T12:00:00Z"));
+    private final AtomicInteger verifications = new AtomicInteger();
+    private RSAKey key;
+    private Path jwks;
+    private JwkSetSource keys;
+    private CachingJwtDecoder decoder;
+
+    @BeforeEach
+    void setup() throws JOSEException, IOException {
+        this.key = new RSAKeyGenerator(2048).keyID("k1").generate();
+        this.jwks = this.dir.resolve("jwks.json");
+        this.publish(this.key);
+
+        this.keys = new JwkSetSource("file:" + this.jwks, ISSUER, WebClient.create(), Duration.ofHours(1));
+        this.keys.refresh().block();
+        this.decoder = new CachingJwtDecoder(jwt -> {
+            this.verifications.incrementAndGet();
+            return this.keys.keysFor(jwt);
+        }, ISSUER, 100, this.clock);
+    }
+
+    @Test
+    void verifiedTokenIsNotVerifiedAgain() throws JOSEException {
+        String token = this.token(this.key, ISSUER, Duration.ofMinutes(10));
+
+        assertThat(this.decoder.decode(token).block().getSubject()).isEqualTo("someone");
+        assertThat(this.decoder.decode(token).block().getSubject()).isEqualTo("someone");
+
+        assertThat(this.verifications).hasValue(1);
+    }
+
+    @Test
+    void tokenIsForgottenWhenItExpires() throws JOSEException {
+        String token = this.token(this.key, ISSUER, Duration.ofMinutes(10));
+        this.decoder.decode(token).block();
+
+        this.clock.advance(Duration.ofMinutes(15));
+
+        assertThatThrownBy(() -> this.decoder.decode(token).block()).isInstanceOf(JwtException.class);
+        assertThat(this.verifications).hasValue(2);
+    }
+
+    @Test
+    void wronglySignedTokenIsRejectedEveryTime() throws JOSEException {
+        RSAKey impostor = new RSAKeyGenerator(2048).keyID("k1").generate();
+        String token = this.token(impostor, ISSUER, Duration.ofMinutes(10));
+
+        assertThatThrownBy(() -> this.decoder.decode(token).block()).isInstanceOf(BadJwtException.class);
+        assertThatThrownBy(() -> this.decoder.decode(token).block()).isInstanceOf(BadJwtException.class);
+        assertThat(this.verifications).hasValue(2);
+    }
+
+    @Test
+    void tokenFromAnotherIssuerIsRejected() throws JOSEException {
+        String token = this.token(this.key, "https://elsewhere.example/", Duration.ofMinutes(10));
+
+        assertThatThrownBy(() -> this.decoder.decode(token).block()).isInstanceOf(JwtException.class);
+    }
+
+    @Test
+    void rotatedKeysAreUsedOnceRefreshed() throws JOSEException, IOException {
+        RSAKey rotated = new RSAKeyGenerator(2048).keyID("k2").generate();
+        String token = this.token(rotated, ISSUER, Duration.ofMinutes(10));
+        assertThatThrownBy(() -> this.decoder.decode(token).block()).isInstanceOf(JwtException.class);
+
+        this.publish(this.key, rotated);
+        this.keys.refresh().block();
+
+        assertThat(this.decoder.decode(token).block().getSubject()).isEqualTo("someone");
+    }
+
+    @Test
+    void unknownKeyHasTheKeysReadAgainAtMostOnceInAWhile() throws JOSEException, IOException {
+        RSAKey rotated = new RSAKeyGenerator(2048).keyID("k2").generate();
+        this.publish(this.key, rotated);
+
+        // Without waiting for the keys to be read again in the background
+        String token = this.token(rotated, ISSUER, Duration.ofMinutes(10));
+        assertThat(this.decoder.decode(token).block().getSubject()).isEqualTo("someone");
+
+        RSAKey next = new RSAKeyGenerator(2048).keyID("k3").generate();
+        this.publish(this.key, rotated, next);
+
+        String later = this.token(next, ISSUER, Duration.ofMinutes(10));
+        assertThatThrownBy(() -> this.decoder.decode(later).block()).isInstanceOf(JwtException.class);
+    }
+
+    @Test
+    void keysAreReadInTheBackgroundAtStartUp() throws JOSEException {
+        try (JwkSetSource background = new JwkSetSource("file:" + this.jwks, ISSUER, Duration.ofHours(1),
+            Duration.ofHours(1))) {
+            CachingJwtDecoder decoder = new CachingJwtDecoder(background::keysFor, ISSUER, 100, Clock.systemUTC());
+
+            String token = this.token(this.key, ISSUER, Instant.now(), Duration.ofMinutes(10));
+
+            assertThat(decoder.decode(token).block().getSubject()).isEqualTo("someone");
+        }
+    }
+
+    private void publish(RSAKey... keys) throws IOException {
+        JWKSet set = new JWKSet(Arrays.asList(keys));
+        Files.write(this.jwks, set.toPublicJWKSet().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String token(RSAKey signer, String issuer, Duration lifetime) throws JOSEException {
+        return this.token(signer, issuer, this.clock.instant(), lifetime);
+    }
+
+    private String token(RSAKey signer, String issuer, Instant issued, Duration lifetime) throws JOSEException {
+        SignedJWT jwt = new SignedJWT(
+            new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(signer.getKeyID()).build(),
+            new JWTClaimsSet.Builder()
+                .issuer(issuer)
+                .subject("someone")
+                .issueTime(Date.from(issued))
+                .expirationTime(Date.from(issued.plus(lifetime)))
+                .build());
+        jwt.sign(new RSASSASigner(signer));
+        return jwt.serialize();
+    }
+
+    /**
+     * A clock that only moves when it is told to
+     */
+    private static class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            this.now = this.now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() { return ZoneOffset.UTC; }
+
+        @Override
+        public Clock withZone(ZoneId zone) { return this; }
+
+        @Override
+        public Instant instant() { return this.now; }
+    }
+}
@@ -0,0 +1,70 @@
+package uk.co.encity.company;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompaniesHouseClientConfigTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private CompaniesHouseStub stub;
+
+    @BeforeEach
+    void setup() throws IOException {
+        this.stub = new CompaniesHouseStub();
+        Metrics.addRegistry(this.registry);
+    }
+
+    @AfterEach
+    void teardown() {
+        Metrics.removeRegistry(this.registry);
+        this.stub.close();
+    }
+
+    @Test
+    void poolMetricsArePublished() {
+        contextRunner().run(context -> {
+            WebClient webClient = context.getBean(WebClient.class);
+            StepVerifier.create(webClient.get().uri("/company/00000001").retrieve().bodyToMono(CompanyResponse.class))
+                .expectNextCount(1)
+                .verifyComplete();
+
+            assertThat(this.registry.find("reactor.netty.connection.provider.total.connections")
+                .tag("name", CompaniesHouseClientConfig.POOL_NAME).gauge()).isNotNull();
+            assertThat(this.registry.find("reactor.netty.connection.provider.pending.connections")
+                .tag("name", CompaniesHouseClientConfig.POOL_NAME).gauge()).isNotNull();
+        });
+    }
+
+    @Test
+    void slowResponseTimesOut() {
+        this.stub.delay(Duration.ofSeconds(2));
+
+        contextRunner().withPropertyValues("ch.api.timeout.response=200ms", "ch.api.retry.max-retries=0").run(context -> {
+            WebClient webClient = context.getBean(WebClient.class);
+            StepVerifier.create(webClient.get().uri("/company/00000001").retrieve().bodyToMono(String.class))
+                .expectError()
+                .verify(Duration.ofSeconds(1));
+        });
+    }
+
+    private ApplicationContextRunner contextRunner() {
+        return new ApplicationContextRunner()
+            .withInitializer(c -> c.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance()))
+            .withUserConfiguration(CompaniesHouseClientConfig.class, CompanyCodec.class,
+                CompaniesHouseResilienceFilter.class, CompaniesHouseRateLimiter.class,
+                CompaniesHouseMetricsFilter.class)
+            .withPropertyValues("ch.api.key=key", "ch.api.url=" + this.stub.url());
+    }
+}
@@ -0,0 +1,97 @@
+package uk.co.encity.company;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.client.ClientResponse;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class CompaniesHouseRateLimiterTests {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong epochSeconds = new AtomicLong(1_600_000_000L);
+
+    @Test
+    void burstIsServedImmediatelyThenRequestsWait() {
+        CompaniesHouseRateLimiter limiter = limiter(2, 3, Duration.ofSeconds(10), 10);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.reserve()).isZero();
+        }
+        assertThat(limiter.reserve()).isEqualTo(SECOND / 2);
+        assertThat(limiter.reserve()).isEqualTo(SECOND);
+
+        this.nanos.addAndGet(SECOND);
+        assertThat(limiter.reserve()).isEqualTo(SECOND / 2);
+    }
+
+    @Test
+    void requestsAreShedWhenWaitOrQueueIsTooLong() {
+        CompaniesHouseRateLimiter byWait = limiter(1, 1, Duration.ofSeconds(2), 100);
+        assertThat(byWait.reserve()).isZero();
+        assertThat(byWait.reserve()).isEqualTo(SECOND);
+        assertThat(byWait.reserve()).isEqualTo(2 * SECOND);
+        assertThat(byWait.reserve()).isEqualTo(-1);
+
+        CompaniesHouseRateLimiter byQueue = limiter(1, 1, Duration.ofMinutes(1), 2);
+        assertThat(byQueue.reserve()).isZero();
+        assertThat(byQueue.reserve()).isPositive();
+        assertThat(byQueue.reserve()).isPositive();
+        assertThat(byQueue.reserve()).isEqualTo(-1);
+
+        byQueue.release();
+        assertThat(byQueue.reserve()).isPositive();
+    }
+
+    @Test
+    void rateFollowsUpstreamHeaders() {
+        CompaniesHouseRateLimiter limiter = limiter(2, 1, Duration.ofMinutes(10), 100);
+
+        limiter.adapt(withQuota(30, 60));
+        assertThat(limiter.getRatePerSecond()).isCloseTo(0.5, within(1e-9));
+
+        // Never faster than configured
+        limiter.adapt(withQuota(6000, 60));
+        assertThat(limiter.getRatePerSecond()).isCloseTo(2, within(1e-9));
+
+        // Quota exhausted: nothing until the window resets
+        limiter.adapt(withQuota(0, 120));
+        assertThat(limiter.reserve()).isGreaterThanOrEqualTo(120 * SECOND);
+    }
+
+    @Test
+    void shedRequestGets503WithRetryAfter() throws IOException {
+        try (CompaniesHouseStub stub = new CompaniesHouseStub().delay(Duration.ofMillis(200))) {
+            CompanyController controller =
+                stub.controller(new CompaniesHouseRateLimiter(0.1, 1, Duration.ofSeconds(1), 10));
+            WebTestClient client = WebTestClient.bindToController(controller).build();
+
+            client.get().uri("/companies/00000001").exchange().expectStatus().isOk();
+            client.get().uri("/companies/00000002").exchange()
+                .expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+                .expectHeader().exists("Retry-After");
+
+            assertThat(stub.requests()).isEqualTo(1);
+        }
+    }
+
+    private CompaniesHouseRateLimiter limiter(double rate, int burst, Duration maxWait, int maxQueue) {
+        return new CompaniesHouseRateLimiter(rate, burst, maxWait, maxQueue, this.nanos::get, this.epochSeconds::get);
+    }
+
+    private ClientResponse withQuota(long remaining, long secondsToReset) {
+        return ClientResponse.create(HttpStatus.OK)
+            .header(CompaniesHouseRateLimiter.REMAINING_HEADER, Long.toString(remaining))
+            .header(CompaniesHouseRateLimiter.RESET_HEADER, Long.toString(this.epochSeconds.get() + secondsToReset))
+            .build();
+    }
+}
@@ -0,0 +1,165 @@
+package uk.co.encity.company;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompaniesHouseResilienceFilterTests {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private CompaniesHouseStub stub;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        this.stub = new CompaniesHouseStub();
+    }
+
+    @AfterEach
+    void stopStub() {
+        this.stub.close();
+    }
+
+    @Test
+    void serverErrorsAreRetried() {
+        this.stub.script(503, Duration.ZERO).script(502, Duration.ZERO);
+
+        client(filter(2, false, breaker(20, 10))).get().uri("/companies/00000001").exchange()
+            .expectStatus().isOk();
+        assertThat(this.stub.requests()).isEqualTo(3);
+    }
+
+    @Test
+    void lastErrorIsPassedOnWhenRetriesAreUsedUp() {
+        this.stub.status(503);
+
+        client(filter(2, false, breaker(20, 10))).get().uri("/companies/00000001").exchange()
+            .expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(this.stub.requests()).isEqualTo(3);
+    }
+
+    @Test
+    void slowRequestIsHedged() {
+        CompaniesHouseResilienceFilter filter = filter(0, true, breaker(20, 10));
+        for (int i = 0; i < 50; i++) {
+            filter.getLatency().record(TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        this.stub.script(200, Duration.ofSeconds(5));
+
+        long start = System.nanoTime();
+        client(filter).get().uri("/companies/00000001").exchange().expectStatus().isOk();
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(3));
+        assertThat(this.stub.requests()).isEqualTo(2);
+    }
+
+    @Test
+    void waitForARateLimitTokenIsNotCountedAsLatency() {
+        CompaniesHouseRateLimiter limiter = new CompaniesHouseRateLimiter(5, 1, Duration.ofSeconds(1), 10);
+        CompaniesHouseResilienceFilter filter = filter(0, false, breaker(20, 10), limiter::isQueueing);
+        WebTestClient client = WebTestClient.bindToController(this.stub.controller(filter, limiter)).build();
+        for (int i = 0; i < 30; i++) {
+            filter.getLatency().record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        // Each request after the first waits about 200ms for a token; the p95 is recalculated after the third
+        long start = System.nanoTime();
+        for (int i = 1; i <= 3; i++) {
+            client.get().uri("/companies/0000000" + i).exchange().expectStatus().isOk();
+        }
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThan(Duration.ofMillis(300));
+        assertThat(filter.getLatency().count()).isEqualTo(33);
+        assertThat(Duration.ofNanos(filter.getLatency().value())).isLessThan(Duration.ofMillis(150));
+    }
+
+    @Test
+    void slowRequestIsNotHedgedWhileRequestsWaitForAToken() {
+        CompaniesHouseRateLimiter limiter = new CompaniesHouseRateLimiter(1, 1, Duration.ofSeconds(5), 10);
+        CompaniesHouseResilienceFilter filter = filter(0, true, breaker(20, 10), limiter::isQueueing);
+        for (int i = 0; i < 50; i++) {
+            filter.getLatency().record(TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        // A hedge would be sent once a token comes, after about a second
+        this.stub.script(200, Duration.ofMillis(1500));
+
+        WebTestClient.bindToController(this.stub.controller(filter, limiter)).build()
+            .get().uri("/companies/00000001").exchange().expectStatus().isOk();
+
+        assertThat(this.stub.requests()).isEqualTo(1);
+    }
+
+    @Test
+    void openCircuitFailsFastAndServesStaleProfiles() {
+        CompanyProfileCache cache =
+            new CompanyProfileCache(Duration.ofHours(24), Duration.ofHours(24), Duration.ofMinutes(5), 100, this.nanos::get);
+        CompaniesHouseResilienceFilter filter = filter(0, false, breaker(4, 3));
+        WebTestClient client = WebTestClient.bindToController(this.stub.controller(cache, filter)).build();
+
+        client.get().uri("/companies/00000001").exchange().expectStatus().isOk();
+        this.nanos.addAndGet(Duration.ofHours(25).toNanos());
+        this.stub.status(500);
+
+        client.get().uri("/companies/00000002").exchange().expectStatus().isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR);
+        client.get().uri("/companies/00000003").exchange().expectStatus().isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR);
+        assertThat(filter.getCircuitBreaker().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        int requests = this.stub.requests();
+
+        client.get().uri("/companies/00000001").exchange().expectStatus().isOk()
+            .expectBody().jsonPath("$.companyName").isEqualTo("ENCITY TEST SERVICES LIMITED");
+        client.get().uri("/companies/00000004").exchange()
+            .expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+            .expectHeader().exists("Retry-After");
+        assertThat(this.stub.requests()).isEqualTo(requests);
+    }
+
+    @Test
+    void circuitBreakerTrialCallClosesOrReopens() {
+        CircuitBreaker breaker = breaker(4, 2);
+        for (int i = 0; i < 2; i++) {
+            assertThat(breaker.tryAcquirePermission()).isTrue();
+            breaker.onFailure();
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+
+        this.nanos.addAndGet(Duration.ofSeconds(31).toNanos());
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        this.nanos.addAndGet(Duration.ofSeconds(31).toNanos());
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    private CircuitBreaker breaker(int windowSize, int minimumCalls) {
+        return new CircuitBreaker(50, windowSize, minimumCalls, Duration.ofSeconds(30), this.nanos::get);
+    }
+
+    private static CompaniesHouseResilienceFilter filter(int maxRetries, boolean hedge, CircuitBreaker breaker) {
+        return filter(maxRetries, hedge, breaker, () -> false);
+    }
+
+    private static CompaniesHouseResilienceFilter filter(int maxRetries, boolean hedge, CircuitBreaker breaker,
+                                                         BooleanSupplier throttled) {
+        return new CompaniesHouseResilienceFilter(maxRetries, Duration.ofMillis(10), Duration.ofMillis(50), hedge,
+            Duration.ofMillis(10), breaker, throttled);
+    }
+
+    private WebTestClient client(CompaniesHouseResilienceFilter filter) {
+        return WebTestClient.bindToController(this.stub.controller(filter)).build();
+    }
+}
@@ -0,0 +1,130 @@
+package uk.co.encity.company;
+
+import io.netty.handler.codec.http.QueryStringDecoder;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A local stand-in for the Companies House streaming API, for tests.  It answers <code>GET /companies</code> with
+ * the events it has been given (those from the requested timepoint onwards), separated by newlines and heartbeats,
+ * and split into small chunks that cut through the events, as a real stream's are.  The stream then ends, unless
+ * the stub has been told to hold it open.  The timepoint asked for on each connection is recorded.
+ */
+class CompaniesHouseStreamStub implements AutoCloseable {
+
+    /**
+     * The size of the chunks the stream is sent in
+     */
+    private static final int CHUNK = 7;
+
+    private final DisposableServer server;
+    private final List<Event> events = new CopyOnWriteArrayList<>();
+    private final Queue<String> timepoints = new ConcurrentLinkedQueue<>();
+    private volatile boolean hold;
+
+    CompaniesHouseStreamStub() {
+        this.server = HttpServer.create()
+            .host("localhost")
+            .port(0)
+            .route(routes -> routes.get("/companies", (request, response) -> {
+                List<String> requested = new QueryStringDecoder(request.uri()).parameters().get("timepoint");
+                String timepoint = requested == null ? "" : requested.get(0);
+                this.timepoints.add(timepoint);
+
+                long from = timepoint.isEmpty() ? 0 : Long.parseLong(timepoint);
+                StringBuilder body = new StringBuilder("\n");
+                for (Event event : this.events) {
+                    if (event.timepoint >= from) {
+                        body.append(event.json).append("\n\n");
+                    }
+                }
+                Flux<byte[]> chunks = Flux.fromIterable(chunks(body.toString().getBytes(StandardCharsets.UTF_8)));
+                return response
+                    .header("Content-Type", "application/json")
+                    .sendByteArray(this.hold ? chunks.concatWith(Flux.never()) : chunks)
+                    .then();
+            }))
+            .bindNow();
+    }
+
+    String url() { return "http://localhost:" + this.server.port(); }
+
+    /**
+     * @return the timepoint asked for on each connection so far (empty if none was)
+     */
+    List<String> timepoints() { return new ArrayList<>(this.timepoints); }
+
+    /**
+     * @return a client for this stub, as the change feed uses
+     */
+    WebClient webClient() {
+        return CompaniesHouseClientConfig
+            .webClientBuilder(this.url(), "stream-key", new CompanyCodec(), new ReactorClientHttpConnector())
+            .build();
+    }
+
+    /**
+     * Keep each stream open after sending the events, rather than ending it
+     */
+    CompaniesHouseStreamStub hold() {
+        this.hold = true;
+        return this;
+    }
+
+    /**
+     * Add an event in which a company's profile has changed
+     */
+    CompaniesHouseStreamStub changed(long timepoint, String companyNumber, String companyName) {
+        return this.event(timepoint, companyNumber, "changed", "{\"company_number\":\"" + companyNumber
+            + "\",\"company_name\":\"" + companyName + "\",\"company_status\":\"active\",\"accounts\":{}}");
+    }
+
+    /**
+     * Add an event in which a company has been deleted
+     */
+    CompaniesHouseStreamStub deleted(long timepoint, String companyNumber) {
+        return this.event(timepoint, companyNumber, "deleted", "{\"company_number\":\"" + companyNumber + "\"}");
+    }
+
+    private CompaniesHouseStreamStub event(long timepoint, String companyNumber, String type, String data) {
+        this.events.add(new Event(timepoint, "{\"resource_kind\":\"company-profile\",\"resource_uri\":\"/company/"
+            + companyNumber + "\",\"resource_id\":\"" + companyNumber + "\",\"data\":" + data
+            + ",\"event\":{\"timepoint\":" + timepoint + ",\"published_at\":\"2021-01-04T10:15:30\",\"type\":\""
+            + type + "\"}}"));
+        return this;
+    }
+
+    @Override
+    public void close() {
+        this.server.disposeNow();
+    }
+
+    private static List<byte[]> chunks(byte[] bytes) {
+        List<byte[]> chunks = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i += CHUNK) {
+            chunks.add(Arrays.copyOfRange(bytes, i, Math.min(bytes.length, i + CHUNK)));
+        }
+        return chunks;
+    }
+
+    private static class Event {
+        final long timepoint;
+        final String json;
+
+        Event(long timepoint, String json) {
+            this.timepoint = timepoint;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package uk.co.encity.company;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import org.reactivestreams.Publisher;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the Companies House API, for tests.  It answers <code>GET /company/{number}</code> with a
+ * recorded payload, after an optional delay, and counts the requests it receives.  Faults and latency can be
+ * injected for particular companies, or scripted for the next few requests.  The payload is sent with an
+ * <code>ETag</code>, and a request with a matching <code>If-None-Match</code> gets a 304.
+ *
+ * It also answers <code>GET /company/{number}/{collection}</code> (e.g. <code>officers</code>) with a page of the
+ * collection, which has one item unless told otherwise, and echoes the paging parameters it was sent.  Each
+ * collection can be given a size, delay or status of its own.
+ */
+class CompaniesHouseStub implements AutoCloseable {
+
+    private static final byte[] NOT_FOUND =
+        "{\"errors\":[{\"type\":\"ch:service\",\"error\":\"company-profile-not-found\"}]}".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The opaque part of the entity tag that the payload is initially sent with
+     */
+    static final String ETAG = "b1ac2d3e4f5a6b7c";
+
+    private final DisposableServer server;
+    private final byte[] profile;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile String etag = ETAG;
+
+    private volatile Duration delay = Duration.ZERO;
+    private volatile int status = 200;
+    private volatile boolean chunked;
+    private final Map<String, Integer> statuses = new ConcurrentHashMap<>();
+    private final Queue<Scripted> script = new ConcurrentLinkedQueue<>();
+    private final Map<String, Duration> partDelays = new ConcurrentHashMap<>();
+    private final Map<String, Integer> partStatuses = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> partRequests = new ConcurrentHashMap<>();
+    private final Map<String, Integer> partSizes = new ConcurrentHashMap<>();
+    private volatile Duration partTimeout = Duration.ofSeconds(2);
+
+    CompaniesHouseStub() throws IOException {
+        this.profile = CompanyResponseDeserializerTests.read("typical");
+        this.server = HttpServer.create()
+            .host("localhost")
+            .port(0)
+            .route(routes -> routes.get("/company/{number}/{part}", (request, response) -> {
+                String part = request.param("part");
+                this.partRequests.computeIfAbsent(part, k -> new AtomicInteger()).incrementAndGet();
+                int status = this.partStatuses.getOrDefault(part, 200);
+                QueryStringDecoder query = new QueryStringDecoder(request.uri());
+                int itemsPerPage = Integer.parseInt(param(query, "items_per_page", "35"));
+                int startIndex = Integer.parseInt(param(query, "start_index", "0"));
+                int size = this.partSizes.getOrDefault(part, 1);
+                String body = "";
+                if (status == 200) {
+                    StringBuilder page = new StringBuilder("{\"etag\":\"").append(part).append("-1\",\"items\":[");
+                    for (int i = startIndex; i < Math.min(startIndex + itemsPerPage, size); i++) {
+                        page.append(i == startIndex ? "" : ",").append("{\"company_number\":\"")
+                            .append(request.param("number")).append("\",\"index\":").append(i)
+                            .append(",\"links\":{\"self\":\"/").append(part).append("/").append(i).append("\"}}");
+                    }
+                    body = page.append("],\"items_per_page\":").append(itemsPerPage)
+                        .append(",\"start_index\":").append(startIndex)
+                        .append(",\"total_results\":").append(size).append("}").toString();
+                }
+
+                if (status == 200) {
+                    response.header("ETag", "\"" + part + "-1\"");
+                }
+                return Mono.delay(this.partDelays.getOrDefault(part, Duration.ZERO)).then(response
+                    .status(HttpResponseStatus.valueOf(status))
+                    .header("Content-Type", "application/json")
+                    .sendString(Mono.just(body))
+                    .then());
+            }).get("/company/{number}", (request, response) -> {
+                this.requests.incrementAndGet();
+                Scripted next = this.script.poll();
+                int status = next != null ? next.status : this.statuses.getOrDefault(request.param("number"), this.status);
+                Duration delay = next != null ? next.delay : this.delay;
+                String etag = "\"" + this.etag + "\"";
+                if (status == 200 && etag.equals(request.requestHeaders().get("If-None-Match"))) {
+                    this.notModified.incrementAndGet();
+                    status = 304;
+                }
+                byte[] body = status == 200 ? this.profile : status == 404 ? NOT_FOUND : new byte[0];
+
+                if (status == 200) {
+                    response.header("ETag", etag);
+                }
+                Publisher<byte[]> chunks = Mono.just(body);
+                if (this.chunked) {
+                    response.header("Transfer-Encoding", "chunked");
+                    chunks = Flux.just(Arrays.copyOf(body, body.length / 2),
+                        Arrays.copyOfRange(body, body.length / 2, body.length));
+                }
+                return Mono.delay(delay).then(response
+                    .status(HttpResponseStatus.valueOf(status))
+                    .header("Content-Type", "application/json")
+                    .sendByteArray(chunks)
+                    .then());
+            }))
+            .bindNow();
+    }
+
+    String url() { return "http://localhost:" + this.server.port(); }
+    int requests() { return this.requests.get(); }
+    int notModified() { return this.notModified.get(); }
+
+    /**
+     * @return how many requests have been received for a collection, named as it is at Companies House
+     */
+    int partRequests(String part) {
+        AtomicInteger n = this.partRequests.get(part);
+        return n == null ? 0 : n.get();
+    }
+
+    /**
+     * Change the entity tag of the payload, as if the company had been updated at Companies House
+     */
+    CompaniesHouseStub etag(String etag) {
+        this.etag = etag;
+        return this;
+    }
+
+    CompaniesHouseStub delay(Duration delay) {
+        this.delay = delay;
+        return this;
+    }
+
+    CompaniesHouseStub status(int status) {
+        this.status = status;
+        return this;
+    }
+
+    /**
+     * Send profiles in chunks, without a <code>Content-Length</code>
+     */
+    CompaniesHouseStub chunked(boolean chunked) {
+        this.chunked = chunked;
+        return this;
+    }
+
+    CompaniesHouseStub status(String companyNumber, int status) {
+        this.statuses.put(companyNumber, status);
+        return this;
+    }
+
+    CompaniesHouseStub partDelay(String part, Duration delay) {
+        this.partDelays.put(part, delay);
+        return this;
+    }
+
+    /**
+     * Set the number of items in a collection, which are spread over as many pages as they need
+     */
+    CompaniesHouseStub partSize(String part, int size) {
+        this.partSizes.put(part, size);
+        return this;
+    }
+
+    CompaniesHouseStub partStatus(String part, int status) {
+        this.partStatuses.put(part, status);
+        return this;
+    }
+
+    /**
+     * Set how long the controllers made by this stub wait for each collection fetched alongside a profile
+     */
+    CompaniesHouseStub partTimeout(Duration timeout) {
+        this.partTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * Answer the next request (whichever company it is for) with a given status, after a given delay
+     */
+    CompaniesHouseStub script(int status, Duration delay) {
+        this.script.add(new Scripted(status, delay));
+        return this;
+    }
+
+    /**
+     * @return a controller that calls this stub, through a cache and a (generous) rate limiter
+     */
+    CompanyController controller() {
+        return this.controller(new CompaniesHouseRateLimiter(100, 100, Duration.ofSeconds(1), 100));
+    }
+
+    /**
+     * @param filters the filters to apply to calls to this stub, outermost first
+     * @return a controller that calls this stub, through a cache and the given filters
+     */
+    CompanyController controller(ExchangeFilterFunction... filters) {
+        return this.controller(
+            new CompanyProfileCache(Duration.ofHours(24), Duration.ofHours(24), Duration.ofMinutes(5), 100, System::nanoTime),
+            filters);
+    }
+
+    /**
+     * @param cache the cache that sits in front of this stub
+     * @param filters the filters to apply to calls to this stub, outermost first
+     * @return a controller that calls this stub, through the given cache and filters
+     */
+    CompanyController controller(CompanyProfileCache cache, ExchangeFilterFunction... filters) {
+        return this.controller(cache, new SimpleMeterRegistry(), filters);
+    }
+
+    /**
+     * @param cache the cache that sits in front of this stub
+     * @param registry where the controller and the codec it reads with publish their metrics
+     * @param filters the filters to apply to calls to this stub, outermost first
+     * @return a controller that calls this stub, through the given cache and filters
+     */
+    CompanyController controller(CompanyProfileCache cache, MeterRegistry registry, ExchangeFilterFunction... filters) {
+        return this.controller(cache, new CompanyCodec(registry), registry, filters);
+    }
+
+    /**
+     * @param cache the cache that sits in front of this stub
+     * @param codec the codec that the controller reads with, and whose settings it writes to its clients with
+     * @return a controller that calls this stub, through the given cache
+     */
+    CompanyController controller(CompanyProfileCache cache, CompanyCodec codec) {
+        return this.controller(cache, codec, new SimpleMeterRegistry());
+    }
+
+    private CompanyController controller(CompanyProfileCache cache, CompanyCodec codec, MeterRegistry registry,
+                                         ExchangeFilterFunction... filters) {
+        WebClient.Builder builder = CompaniesHouseClientConfig
+            .webClientBuilder(this.url(), "key", codec, new ReactorClientHttpConnector());
+        for (ExchangeFilterFunction filter : filters) {
+            builder.filter(filter);
+        }
+
+        return new CompanyController(builder.build(), cache, new CompanyNameIndex(100, 1000),
+            registry, codec, 16, 500, Duration.ofMinutes(5), this.partTimeout);
+    }
+
+    private static String param(QueryStringDecoder query, String name, String otherwise) {
+        return query.parameters().getOrDefault(name, List.of(otherwise)).get(0);
+    }
+
+    @Override
+    public void close() {
+        this.server.disposeNow();
+    }
+
+    private static class Scripted {
+        final int status;
+        final Duration delay;
+
+        Scripted(int status, Duration delay) {
+            this.status = status;
+            this.delay = delay;
+        }
+    }
+}
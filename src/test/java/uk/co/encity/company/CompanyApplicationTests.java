@@ -1,13 +1,97 @@
 package uk.co.encity.company;
 
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
 
-@SpringBootTest
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * Starts the whole application offline: the signing keys are read from a local file (holding a key made for the
+ * tests, so that they can sign tokens), and nothing is called at start up
+ */
+@SpringBootTest(properties = {
+	"ch.api.key=test",
+	"spring.security.oauth2.resourceserver.jwk.issuer-uri=https://issuer.example/",
+	"encity.origin-list=http://localhost:3000"
+})
 class CompanyApplicationTests {
 
+	private static final String ISSUER = "https://issuer.example/";
+
+	private static RSAKey key;
+
+	@Autowired
+	private ApplicationContext context;
+
+	@DynamicPropertySource
+	static void signingKeys(DynamicPropertyRegistry registry) throws JOSEException, IOException {
+		key = new RSAKeyGenerator(2048).keyID("test").generate();
+		Path jwks = Files.createTempFile("jwks", ".json");
+		jwks.toFile().deleteOnExit();
+		Files.write(jwks, new JWKSet(key.toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8));
+		registry.add("encity.jwt.jwk-set-location", () -> "file:" + jwks);
+	}
+
 	@Test
 	void contextLoads() {
 	}
 
+	@Test
+	void onlyHealthIsOpenToAnyone() {
+		WebTestClient client = WebTestClient.bindToApplicationContext(this.context).build();
+
+		client.get().uri("/actuator/health").exchange().expectStatus().isOk();
+		client.get().uri("/actuator/prometheus").exchange().expectStatus().isUnauthorized();
+	}
+
+	@Test
+	void watchlistsNeedTheCompanyProfileScope() throws JOSEException {
+		WebTestClient client = WebTestClient.bindToApplicationContext(this.context).build();
+		String unscoped = token(null);
+		String scoped = token("read:company_profile");
+
+		client.put().uri("/watchlists/mine").headers(headers -> headers.setBearerAuth(unscoped))
+			.contentType(MediaType.APPLICATION_JSON).bodyValue("[\"00000001\"]")
+			.exchange().expectStatus().isForbidden();
+		client.get().uri("/watchlists/mine/alerts").headers(headers -> headers.setBearerAuth(unscoped))
+			.exchange().expectStatus().isForbidden();
+		client.get().uri("/watchlists/mine").headers(headers -> headers.setBearerAuth(scoped))
+			.exchange().expectStatus().isNotFound();
+	}
+
+	private static String token(String scope) throws JOSEException {
+		JWTClaimsSet.Builder claims = new JWTClaimsSet.Builder()
+			.issuer(ISSUER)
+			.subject("someone")
+			.issueTime(new Date())
+			.expirationTime(Date.from(Instant.now().plus(Duration.ofHours(1))));
+		if (scope != null) {
+			claims.claim("scope", scope);
+		}
+		SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+			claims.build());
+		jwt.sign(new RSASSASigner(key));
+		return jwt.serialize();
+	}
 }
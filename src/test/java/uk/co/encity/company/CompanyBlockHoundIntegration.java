@@ -0,0 +1,23 @@
+package uk.co.encity.company;
+
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.integration.BlockHoundIntegration;
+
+/**
+ * The blocking calls that BlockHound allows on reactive threads in our tests (it is installed for every test, by
+ * its JUnit Platform listener, and finds this through the {@link java.util.ServiceLoader}).  Each one is a one-off
+ * at start up, not something that a request can block on.
+ */
+public class CompanyBlockHoundIntegration implements BlockHoundIntegration {
+
+    @Override
+    public void applyTo(BlockHound.Builder builder) {
+        // Netty reads /etc/resolv.conf and /etc/hosts once, when its DNS resolver is first loaded (later versions
+        // of Reactor Netty allow these themselves)
+        String resolvConf = "io.netty.resolver.dns.UnixResolverDnsServerAddressStreamProvider";
+        builder.allowBlockingCallsInside(resolvConf, "parse");
+        builder.allowBlockingCallsInside(resolvConf, "parseEtcResolverSearchDomains");
+        builder.allowBlockingCallsInside(resolvConf, "parseEtcResolverOptions");
+        builder.allowBlockingCallsInside("io.netty.resolver.HostsFileParser", "parse");
+    }
+}
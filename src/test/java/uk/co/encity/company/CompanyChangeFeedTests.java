@@ -0,0 +1,132 @@
+package uk.co.encity.company;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompanyChangeFeedTests {
+
+    private final CompaniesHouseStreamStub stub = new CompaniesHouseStreamStub();
+    private final CompanyProfileCache cache =
+        new CompanyProfileCache(Duration.ofDays(30), Duration.ofDays(1), Duration.ofMinutes(5), 100, System::nanoTime);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void stopStub() {
+        this.stub.close();
+    }
+
+    @Test
+    void changesReplaceHeldProfilesOnly() {
+        this.hold("00000001", "OLD NAME LIMITED");
+        this.stub.changed(1, "00000001", "NEW NAME LIMITED").changed(2, "00000002", "NOT HELD LIMITED");
+
+        // The stub cuts the events into 7-byte chunks, so this also shows that events are put back together
+        StepVerifier.create(this.feed(null).connect().map(CompanyChangeFeed.Event::getCompanyNumber))
+            .expectNext("00000001", "00000002")
+            .verifyComplete();
+
+        assertThat(this.name("00000001")).isEqualTo("NEW NAME LIMITED");
+        assertThat(this.cache.getCache().getIfPresent("00000002")).isNull();
+        assertThat(this.registry.counter(CompanyChangeFeed.EVENTS, "type", "changed", "held", "true").count())
+            .isEqualTo(1);
+        assertThat(this.registry.counter(CompanyChangeFeed.EVENTS, "type", "changed", "held", "false").count())
+            .isEqualTo(1);
+    }
+
+    @Test
+    void deletedCompaniesAreRemoved() {
+        this.hold("00000001", "DOOMED LIMITED");
+        this.stub.deleted(7, "00000001");
+
+        CompanyChangeFeed feed = this.feed(null);
+        StepVerifier.create(feed.connect()).expectNextCount(1).verifyComplete();
+
+        assertThat(this.cache.getCache().getIfPresent("00000001")).isNull();
+        assertThat(feed.getTimepoint()).isEqualTo(7);
+    }
+
+    @Test
+    void timepointIsSavedAndResumedFrom() throws IOException {
+        Path saved = this.dir.resolve("timepoint");
+        this.stub.changed(41, "00000001", "A LIMITED").changed(42, "00000002", "B LIMITED");
+
+        CompanyChangeFeed feed = this.feed(saved);
+        StepVerifier.create(feed.connect()).expectNextCount(2).verifyComplete();
+        feed.close();
+        assertThat(new String(Files.readAllBytes(saved), StandardCharsets.US_ASCII)).isEqualTo("42");
+
+        // After a restart, the events already applied aren't asked for again
+        CompanyChangeFeed restarted = this.feed(saved);
+        assertThat(restarted.getTimepoint()).isEqualTo(42);
+        StepVerifier.create(restarted.connect()).verifyComplete();
+
+        assertThat(this.stub.timepoints()).containsExactly("", "43");
+    }
+
+    @Test
+    void feedReconnectsWhenItEnds() throws InterruptedException {
+        this.hold("00000001", "OLD NAME LIMITED");
+        this.stub.changed(5, "00000001", "NEW NAME LIMITED");
+
+        CompanyChangeFeed feed = this.feed(null);
+        try {
+            feed.start();
+            await(() -> this.stub.timepoints().size() >= 3);
+        } finally {
+            feed.close();
+        }
+
+        assertThat(this.stub.timepoints()).startsWith("", "6", "6");
+        assertThat(this.name("00000001")).isEqualTo("NEW NAME LIMITED");
+    }
+
+    @Test
+    void heldStreamIsConsumedAsEventsArrive() {
+        this.stub.hold().changed(1, "00000001", "A LIMITED");
+
+        StepVerifier.create(this.feed(null).connect())
+            .expectNextMatches(event -> event.getTimepoint() == 1 && "changed".equals(event.getType()))
+            .thenCancel()
+            .verify(Duration.ofSeconds(5));
+    }
+
+    private CompanyChangeFeed feed(Path timepointPath) {
+        return new CompanyChangeFeed(this.stub.webClient(), timepointPath, Duration.ofMillis(10), this.cache,
+            new CompanyCodec().getObjectMapper(), this.registry);
+    }
+
+    private void hold(String companyNumber, String companyName) {
+        CompanyResponse profile = new CompanyResponse("active", companyName, null, null, null, null);
+        this.cache.get(companyNumber, n -> Mono.just(profile)).block();
+    }
+
+    private String name(String companyNumber) {
+        return this.cache.get(companyNumber, n -> Mono.error(new AssertionError("Not held")))
+            .map(CompanyResponse::getCompanyName)
+            .block();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
@@ -0,0 +1,163 @@
+package uk.co.encity.company;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.BaseSubscriber;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompanyCollectionStreamTests {
+
+    private CompaniesHouseStub stub;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setup() throws IOException {
+        this.stub = new CompaniesHouseStub();
+        CompanyCodec codec = new CompanyCodec();
+
+        this.client = WebTestClient.bindToController(this.stub.controller())
+            .httpMessageCodecs(codec::customize)
+            .build();
+    }
+
+    @AfterEach
+    void stopStub() {
+        this.stub.close();
+    }
+
+    @Test
+    void everyPageIsStreamedAsNdjson() {
+        this.stub.partSize("officers", 250);
+
+        String body = this.client.get().uri("/companies/1/officers")
+            .accept(MediaType.APPLICATION_NDJSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+            .expectBody(String.class).returnResult().getResponseBody();
+
+        String[] lines = body.split("\n");
+        assertThat(lines).hasSize(250);
+        assertThat(lines[0]).isEqualTo("{\"company_number\":\"00000001\",\"index\":0,\"links\":{\"self\":\"/officers/0\"}}");
+        assertThat(lines[249]).contains("\"index\":249");
+        assertThat(this.stub.partRequests("officers")).isEqualTo(3);
+    }
+
+    @Test
+    void eventsCarryOnAfterTheLastEventId() {
+        this.stub.partSize("filing-history", 250);
+
+        List<ServerSentEvent<Map<String, Object>>> events = this.client.get().uri("/companies/1/filing-history")
+            .accept(MediaType.TEXT_EVENT_STREAM)
+            .header("Last-Event-ID", "239")
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(new ParameterizedTypeReference<ServerSentEvent<Map<String, Object>>>() {})
+            .getResponseBody().collectList().block();
+
+        assertThat(events).extracting(ServerSentEvent::id)
+            .containsExactly("240", "241", "242", "243", "244", "245", "246", "247", "248", "249");
+        assertThat(events.get(0).data()).containsEntry("index", 240);
+        assertThat(this.stub.partRequests("filing-history")).isEqualTo(1);
+    }
+
+    @Test
+    void emptyCollectionIsAnEmptyStream() {
+        this.stub.partSize("persons-with-significant-control", 0);
+
+        this.client.get().uri("/companies/1/persons-with-significant-control")
+            .accept(MediaType.APPLICATION_NDJSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody().isEmpty();
+    }
+
+    @Test
+    void jsonIsStillASinglePage() {
+        this.stub.partSize("officers", 250);
+
+        this.client.get().uri("/companies/1/officers")
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.items.length()").isEqualTo(35)
+            .jsonPath("$.total_results").isEqualTo(250);
+        assertThat(this.stub.partRequests("officers")).isEqualTo(1);
+    }
+
+    @Test
+    void failedFirstPageIsPassedBack() {
+        this.stub.partStatus("officers", 404);
+
+        this.client.get().uri("/companies/1/officers")
+            .accept(MediaType.APPLICATION_NDJSON)
+            .exchange()
+            .expectStatus().isNotFound();
+    }
+
+    @Test
+    void pagesAreOnlyFetchedAsItemsAreTaken() throws InterruptedException {
+        this.stub.partSize("officers", 1000);
+        CompanyCollectionPager pager = new CompanyCollectionPager(CompaniesHouseClientConfig
+            .webClientBuilder(this.stub.url(), "key", new CompanyCodec(), new ReactorClientHttpConnector())
+            .build());
+
+        Taker taker = new Taker();
+        pager.items("1", CompanySubResource.OFFICERS, 0).subscribe(taker);
+
+        // Taking the first item of the first page fetches the second, and no more
+        await(() -> taker.taken == 1 && this.stub.partRequests("officers") == 2);
+        Thread.sleep(200);
+        assertThat(this.stub.partRequests("officers")).isEqualTo(2);
+
+        // Taking the first item of the second page fetches the third
+        taker.take(CompanyCollectionPager.PAGE_SIZE);
+        await(() -> taker.taken == CompanyCollectionPager.PAGE_SIZE + 1 && this.stub.partRequests("officers") == 3);
+        taker.dispose();
+    }
+
+    /**
+     * Takes items only when told to
+     */
+    private static class Taker extends BaseSubscriber<CompanyCollectionPager.Item> {
+        volatile int taken;
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            this.take(1);
+        }
+
+        @Override
+        protected void hookOnNext(CompanyCollectionPager.Item item) {
+            assertThat(item.getIndex()).isEqualTo(this.taken);
+            this.taken++;
+        }
+
+        void take(int n) {
+            this.request(n);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
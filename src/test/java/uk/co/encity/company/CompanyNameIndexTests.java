@@ -0,0 +1,170 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompanyNameIndexTests {
+
+    private final CompanyNameIndex index = new CompanyNameIndex(100, 1000);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void companiesAreFoundByTheStartOfAnyWord() {
+        this.index.rebuild(new CompanyNameTable.Builder(4)
+            .add(1, "ENCITY TEST SERVICES LIMITED", "active")
+            .add(2, "ENCITY TEST LIMITED", "active")
+            .add(3, "THE SERVICE COMPANY LTD", "active")
+            .add(4, "Limited Editions (UK) Ltd", "active")
+            .build());
+
+        assertThat(this.numbers("serv")).containsExactlyInAnyOrder("00000001", "00000003");
+        assertThat(this.numbers("Test Serv")).containsExactly("00000001");
+        assertThat(this.numbers("  encity   test ")).containsExactlyInAnyOrder("00000001", "00000002");
+        assertThat(this.numbers("uk")).containsExactly("00000004");
+        assertThat(this.numbers("services ltd")).isEmpty();
+
+        // Common words are only found at the start of a name
+        assertThat(this.numbers("limited")).containsExactly("00000004");
+        assertThat(this.numbers("the")).containsExactly("00000003");
+    }
+
+    @Test
+    void bestMatchesComeFirst() {
+        this.index.rebuild(new CompanyNameTable.Builder(5)
+            .add(1, "ACME WIDGETS AND GADGETS LIMITED", "active")
+            .add(2, "BETTER ACME LIMITED", "active")
+            .add(3, "ACME", "active")
+            .add(4, "ACME WIDGETS LIMITED", "dissolved")
+            .add(5, "ACME LIMITED", "active")
+            .build());
+
+        assertThat(this.numbers("acme")).containsExactly("00000003", "00000005", "00000001", "00000004", "00000002");
+        assertThat(this.index.search("acme", 2)).hasSize(2);
+    }
+
+    @Test
+    void recentlySeenCompaniesTakePrecedence() {
+        this.index.rebuild(new CompanyNameTable.Builder(1).add(1, "OLD NAME LIMITED", "active").build());
+        CompanyResponse renamed = new CompanyResponse("active", "NEW NAME LIMITED", null, null, null, null);
+        CompanyResponse seen = new CompanyResponse(null, "SEEN ONLY LIMITED", null, null, null, null);
+
+        this.index.put("00000001", renamed);
+        this.index.put("SC000002", seen);
+
+        assertThat(this.numbers("old")).isEmpty();
+        assertThat(this.numbers("new")).containsExactly("00000001");
+        assertThat(this.numbers("name")).containsExactly("00000001");
+        assertThat(this.numbers("seen")).containsExactly("SC000002");
+
+        this.index.put("00000001", new CompanyResponse("active", "NEWER NAME LIMITED", null, null, null, null));
+        assertThat(this.numbers("new name")).isEmpty();
+        assertThat(this.numbers("newer")).containsExactly("00000001");
+    }
+
+    @Test
+    void controlCharactersInAQueryAreSpaces() {
+        this.index.rebuild(new CompanyNameTable.Builder(2)
+            .add(1, "ENCITY TEST SERVICES LIMITED", "active")
+            .add(2, "ENCITY\0", "active")
+            .build());
+        this.index.put("SC000003", new CompanyResponse("active", "ENCITY\0TESTING LIMITED", null, null, null, null));
+
+        assertThat(this.numbers("test\0serv")).containsExactly("00000001");
+        assertThat(this.numbers("encity\0\0")).containsExactlyInAnyOrder("00000001", "00000002", "SC000003");
+        assertThat(this.numbers("encity\ttesting")).containsExactly("SC000003");
+        assertThat(this.numbers("\0\0")).isEmpty();
+    }
+
+    @Test
+    void whiteSpaceInANameIsCollapsedLikeAQuery() {
+        this.index.rebuild(new CompanyNameTable.Builder(2)
+            .add(1, "ACME WIDGETS LIMITED", "active")
+            .add(2, " ACME  WIDGETS\t", "active")
+            .build());
+
+        List<CompanyNameIndex.Match> matches = this.index.search("acme widgets", 10);
+        assertThat(matches).extracting(CompanyNameIndex.Match::getCompanyNumber)
+            .containsExactly("00000002", "00000001");
+        assertThat(matches.get(0).getCompanyName()).isEqualTo("ACME WIDGETS");
+    }
+
+    @Test
+    void matchesConsideredAreCapped() {
+        CompanyNameTable.Builder builder = new CompanyNameTable.Builder(100);
+        for (int i = 1; i <= 100; i++) {
+            builder.add(i, "ACME " + i, "active");
+        }
+        CompanyNameIndex capped = new CompanyNameIndex(100, 10);
+        capped.rebuild(builder.build());
+
+        assertThat(capped.search("acme", 100)).hasSize(10);
+    }
+
+    @Test
+    void indexIsBuiltFromBulkData() throws IOException {
+        String csv = BasicCompanyDataFixture.HEADER + "\r\n"
+            + BasicCompanyDataFixture.row("00000001", 1) + "\r\n"
+            + BasicCompanyDataFixture.row("SC000002", 2) + "\r\n";
+        new BasicCompanyDataImporter().importFrom(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)),
+            Instant.now(), this.dir.resolve("index"));
+
+        this.index.rebuild(CompanyDataIndex.open(this.dir.resolve("index")));
+
+        List<CompanyNameIndex.Match> matches = this.index.search("encity test 2", 10);
+        assertThat(matches).hasSize(1);
+        assertThat(matches.get(0).getCompanyNumber()).isEqualTo("SC000002");
+        assertThat(matches.get(0).getCompanyName()).isEqualTo("ENCITY TEST 2, LIMITED");
+        assertThat(matches.get(0).getCompanyStatus()).isEqualTo("active");
+    }
+
+    @Test
+    void companiesLookedUpCanBeSearchedFor() throws IOException {
+        CompaniesHouseStub stub = new CompaniesHouseStub();
+        try {
+            WebTestClient client = WebTestClient.bindToController(stub.controller())
+                .httpMessageCodecs(new CompanyCodec()::customize)
+                .build();
+
+            client.get().uri("/companies/1").exchange().expectStatus().isOk();
+
+            JsonNode found = client.get().uri("/companies?q=test serv").exchange()
+                .expectStatus().isOk()
+                .expectBody(JsonNode.class).returnResult().getResponseBody();
+            assertThat(found).hasSize(1);
+            assertThat(found.get(0).get("companyNumber").asText()).isEqualTo("00000001");
+            assertThat(found.get(0).get("companyName").asText()).isEqualTo("ENCITY TEST SERVICES LIMITED");
+            assertThat(found.get(0).has("score")).isFalse();
+
+            client.get().uri("/companies?q= ").exchange().expectStatus().isBadRequest();
+            // Already encoded, so that the query has NULs in it
+            client.get().uri(URI.create("/companies?q=%00%00")).exchange().expectStatus().isBadRequest();
+            client.get().uri(URI.create("/companies?q=test%00serv")).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$[0].companyNumber").isEqualTo("00000001");
+            client.get().uri("/companies?q=test&limit=1000").exchange().expectStatus().isBadRequest();
+        } finally {
+            stub.close();
+        }
+    }
+
+    private List<String> numbers(String query) {
+        return this.index.search(query, 10).stream()
+            .map(CompanyNameIndex.Match::getCompanyNumber)
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,150 @@
+package uk.co.encity.company;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompanyProfileCacheTests {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final CompanyProfileCache cache =
+        new CompanyProfileCache(Duration.ofHours(24), Duration.ofHours(24), Duration.ofMinutes(5), 100, this.nanos::get);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void hitIsServedWithoutLoading() {
+        CompanyResponse profile = profile();
+
+        StepVerifier.create(this.cache.get("sc12345", load(profile))).expectNext(profile).verifyComplete();
+        StepVerifier.create(this.cache.get("SC012345", load(profile))).expectNext(profile).verifyComplete();
+
+        assertThat(this.loads).hasValue(1);
+        assertThat(this.cache.getCache().stats().hitCount()).isEqualTo(1);
+        assertThat(this.cache.getCache().stats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    void entryExpiresAfterTtl() {
+        CompanyResponse profile = profile();
+
+        this.cache.get("00000006", load(profile)).block();
+        this.nanos.addAndGet(Duration.ofHours(25).toNanos());
+        this.cache.get("00000006", load(profile)).block();
+
+        assertThat(this.loads).hasValue(2);
+    }
+
+    @Test
+    void notFoundIsCachedForNegativeTtl() {
+        WebClientResponseException notFound = WebClientResponseException.create(
+            HttpStatus.NOT_FOUND.value(), "Not Found", HttpHeaders.EMPTY, "{}".getBytes(StandardCharsets.UTF_8), null);
+
+        StepVerifier.create(this.cache.get("00000001", fail(notFound))).verifyErrorMatches(e -> e == notFound);
+        List<Throwable> hits = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(this.cache.get("00000001", fail(notFound))).consumeErrorWith(hits::add).verify();
+        }
+        assertThat(this.loads).hasValue(1);
+
+        // Each hit gets an exception of its own, made from the response
+        assertThat(hits.get(0)).isNotSameAs(notFound).isNotSameAs(hits.get(1));
+        assertThat(hits).allSatisfy(e -> {
+            assertThat(e).isInstanceOf(WebClientResponseException.NotFound.class);
+            assertThat(((WebClientResponseException) e).getResponseBodyAsString()).isEqualTo("{}");
+        });
+
+        this.nanos.addAndGet(Duration.ofMinutes(6).toNanos());
+        StepVerifier.create(this.cache.get("00000001", fail(notFound))).verifyError();
+        assertThat(this.loads).hasValue(2);
+    }
+
+    @Test
+    void otherErrorsAreNotCached() {
+        WebClientResponseException unavailable = WebClientResponseException.create(
+            HttpStatus.SERVICE_UNAVAILABLE.value(), "Service Unavailable", HttpHeaders.EMPTY, new byte[0], null);
+
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(this.cache.get("00000001", fail(unavailable))).verifyError();
+        }
+        assertThat(this.loads).hasValue(2);
+    }
+
+    @Test
+    void staleEntryIsServedWhenUpstreamFails() {
+        CompanyResponse profile = profile();
+        WebClientResponseException unavailable = WebClientResponseException.create(
+            HttpStatus.SERVICE_UNAVAILABLE.value(), "Service Unavailable", HttpHeaders.EMPTY, new byte[0], null);
+        WebClientResponseException notFound = WebClientResponseException.create(
+            HttpStatus.NOT_FOUND.value(), "Not Found", HttpHeaders.EMPTY, new byte[0], null);
+
+        this.cache.get("00000006", load(profile)).block();
+        this.nanos.addAndGet(Duration.ofHours(25).toNanos());
+
+        StepVerifier.create(this.cache.get("00000006", fail(unavailable))).expectNext(profile).verifyComplete();
+        StepVerifier.create(this.cache.get("00000006", fail(new CircuitOpenException(Duration.ofSeconds(1)))))
+            .expectNext(profile).verifyComplete();
+        StepVerifier.create(this.cache.get("00000006", fail(notFound))).verifyErrorMatches(e -> e == notFound);
+
+        // Once past the stale retention, it's gone
+        this.nanos.addAndGet(Duration.ofHours(24).toNanos());
+        StepVerifier.create(this.cache.get("00000006", fail(unavailable))).verifyErrorMatches(e -> e == unavailable);
+    }
+
+    @Test
+    void staleEntryIsHandedToLoaderForRevalidation() {
+        CompanyResponse profile = profile();
+        List<CompanyResponse> stale = new ArrayList<>();
+        BiFunction<String, CompanyResponse, Mono<CompanyResponse>> revalidate = (n, previous) -> {
+            stale.add(previous);
+            return Mono.just(previous == null ? profile : previous);
+        };
+
+        this.cache.get("00000006", revalidate).block();
+        this.nanos.addAndGet(Duration.ofHours(25).toNanos());
+        this.cache.get("00000006", revalidate).block();
+        this.cache.get("00000006", revalidate).block();
+
+        // The revalidated profile is fresh again, so the third request is a hit
+        assertThat(stale).containsExactly(null, profile);
+    }
+
+    @Test
+    void companyNumbersAreNormalised() {
+        assertThat(CompanyNumbers.normalise(" 6 ")).isEqualTo("00000006");
+        assertThat(CompanyNumbers.normalise("sc12345")).isEqualTo("SC012345");
+        assertThat(CompanyNumbers.normalise("NI000123")).isEqualTo("NI000123");
+        assertThat(CompanyNumbers.normalise("bad!")).isEqualTo("BAD!");
+    }
+
+    private static CompanyResponse profile() {
+        return new CompanyResponse("active", "ENCITY TEST LIMITED", null, null, null, null);
+    }
+
+    private Function<String, Mono<CompanyResponse>> load(CompanyResponse profile) {
+        return n -> Mono.fromSupplier(() -> {
+            this.loads.incrementAndGet();
+            return profile;
+        });
+    }
+
+    private Function<String, Mono<CompanyResponse>> fail(Throwable error) {
+        return n -> Mono.defer(() -> {
+            this.loads.incrementAndGet();
+            return Mono.error(error);
+        });
+    }
+}
@@ -0,0 +1,69 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompanyResponseDeserializerTests {
+
+    /**
+     * Renders a {@link CompanyResponse} field by field (without the bespoke serializer) so that two instances
+     * can be compared
+     */
+    private final ObjectMapper inspector = Jackson2ObjectMapperBuilder.json().build();
+
+    private final ObjectMapper streaming = mapperFor(new CompanyResponseDeserializer());
+    private final ObjectMapper tree = mapperFor(new TreeCompanyResponseDeserializer());
+
+    @ParameterizedTest
+    @ValueSource(strings = { "small", "typical", "large", "dissolved" })
+    void streamingMatchesTreeDeserializer(String payload) throws IOException {
+        byte[] body = read(payload);
+
+        JsonNode expected = this.inspector.valueToTree(this.tree.readValue(body, CompanyResponse.class));
+        JsonNode actual = this.inspector.valueToTree(this.streaming.readValue(body, CompanyResponse.class));
+
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test
+    void optionalSectionsAreNull() throws IOException {
+        CompanyResponse response = this.streaming.readValue(read("dissolved"), CompanyResponse.class);
+
+        assertThat(response.getConfirmationStatement()).isNull();
+        assertThat(response.getAccounts().getNextAccounts()).isNull();
+        assertThat(response.getAccounts().getLastAccounts().getType()).isEqualTo("dormant");
+        assertThat(response.getAccounts().getAccountingReferenceDate().getDay()).isEqualTo("31");
+        assertThat(response.getRegisteredOfficeAddress().getPostalCode()).isNull();
+    }
+
+    @Test
+    void missingAccountsIsRejected() {
+        assertThatThrownBy(() -> this.streaming.readValue("{\"company_status\":\"active\",\"company_name\":\"X\"}",
+            CompanyResponse.class)).isInstanceOf(JsonMappingException.class);
+    }
+
+    static byte[] read(String payload) throws IOException {
+        try (InputStream in = CompanyResponseDeserializerTests.class.getResourceAsStream("/payloads/" + payload + ".json")) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static ObjectMapper mapperFor(JsonDeserializer<CompanyResponse> deserializer) {
+        SimpleModule module = new SimpleModule();
+        module.addDeserializer(CompanyResponse.class, deserializer);
+        return new ObjectMapper().registerModule(module);
+    }
+}
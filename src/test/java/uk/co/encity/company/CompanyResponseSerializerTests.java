@@ -0,0 +1,160 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompanyResponseSerializerTests {
+
+    /**
+     * Renders a {@link CompanyResponse} getter by getter (without the bespoke serializer), so that the bespoke
+     * JSON can be checked against every field of the model
+     */
+    private final ObjectMapper inspector = Jackson2ObjectMapperBuilder.json()
+        .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+
+    private final CompanyCodec codec = new CompanyCodec();
+    private CompaniesHouseStub stub;
+
+    @AfterEach
+    void stopStub() {
+        if (this.stub != null) {
+            this.stub.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "small", "typical", "large", "dissolved" })
+    void everyFieldIsWritten(String payload) throws IOException {
+        ObjectMapper mapper = this.codec.getObjectMapper();
+        CompanyResponse response = mapper.readValue(CompanyResponseDeserializerTests.read(payload),
+            CompanyResponse.class);
+
+        JsonNode expected = this.inspector.valueToTree(response);
+        ((ObjectNode) expected).remove("etag");
+        JsonNode actual = mapper.readTree(mapper.writeValueAsBytes(response));
+
+        assertThat(actual).isEqualTo(withoutNulls(expected));
+    }
+
+    @Test
+    void optionalSectionsAreLeftOut() throws IOException {
+        ObjectMapper mapper = this.codec.getObjectMapper();
+        CompanyResponse response = mapper.readValue(CompanyResponseDeserializerTests.read("dissolved"),
+            CompanyResponse.class);
+
+        JsonNode json = mapper.readTree(mapper.writeValueAsBytes(response));
+
+        assertThat(json.has("confirmationStatement")).isFalse();
+        assertThat(json.get("accounts").has("nextAccounts")).isFalse();
+        assertThat(json.get("accounts").get("lastAccounts").get("type").asText()).isEqualTo("dormant");
+        assertThat(json.get("registeredOfficeAddress").has("postalCode")).isFalse();
+    }
+
+    @Test
+    void datesAreFormattedAsIso() {
+        char[] buffer = new char[10];
+        LocalDate end = LocalDate.of(2200, 1, 1);
+        for (LocalDate date = LocalDate.of(1800, 1, 1); date.isBefore(end); date = date.plusDays(1)) {
+            assertThat(CompanyResponseSerializer.formatDate((int) date.toEpochDay(), buffer)).isTrue();
+            assertThat(new String(buffer)).isEqualTo(date.toString());
+        }
+        assertThat(CompanyResponseSerializer.formatDate((int) LocalDate.of(10_000, 1, 1).toEpochDay(), buffer))
+            .isFalse();
+    }
+
+    @Test
+    void fieldsAreParsed() {
+        assertThat(CompanyResponseSerializer.fields(null)).isEqualTo(CompanyResponseSerializer.ALL);
+        assertThat(CompanyResponseSerializer.fields("")).isEqualTo(CompanyResponseSerializer.ALL);
+        assertThat(CompanyResponseSerializer.fields("accounts, companyStatus")).isEqualTo(
+            CompanyResponseSerializer.ACCOUNTS | CompanyResponseSerializer.COMPANY_STATUS);
+        assertThatThrownBy(() -> CompanyResponseSerializer.fields("accounts,officers"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("officers");
+    }
+
+    @Test
+    void onlySelectedFieldsAreReturned() throws IOException {
+        WebTestClient client = this.client();
+
+        byte[] whole = client.get().uri("/companies/1").exchange()
+            .expectStatus().isOk()
+            .expectBody().returnResult().getResponseBody();
+        String etag = client.get().uri("/companies/1?fields=accounts,companyStatus").exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.companyStatus").isEqualTo("active")
+            .jsonPath("$.accounts.nextAccounts").exists()
+            .jsonPath("$.companyName").doesNotExist()
+            .jsonPath("$.confirmationStatement").doesNotExist()
+            .returnResult().getResponseHeaders().getETag();
+
+        byte[] selected = client.get().uri("/companies/1?fields=accounts,companyStatus").exchange()
+            .expectBody().returnResult().getResponseBody();
+        assertThat(selected.length).isLessThan(whole.length);
+        assertThat(etag).isNotEqualTo("\"" + CompaniesHouseStub.ETAG + "-2\"");
+
+        // The selection has an entity tag of its own, which can be revalidated
+        client.get().uri("/companies/1?fields=companyStatus,accounts")
+            .header(HttpHeaders.IF_NONE_MATCH, etag)
+            .exchange()
+            .expectStatus().isNotModified();
+    }
+
+    @Test
+    void unknownFieldIsBadRequest() throws IOException {
+        this.client().get().uri("/companies/1?fields=officers").exchange()
+            .expectStatus().isBadRequest();
+    }
+
+    private WebTestClient client() throws IOException {
+        this.stub = new CompaniesHouseStub();
+        CompanyProfileCache cache = new CompanyProfileCache(
+            Duration.ofHours(24), Duration.ofHours(24), Duration.ofMinutes(5), 100, System::nanoTime);
+        return WebTestClient.bindToController(this.stub.controller(cache))
+            .httpMessageCodecs(this.codec::customize)
+            .build();
+    }
+
+    /**
+     * @return a copy of the JSON without null values, or objects left empty without them
+     */
+    private static JsonNode withoutNulls(JsonNode node) {
+        if (!node.isObject()) {
+            return node;
+        }
+        ObjectNode copy = ((ObjectNode) node).deepCopy();
+        List<String> empty = new ArrayList<>();
+        for (Iterator<Map.Entry<String, JsonNode>> i = copy.fields(); i.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = i.next();
+            JsonNode value = withoutNulls(field.getValue());
+            if (value.isNull() || (value.isObject() && value.size() == 0)) {
+                empty.add(field.getKey());
+            } else {
+                field.setValue(value);
+            }
+        }
+        copy.remove(empty);
+        return copy;
+    }
+}
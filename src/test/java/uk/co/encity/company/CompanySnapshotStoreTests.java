@@ -0,0 +1,231 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompanySnapshotStoreTests {
+
+    /**
+     * Renders a {@link CompanyResponse} field by field, so that two instances can be compared
+     */
+    private final ObjectMapper inspector = Jackson2ObjectMapperBuilder.json().build();
+    private final CompanyCodec codec = new CompanyCodec();
+    private final AtomicLong millis = new AtomicLong(1_600_000_000_000L);
+    private final List<CompanySnapshotStore> stores = new ArrayList<>();
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void closeStores() {
+        this.stores.forEach(CompanySnapshotStore::close);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "small", "typical", "large", "dissolved" })
+    void binaryEncodingRoundTrips(String payload) throws IOException {
+        CompanyResponse response = this.profile(payload);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompanyResponseBinaryCodec.write(new DataOutputStream(bytes), response);
+        CompanyResponse decoded = CompanyResponseBinaryCodec.read(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertThat(this.render(decoded)).isEqualTo(this.render(response));
+    }
+
+    @Test
+    void profilesSurviveRestart() throws IOException {
+        CompanyResponse response = this.profile("typical");
+        CompanySnapshotStore store = this.open();
+        store.put("00000001", response);
+        store.flush();
+        this.millis.addAndGet(Duration.ofMinutes(5).toMillis());
+
+        CompanySnapshotStore restarted = this.reopen(store);
+        CompanySnapshotStore.Snapshot snapshot = restarted.get("00000001").block();
+
+        assertThat(snapshot).isNotNull();
+        assertThat(this.render(snapshot.getResponse())).isEqualTo(this.render(response));
+        assertThat(snapshot.getAge()).isEqualTo(Duration.ofMinutes(5));
+        assertThat(restarted.get("00000002").block()).isNull();
+    }
+
+    @Test
+    void removedProfileStaysRemovedAfterRestart() throws IOException {
+        CompanySnapshotStore store = this.open();
+        store.put("00000001", this.profile("typical"));
+        store.remove("00000001");
+        store.flush();
+        assertThat(store.get("00000001").block()).isNull();
+
+        assertThat(this.reopen(store).get("00000001").block()).isNull();
+    }
+
+    @Test
+    void onlySavedProfilesAreReplaced() throws IOException {
+        CompanySnapshotStore store = this.open();
+        store.put("00000001", this.profile("small"));
+        store.flush();
+
+        // Whether or not the index has been loaded yet, only the company that was saved is held, and replaced
+        CompanySnapshotStore restarted = this.reopen(store);
+        restarted.replace("00000001", this.profile("typical"));
+        restarted.replace("00000002", this.profile("typical"));
+        restarted.flush();
+
+        assertThat(restarted.containsIfReady("00000001")).isTrue();
+        assertThat(restarted.containsIfReady("00000002")).isFalse();
+        assertThat(restarted.size()).isEqualTo(1);
+        assertThat(this.render(restarted.get("00000001").block().getResponse()))
+            .isEqualTo(this.render(this.profile("typical")));
+    }
+
+    @Test
+    void tornRecordAtEndIsDiscarded() throws IOException {
+        CompanySnapshotStore store = this.open();
+        store.put("00000001", this.profile("typical"));
+        store.flush();
+        long size = store.fileSize();
+        store.close();
+
+        // As if the process died half way through appending a record
+        Files.write(this.dir.resolve("snapshots.log"), new byte[] { 0, 0, 1, 0, 42, 42 }, StandardOpenOption.APPEND);
+
+        CompanySnapshotStore restarted = this.open();
+        restarted.flush();
+        assertThat(restarted.fileSize()).isEqualTo(size);
+        assertThat(restarted.get("00000001").block()).isNotNull();
+    }
+
+    @Test
+    void expiredProfilesAreNotServed() throws IOException {
+        CompanySnapshotStore store = this.open();
+        store.put("00000001", this.profile("typical"));
+        store.flush();
+
+        this.millis.addAndGet(Duration.ofDays(31).toMillis());
+        assertThat(store.get("00000001").block()).isNull();
+    }
+
+    @Test
+    void compactionKeepsOnlyLatestRecords() throws IOException {
+        CompanySnapshotStore store = this.open();
+        CompanyResponse response = this.profile("large");
+        for (int i = 0; i < 100; i++) {
+            store.put("00000001", response);
+            store.put("00000002", response);
+        }
+        store.remove("00000002");
+        store.flush();
+        long before = store.fileSize();
+
+        store.compactNow();
+
+        assertThat(store.fileSize()).isLessThan(before / 100);
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.get("00000001").block()).isNotNull();
+        assertThat(this.reopen(store).get("00000001").block()).isNotNull();
+    }
+
+    @Test
+    void cacheIsWarmedFromSnapshotsAfterRestart() throws IOException {
+        AtomicLong nanos = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        CompanyResponse response = this.profile("typical");
+
+        CompanySnapshotStore store = this.open();
+        CompanyProfileCache cache = new CompanyProfileCache(
+            Duration.ofHours(1), Duration.ofHours(1), Duration.ofMinutes(5), 100, nanos::get, store);
+        cache.get("1", n -> Mono.fromSupplier(() -> {
+            loads.incrementAndGet();
+            return response;
+        })).block();
+        store.flush();
+
+        // A new instance, with an empty in-memory cache
+        CompanySnapshotStore restarted = this.reopen(store);
+        CompanyProfileCache warm = new CompanyProfileCache(
+            Duration.ofHours(1), Duration.ofHours(1), Duration.ofMinutes(5), 100, nanos::get, restarted);
+        StepVerifier.create(warm.get("1", n -> Mono.error(new IllegalStateException("Should not be called"))))
+            .expectNextMatches(r -> r.getCompanyName().equals(response.getCompanyName()))
+            .verifyComplete();
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void oldSnapshotIsRevalidatedAndServedWhenUpstreamFails() throws IOException {
+        AtomicLong nanos = new AtomicLong();
+        CompanyResponse response = this.profile("typical");
+        WebClientResponseException unavailable = WebClientResponseException.create(
+            HttpStatus.SERVICE_UNAVAILABLE.value(), "Service Unavailable", HttpHeaders.EMPTY, new byte[0], null);
+
+        CompanySnapshotStore store = this.open();
+        store.put("00000001", response);
+        store.flush();
+        this.millis.addAndGet(Duration.ofDays(7).toMillis());
+
+        CompanyProfileCache cache = new CompanyProfileCache(
+            Duration.ofHours(1), Duration.ofHours(1), Duration.ofMinutes(5), 100, nanos::get, this.reopen(store));
+        List<CompanyResponse> stale = new ArrayList<>();
+        StepVerifier.create(cache.get("1", (n, previous) -> {
+                stale.add(previous);
+                return Mono.error(unavailable);
+            }))
+            .expectNextMatches(r -> r.getCompanyName().equals(response.getCompanyName()))
+            .verifyComplete();
+
+        assertThat(stale).hasSize(1);
+        assertThat(stale.get(0).getEtag()).isEqualTo(response.getEtag());
+    }
+
+    private CompanySnapshotStore open() {
+        CompanySnapshotStore store =
+            new CompanySnapshotStore(this.dir.resolve("snapshots.log"), Duration.ofDays(30), this.millis::get);
+        this.stores.add(store);
+        return store;
+    }
+
+    private CompanySnapshotStore reopen(CompanySnapshotStore store) {
+        store.close();
+        CompanySnapshotStore reopened = this.open();
+        reopened.flush();
+        return reopened;
+    }
+
+    private CompanyResponse profile(String payload) throws IOException {
+        return this.codec.getObjectMapper()
+            .readValue(CompanyResponseDeserializerTests.read(payload), CompanyResponse.class);
+    }
+
+    private JsonNode render(CompanyResponse response) {
+        return this.inspector.valueToTree(response);
+    }
+}
@@ -0,0 +1,120 @@
+package uk.co.encity.company;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompanySubResourceTests {
+
+    private CompaniesHouseStub stub;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setup() throws IOException {
+        this.stub = new CompaniesHouseStub().partTimeout(Duration.ofSeconds(1));
+        CompanyCodec codec = new CompanyCodec();
+
+        this.client = WebTestClient.bindToController(this.stub.controller())
+            .httpMessageCodecs(codec::customize)
+            .build();
+    }
+
+    @AfterEach
+    void stopStub() {
+        this.stub.close();
+    }
+
+    @Test
+    void collectionIsPassedThroughWithPaging() {
+        this.stub.partSize("filing-history", 100);
+
+        this.client.get().uri("/companies/1/filing-history?itemsPerPage=10&startIndex=20")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().valueEquals(HttpHeaders.ETAG, "\"filing-history-1\"")
+            .expectHeader().valueEquals(HttpHeaders.LOCATION, "/companies/1/filing-history")
+            .expectBody()
+            .jsonPath("$.items.length()").isEqualTo(10)
+            .jsonPath("$.items[0].index").isEqualTo(20)
+            .jsonPath("$.items_per_page").isEqualTo(10)
+            .jsonPath("$.start_index").isEqualTo(20);
+    }
+
+    @Test
+    void matchingIfNoneMatchGetsNotModified() {
+        this.client.get().uri("/companies/1/officers")
+            .header(HttpHeaders.IF_NONE_MATCH, "\"officers-1\"")
+            .exchange()
+            .expectStatus().isNotModified()
+            .expectBody().isEmpty();
+    }
+
+    @Test
+    void outOfRangePageSizeIsABadRequest() {
+        this.client.get().uri("/companies/1/officers?itemsPerPage=101")
+            .exchange()
+            .expectStatus().isBadRequest();
+        assertThat(this.stub.partRequests("officers")).isZero();
+    }
+
+    @Test
+    void expandedCollectionsAreWrittenAlongsideTheProfile() {
+        this.client.get().uri("/companies/1?expand=officers,filings")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().doesNotExist(HttpHeaders.ETAG)
+            .expectHeader().valueEquals(HttpHeaders.CACHE_CONTROL, "max-age=300, private")
+            .expectBody()
+            .jsonPath("$.companyName").isNotEmpty()
+            .jsonPath("$.officers.items[0].company_number").isEqualTo("00000001")
+            .jsonPath("$.filings.etag").isEqualTo("filing-history-1")
+            .jsonPath("$.psc").doesNotExist()
+            .jsonPath("$.unavailable").doesNotExist();
+    }
+
+    @Test
+    void slowCollectionIsLeftOut() {
+        this.stub.partDelay("persons-with-significant-control", Duration.ofSeconds(5));
+
+        long start = System.nanoTime();
+        this.client.get().uri("/companies/1?expand=psc,officers&fields=companyName")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().valueEquals(HttpHeaders.CACHE_CONTROL, "no-store")
+            .expectBody()
+            .jsonPath("$.companyName").isNotEmpty()
+            .jsonPath("$.companyStatus").doesNotExist()
+            .jsonPath("$.officers.items").isArray()
+            .jsonPath("$.psc").doesNotExist()
+            .jsonPath("$.unavailable[0]").isEqualTo("psc");
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(4));
+    }
+
+    @Test
+    void failedCollectionIsLeftOut() {
+        this.stub.partStatus("officers", 500);
+
+        this.client.get().uri("/companies/1?expand=officers")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.companyName").isNotEmpty()
+            .jsonPath("$.unavailable[0]").isEqualTo("officers");
+    }
+
+    @Test
+    void unknownCollectionIsABadRequest() {
+        this.client.get().uri("/companies/1?expand=officers,shareholders")
+            .exchange()
+            .expectStatus().isBadRequest();
+        assertThat(this.stub.requests()).isZero();
+    }
+}
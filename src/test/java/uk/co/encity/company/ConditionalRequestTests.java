@@ -0,0 +1,95 @@
+package uk.co.encity.company;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConditionalRequestTests {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private CompaniesHouseStub stub;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setup() throws IOException {
+        this.stub = new CompaniesHouseStub();
+        CompanyProfileCache cache = new CompanyProfileCache(
+            Duration.ofMinutes(1), Duration.ofHours(1), Duration.ofMinutes(1), 100, this.nanos::get);
+        CompanyCodec codec = new CompanyCodec();
+
+        this.client = WebTestClient.bindToController(this.stub.controller(cache))
+            .httpMessageCodecs(codec::customize)
+            .build();
+    }
+
+    @AfterEach
+    void stopStub() {
+        this.stub.close();
+    }
+
+    @Test
+    void responseHasStrongETagAndCacheControl() {
+        this.client.get().uri("/companies/1")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().valueEquals(HttpHeaders.ETAG, "\"" + CompaniesHouseStub.ETAG + "-2\"")
+            .expectHeader().valueEquals(HttpHeaders.CACHE_CONTROL, "max-age=300, private");
+    }
+
+    @Test
+    void matchingIfNoneMatchGetsNotModified() {
+        String etag = this.client.get().uri("/companies/1")
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(String.class).getResponseHeaders().getETag();
+
+        this.client.get().uri("/companies/1")
+            .header(HttpHeaders.IF_NONE_MATCH, etag)
+            .exchange()
+            .expectStatus().isNotModified()
+            .expectHeader().valueEquals(HttpHeaders.ETAG, etag)
+            .expectBody().isEmpty();
+
+        assertThat(this.stub.requests()).isEqualTo(1);
+    }
+
+    @Test
+    void staleProfileIsRevalidatedUpstream() {
+        this.client.get().uri("/companies/1").exchange().expectStatus().isOk();
+        this.nanos.addAndGet(Duration.ofMinutes(2).toNanos());
+
+        this.client.get().uri("/companies/1")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody().jsonPath("$.companyName").isEqualTo("ENCITY TEST SERVICES LIMITED");
+
+        assertThat(this.stub.requests()).isEqualTo(2);
+        assertThat(this.stub.notModified()).isEqualTo(1);
+
+        // Revalidated, so fresh again
+        this.client.get().uri("/companies/1").exchange().expectStatus().isOk();
+        assertThat(this.stub.requests()).isEqualTo(2);
+    }
+
+    @Test
+    void changedProfileIsDownloadedAgain() {
+        this.client.get().uri("/companies/1").exchange().expectStatus().isOk();
+        this.nanos.addAndGet(Duration.ofMinutes(2).toNanos());
+        this.stub.etag("c0ffee");
+
+        this.client.get().uri("/companies/1")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().valueEquals(HttpHeaders.ETAG, "\"c0ffee-2\"");
+
+        assertThat(this.stub.notModified()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,270 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeadlineTrackerTests {
+
+    private static final LocalDate TODAY = LocalDate.of(2021, 9, 1);
+
+    private final AtomicLong millis = new AtomicLong(TODAY.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli());
+    private final List<String> lookups = new ArrayList<>();
+    private final CompanyResponse typical = typical();
+    private final DeadlineTracker tracker = new DeadlineTracker(n -> {
+        this.lookups.add(n);
+        return n.equals("00000404") ? Mono.error(notFound()) : Mono.just(this.typical);
+    }, this.millis::get, Duration.ofDays(30), Duration.ofMinutes(1), 2, Duration.ofDays(7));
+
+    @Test
+    void alertsAreRaisedAsDeadlinesApproachAndPass() {
+        this.tracker.watch("me", "mine", Arrays.asList("00000001"));
+        List<String> fired = this.collect("mine");
+
+        // Accounts due in 45 days, and a confirmation statement due in 10
+        this.tracker.update(1, TODAY.plusDays(45), false, TODAY.plusDays(10), false);
+        assertThat(fired).containsExactly("00000001 confirmation-statement upcoming (due 2021-09-11)");
+
+        this.advance(11);
+        assertThat(this.tracker.evaluate()).isEqualTo(1);
+        assertThat(fired).hasSize(2).last().isEqualTo("00000001 confirmation-statement overdue (due 2021-09-11)");
+
+        // Nothing has changed since yesterday, so nothing is looked at
+        this.advance(1);
+        assertThat(this.tracker.evaluate()).isZero();
+
+        this.advance(3);
+        this.tracker.evaluate();
+        assertThat(fired).hasSize(3).last().isEqualTo("00000001 accounts upcoming (due 2021-10-16)");
+
+        // Filing the confirmation statement moves its deadline on, and the alert goes away
+        this.tracker.update(1, TODAY.plusDays(45), false, TODAY.plusDays(376), false);
+        assertThat(this.tracker.getAlerts("me", "mine")).extracting(DeadlineAlert::getDeadline)
+            .containsExactly(DeadlineAlert.ACCOUNTS);
+    }
+
+    @Test
+    void companiesHouseOverdueFlagIsTrusted() {
+        this.tracker.watch("me", "mine", Arrays.asList("SC000002"));
+
+        this.tracker.update(CompanyNumbers.pack("SC000002"), null, true, TODAY.plusDays(200), false);
+
+        assertThat(this.tracker.getAlerts("me", "mine")).extracting(DeadlineAlert::toString)
+            .containsExactly("SC000002 accounts overdue (due null)");
+    }
+
+    @Test
+    void companiesAreRefreshedInBatches() {
+        this.tracker.watch("me", "mine", Arrays.asList("00000001", "00000002", "00000404"));
+
+        this.tracker.refresh();
+        assertThat(this.lookups).containsExactly("00000001", "00000002");
+
+        this.tracker.refresh();
+        assertThat(this.lookups).containsExactly("00000001", "00000002", "00000404");
+        assertThat(this.tracker.getAlerts("me", "mine")).isEmpty();
+
+        // The confirmation statement in the typical profile is due on 2021-10-28, so becomes upcoming on
+        // 2021-09-28, and the companies are refreshed again before then
+        this.advance(26);
+        this.tracker.tick();
+        assertThat(this.lookups).hasSize(5);
+        assertThat(this.tracker.getAlerts("me", "mine")).isEmpty();
+        this.advance(1);
+        this.tracker.tick();
+        assertThat(this.tracker.getAlerts("me", "mine")).extracting(DeadlineAlert::toString).containsExactlyInAnyOrder(
+            "00000001 confirmation-statement upcoming (due 2021-10-28)",
+            "00000002 confirmation-statement upcoming (due 2021-10-28)");
+    }
+
+    @Test
+    void refreshesThatFallBehindAreReported() {
+        // Two companies a minute, for a week
+        assertThat(this.tracker.capacity()).isEqualTo(2 * 7 * 24 * 60);
+
+        this.tracker.watch("me", "mine", Arrays.asList("1", "2", "3"));
+        assertThat(this.tracker.refreshLag()).isZero();
+        this.millis.addAndGet(Duration.ofMinutes(10).toMillis());
+        assertThat(this.tracker.refreshLag()).isEqualTo(10);
+
+        this.tracker.refresh();
+        assertThat(this.tracker.refreshLag()).isEqualTo(10);
+        this.tracker.refresh();
+        assertThat(this.tracker.refreshLag()).isZero();
+    }
+
+    @Test
+    void companiesAreTrackedWhileAnyWatchlistHasThem() {
+        this.tracker.watch("me", "a", Arrays.asList("1", "2", "3"));
+        this.tracker.watch("me", "b", Arrays.asList("00000003", "00000004"));
+        assertThat(this.tracker.size()).isEqualTo(4);
+
+        this.tracker.watch("me", "a", Arrays.asList("00000002", "00000005"));
+        assertThat(this.tracker.size()).isEqualTo(4);
+        assertThat(this.tracker.getWatchlist("me", "a")).containsExactly("00000002", "00000005");
+
+        assertThat(this.tracker.unwatch("me", "b")).isTrue();
+        assertThat(this.tracker.unwatch("me", "b")).isFalse();
+        assertThat(this.tracker.size()).isEqualTo(2);
+        assertThat(this.tracker.update(3, null, true, null, true)).isFalse();
+    }
+
+    @Test
+    void alertsAreStreamedForAWatchlist() {
+        WebTestClient client = this.client("alice");
+
+        client.put().uri("/watchlists/mine").bodyValue(Arrays.asList("1", "sc2")).exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.companyNumbers[0]").isEqualTo("00000001")
+            .jsonPath("$.companyNumbers[1]").isEqualTo("SC000002");
+        client.put().uri("/watchlists/other").bodyValue(Arrays.asList("00000003")).exchange().expectStatus().isOk();
+        this.tracker.update(1, null, false, TODAY.plusDays(5), false);
+
+        Flux<JsonNode> alerts = client.get().uri("/watchlists/mine/alerts").accept(MediaType.APPLICATION_NDJSON)
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(JsonNode.class).getResponseBody();
+        StepVerifier.create(alerts.map(alert -> alert.get("companyNumber").asText()))
+            .expectNext("00000001")
+            .then(() -> {
+                this.tracker.update(3, null, true, null, false);
+                this.tracker.update(CompanyNumbers.pack("SC000002"), null, true, null, false);
+            })
+            .expectNext("SC000002")
+            .thenCancel()
+            .verify(Duration.ofSeconds(5));
+
+        client.put().uri("/watchlists/mine").bodyValue(Arrays.asList("1", "2", "3", "4")).exchange()
+            .expectStatus().isBadRequest();
+        client.put().uri("/watchlists/mine").bodyValue(Arrays.asList("1", "not a company")).exchange()
+            .expectStatus().isBadRequest();
+        client.delete().uri("/watchlists/mine").exchange().expectStatus().isNoContent();
+        client.get().uri("/watchlists/mine").exchange().expectStatus().isNotFound();
+    }
+
+    @Test
+    void alertsRaisedWhileTheCurrentOnesAreTakenAreStreamed() {
+        DeadlineTracker tracker = new DeadlineTracker(n -> Mono.empty(), this.millis::get, Duration.ofDays(30),
+            Duration.ofMinutes(1), 2, Duration.ofDays(7)) {
+            @Override
+            public synchronized List<DeadlineAlert> getAlerts(String owner, String id) {
+                List<DeadlineAlert> current = super.getAlerts(owner, id);
+                this.update(1, null, true, null, false);
+                return current;
+            }
+        };
+        tracker.watch("alice", "mine", Arrays.asList("1"));
+
+        Flux<JsonNode> alerts = client(tracker, "alice").get().uri("/watchlists/mine/alerts").accept(MediaType.APPLICATION_NDJSON)
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(JsonNode.class).getResponseBody();
+        StepVerifier.create(alerts.map(alert -> alert.get("status").asText()))
+            .expectNext(DeadlineAlert.OVERDUE)
+            .thenCancel()
+            .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void aClientThatFallsBehindHasItsAlertsEnded() {
+        this.tracker.watch("alice", "mine", Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8", "9"));
+        WatchlistController controller = new WatchlistController(this.tracker, 10, 2, 8);
+
+        StepVerifier.create(controller.getAlerts(() -> "alice", "mine"), 0)
+            .then(() -> {
+                for (int company = 1; company <= 9; company++) {
+                    this.tracker.update(company, null, true, null, false);
+                }
+            })
+            .thenRequest(Long.MAX_VALUE)
+            .expectNextCount(8)
+            .expectErrorMatches(Exceptions::isOverflow)
+            .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void watchlistsAreKeptToTheirOwners() {
+        WebTestClient alice = this.client("alice");
+        WebTestClient bob = this.client("bob");
+
+        alice.put().uri("/watchlists/mine").bodyValue(Arrays.asList("1")).exchange().expectStatus().isOk();
+        bob.get().uri("/watchlists/mine").exchange().expectStatus().isNotFound();
+        bob.get().uri("/watchlists/mine/alerts").accept(MediaType.APPLICATION_NDJSON).exchange()
+            .expectStatus().isNotFound();
+        bob.delete().uri("/watchlists/mine").exchange().expectStatus().isNotFound();
+
+        bob.put().uri("/watchlists/mine").bodyValue(Arrays.asList("2")).exchange().expectStatus().isOk();
+        alice.get().uri("/watchlists/mine").exchange()
+            .expectStatus().isOk()
+            .expectBody().jsonPath("$.companyNumbers[0]").isEqualTo("00000001");
+
+        // Each may have two watchlists, and may still replace them once they have
+        alice.put().uri("/watchlists/other").bodyValue(Arrays.asList("3")).exchange().expectStatus().isOk();
+        alice.put().uri("/watchlists/third").bodyValue(Arrays.asList("4")).exchange().expectStatus().isBadRequest();
+        alice.put().uri("/watchlists/other").bodyValue(Arrays.asList("4")).exchange().expectStatus().isOk();
+        bob.put().uri("/watchlists/other").bodyValue(Arrays.asList("3")).exchange().expectStatus().isOk();
+        assertThat(this.tracker.size()).isEqualTo(4);
+    }
+
+    /**
+     * @return a client of a {@link WatchlistController} (for watchlists of up to three companies, and two
+     * watchlists per user) whose requests are made by a given user
+     */
+    private WebTestClient client(String user) {
+        return client(this.tracker, user);
+    }
+
+    private static WebTestClient client(DeadlineTracker tracker, String user) {
+        return WebTestClient.bindToController(new WatchlistController(tracker, 3, 2, 256))
+            .webFilter((exchange, chain) -> chain.filter(exchange.mutate().principal(Mono.just(() -> user)).build()))
+            .httpMessageCodecs(new CompanyCodec()::customize)
+            .build();
+    }
+
+    /**
+     * @return the alerts raised for a watchlist from now on, as they are raised
+     */
+    private List<String> collect(String id) {
+        List<String> fired = new ArrayList<>();
+        this.tracker.alerts("me", id).subscribe(alert -> fired.add(alert.toString()));
+        return fired;
+    }
+
+    private void advance(int days) {
+        this.millis.addAndGet(Duration.ofDays(days).toMillis());
+    }
+
+    private static CompanyResponse typical() {
+        try {
+            return new CompanyCodec().getObjectMapper()
+                .readValue(CompanyResponseDeserializerTests.read("typical"), CompanyResponse.class);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static WebClientResponseException notFound() {
+        return WebClientResponseException.create(
+            HttpStatus.NOT_FOUND.value(), "Not Found", HttpHeaders.EMPTY, new byte[0], null);
+    }
+}
@@ -0,0 +1,46 @@
+package uk.co.encity.company;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Starts the whole application offline in the fast start mode, in which only the beans that work in the background
+ * are created at start up
+ */
+@SpringBootTest(properties = {
+	"ch.api.key=test",
+	"spring.security.oauth2.resourceserver.jwk.issuer-uri=https://issuer.example/",
+	"encity.jwt.jwk-set-location=classpath:jwks.json",
+	"encity.origin-list=http://localhost:3000"
+})
+@ActiveProfiles("fast-start")
+class FastStartTests {
+
+	@Autowired
+	private ConfigurableApplicationContext context;
+
+	@Test
+	void backgroundBeansAreCreatedAtStartUp() {
+		assertThat(this.isLazy(JwkSetSource.class)).isFalse();
+		assertThat(this.isLazy(CompanySnapshotStore.class)).isFalse();
+		assertThat(this.isLazy(CompanyChangeFeed.class)).isFalse();
+	}
+
+	@Test
+	void otherBeansAreCreatedWhenFirstNeeded() {
+		assertThat(this.isLazy(CompanyController.class)).isTrue();
+		assertThat(this.isLazy(DeadlineTracker.class)).isTrue();
+		assertThat(this.context.getBean(CompanyController.class)).isNotNull();
+	}
+
+	private boolean isLazy(Class<?> type) {
+		String[] names = this.context.getBeanNamesForType(type);
+		assertThat(names).hasSize(1);
+		return this.context.getBeanFactory().getBeanDefinition(names[0]).isLazyInit();
+	}
+}
@@ -0,0 +1,87 @@
+package uk.co.encity.company;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetricsTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private CompaniesHouseStub stub;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setup() throws IOException {
+        this.stub = new CompaniesHouseStub().status("00000002", 404);
+        CompanyProfileCache cache = new CompanyProfileCache(
+            Duration.ofHours(24), Duration.ofHours(24), Duration.ofMinutes(5), 100, System::nanoTime);
+        CompanyCodec codec = new CompanyCodec(this.registry);
+
+        this.client = WebTestClient
+            .bindToController(this.stub.controller(cache, this.registry, new CompaniesHouseMetricsFilter(this.registry)))
+            .webFilter(new ResponseSizeMetricsFilter(this.registry))
+            .httpMessageCodecs(codec::customize)
+            .build();
+    }
+
+    @AfterEach
+    void stopStub() {
+        this.stub.close();
+    }
+
+    @Test
+    void upstreamLatencyIsRecordedByStatus() {
+        this.client.get().uri("/companies/1").exchange().expectStatus().isOk();
+        this.client.get().uri("/companies/2").exchange().expectStatus().isNotFound();
+
+        assertThat(this.registry.get(CompaniesHouseMetricsFilter.REQUESTS).tag("status", "200").timer().count())
+            .isEqualTo(1);
+        assertThat(this.registry.get(CompaniesHouseMetricsFilter.REQUESTS).tag("status", "404")
+            .tag("outcome", "CLIENT_ERROR").timer().count()).isEqualTo(1);
+        assertThat(this.registry.get(CompaniesHouseMetricsFilter.RESPONSE_SIZE).summary().count()).isEqualTo(2);
+    }
+
+    @Test
+    void upstreamSizeIsCountedWithoutAContentLength() throws IOException {
+        this.stub.chunked(true);
+
+        this.client.get().uri("/companies/1").exchange().expectStatus().isOk();
+
+        assertThat(this.registry.get(CompaniesHouseMetricsFilter.RESPONSE_SIZE).summary().totalAmount())
+            .isEqualTo(CompanyResponseDeserializerTests.read("typical").length);
+    }
+
+    @Test
+    void deserializationAndSerializationAreTimed() {
+        this.client.get().uri("/companies/1").exchange().expectStatus().isOk();
+
+        assertThat(this.registry.get(CompanyCodec.JSON_TIMER).tag("operation", "deserialize").timer().count())
+            .isEqualTo(1);
+        assertThat(this.registry.get(CompanyCodec.JSON_TIMER).tag("operation", "serialize").timer().count())
+            .isEqualTo(1);
+    }
+
+    @Test
+    void responseSizeIsRecordedByUriTemplate() {
+        this.client.get().uri("/companies/1").exchange().expectStatus().isOk();
+
+        assertThat(this.registry.get(ResponseSizeMetricsFilter.RESPONSE_SIZE)
+            .tag("uri", "/companies/{companyNumber}").summary().totalAmount()).isGreaterThan(0);
+    }
+
+    @Test
+    void errorsAreCountedByType() {
+        this.client.get().uri("/companies/2").exchange().expectStatus().isNotFound();
+        this.client.get().uri("/companies/2").exchange().expectStatus().isNotFound();
+
+        assertThat(this.registry.get(CompanyController.ERRORS).tag("type", "NotFound").counter().count())
+            .isEqualTo(2);
+    }
+}
@@ -0,0 +1,148 @@
+package uk.co.encity.company;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+
+class PreSerializedWriterTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private CompaniesHouseStub stub;
+    private CompanyProfileCache cache;
+
+    @BeforeEach
+    void setup() throws IOException {
+        this.stub = new CompaniesHouseStub();
+        this.cache = new CompanyProfileCache(
+            Duration.ofHours(24), Duration.ofHours(24), Duration.ofMinutes(5), 100, System::nanoTime);
+    }
+
+    @AfterEach
+    void stopStub() {
+        this.stub.close();
+    }
+
+    @Test
+    void cachedProfileIsSerializedOnce() throws IOException {
+        WebTestClient client = this.client(new CompanyCodec(this.registry, true, false));
+
+        byte[] first = client.get().uri("/companies/1").exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentType("application/json")
+            .expectBody().returnResult().getResponseBody();
+        byte[] second = client.get().uri("/companies/1").exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentLength(first.length)
+            .expectBody().returnResult().getResponseBody();
+
+        // The same JSON as Jackson writes
+        CompanyResponse profile = this.cache.get("1", n -> Mono.error(new AssertionError("Not cached"))).block();
+        assertThat(new String(second, StandardCharsets.UTF_8)).isEqualTo(
+            new CompanyCodec().getObjectMapper().writeValueAsString(profile)).isEqualTo(
+            new String(first, StandardCharsets.UTF_8));
+        assertThat(this.registry.get(CompanyCodec.JSON_TIMER).tag("operation", "serialize").timer().count())
+            .isEqualTo(1);
+    }
+
+    @Test
+    void gzippedJsonIsSentToClientsThatAcceptIt() throws IOException {
+        WebTestClient client = this.client(new CompanyCodec(this.registry, true, true));
+
+        EntityExchangeResult<byte[]> json = client.get().uri("/companies/1").exchange()
+            .expectStatus().isOk()
+            .expectHeader().doesNotExist(HttpHeaders.CONTENT_ENCODING)
+            .expectHeader().values(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT_ENCODING))
+            .expectBody().returnResult();
+        EntityExchangeResult<byte[]> gzipped = client.get().uri("/companies/1")
+            .header(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+            .expectHeader().values(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT_ENCODING))
+            .expectBody().returnResult();
+
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.getResponseBody()))) {
+            assertThat(in.readAllBytes()).isEqualTo(json.getResponseBody());
+        }
+
+        // Each representation has an entity tag of its own
+        String etag = json.getResponseHeaders().getETag();
+        assertThat(etag).startsWith("\"").endsWith("\"");
+        assertThat(gzipped.getResponseHeaders().getETag())
+            .isNotEqualTo(etag)
+            .isEqualTo(etag.substring(0, etag.length() - 1) + "-gzip\"");
+    }
+
+    @Test
+    void gzippedProfileIsRevalidatedWithItsOwnEntityTag() {
+        WebTestClient client = this.client(new CompanyCodec(this.registry, true, true));
+        String gzipTag = client.get().uri("/companies/1")
+            .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(byte[].class).getResponseHeaders().getETag();
+
+        client.get().uri("/companies/1")
+            .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+            .header(HttpHeaders.IF_NONE_MATCH, gzipTag)
+            .exchange()
+            .expectStatus().isNotModified()
+            .expectHeader().valueEquals(HttpHeaders.ETAG, gzipTag);
+    }
+
+    @Test
+    void gzipClientWithTheJsonEntityTagGetsTheGzippedProfile() {
+        WebTestClient client = this.client(new CompanyCodec(this.registry, true, true));
+        String jsonTag = client.get().uri("/companies/1")
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(byte[].class).getResponseHeaders().getETag();
+
+        client.get().uri("/companies/1")
+            .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+            .header(HttpHeaders.IF_NONE_MATCH, jsonTag)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip");
+    }
+
+    @Test
+    void variantEntityTagKeepsItsWeakness() {
+        assertThat(EntityTags.variant("\"abc\"", "-gzip")).isEqualTo("\"abc-gzip\"");
+        assertThat(EntityTags.variant("W/\"abc\"", "-gzip")).isEqualTo("W/\"abc-gzip\"");
+    }
+
+    @Test
+    void gzipIsOnlySentIfAccepted() {
+        assertThat(PreSerializedWriter.acceptsGzip(request("gzip"))).isTrue();
+        assertThat(PreSerializedWriter.acceptsGzip(request("br;q=1.0, GZIP;q=0.5"))).isTrue();
+        assertThat(PreSerializedWriter.acceptsGzip(request("deflate, gzip;q=0"))).isFalse();
+        assertThat(PreSerializedWriter.acceptsGzip(request("identity"))).isFalse();
+        assertThat(PreSerializedWriter.acceptsGzip(MockServerHttpRequest.get("/").build())).isFalse();
+    }
+
+    private WebTestClient client(CompanyCodec codec) {
+        return WebTestClient.bindToController(this.stub.controller(this.cache, codec))
+            .httpMessageCodecs(codec::customize)
+            .build();
+    }
+
+    private static MockServerHttpRequest request(String acceptEncoding) {
+        return MockServerHttpRequest.get("/").header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding).build();
+    }
+}
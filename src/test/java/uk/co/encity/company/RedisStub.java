@@ -0,0 +1,286 @@
+package uk.co.encity.company;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for a Redis server, for tests (and benchmarks).  It speaks enough of the protocol (RESP2) for
+ * {@link RedisCompanyCache}: <code>GET</code>, <code>SET</code> (with <code>PX</code>), <code>DEL</code>,
+ * <code>PUBLISH</code> and <code>SUBSCRIBE</code>, and <code>PING</code>.  Anything else (including
+ * <code>HELLO</code>, so clients fall back to RESP2) is answered with an error.  It counts the commands it
+ * receives, by name.
+ *
+ * Each connection is served by a thread of its own, with blocking I/O, which is fine for a stub: none of them are
+ * reactive threads.
+ */
+class RedisStub implements AutoCloseable {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private final ServerSocket server;
+    private final Map<String, Entry> values = new ConcurrentHashMap<>();
+    private final Set<Connection> connections = new CopyOnWriteArraySet<>();
+    private final Map<String, AtomicInteger> commands = new ConcurrentHashMap<>();
+
+    RedisStub() throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "redis-stub");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the Redis URI at which the stub is listening
+     */
+    String uri() {
+        return "redis://127.0.0.1:" + this.server.getLocalPort();
+    }
+
+    /**
+     * @return how many times a command has been received
+     */
+    int count(String command) {
+        AtomicInteger n = this.commands.get(command);
+        return n == null ? 0 : n.get();
+    }
+
+    /**
+     * Forget every key
+     */
+    void flush() {
+        this.values.clear();
+    }
+
+    /**
+     * @return the number of keys held
+     */
+    int size() {
+        return this.values.size();
+    }
+
+    private void accept() {
+        while (!this.server.isClosed()) {
+            try {
+                Connection connection = new Connection(this.server.accept());
+                this.connections.add(connection);
+                Thread thread = new Thread(connection, "redis-stub-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.server.close();
+        } catch (IOException e) {
+            // Ignored
+        }
+        this.connections.forEach(Connection::close);
+    }
+
+    private static class Entry {
+        final byte[] value;
+        final long expiresAt;
+
+        Entry(byte[] value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isLive() { return this.expiresAt == 0 || System.currentTimeMillis() < this.expiresAt; }
+    }
+
+    private class Connection implements Runnable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final Set<String> channels = new CopyOnWriteArraySet<>();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.socket.setTcpNoDelay(true);
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    List<byte[]> command = this.readCommand();
+                    String name = new String(command.get(0), StandardCharsets.US_ASCII).toUpperCase();
+                    RedisStub.this.commands.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+                    synchronized (this.out) {
+                        this.execute(name, command);
+                        this.out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // The client went away, or the stub was closed
+            } finally {
+                RedisStub.this.connections.remove(this);
+                this.close();
+            }
+        }
+
+        private void execute(String name, List<byte[]> command) throws IOException {
+            switch (name) {
+                case "PING":
+                    this.simple("PONG");
+                    break;
+                case "GET": {
+                    Entry entry = RedisStub.this.values.get(string(command.get(1)));
+                    this.bulk(entry != null && entry.isLive() ? entry.value : null);
+                    break;
+                }
+                case "SET": {
+                    long expiresAt = 0;
+                    if (command.size() > 4 && "PX".equalsIgnoreCase(string(command.get(3)))) {
+                        expiresAt = System.currentTimeMillis() + Long.parseLong(string(command.get(4)));
+                    }
+                    RedisStub.this.values.put(string(command.get(1)), new Entry(command.get(2), expiresAt));
+                    this.simple("OK");
+                    break;
+                }
+                case "DEL": {
+                    int removed = 0;
+                    for (int i = 1; i < command.size(); i++) {
+                        removed += RedisStub.this.values.remove(string(command.get(i))) != null ? 1 : 0;
+                    }
+                    this.integer(removed);
+                    break;
+                }
+                case "PUBLISH": {
+                    String channel = string(command.get(1));
+                    int receivers = 0;
+                    for (Connection c : RedisStub.this.connections) {
+                        if (c.channels.contains(channel)) {
+                            c.message(channel, command.get(2));
+                            receivers++;
+                        }
+                    }
+                    this.integer(receivers);
+                    break;
+                }
+                case "SUBSCRIBE":
+                    for (int i = 1; i < command.size(); i++) {
+                        this.channels.add(string(command.get(i)));
+                        this.array(3);
+                        this.bulk("subscribe".getBytes(StandardCharsets.US_ASCII));
+                        this.bulk(command.get(i));
+                        this.integer(this.channels.size());
+                    }
+                    break;
+                default:
+                    this.error("ERR unknown command '" + name + "'");
+            }
+        }
+
+        private void message(String channel, byte[] message) throws IOException {
+            synchronized (this.out) {
+                this.array(3);
+                this.bulk("message".getBytes(StandardCharsets.US_ASCII));
+                this.bulk(channel.getBytes(StandardCharsets.UTF_8));
+                this.bulk(message);
+                this.out.flush();
+            }
+        }
+
+        private List<byte[]> readCommand() throws IOException {
+            String header = this.readLine();
+            if (header.charAt(0) != '*') {
+                throw new IOException("Expected an array, not " + header);
+            }
+            int n = Integer.parseInt(header.substring(1));
+            List<byte[]> parts = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int length = Integer.parseInt(this.readLine().substring(1));
+                byte[] part = new byte[length];
+                for (int read = 0; read < length; ) {
+                    int r = this.in.read(part, read, length - read);
+                    if (r < 0) {
+                        throw new EOFException();
+                    }
+                    read += r;
+                }
+                this.in.skip(2);
+                parts.add(part);
+            }
+            return parts;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int c = this.in.read(); c != '\r'; c = this.in.read()) {
+                if (c < 0) {
+                    throw new EOFException();
+                }
+                line.append((char) c);
+            }
+            this.in.read();
+            return line.toString();
+        }
+
+        private void simple(String s) throws IOException {
+            this.out.write(('+' + s).getBytes(StandardCharsets.US_ASCII));
+            this.out.write(CRLF);
+        }
+
+        private void error(String s) throws IOException {
+            this.out.write(('-' + s).getBytes(StandardCharsets.US_ASCII));
+            this.out.write(CRLF);
+        }
+
+        private void integer(long n) throws IOException {
+            this.out.write((":" + n).getBytes(StandardCharsets.US_ASCII));
+            this.out.write(CRLF);
+        }
+
+        private void array(int n) throws IOException {
+            this.out.write(("*" + n).getBytes(StandardCharsets.US_ASCII));
+            this.out.write(CRLF);
+        }
+
+        private void bulk(byte[] b) throws IOException {
+            if (b == null) {
+                this.out.write("$-1".getBytes(StandardCharsets.US_ASCII));
+            } else {
+                this.out.write(("$" + b.length).getBytes(StandardCharsets.US_ASCII));
+                this.out.write(CRLF);
+                this.out.write(b);
+            }
+            this.out.write(CRLF);
+        }
+
+        void close() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+
+    private static String string(byte[] b) {
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
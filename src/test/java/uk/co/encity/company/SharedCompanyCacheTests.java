@@ -0,0 +1,156 @@
+package uk.co.encity.company;
+
+import io.lettuce.core.RedisURI;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SharedCompanyCacheTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicLong millis = new AtomicLong(System.currentTimeMillis());
+    private final AtomicInteger loads = new AtomicInteger();
+    private final List<RedisCompanyCache> shared = new ArrayList<>();
+    private RedisStub redis;
+
+    @BeforeEach
+    void setup() throws IOException {
+        this.redis = new RedisStub();
+    }
+
+    @AfterEach
+    void stop() {
+        this.shared.forEach(RedisCompanyCache::close);
+        this.redis.close();
+    }
+
+    @Test
+    void profileLoadedByOneInstanceIsServedToAnother() throws InterruptedException {
+        CompanyProfileCache first = this.instance();
+        CompanyProfileCache second = this.instance();
+
+        first.get("00000001", this.load("ENCITY TEST LIMITED")).block();
+        await(() -> this.redis.size() == 1);
+
+        // On a reactive thread, where BlockHound would fail any blocking call
+        CompanyResponse response = second.get("00000001", this.load("ENCITY TEST LIMITED"))
+            .subscribeOn(Schedulers.parallel())
+            .block();
+
+        assertThat(response.getCompanyName()).isEqualTo("ENCITY TEST LIMITED");
+        assertThat(this.loads).hasValue(1);
+        assertThat(this.registry.get(RedisCompanyCache.LOOKUPS).tag("result", "hit").counter().count())
+            .isEqualTo(1);
+    }
+
+    @Test
+    void updateOnOneInstanceIsSeenByAnother() throws InterruptedException {
+        CompanyProfileCache first = this.instance();
+        CompanyProfileCache second = this.instance();
+        // Saving the old profile is published too, so wait until the second instance has seen that, so as not to
+        // take it for the update
+        first.get("00000001", this.load("OLD NAME LIMITED")).block();
+        await(() -> this.redis.size() == 1 && this.invalidations() == 1);
+        second.get("00000001", this.load("OLD NAME LIMITED")).block();
+
+        first.update("00000001", profile("NEW NAME LIMITED"));
+
+        // The second instance drops its in-memory copy, and reads the new one from the shared cache
+        await(() -> this.invalidations() == 2 && second.getCache().getIfPresent("00000001") == null);
+        assertThat(second.get("00000001", this.load("UNEXPECTED LIMITED")).block().getCompanyName())
+            .isEqualTo("NEW NAME LIMITED");
+        assertThat(this.loads).hasValue(1);
+    }
+
+    @Test
+    void invalidatedCompanyIsLoadedAgain() throws InterruptedException {
+        CompanyProfileCache first = this.instance();
+        CompanyProfileCache second = this.instance();
+        first.get("00000001", this.load("ENCITY TEST LIMITED")).block();
+        await(() -> this.redis.size() == 1);
+        second.get("00000001", this.load("ENCITY TEST LIMITED")).block();
+
+        first.invalidate("00000001");
+
+        await(() -> this.redis.size() == 0 && second.getCache().getIfPresent("00000001") == null);
+        second.get("00000001", this.load("ENCITY TEST LIMITED")).block();
+        assertThat(this.loads).hasValue(2);
+    }
+
+    @Test
+    void staleSharedProfileIsRevalidated() throws InterruptedException {
+        CompanyProfileCache first = this.instance();
+        CompanyProfileCache second = this.instance();
+        first.get("00000001", this.load("ENCITY TEST LIMITED")).block();
+        await(() -> this.redis.size() == 1);
+
+        this.millis.addAndGet(Duration.ofHours(25).toMillis());
+        List<CompanyResponse> stale = new ArrayList<>();
+        second.get("00000001", (BiFunction<String, CompanyResponse, Mono<CompanyResponse>>) (n, s) -> {
+            stale.add(s);
+            return Mono.just(s);
+        }).block();
+
+        assertThat(stale).singleElement().extracting(CompanyResponse::getCompanyName)
+            .isEqualTo("ENCITY TEST LIMITED");
+    }
+
+    @Test
+    void unavailableSharedCacheIsAMiss() throws InterruptedException {
+        CompanyProfileCache cache = this.instance();
+        this.redis.close();
+
+        long start = System.nanoTime();
+        cache.get("00000001", this.load("ENCITY TEST LIMITED")).block();
+
+        assertThat(this.loads).hasValue(1);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+    }
+
+    private CompanyProfileCache instance() throws InterruptedException {
+        RedisCompanyCache shared = new RedisCompanyCache(RedisURI.create(this.redis.uri()), Duration.ofHours(48),
+            Duration.ofMillis(500), this.millis::get, this.registry);
+        this.shared.add(shared);
+        await(() -> this.redis.count("SUBSCRIBE") == this.shared.size());
+        return new CompanyProfileCache(Duration.ofHours(24), Duration.ofHours(24), Duration.ofMinutes(5), 100,
+            System::nanoTime, new CompanySnapshotStore(null, Duration.ZERO, () -> 0),
+            new CompanyBulkData(null, null, Duration.ZERO, () -> 0), shared);
+    }
+
+    private double invalidations() {
+        return this.registry.get(RedisCompanyCache.INVALIDATIONS).counter().count();
+    }
+
+    private BiFunction<String, CompanyResponse, Mono<CompanyResponse>> load(String name) {
+        return (n, stale) -> Mono.fromSupplier(() -> {
+            this.loads.incrementAndGet();
+            return profile(name);
+        });
+    }
+
+    private static CompanyResponse profile(String name) {
+        return new CompanyResponse("active", name, null, null, null, null);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
@@ -0,0 +1,92 @@
+package uk.co.encity.company;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SingleFlightTests {
+
+    private static final int CALLERS = 50;
+
+    private CompaniesHouseStub stub;
+
+    @AfterEach
+    void stopStub() {
+        if (this.stub != null) {
+            this.stub.close();
+        }
+    }
+
+    @Test
+    void concurrentLookupsMakeOneUpstreamCall() throws IOException {
+        this.stub = new CompaniesHouseStub().delay(Duration.ofMillis(300));
+        CompanyController controller = this.stub.controller();
+
+        List<ResponseEntity<CompanyResponse>> responses = Flux.range(0, CALLERS)
+            .flatMap(i -> controller.getCompanyDetails("09876543", UriComponentsBuilder.newInstance()), CALLERS)
+            .collectList()
+            .block(Duration.ofSeconds(10));
+
+        assertThat(responses).hasSize(CALLERS).allMatch(r -> r.getStatusCode() == HttpStatus.OK);
+        assertThat(this.stub.requests()).isEqualTo(1);
+    }
+
+    @Test
+    void cancellationDoesNotCancelOtherCallers() throws IOException {
+        this.stub = new CompaniesHouseStub().delay(Duration.ofMillis(300));
+        CompanyController controller = this.stub.controller();
+
+        Disposable cancelled = controller.getCompanyDetails("09876543", UriComponentsBuilder.newInstance()).subscribe();
+        Mono<ResponseEntity<CompanyResponse>> survivor =
+            controller.getCompanyDetails("09876543", UriComponentsBuilder.newInstance());
+
+        StepVerifier.create(survivor)
+            .then(cancelled::dispose)
+            .assertNext(r -> assertThat(r.getBody().getCompanyName()).isEqualTo("ENCITY TEST SERVICES LIMITED"))
+            .verifyComplete();
+        assertThat(this.stub.requests()).isEqualTo(1);
+    }
+
+    @Test
+    void entryIsRemovedOnCompletionAndError() {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        StepVerifier.create(flights.execute("a", k -> Mono.fromSupplier(() -> k + calls.incrementAndGet())))
+            .expectNext("a1").verifyComplete();
+        assertThat(flights.size()).isZero();
+
+        StepVerifier.create(flights.execute("a", k -> Mono.error(new IllegalStateException())))
+            .verifyError(IllegalStateException.class);
+        assertThat(flights.size()).isZero();
+
+        StepVerifier.create(flights.execute("a", k -> Mono.fromSupplier(() -> k + calls.incrementAndGet())))
+            .expectNext("a2").verifyComplete();
+    }
+
+    @Test
+    void callerArrivingAsResultIsPublishedStartsNewCall() {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        // The second caller arrives while the first result is being delivered, i.e. after the call has finished
+        String second = flights.execute("a", k -> Mono.fromSupplier(() -> k + calls.incrementAndGet()))
+            .flatMap(first -> flights.execute("a", k -> Mono.fromSupplier(() -> k + calls.incrementAndGet())))
+            .block();
+
+        assertThat(second).isEqualTo("a2");
+    }
+}
@@ -0,0 +1,141 @@
+package uk.co.encity.company;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.blockhound.BlockingOperationError;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Hooks;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SyncCompanyControllerTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private CompaniesHouseStub stub;
+    private BlockingCallScheduler scheduler;
+
+    @BeforeEach
+    void setup() throws IOException {
+        this.stub = new CompaniesHouseStub();
+    }
+
+    @AfterEach
+    void stop() {
+        this.stub.close();
+        if (this.scheduler != null) {
+            this.scheduler.close();
+        }
+    }
+
+    @Test
+    void blockingOnAReactiveThreadFailsTheBuild() {
+        // BlockHound is installed for every test, so any blocking call that reaches a reactive thread fails
+        assertThatThrownBy(() -> Mono.fromCallable(() -> {
+            Thread.sleep(1);
+            return 1;
+        }).subscribeOn(Schedulers.parallel()).block())
+            .satisfies(e -> assertThat(Exceptions.unwrap(e)).isInstanceOf(BlockingOperationError.class));
+    }
+
+    @Test
+    void blockingCallRunsOnItsOwnThreads() {
+        WebTestClient client = this.client(8, 100);
+
+        client.get().uri("/company/s/1").exchange()
+            .expectStatus().isOk()
+            .expectBody().jsonPath("$.company_name").exists();
+
+        assertThat(this.registry.get(BlockingCallScheduler.QUEUE_WAIT).timer().count()).isEqualTo(1);
+        assertThat(this.registry.get(BlockingCallScheduler.TASKS).tag("state", "active").gauge().value())
+            .isZero();
+    }
+
+    @Test
+    void upstreamErrorIsPassedBack() {
+        this.stub.script(404, Duration.ZERO);
+
+        this.client(8, 100).get().uri("/company/s/1").exchange()
+            .expectStatus().isNotFound();
+    }
+
+    @Test
+    void callsBeyondTheQueueAreTurnedAway() throws InterruptedException {
+        WebTestClient client = this.client(1, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Disposable running = this.scheduler.call(() -> {
+            started.countDown();
+            return release.await(10, TimeUnit.SECONDS);
+        }).subscribe();
+
+        try {
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            client.get().uri("/company/s/1").exchange()
+                .expectStatus().isEqualTo(503);
+            assertThat(this.registry.get(BlockingCallScheduler.REJECTIONS).counter().count()).isEqualTo(1);
+        } finally {
+            release.countDown();
+            running.dispose();
+        }
+    }
+
+    @Test
+    void cancelledCallDropsNoError() throws InterruptedException {
+        this.scheduler = new BlockingCallScheduler(1, 0, null, this.registry);
+        List<Throwable> dropped = new CopyOnWriteArrayList<>();
+        Hooks.onErrorDropped(dropped::add);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            Disposable running = this.scheduler.call(() -> {
+                started.countDown();
+                return new CountDownLatch(1).await(10, TimeUnit.SECONDS);
+            }).subscribe();
+
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            running.dispose();
+            await(() -> this.registry.get(BlockingCallScheduler.TASKS).tag("state", "active").gauge().value() == 0);
+            assertThat(dropped).isEmpty();
+        } finally {
+            Hooks.resetOnErrorDropped();
+        }
+    }
+
+    @Test
+    void virtualThreadsAreUsedWhereSupported() {
+        boolean supported = Runtime.version().feature() >= 21;
+
+        assertThat(BlockingCallScheduler.newVirtualThreadExecutor() != null).isEqualTo(supported);
+    }
+
+    private WebTestClient client(int threads, int queue) {
+        this.scheduler = new BlockingCallScheduler(threads, queue, null, this.registry);
+        SyncCompanyController controller = new SyncCompanyController(CompaniesHouseClientConfig
+            .webClientBuilder(this.stub.url(), "key", new CompanyCodec(), new ReactorClientHttpConnector())
+            .build(), this.scheduler);
+        return WebTestClient.bindToController(controller).build();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
@@ -0,0 +1,97 @@
+package uk.co.encity.company;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * The original, tree-based de-serialiser, kept as a reference for {@link CompanyResponseDeserializer}.
+ *
+ * De-serialises a response received from Companies House in relation to a company query, into
+ * a {@link CompanyResponse} POJO.
+ */
+class TreeCompanyResponseDeserializer extends StdDeserializer<CompanyResponse> {
+
+    TreeCompanyResponseDeserializer() { this(null); }
+    TreeCompanyResponseDeserializer(Class<?> valueClass) { super(valueClass); }
+
+    @Override
+    public CompanyResponse deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+        JsonNode rootNode = jp.getCodec().readTree(jp);
+
+        // There is some checking for fields that may be missing below, but we could be far more defensive.  At the
+        // time of writing we are still prototyping, but this may have to be re-visited with a 'paranoid' hat on
+
+        // Registered office address
+        CompanyResponse.RegisteredOfficeAddress roa = null;
+        if (rootNode.hasNonNull("registered_office_address")) {
+            JsonNode roaNode = rootNode.get("registered_office_address");
+
+            roa = new CompanyResponse.RegisteredOfficeAddress(
+                roaNode.hasNonNull("postal_code") ? roaNode.get("postal_code").asText() : null,
+                roaNode.hasNonNull("region") ? roaNode.get("region").asText() : null,
+                roaNode.hasNonNull("country") ? roaNode.get("country").asText() : null,
+                roaNode.hasNonNull("address_line_1") ? roaNode.get("address_line_1").asText() : null,
+                roaNode.hasNonNull("locality") ? roaNode.get("locality").asText() : null);
+        }
+
+        CompanyResponse.ConfirmationStatement cs = null;
+        if (rootNode.hasNonNull("confirmation_statement")) {
+            // Confirmation statement details
+            JsonNode csNode = rootNode.get("confirmation_statement");
+            cs = new CompanyResponse.ConfirmationStatement(
+                csNode.get("overdue").asBoolean(),
+                epochDay(csNode.get("next_due")),
+                epochDay(csNode.get("next_made_up_to")),
+                epochDay(csNode.get("last_made_up_to")));
+        }
+
+        // Accounts details
+        JsonNode acctsNode = rootNode.get("accounts");
+
+        CompanyResponse.Accounts.NextAccounts next = null;
+        if (acctsNode.hasNonNull("next_accounts")) {
+            JsonNode nextAcctsNode = acctsNode.get("next_accounts");
+            next = new CompanyResponse.Accounts.NextAccounts(
+                epochDay(nextAcctsNode.get("period_start_on")),
+                epochDay(nextAcctsNode.get("period_end_on")),
+                nextAcctsNode.get("overdue").asBoolean(),
+                epochDay(nextAcctsNode.get("due_on")));
+        }
+
+        CompanyResponse.Accounts.LastAccounts last = null;
+        if (acctsNode.hasNonNull("last_accounts")) {
+            JsonNode lastAcctsNode = acctsNode.get("last_accounts");
+
+            last = new CompanyResponse.Accounts.LastAccounts(
+                epochDay(lastAcctsNode.get("made_up_to")),
+                (lastAcctsNode.hasNonNull("type")) ? lastAcctsNode.get("type").asText() : null,
+                epochDay(lastAcctsNode.get("period_start_on")),
+                epochDay(lastAcctsNode.get("period_end_on")));
+        }
+
+        CompanyResponse.Accounts accounts = new CompanyResponse.Accounts(
+            CompanyResponse.Accounts.AccountingReferenceDate.of(
+                acctsNode.get("accounting_reference_date").get("day").asText(),
+                acctsNode.get("accounting_reference_date").get("month").asText()),
+            CompanyResponse.NO_DATE, next, last,
+            epochDay(acctsNode.get("next_made_up_to")),
+            (acctsNode.hasNonNull("overdue")) ? acctsNode.get("overdue").asBoolean() : false);
+
+        // Company status and name
+        return new CompanyResponse(
+            rootNode.get("company_status").asText(),
+            rootNode.get("company_name").asText(),
+            rootNode.hasNonNull("etag") ? rootNode.get("etag").asText() : null,
+            roa, cs, accounts);
+    }
+
+    private static int epochDay(JsonNode node) {
+        return node == null || node.isNull() ? CompanyResponse.NO_DATE : CompanyResponse.toEpochDay(
+            LocalDate.parse(node.asText()));
+    }
+}
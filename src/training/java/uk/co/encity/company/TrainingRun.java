@@ -0,0 +1,102 @@
+package uk.co.encity.company;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.util.Logger;
+import reactor.util.Loggers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * A training run of the application, from which the class-data sharing (AppCDS) archive of the
+ * <code>fast-start</code> Maven profile is made.  It starts the application, against a local Companies House stub
+ * and a signing key of its own, and sends it a few requests with a token signed by that key, so that the classes
+ * that serve a request (including those that check the token) are loaded, and so archived, as well as those that
+ * start the application.  Then it stops the application.
+ *
+ * It is only built and run by the <code>fast-start</code> Maven profile, and is never part of the application.
+ */
+public class TrainingRun {
+
+    private static final String ISSUER = "https://issuer.example/";
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private static final Logger logger = Loggers.getLogger(TrainingRun.class);
+
+    public static void main(String[] args) throws IOException, JOSEException {
+        RSAKey key = new RSAKeyGenerator(2048).keyID("training").generate();
+        Path jwks = Files.createTempFile("jwks", ".json");
+        Files.write(jwks, new JWKSet(key.toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8));
+        String token = token(key);
+
+        int exitCode;
+        try (CompaniesHouseStub stub = new CompaniesHouseStub()) {
+            ReactiveWebServerApplicationContext context =
+                (ReactiveWebServerApplicationContext) SpringApplication.run(CompanyApplication.class,
+                    "--server.port=0",
+                    "--ch.api.url=" + stub.url(),
+                    "--ch.api.key=training",
+                    "--spring.security.oauth2.resourceserver.jwk.issuer-uri=" + ISSUER,
+                    "--encity.jwt.jwk-set-location=file:" + jwks,
+                    "--encity.origin-list=http://localhost:3000");
+
+            WebClient client = WebClient.builder()
+                .baseUrl("http://localhost:" + context.getWebServer().getPort())
+                .defaultHeaders(headers -> headers.setBearerAuth(token))
+                .build();
+            for (String path : new String[] { "/actuator/health", "/companies/00000001", "/companies/00000001" }) {
+                send(client, path);
+            }
+
+            exitCode = SpringApplication.exit(context);
+        } finally {
+            Files.deleteIfExists(jwks);
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * @return a token for reading company profiles, signed with the given key
+     */
+    private static String token(RSAKey key) throws JOSEException {
+        SignedJWT jwt = new SignedJWT(
+            new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+            new JWTClaimsSet.Builder()
+                .issuer(ISSUER)
+                .subject("training-run")
+                .claim("scope", "read:company_profile")
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plus(Duration.ofHours(1))))
+                .build());
+        jwt.sign(new RSASSASigner(key));
+        return jwt.serialize();
+    }
+
+    private static void send(WebClient client, String path) {
+        client.get().uri(path)
+            .exchangeToMono(response -> response.releaseBody().thenReturn(response.rawStatusCode()))
+            .doOnNext(status -> logger.info("Training run: " + path + " answered " + status))
+            .onErrorResume(e -> {
+                logger.warn("Training run: " + path + " failed: " + e.getMessage());
+                return Mono.empty();
+            })
+            .block(TIMEOUT);
+    }
+}